@@ -32,4 +32,17 @@ public class SystemUtility {
 
         return result;
     }
-}
\ No newline at end of file
+
+    public static String getDurationString(long millis){
+        long seconds = (millis + 999) / 1000;
+        String result = seconds + " sec";
+
+        if(seconds >= 60){
+            result = (seconds / 60) + " min " + (seconds % 60) + " sec";
+        }if(seconds >= 3600){
+            result = (seconds / 3600) + " h " + ((seconds % 3600) / 60) + " min";
+        }
+
+        return result;
+    }
+}
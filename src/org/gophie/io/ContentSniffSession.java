@@ -0,0 +1,144 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.io;
+
+import org.gophie.io.FileSignature.FileSignatureType;
+
+/**
+ * Sniffs a single content with the sniffers of the registry,
+ * the verdict is taken from the sniffer with the highest
+ * priority that recognised the content once all sniffers
+ * with a higher priority have ruled it out
+ */
+public class ContentSniffSession {
+    /* maximum number of bytes passed to the sniffers */
+    public static final int SNIFF_LIMIT = 4096;
+
+    /* the sniffers ordered by priority and their verdicts */
+    private ContentSniffer[] snifferList;
+    private FileSignatureType[] verdictList;
+
+    /* the verdict of the session once decided */
+    private FileSignatureType verdict = null;
+    private long byteCount = 0;
+
+    /**
+     * Constructs the session with its sniffers
+     * 
+     * @param sniffers
+     * the sniffers ordered by priority, highest first
+     */
+    ContentSniffSession(ContentSniffer[] sniffers){
+        this.snifferList = sniffers;
+        this.verdictList = new FileSignatureType[sniffers.length];
+    }
+
+    /**
+     * Passes the next bytes of the content to the sniffers
+     * 
+     * @param data
+     * the array with the bytes received
+     * 
+     * @param offset
+     * the offset of the first byte in the array
+     * 
+     * @param length
+     * the number of bytes received
+     * 
+     * @return
+     * the verdict or null when it is not decided yet
+     */
+    public FileSignatureType sniff(byte[] data, int offset, int length){
+        if(this.verdict != null){ return this.verdict; }
+
+        /* sniffers never see more than the sniffing window */
+        int count = (int)Math.min(length, SNIFF_LIMIT - this.byteCount);
+        this.byteCount += count;
+
+        for(int i=0; i<this.snifferList.length; i++){
+            if(this.verdictList[i] == null){
+                this.verdictList[i] = this.snifferList[i].sniff(data, offset, count);
+            }
+        }
+
+        if(this.byteCount >= SNIFF_LIMIT){
+            return this.finish();
+        }
+
+        this.verdict = this.resolve();
+        return this.verdict;
+    }
+
+    /**
+     * Decides the verdict from the bytes received so
+     * far when the content ended before the sniffers did
+     * 
+     * @return
+     * the verdict, unknown when no sniffer recognised it
+     */
+    public FileSignatureType finish(){
+        if(this.verdict != null){ return this.verdict; }
+
+        for(int i=0; i<this.snifferList.length; i++){
+            if(this.verdictList[i] == null){
+                this.verdictList[i] = this.snifferList[i].finish();
+            }
+        }
+
+        this.verdict = this.resolve();
+        return this.verdict;
+    }
+
+    /**
+     * Returns the verdict of the session
+     * 
+     * @return
+     * the verdict or null when it is not decided yet
+     */
+    public FileSignatureType getVerdict(){
+        return this.verdict;
+    }
+
+    /**
+     * Returns whether the session reached its verdict
+     * 
+     * @return
+     * true when decided, otherwise false
+     */
+    public boolean isDecided(){
+        return (this.verdict != null);
+    }
+
+    /**
+     * Resolves the verdict from the sniffers in the order
+     * of their priority
+     * 
+     * @return
+     * the verdict or null when a sniffer with a
+     * higher priority has not decided yet
+     */
+    private FileSignatureType resolve(){
+        for(int i=0; i<this.verdictList.length; i++){
+            if(this.verdictList[i] == null){ return null; }
+            if(this.verdictList[i] != FileSignatureType.UNKNOWN){ return this.verdictList[i]; }
+        }
+
+        return FileSignatureType.UNKNOWN;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.io;
+
+import org.gophie.io.FileSignature.FileSignatureType;
+
+/**
+ * Detector that identifies the type of content while it is
+ * being received. A sniffer consumes the bytes in the order
+ * they arrive and reports its verdict as soon as it has seen
+ * enough of them. New instances are created for each content
+ * through the ContentSnifferFactory it is registered with.
+ */
+public interface ContentSniffer {
+    /**
+     * Consumes the next bytes of the content
+     * 
+     * @param data
+     * the array with the bytes received
+     * 
+     * @param offset
+     * the offset of the first byte in the array
+     * 
+     * @param length
+     * the number of bytes received
+     * 
+     * @return
+     * the detected type, unknown when this sniffer does not
+     * recognise the content or null when it needs more bytes
+     */
+    FileSignatureType sniff(byte[] data, int offset, int length);
+
+    /**
+     * Returns the verdict from the bytes seen so far
+     * when the content ended or the sniffing window
+     * of the session was exhausted
+     * 
+     * @return
+     * the detected type or unknown, never null
+     */
+    FileSignatureType finish();
+}
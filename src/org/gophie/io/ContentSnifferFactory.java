@@ -0,0 +1,43 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.io;
+
+/**
+ * Factory for a content sniffer that is registered with the
+ * ContentSnifferRegistry, either directly or as a service
+ * provider listed in META-INF/services/org.gophie.io.ContentSnifferFactory
+ */
+public interface ContentSnifferFactory {
+    /**
+     * Returns the priority of the sniffer, the verdict of a
+     * sniffer with a higher priority wins over lower ones
+     * 
+     * @return
+     * the priority as integer
+     */
+    int getPriority();
+
+    /**
+     * Creates a new sniffer for a single content
+     * 
+     * @return
+     * the sniffer with its initial state
+     */
+    ContentSniffer createSniffer();
+}
@@ -0,0 +1,121 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import org.gophie.io.sniffer.GopherMenuSniffer;
+import org.gophie.io.sniffer.HtmlSniffer;
+import org.gophie.io.sniffer.MagicByteSniffer;
+import org.gophie.io.sniffer.PdfSniffer;
+import org.gophie.io.sniffer.TextSniffer;
+
+/**
+ * Registry of the content sniffers ordered by their priority
+ * which creates the sniffing sessions for received content
+ */
+public class ContentSnifferRegistry {
+    /* the registry with the built-in and service sniffers */
+    private static ContentSnifferRegistry defaultRegistry;
+
+    /* the registered factories, highest priority first */
+    private volatile ContentSnifferFactory[] factoryList = new ContentSnifferFactory[0];
+
+    /**
+     * Returns the default registry with the built-in sniffers
+     * and those provided as service on the class path
+     * 
+     * @return
+     * the default registry
+     */
+    public static synchronized ContentSnifferRegistry getDefault(){
+        if(defaultRegistry == null){
+            ContentSnifferRegistry registry = new ContentSnifferRegistry();
+            registry.register(MagicByteSniffer.FACTORY);
+            registry.register(PdfSniffer.FACTORY);
+            registry.register(HtmlSniffer.FACTORY);
+            registry.register(GopherMenuSniffer.FACTORY);
+            registry.register(TextSniffer.FACTORY);
+
+            /* add the sniffers of any installed extensions */
+            try{
+                for(ContentSnifferFactory factory: ServiceLoader.load(ContentSnifferFactory.class)){
+                    registry.register(factory);
+                }
+            }catch(ServiceConfigurationError ex){
+                System.out.println("Failed to load content sniffers: " + ex.getMessage());
+            }
+
+            defaultRegistry = registry;
+        }
+
+        return defaultRegistry;
+    }
+
+    /**
+     * Registers a sniffer factory by its priority
+     * 
+     * @param factory
+     * the factory of the sniffer to register
+     */
+    public synchronized void register(ContentSnifferFactory factory){
+        ArrayList<ContentSnifferFactory> list = new ArrayList<ContentSnifferFactory>(Arrays.asList(this.factoryList));
+
+        /* insert after the factories with the same or a higher priority */
+        int index = 0;
+        while(index < list.size() && list.get(index).getPriority() >= factory.getPriority()){
+            index++;
+        }
+        list.add(index, factory);
+
+        this.factoryList = list.toArray(new ContentSnifferFactory[list.size()]);
+    }
+
+    /**
+     * Removes a sniffer factory from the registry
+     * 
+     * @param factory
+     * the factory of the sniffer to remove
+     */
+    public synchronized void unregister(ContentSnifferFactory factory){
+        ArrayList<ContentSnifferFactory> list = new ArrayList<ContentSnifferFactory>(Arrays.asList(this.factoryList));
+        list.remove(factory);
+        this.factoryList = list.toArray(new ContentSnifferFactory[list.size()]);
+    }
+
+    /**
+     * Creates a session to sniff a single content
+     * with all sniffers currently registered
+     * 
+     * @return
+     * the new sniffing session
+     */
+    public ContentSniffSession createSession(){
+        ContentSnifferFactory[] factories = this.factoryList;
+        ContentSniffer[] snifferList = new ContentSniffer[factories.length];
+        for(int i=0; i<factories.length; i++){
+            snifferList[i] = factories[i].createSniffer();
+        }
+
+        return new ContentSniffSession(snifferList);
+    }
+}
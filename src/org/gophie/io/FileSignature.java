@@ -18,6 +18,8 @@
 
 package org.gophie.io;
 
+import java.util.Arrays;
+
 /**
  * This class allows to identify a file type by the file signature head in the
  * first few bytes of the file.
@@ -25,11 +27,11 @@ package org.gophie.io;
 public class FileSignature {
     /* enum with the available file types */
     public enum FileSignatureType {
-        UNKNOWN, BINARY, IMAGE, MEDIA, TEXT
+        UNKNOWN, BINARY, IMAGE, MEDIA, TEXT, MENU, HTML
     }
 
-    /* hex values for converting byte array to hex representation */
-    private static final char[] HEX_VALUE = "0123456789ABCDEF".toCharArray();
+    /* number of bytes required to match any of the signatures */
+    public static final int SIGNATURE_LENGTH = 8;
 
     /* file signatures for popular image files */
     private static final String[] IMAGE_SIGNATURE_LIST = new String[]{
@@ -70,8 +72,76 @@ public class FileSignature {
         /* LNK (Win-link) */    "4C00000001140200"
     };
 
+    /* share of letters in percent from which content is text */
+    private static final double TEXT_LETTER_PERCENT = 20;
+
+    /* offset and bytes of the mpeg4 container type box */
+    private static final int MPEG4_BOX_OFFSET = 4;
+    private static final byte[] MPEG4_BOX_TYPE = new byte[]{ 0x66, 0x74, 0x79, 0x70 };
+
+    /* prefix trie of all signatures built once from the lists */
+    private static final SignatureNode SIGNATURE_TRIE = new SignatureNode();
+
+    static{
+        FileSignature.addSignatureList(FileSignature.IMAGE_SIGNATURE_LIST, FileSignatureType.IMAGE);
+        FileSignature.addSignatureList(FileSignature.MEDIA_SIGNATURE_LIST, FileSignatureType.MEDIA);
+        FileSignature.addSignatureList(FileSignature.BINARY_SIGNATURE_LIST, FileSignatureType.BINARY);
+    }
+
+    /**
+     * A node of the signature trie with one child for
+     * every byte value that continues a signature
+     */
+    private static class SignatureNode {
+        private byte[] keys = new byte[0];
+        private SignatureNode[] children = new SignatureNode[0];
+
+        /* the type of the signature ending here or null */
+        private FileSignatureType type = null;
+
+        /**
+         * Returns the child for the byte value
+         * 
+         * @param key
+         * the byte value to follow
+         * 
+         * @return
+         * the child node or null when no signature continues
+         */
+        private SignatureNode getChild(byte key){
+            for(int i=0; i<this.keys.length; i++){
+                if(this.keys[i] == key){ return this.children[i]; }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the child for the byte value and
+         * creates it when it does not exist yet
+         * 
+         * @param key
+         * the byte value to follow
+         * 
+         * @return
+         * the child node
+         */
+        private SignatureNode addChild(byte key){
+            SignatureNode result = this.getChild(key);
+            if(result == null){
+                int count = this.keys.length;
+                this.keys = Arrays.copyOf(this.keys, count + 1);
+                this.children = Arrays.copyOf(this.children, count + 1);
+                result = new SignatureNode();
+                this.keys[count] = key;
+                this.children[count] = result;
+            }
+            return result;
+        }
+    }
+
     /* content for this file signature */
     private byte[] content;
+    private int length;
 
     /**
      * Constructs the signature object and sets the content locally
@@ -79,38 +149,102 @@ public class FileSignature {
      * @param fileContent
      */
     public FileSignature(byte[] fileContent){
+        this(fileContent, fileContent.length);
+    }
+
+    /**
+     * Constructs the signature object for the first
+     * bytes of the content array only
+     * 
+     * @param fileContent
+     * the array with the content
+     * 
+     * @param contentLength
+     * the number of bytes of the content in the array
+     */
+    public FileSignature(byte[] fileContent, int contentLength){
         this.content = fileContent;
+        this.length = contentLength;
     }
 
     /**
-     * Verifies if the provided hex string matches
-     * any of the signatures from the list provided
+     * Adds the hex signatures of the list to the trie
      * 
      * @param list
      * String array with file signature list
      * 
-     * @param hex
-     * the hex string of the byte content
+     * @param type
+     * the file type of the signatures
+     */
+    private static void addSignatureList(String[] list, FileSignatureType type){
+        for(String signature: list){
+            SignatureNode node = FileSignature.SIGNATURE_TRIE;
+            for(int c=0; c<signature.length(); c = c + 2){
+                node = node.addChild((byte)Integer.parseInt(signature.substring(c, c+2), 16));
+            }
+
+            /* keep the stronger type for signatures listed twice */
+            if(FileSignature.getPriority(type) > FileSignature.getPriority(node.type)){
+                node.type = type;
+            }
+        }
+    }
+
+    /**
+     * Returns the priority of a signature type where binary
+     * signatures win over media and media over image signatures
+     * 
+     * @param type
+     * the signature type or null
      * 
      * @return
-     * true when any signature matches, otherwise false
+     * the priority with higher values winning
      */
-    private boolean hasSignature(String[] list, String hex){
-        boolean result = false;
-
-        /* check if the content contains an image signature */
-        for(int i=0; i<list.length; i++){
-            /* get the current signature and check if the content begins with it */
-            String signature = list[i];
-            if(hex.substring(0, signature.length()).equals(signature)){
-                /* this file is an image */
-                result = true;
+    private static int getPriority(FileSignatureType type){
+        int result = 0;
+        if(type == FileSignatureType.IMAGE){ result = 1; }
+        if(type == FileSignatureType.MEDIA){ result = 2; }
+        if(type == FileSignatureType.BINARY){ result = 3; }
+        return result;
+    }
+
+    /**
+     * Returns the type of the strongest signature the
+     * content begins with by walking down the trie
+     * 
+     * @return
+     * the signature type or null when none matches
+     */
+    private FileSignatureType getMatchingSignatureType(){
+        FileSignatureType result = null;
+
+        SignatureNode node = FileSignature.SIGNATURE_TRIE;
+        for(int i=0; i<this.length && node != null; i++){
+            node = node.getChild(this.content[i]);
+            if(node != null && FileSignature.getPriority(node.type) > FileSignature.getPriority(result)){
+                result = node.type;
             }
         }
 
         return result;
     }
 
+    /**
+     * Returns true when the content is an mpeg4 container
+     * 
+     * @return
+     * true when the content has an ftyp box, otherwise false
+     */
+    private boolean isMpeg4Container(){
+        if(this.length < MPEG4_BOX_OFFSET + MPEG4_BOX_TYPE.length){ return false; }
+
+        for(int i=0; i<MPEG4_BOX_TYPE.length; i++){
+            if(this.content[MPEG4_BOX_OFFSET + i] != MPEG4_BOX_TYPE[i]){ return false; }
+        }
+
+        return true;
+    }
+
     /**
      * Returns the signature type for this file signature
      * 
@@ -121,30 +255,34 @@ public class FileSignature {
         /* unknown file type by default */
         FileSignatureType result = FileSignatureType.UNKNOWN;
 
-        /* get the hex representation of this file */
-        String fileHex = this.getContentHexString();
+        /* the signatures take precedence over the text check */
+        FileSignatureType signatureType = this.getMagicSignatureType();
+        if(signatureType != FileSignatureType.UNKNOWN){
+            result = signatureType;
+        }else if(this.isTextContent()){
+            result = FileSignatureType.TEXT;
+        }
 
-        /* set the content type to text if it is text */
-        if(this.isTextContent()){ result = FileSignatureType.TEXT; }
+        return result;
+    }
 
-        /* check if the content contains an image signature */
-        if(this.hasSignature(FileSignature.IMAGE_SIGNATURE_LIST, fileHex)){
-            result = FileSignatureType.IMAGE;
-        }
+    /**
+     * Returns the signature type from the magic bytes
+     * at the beginning of the content only
+     * 
+     * @return
+     * the signature type or unknown when none matches
+     */
+    public FileSignatureType getMagicSignatureType(){
+        FileSignatureType result = FileSignatureType.UNKNOWN;
 
-        /* check if the content contains a media file signature */
-        if(this.hasSignature(FileSignature.MEDIA_SIGNATURE_LIST, fileHex)){
+        FileSignatureType signatureType = this.getMatchingSignatureType();
+        if(this.isMpeg4Container()){
             result = FileSignatureType.MEDIA;
+        }else if(signatureType != null){
+            result = signatureType;
         }
 
-        /* check if the content contains a binary file signature */
-        if(this.hasSignature(FileSignature.BINARY_SIGNATURE_LIST, fileHex)){
-            result = FileSignatureType.BINARY;
-        }
-
-        /* check if the file is an mpeg4 container */
-        if(fileHex.substring(8, 16).equals("66747970")){ result = FileSignatureType.MEDIA; }
-
         return result;
     }
 
@@ -154,47 +292,24 @@ public class FileSignature {
      * a gophermap and returns true when it is
      * 
      * @return
+     * true when the content is text, otherwise false
      */
-    private boolean isTextContent(){
-        boolean result = false;
-
-        /* get the hex string for the byte content */
-        String fileHex = this.getContentHexString();
-        
-        /* cound the alphanumeric chars in the data */
-        double alphaNumCharCount = 0;
-        double totalCharCount = 0;
-        for(int c=0; c<fileHex.length(); c = c + 2){
-            int charCode = Integer.parseInt(fileHex.substring(c, c+2),16);
-            if(charCode != 0){
-                if((charCode >= 65 && charCode <= 90) || (charCode >= 97 && charCode <= 122)){
-                    alphaNumCharCount++;
-                }
-                totalCharCount++;
-            }
+    public boolean isTextContent(){
+        /* count every byte value in a single pass */
+        int[] histogram = new int[256];
+        for(int i=0; i<this.length; i++){
+            histogram[this.content[i] & 0xFF]++;
         }
 
+        /* cound the letters and all non-zero bytes in the data */
+        long letterCount = 0;
+        for(int c='A'; c<='Z'; c++){ letterCount += histogram[c]; }
+        for(int c='a'; c<='z'; c++){ letterCount += histogram[c]; }
+        long totalCount = this.length - histogram[0];
+
         /* when the percentage is greater than 20, it is highly likely
             that this is a text document. Images and binary files mainly 
             have 15% or less text coverage. */
-        double percent = ((alphaNumCharCount / totalCharCount)*100);
-        if(percent >= 20){ result = true; }
-
-        return result;
-    }
-
-    /**
-     * Returns the content as a hex string representation
-     * 
-     * @return
-     */
-    private String getContentHexString() {
-        char[] hexChars = new char[this.content.length * 2];
-        for (int j = 0; j < this.content.length; j++) {
-            int v = this.content[j] & 0xFF;
-            hexChars[j * 2] = FileSignature.HEX_VALUE[v >>> 4];
-            hexChars[j * 2 + 1] = FileSignature.HEX_VALUE[v & 0x0F];
-        }
-        return new String(hexChars);
+        return totalCount > 0 && letterCount * 100 >= TEXT_LETTER_PERCENT * totalCount;
     }
-}
\ No newline at end of file
+}
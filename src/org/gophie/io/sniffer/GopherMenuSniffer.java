@@ -0,0 +1,161 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.io.sniffer;
+
+import org.gophie.io.ContentSniffer;
+import org.gophie.io.ContentSnifferFactory;
+import org.gophie.io.FileSignature.FileSignatureType;
+
+/**
+ * Sniffer for gopher menus by the shape of their lines
+ * which consist of the item type and display string, the
+ * selector, the host and the port separated by tabs
+ */
+public class GopherMenuSniffer implements ContentSniffer {
+    /* factory to register this sniffer with */
+    public static final ContentSnifferFactory FACTORY = new ContentSnifferFactory(){
+        @Override
+        public int getPriority() {
+            return 70;
+        }
+
+        @Override
+        public ContentSniffer createSniffer() {
+            return new GopherMenuSniffer();
+        }
+    };
+
+    /* maximum number of bytes and lines examined */
+    private static final int SNIFF_WINDOW = 2048;
+    private static final int LINE_LIMIT = 8;
+
+    /* number of lines with and without the menu shape */
+    private int menuLineCount = 0;
+    private int otherLineCount = 0;
+    private int byteCount = 0;
+
+    /* state of the current line */
+    private int lineLength = 0;
+    private byte firstByte = 0;
+    private int tabCount = 0;
+    private int portDigitCount = 0;
+    private boolean isPortValid = true;
+
+    @Override
+    public FileSignatureType sniff(byte[] data, int offset, int length) {
+        for(int i=0; i<length; i++){
+            byte value = data[offset + i];
+            this.byteCount++;
+
+            if(value == '\n'){
+                /* the terminator of the menu ends the sniffing */
+                if(this.lineLength == 1 && this.firstByte == '.'){
+                    this.lineLength = 0;
+                    return this.finish();
+                }
+
+                this.endLine();
+                FileSignatureType result = this.decide();
+                if(result != null){ return result; }
+            }else if(value >= 0 && value < 0x20 && value != '\t'
+                && value != '\r' && value != 0x1B){
+                /* menus do not contain control characters */
+                return FileSignatureType.UNKNOWN;
+            }else if(value != '\r'){
+                this.addByte(value);
+            }
+
+            if(this.byteCount >= SNIFF_WINDOW){ return this.finish(); }
+        }
+
+        return null;
+    }
+
+    @Override
+    public FileSignatureType finish() {
+        this.endLine();
+        return (this.menuLineCount > this.otherLineCount) ? FileSignatureType.MENU : FileSignatureType.UNKNOWN;
+    }
+
+    /**
+     * Adds a byte of the current line
+     * 
+     * @param value
+     * the byte to add
+     */
+    private void addByte(byte value){
+        if(this.lineLength == 0){ this.firstByte = value; }
+        this.lineLength++;
+
+        if(value == '\t'){
+            this.tabCount++;
+        }else if(this.tabCount == 3){
+            /* the port may be padded with spaces */
+            if(value >= '0' && value <= '9'){
+                this.portDigitCount++;
+            }else if(value != ' '){
+                this.isPortValid = false;
+            }
+        }
+    }
+
+    /**
+     * Counts the current line by its shape
+     * and starts the next line
+     */
+    private void endLine(){
+        if(this.lineLength > 0){
+            boolean isMenuLine = (this.tabCount >= 3 && this.portDigitCount > 0 && this.isPortValid);
+
+            /* info lines are often served without host and port */
+            if(this.firstByte == 'i' && this.tabCount >= 1){ isMenuLine = true; }
+
+            if(isMenuLine){
+                this.menuLineCount++;
+            }else{
+                this.otherLineCount++;
+            }
+        }
+
+        this.lineLength = 0;
+        this.tabCount = 0;
+        this.portDigitCount = 0;
+        this.isPortValid = true;
+    }
+
+    /**
+     * Decides on the lines counted so far
+     * 
+     * @return
+     * the verdict or null when more lines are needed
+     */
+    private FileSignatureType decide(){
+        FileSignatureType result = null;
+
+        if(this.menuLineCount >= 2 && this.otherLineCount == 0){
+            result = FileSignatureType.MENU;
+        }else if(this.otherLineCount >= 2 && this.menuLineCount == 0){
+            result = FileSignatureType.UNKNOWN;
+        }else if(this.menuLineCount + this.otherLineCount >= LINE_LIMIT){
+            result = (this.menuLineCount > this.otherLineCount) ? FileSignatureType.MENU : FileSignatureType.UNKNOWN;
+        }
+
+        return result;
+    }
+}
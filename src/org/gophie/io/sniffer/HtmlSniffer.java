@@ -0,0 +1,158 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.io.sniffer;
+
+import java.nio.charset.StandardCharsets;
+
+import org.gophie.io.ContentSniffer;
+import org.gophie.io.ContentSnifferFactory;
+import org.gophie.io.FileSignature.FileSignatureType;
+
+/**
+ * Sniffer for html documents which start with one of the
+ * common tags after any leading whitespace, similar to how
+ * web browsers sniff content without a declared type
+ */
+public class HtmlSniffer implements ContentSniffer {
+    /* factory to register this sniffer with */
+    public static final ContentSnifferFactory FACTORY = new ContentSnifferFactory(){
+        @Override
+        public int getPriority() {
+            return 80;
+        }
+
+        @Override
+        public ContentSniffer createSniffer() {
+            return new HtmlSniffer();
+        }
+    };
+
+    /* maximum number of whitespace bytes skipped */
+    private static final int SKIP_LIMIT = 512;
+
+    /* number of bytes to match the longest tag with its end */
+    private static final int MATCH_LENGTH = 16;
+
+    /* the tags that start a html document in upper case */
+    private static final byte[][] TAG_LIST = new byte[][]{
+        HtmlSniffer.getTag("<!DOCTYPE HTML"), HtmlSniffer.getTag("<HTML"),
+        HtmlSniffer.getTag("<HEAD"), HtmlSniffer.getTag("<BODY"),
+        HtmlSniffer.getTag("<TITLE"), HtmlSniffer.getTag("<SCRIPT"),
+        HtmlSniffer.getTag("<STYLE"), HtmlSniffer.getTag("<IFRAME"),
+        HtmlSniffer.getTag("<TABLE"), HtmlSniffer.getTag("<FONT"),
+        HtmlSniffer.getTag("<DIV"), HtmlSniffer.getTag("<H1"),
+        HtmlSniffer.getTag("<BR"), HtmlSniffer.getTag("<P"),
+        HtmlSniffer.getTag("<A"), HtmlSniffer.getTag("<B"),
+        HtmlSniffer.getTag("<!--")
+    };
+
+    /* the bytes after the leading whitespace */
+    private byte[] window = new byte[MATCH_LENGTH];
+    private int windowLength = 0;
+    private int skipCount = 0;
+
+    /**
+     * Returns the bytes of a tag
+     * 
+     * @param tag
+     * the tag as string
+     * 
+     * @return
+     * the tag as byte array
+     */
+    private static byte[] getTag(String tag){
+        return tag.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public FileSignatureType sniff(byte[] data, int offset, int length) {
+        for(int i=0; i<length && this.skipCount < SKIP_LIMIT && this.windowLength < MATCH_LENGTH; i++){
+            byte value = data[offset + i];
+
+            /* skip whitespace and the utf-8 byte order mark */
+            if(this.windowLength == 0 && (value == ' ' || value == '\t' || value == '\r'
+                || value == '\n' || value == '\f' || value == (byte)0xEF
+                || value == (byte)0xBB || value == (byte)0xBF)){
+                this.skipCount++;
+            }else{
+                this.window[this.windowLength++] = value;
+            }
+        }
+
+        return this.match(this.skipCount >= SKIP_LIMIT || this.windowLength >= MATCH_LENGTH);
+    }
+
+    @Override
+    public FileSignatureType finish() {
+        return this.match(true);
+    }
+
+    /**
+     * Matches the bytes after the whitespace against the tags
+     * 
+     * @param complete
+     * true when no more bytes will be received
+     * 
+     * @return
+     * html when a tag matches, unknown when none matches
+     * or null when more bytes are required to decide
+     */
+    private FileSignatureType match(boolean complete){
+        if(this.windowLength == 0){
+            return complete ? FileSignatureType.UNKNOWN : null;
+        }
+
+        boolean pending = false;
+        for(byte[] tag: TAG_LIST){
+            int result = this.matchTag(tag);
+            if(result > 0){ return FileSignatureType.HTML; }
+            if(result == 0){ pending = true; }
+        }
+
+        return (pending && !complete) ? null : FileSignatureType.UNKNOWN;
+    }
+
+    /**
+     * Matches the bytes after the whitespace against a tag
+     * which needs to be followed by a space or closing bracket
+     * 
+     * @param tag
+     * the tag in upper case
+     * 
+     * @return
+     * 1 when the tag matches, -1 when it does not
+     * and 0 when more bytes are required to decide
+     */
+    private int matchTag(byte[] tag){
+        for(int i=0; i<=tag.length; i++){
+            if(i == this.windowLength){ return 0; }
+
+            byte value = this.window[i];
+            if(i == tag.length){
+                return (value == ' ' || value == '>') ? 1 : -1;
+            }
+
+            /* compare letters regardless of their case */
+            if(value >= 'a' && value <= 'z'){ value = (byte)(value - 32); }
+            if(value != tag[i]){ return -1; }
+        }
+
+        return -1;
+    }
+}
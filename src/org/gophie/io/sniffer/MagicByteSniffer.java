@@ -0,0 +1,64 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.io.sniffer;
+
+import org.gophie.io.ContentSniffer;
+import org.gophie.io.ContentSnifferFactory;
+import org.gophie.io.FileSignature;
+import org.gophie.io.FileSignature.FileSignatureType;
+
+/**
+ * Sniffer for images, media and binary files by the
+ * magic bytes of the file signature at their beginning
+ */
+public class MagicByteSniffer implements ContentSniffer {
+    /* factory to register this sniffer with */
+    public static final ContentSnifferFactory FACTORY = new ContentSnifferFactory(){
+        @Override
+        public int getPriority() {
+            return 100;
+        }
+
+        @Override
+        public ContentSniffer createSniffer() {
+            return new MagicByteSniffer();
+        }
+    };
+
+    /* the first bytes of the content */
+    private byte[] head = new byte[FileSignature.SIGNATURE_LENGTH];
+    private int headLength = 0;
+
+    @Override
+    public FileSignatureType sniff(byte[] data, int offset, int length) {
+        int count = Math.min(length, this.head.length - this.headLength);
+        System.arraycopy(data, offset, this.head, this.headLength, count);
+        this.headLength += count;
+
+        /* wait until the longest signature can be matched */
+        if(this.headLength < this.head.length){ return null; }
+
+        return this.finish();
+    }
+
+    @Override
+    public FileSignatureType finish() {
+        return new FileSignature(this.head, this.headLength).getMagicSignatureType();
+    }
+}
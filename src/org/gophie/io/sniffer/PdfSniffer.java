@@ -0,0 +1,69 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.io.sniffer;
+
+import org.gophie.io.ContentSniffer;
+import org.gophie.io.ContentSnifferFactory;
+import org.gophie.io.FileSignature.FileSignatureType;
+
+/**
+ * Sniffer for pdf documents which are reported as
+ * binary files as they need to be downloaded
+ */
+public class PdfSniffer implements ContentSniffer {
+    /* factory to register this sniffer with */
+    public static final ContentSnifferFactory FACTORY = new ContentSnifferFactory(){
+        @Override
+        public int getPriority() {
+            return 90;
+        }
+
+        @Override
+        public ContentSniffer createSniffer() {
+            return new PdfSniffer();
+        }
+    };
+
+    /* the header every pdf document starts with */
+    private static final byte[] PDF_HEADER = new byte[]{ '%', 'P', 'D', 'F', '-' };
+
+    /* the number of header bytes matched so far */
+    private int matchLength = 0;
+
+    @Override
+    public FileSignatureType sniff(byte[] data, int offset, int length) {
+        for(int i=0; i<length; i++){
+            if(data[offset + i] != PDF_HEADER[this.matchLength]){
+                return FileSignatureType.UNKNOWN;
+            }
+
+            this.matchLength++;
+            if(this.matchLength == PDF_HEADER.length){
+                return FileSignatureType.BINARY;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public FileSignatureType finish() {
+        return FileSignatureType.UNKNOWN;
+    }
+}
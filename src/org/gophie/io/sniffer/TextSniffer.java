@@ -0,0 +1,120 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.io.sniffer;
+
+import org.gophie.io.ContentSniffer;
+import org.gophie.io.ContentSnifferFactory;
+import org.gophie.io.FileSignature;
+import org.gophie.io.FileSignature.FileSignatureType;
+
+/**
+ * Sniffer that tells text from binary content by control
+ * characters and the validity of the utf-8 encoding, content
+ * in legacy encodings falls back to the share of letters
+ */
+public class TextSniffer implements ContentSniffer {
+    /* factory to register this sniffer with */
+    public static final ContentSnifferFactory FACTORY = new ContentSnifferFactory(){
+        @Override
+        public int getPriority() {
+            return 10;
+        }
+
+        @Override
+        public ContentSniffer createSniffer() {
+            return new TextSniffer();
+        }
+    };
+
+    /* maximum number of bytes examined */
+    private static final int SNIFF_WINDOW = 512;
+
+    /* percentage of control characters from which content is binary */
+    private static final int CONTROL_PERCENT = 1;
+
+    /* the bytes examined */
+    private byte[] window = new byte[SNIFF_WINDOW];
+    private int windowLength = 0;
+
+    /* number of control characters found */
+    private int controlCount = 0;
+
+    /* utf-8 continuation bytes still expected */
+    private int pendingCount = 0;
+    private boolean isValidUtf8 = true;
+
+    @Override
+    public FileSignatureType sniff(byte[] data, int offset, int length) {
+        int count = Math.min(length, SNIFF_WINDOW - this.windowLength);
+        System.arraycopy(data, offset, this.window, this.windowLength, count);
+
+        for(int i=0; i<count; i++){
+            int value = data[offset + i] & 0xFF;
+
+            /* line breaks, tabs, form feeds and escape sequences are text */
+            if(value < 0x20 && value != '\t' && value != '\n' && value != '\r'
+                && value != '\f' && value != 0x1B){
+                this.controlCount++;
+            }
+
+            if(this.pendingCount > 0){
+                if(value >= 0x80 && value <= 0xBF){
+                    this.pendingCount--;
+                }else{
+                    this.isValidUtf8 = false;
+                }
+            }else if(value >= 0xC2 && value <= 0xDF){
+                this.pendingCount = 1;
+            }else if(value >= 0xE0 && value <= 0xEF){
+                this.pendingCount = 2;
+            }else if(value >= 0xF0 && value <= 0xF4){
+                this.pendingCount = 3;
+            }else if(value >= 0x80){
+                this.isValidUtf8 = false;
+            }
+        }
+        this.windowLength += count;
+
+        /* the share of control characters can no longer drop below the limit */
+        if(this.controlCount * 100 > SNIFF_WINDOW * CONTROL_PERCENT){
+            return FileSignatureType.BINARY;
+        }
+
+        return (this.windowLength >= SNIFF_WINDOW) ? this.finish() : null;
+    }
+
+    @Override
+    public FileSignatureType finish() {
+        FileSignatureType result = FileSignatureType.UNKNOWN;
+
+        if(this.windowLength > 0){
+            if(this.controlCount * 100 > this.windowLength * CONTROL_PERCENT){
+                result = FileSignatureType.BINARY;
+            }else if(this.isValidUtf8){
+                result = FileSignatureType.TEXT;
+            }else{
+                /* legacy encodings are judged by their letters */
+                boolean isText = new FileSignature(this.window, this.windowLength).isTextContent();
+                result = isText ? FileSignatureType.TEXT : FileSignatureType.BINARY;
+            }
+        }
+
+        return result;
+    }
+}
@@ -21,33 +21,63 @@ package org.gophie.net;
 import java.awt.*;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 
 import org.gophie.net.GopherItem.GopherItemType;
 import org.gophie.net.event.*;
 
 public class DownloadItem implements GopherClientEventListener {
     public enum DownloadStatus {
-        IDLE, FAILED, ACTIVE, COMPLETED
+        IDLE, QUEUED, FAILED, ACTIVE, COMPLETED
     }
 
+    /* priorities of downloads in the queue */
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 1;
+
+    /* delay before the first retry and the longest delay in milliseconds */
+    private static final long RETRY_DELAY = 1000;
+    private static final long RETRY_DELAY_LIMIT = 30000;
+
     /* local objects and variables */
     private GopherItem item;
     private GopherClient client;
+    private DownloadScheduler scheduler;
+    private GopherRequest request;
+    private GopherTransfer transfer;
     private String fileName;
     private Boolean openFile = false;
-    private long byteCountLoaded = 0;
-    private DownloadStatus status = DownloadStatus.IDLE;
+    private volatile long byteCountLoaded = 0;
+    private int priority = PRIORITY_NORMAL;
+    private volatile DownloadStatus status = DownloadStatus.IDLE;
+
+    /* length and checksum of a partial file to continue */
+    private long resumeOffset = 0;
+    private long resumeChecksum = 0;
+
+    /* number of times the download was started */
+    private int generation = 0;
+
+    /* the item and its mirrors, and the one currently used */
+    private ArrayList<GopherItem> sourceList = new ArrayList<GopherItem>();
+    private volatile GopherItem source;
+
+    /* retries since the download was started by the user */
+    private volatile int retryCount = 0;
+    private ScheduledFuture<?> retryTask;
+    private long attemptStartMillis = 0;
     private ArrayList<DownloadItemEventListener> eventListenerList = new ArrayList<DownloadItemEventListener>();
 
     /*
-     * local variables for calculating the bit rate at which the download currently
-     * operates
+     * the rate at which the download currently operates and the
+     * size of the file when the menu states it
      */
-    private long startTimeMillis = 0;
-    private long bytePerSecond = 0;
+    private DownloadRate rate = new DownloadRate();
+    private long expectedByteCount = -1;
 
     /**
-     * Constructor creates the download and starts it immediately
+     * Constructor creates the download and queues it
      * 
      * @param gopherItem       The gopher item to download
      * 
@@ -56,13 +86,79 @@ public class DownloadItem implements GopherClientEventListener {
      * @param openWhenFinished If true, opens the file when finished
      */
     public DownloadItem(GopherItem gopherItem, String targetFile, Boolean openWhenFinished) {
-        this.client = new GopherClient();
-        this.item = gopherItem;
+        this(gopherItem, targetFile, openWhenFinished, null);
+    }
+
+    /**
+     * Constructor creates the download and continues the transfer
+     * of content already received in parts as a page, downloads
+     * the user wants to open are queued before the others
+     * 
+     * @param gopherItem       The gopher item to download
+     * 
+     * @param targetFile       The file to write the contents to
+     * 
+     * @param openWhenFinished If true, opens the file when finished
+     * 
+     * @param pageTransfer     The transfer to continue or null to start over
+     */
+    public DownloadItem(GopherItem gopherItem, String targetFile, Boolean openWhenFinished, GopherTransfer pageTransfer) {
+        this(gopherItem, targetFile, openWhenFinished, pageTransfer, new ArrayList<GopherItem>());
+    }
+
+    /**
+     * Constructor creates the download with the mirrors of
+     * the item which are used when the download fails
+     * 
+     * @param gopherItem       The gopher item to download
+     * 
+     * @param targetFile       The file to write the contents to
+     * 
+     * @param openWhenFinished If true, opens the file when finished
+     * 
+     * @param pageTransfer     The transfer to continue or null to start over
+     * 
+     * @param mirrorList       The mirror items offering the same file
+     */
+    public DownloadItem(GopherItem gopherItem, String targetFile, Boolean openWhenFinished, GopherTransfer pageTransfer, List<GopherItem> mirrorList) {
+        this.client = GopherClient.getDefault();
+        this.scheduler = DownloadScheduler.getDefault();
+        this.setGopherItem(gopherItem);
+        this.sourceList.addAll(mirrorList);
+        this.expectedByteCount = this.findSizeHint();
         this.fileName = targetFile;
         this.openFile = openWhenFinished;
+        this.priority = openWhenFinished ? PRIORITY_HIGH : PRIORITY_NORMAL;
+        this.transfer = pageTransfer;
         this.start();
     }
 
+    /**
+     * Constructor creates an idle download that continues a
+     * partial file left by a previous session once started
+     * 
+     * @param gopherItem       The gopher item to download
+     * 
+     * @param targetFile       The file to write the contents to
+     * 
+     * @param openWhenFinished If true, opens the file when finished
+     * 
+     * @param offset           The number of bytes of the partial file
+     * 
+     * @param checksum         The CRC32 checksum of these bytes
+     */
+    public DownloadItem(GopherItem gopherItem, String targetFile, Boolean openWhenFinished, long offset, long checksum) {
+        this.client = GopherClient.getDefault();
+        this.scheduler = DownloadScheduler.getDefault();
+        this.setGopherItem(gopherItem);
+        this.fileName = targetFile;
+        this.openFile = openWhenFinished;
+        this.priority = openWhenFinished ? PRIORITY_HIGH : PRIORITY_NORMAL;
+        this.resumeOffset = offset;
+        this.resumeChecksum = checksum;
+        this.byteCountLoaded = offset;
+    }
+
     public void addEventListener(DownloadItemEventListener listener) {
         this.eventListenerList.add(listener);
     }
@@ -78,18 +174,73 @@ public class DownloadItem implements GopherClientEventListener {
      * 
      */
     public DownloadItem() {
-        this.client = new GopherClient();
+        this.client = GopherClient.getDefault();
+        this.scheduler = DownloadScheduler.getDefault();
         this.status = DownloadStatus.IDLE;
     }
 
     /**
-     * Starts the download of the file
+     * Queues the download of the file, a transfer that
+     * is continued starts at once as it is connected already
      */
     public void start() {
-        /* start the download process */
-        String url = new GopherUrl(this.item.getUrlString()).getUrlString();
-        this.client.downloadAsync(url, this.fileName, this);
+        this.retryCount = 0;
+        if (this.transfer != null) {
+            this.scheduler.startNow(this);
+        } else {
+            this.queue();
+        }
+    }
+
+    /**
+     * Queues the download from the best server
+     * offering the file
+     */
+    private void queue() {
+        this.source = this.scheduler.selectSource(this.sourceList);
+        this.status = DownloadStatus.QUEUED;
+        this.scheduler.submit(this);
+    }
+
+    /**
+     * Queues the download again once the delay
+     * after a failure has passed
+     */
+    void retry() {
+        if (this.status == DownloadStatus.QUEUED && this.retryTask != null) {
+            this.retryTask = null;
+            this.queue();
+        }
+    }
+
+    /**
+     * Starts the download of the file once
+     * the scheduler assigned it a slot
+     */
+    void begin() {
         this.status = DownloadStatus.ACTIVE;
+        this.generation++;
+        this.attemptStartMillis = System.currentTimeMillis();
+        this.notifyProgress();
+
+        /* continue the transfer of a page only once, 
+            any restart downloads the file from scratch */
+        if (this.transfer != null) {
+            GopherTransfer pageTransfer = this.transfer;
+            this.transfer = null;
+            this.request = pageTransfer.getRequest();
+            this.rate.start(pageTransfer.getByteCount(), this.attemptStartMillis);
+            pageTransfer.continueTo(this.fileName, this);
+            return;
+        }
+
+        /* start the download process, a partial file 
+            from a previous session is continued only once */
+        this.rate.start(0, this.attemptStartMillis);
+        String url = new GopherUrl(this.source.getUrlString()).getUrlString();
+        this.request = this.client.downloadAsync(url, this.fileName, this, this.resumeOffset, this.resumeChecksum);
+        this.resumeOffset = 0;
+        this.resumeChecksum = 0;
     }
 
     /**
@@ -110,7 +261,18 @@ public class DownloadItem implements GopherClientEventListener {
      * 
      */
     public void cancel() {
-        this.client.cancelFetch();
+        if (this.status == DownloadStatus.QUEUED) {
+            this.status = DownloadStatus.IDLE;
+            if (this.retryTask != null) {
+                this.retryTask.cancel(false);
+                this.retryTask = null;
+            }
+        } else if (this.request != null) {
+            this.request.cancel();
+        }
+
+        /* free the slot or the place in the queue */
+        this.scheduler.finished(this);
     }
 
     /**
@@ -129,6 +291,48 @@ public class DownloadItem implements GopherClientEventListener {
      */
     public void setGopherItem(GopherItem gopherItem) {
         this.item = gopherItem;
+        this.sourceList.clear();
+        this.sourceList.add(gopherItem);
+        this.source = gopherItem;
+        this.expectedByteCount = this.findSizeHint();
+    }
+
+    /**
+     * Returns the size of the file stated in the menu
+     * for the item or, when missing, for one of its mirrors
+     * 
+     * @return The size in bytes or -1 when unknown
+     */
+    private long findSizeHint() {
+        long result = -1;
+
+        for (GopherItem sourceItem : this.sourceList) {
+            if (result < 0) {
+                result = sourceItem.getSizeHint();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the item the file is currently downloaded
+     * from, which is the item itself or one of its mirrors
+     * 
+     * @return The gopher item of the server used
+     */
+    public GopherItem getSourceItem() {
+        return this.source;
+    }
+
+    /**
+     * Returns the number of automatic retries since
+     * the download was started by the user
+     * 
+     * @return The number of retries
+     */
+    public int getRetryCount() {
+        return this.retryCount;
     }
 
     /**
@@ -158,8 +362,95 @@ public class DownloadItem implements GopherClientEventListener {
         return this.byteCountLoaded;
     }
 
+    /**
+     * Returns the file the download is written to
+     * 
+     * @return The path of the target file
+     */
+    String getTargetFile() {
+        return this.fileName;
+    }
+
+    /**
+     * Returns whether the file is opened when finished
+     * 
+     * @return True when the file is opened
+     */
+    boolean isOpenWhenFinished() {
+        return this.openFile;
+    }
+
+    /**
+     * Returns the number of times the download was started,
+     * every start writes the file from the beginning
+     * 
+     * @return The number of starts
+     */
+    int getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Returns the priority of this download in the queue
+     * 
+     * @return The priority, higher values are started first
+     */
+    public int getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * Returns the current transfer rate, which follows
+     * changes within seconds and drops when it stalls
+     * 
+     * @return The current rate in bytes per second
+     */
     public long getBytePerSecond() {
-        return this.bytePerSecond;
+        return this.rate.getCurrentRate(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the average transfer rate of the current
+     * or, once finished, of the last attempt
+     * 
+     * @return The average rate in bytes per second
+     */
+    public long getAverageBytePerSecond() {
+        long result = this.rate.getFinalRate();
+
+        if (this.status == DownloadStatus.ACTIVE) {
+            result = this.rate.getAverageRate(System.currentTimeMillis());
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the size of the file as stated in the menu
+     * 
+     * @return The size in bytes or -1 when unknown
+     */
+    public long getExpectedByteCount() {
+        return this.expectedByteCount;
+    }
+
+    /**
+     * Returns the estimated time until the download is
+     * finished based on the size stated in the menu
+     * 
+     * @return The time in milliseconds or -1 when unknown
+     */
+    public long getRemainingMillis() {
+        long result = -1;
+
+        long currentRate = this.getBytePerSecond();
+        long remainingByteCount = this.expectedByteCount - this.byteCountLoaded;
+        if (this.status == DownloadStatus.ACTIVE && this.expectedByteCount > 0 
+                && remainingByteCount > 0 && currentRate > 0) {
+            result = remainingByteCount * 1000 / currentRate;
+        }
+
+        return result;
     }
 
     /**
@@ -182,21 +473,9 @@ public class DownloadItem implements GopherClientEventListener {
 
     @Override
     public void progress(GopherUrl url, long byteCount) {
-        /* set start time to calculate total duration */
-        if (this.startTimeMillis == 0) {
-            /* use time in milliseconds */
-            this.startTimeMillis = System.currentTimeMillis();
-        }
-
-        /* calculate the bitrate of the download */
-        long timeNow = System.currentTimeMillis();
-        long duration = ((timeNow - this.startTimeMillis) / 1000);
-        if (duration > 0 && byteCount > 0) {
-            this.bytePerSecond = (byteCount / duration);
-        }
-
-        /* update the local byte counter */
+        /* update the local byte counter and the rate */
         this.byteCountLoaded = byteCount;
+        this.rate.update(byteCount, System.currentTimeMillis());
 
         this.notifyProgress();
     }
@@ -205,6 +484,9 @@ public class DownloadItem implements GopherClientEventListener {
     public void pageLoaded(GopherPage result) {
         /* set the status to complete */
         this.status = DownloadStatus.COMPLETED;
+        this.scheduler.reportThroughput(this.source, this.byteCountLoaded, 
+                            System.currentTimeMillis() - this.attemptStartMillis);
+        this.scheduler.finished(this);
 
         /* check if file open was requested */
         if (this.openFile) {
@@ -216,12 +498,26 @@ public class DownloadItem implements GopherClientEventListener {
 
     @Override
     public void pageLoadFailed(GopherError error, GopherUrl url) {
-        this.status = DownloadStatus.FAILED;
+        this.scheduler.finished(this);
+        this.scheduler.reportFailure(this.source);
+
+        if (this.retryCount < this.scheduler.getRetryLimit()) {
+            /* wait twice as long after every failure, randomized so
+                that downloads failing together do not retry together */
+            long delay = Math.min(RETRY_DELAY_LIMIT, RETRY_DELAY << this.retryCount);
+            delay = delay / 2 + (long) (Math.random() * (delay / 2));
+            this.retryCount++;
+            this.status = DownloadStatus.QUEUED;
+            this.retryTask = this.scheduler.retryLater(this, delay);
+        } else {
+            this.status = DownloadStatus.FAILED;
+        }
+
         this.notifyProgress();
     }
 
     @Override
-    public void pageLoadItemMismatch(GopherItemType requested, GopherItemType detected, GopherUrl url) {
+    public void pageLoadItemMismatch(GopherItemType requested, GopherItemType detected, GopherUrl url, GopherTransfer transfer) {
         /* this should not be the case for the download manager
             as downloads would not raise item mismatch events */
     }
@@ -0,0 +1,524 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.gophie.net.DownloadItem.DownloadStatus;
+
+/**
+ * Journal of the download list in the configuration directory
+ * which allows downloads to continue after a restart or crash
+ *
+ * Changes are collected and appended once per second in a single
+ * write followed by a sync. Before the length of a partial file is
+ * journaled its new content is synced as well and added to the
+ * checksum, so a journaled length and checksum always describe
+ * data that reached the disk.
+ */
+public class DownloadJournal {
+    /* milliseconds between the batched journal writes */
+    private static final long FLUSH_INTERVAL = 1000;
+
+    /* types of the journal records */
+    private static final byte RECORD_ADD = 1;
+    private static final byte RECORD_STATE = 2;
+    private static final byte RECORD_REMOVE = 3;
+
+    /* the journal file and its open channel */
+    private File journalFile;
+    private FileChannel journalChannel;
+
+    /* downloads journaled in this session */
+    private IdentityHashMap<DownloadItem, JournalEntry> entryMap = new IdentityHashMap<DownloadItem, JournalEntry>();
+
+    /* unfinished downloads of the previous session by id */
+    private LinkedHashMap<Long, JournalEntry> pendingMap = new LinkedHashMap<Long, JournalEntry>();
+
+    /* records waiting for the next write */
+    private ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+
+    /* the next download id */
+    private long nextId = 1;
+
+    /* thread writing the journal */
+    private ScheduledExecutorService executor;
+
+    /* lock held while flushing as the exit may flush concurrently */
+    private Object flushLock = new Object();
+
+    /**
+     * A download with the state last journaled
+     */
+    private class JournalEntry {
+        private long id;
+        private String url;
+        private String typeCode;
+        private String targetFile;
+        private boolean openFile;
+        private DownloadStatus status = DownloadStatus.IDLE;
+
+        /* length and checksum of the synced partial file */
+        private long length = 0;
+        private long checksum = 0;
+        private int generation = -1;
+        private CRC32 crc = new CRC32();
+    }
+
+    /**
+     * Opens the journal, reads the downloads left unfinished
+     * and rewrites the journal with these downloads only
+     *
+     * @param fileName
+     * The path of the journal file
+     *
+     * @throws IOException
+     * When the journal cannot be written
+     */
+    public DownloadJournal(String fileName) throws IOException {
+        this.journalFile = new File(fileName);
+        this.journalFile.getParentFile().mkdirs();
+
+        if(this.journalFile.exists()){
+            this.load();
+        }
+        this.compact();
+
+        this.journalChannel = FileChannel.open(this.journalFile.toPath(), 
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread result = new Thread(runnable, "gophie-download-journal");
+                result.setDaemon(true);
+                return result;
+            }
+        });
+        this.executor.scheduleWithFixedDelay(new Runnable(){
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+
+        /* journal the last progress when the application exits */
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+            @Override
+            public void run() {
+                flush();
+            }
+        }));
+    }
+
+    /**
+     * Creates the downloads left unfinished by the previous
+     * session, downloads that were running or queued are
+     * returned queued again while all others stay idle
+     *
+     * @return
+     * The restored downloads in the order they were added
+     */
+    public synchronized ArrayList<DownloadItem> restore(){
+        ArrayList<DownloadItem> result = new ArrayList<DownloadItem>();
+
+        for(JournalEntry entry: this.pendingMap.values()){
+            /* continue only from data that is still intact on disk */
+            long offset = 0;
+            if(entry.length > 0 && DownloadJournal.verify(entry.targetFile, entry.length, entry.checksum)){
+                offset = entry.length;
+            }
+
+            GopherItem gopherItem = new GopherItem(entry.typeCode, new GopherUrl(entry.url));
+            DownloadItem item = new DownloadItem(gopherItem, entry.targetFile, entry.openFile, offset, entry.checksum);
+            this.entryMap.put(item, entry);
+            result.add(item);
+
+            if(entry.status == DownloadStatus.ACTIVE || entry.status == DownloadStatus.QUEUED){
+                item.start();
+            }
+        }
+        this.pendingMap.clear();
+
+        return result;
+    }
+
+    /**
+     * Adds a download to the journal
+     *
+     * @param item
+     * The download to journal
+     */
+    public synchronized void add(DownloadItem item){
+        if(this.entryMap.containsKey(item)){ return; }
+
+        JournalEntry entry = new JournalEntry();
+        entry.id = this.nextId++;
+        entry.url = item.getGopherItem().getUrlString();
+        entry.typeCode = GopherItem.getTypeCode(item.getGopherItem().getItemType());
+        entry.targetFile = item.getTargetFile();
+        entry.openFile = item.isOpenWhenFinished();
+        this.entryMap.put(item, entry);
+
+        this.writeAdd(entry);
+    }
+
+    /**
+     * Removes a download from the journal
+     *
+     * @param item
+     * The download to remove
+     */
+    public synchronized void remove(DownloadItem item){
+        JournalEntry entry = this.entryMap.remove(item);
+        if(entry != null){
+            this.writeRecord(RECORD_REMOVE, entry.id, null);
+        }
+    }
+
+    /**
+     * Journals the changes of all downloads since the last
+     * flush in one write, the partial files are synced first
+     */
+    private void flush(){
+        synchronized(this.flushLock){
+            this.flushChanges();
+        }
+    }
+
+    /**
+     * Collects the changes of all downloads and writes them
+     */
+    private void flushChanges(){
+        ArrayList<DownloadItem> itemList;
+        synchronized(this){
+            itemList = new ArrayList<DownloadItem>(this.entryMap.keySet());
+        }
+
+        for(DownloadItem item: itemList){
+            JournalEntry entry;
+            synchronized(this){
+                entry = this.entryMap.get(item);
+            }
+            if(entry == null){ continue; }
+
+            DownloadStatus status = item.getStatus();
+            boolean changed = (status != entry.status);
+
+            /* completed downloads do not need their checksum anymore */
+            if(status != DownloadStatus.COMPLETED && this.updateChecksum(entry, item)){
+                changed = true;
+            }
+
+            if(changed){
+                entry.status = status;
+                synchronized(this){
+                    if(this.entryMap.get(item) == entry){
+                        this.writeState(entry);
+                    }
+                }
+            }
+        }
+
+        byte[] records;
+        synchronized(this){
+            if(this.recordBuffer.size() == 0){ return; }
+            records = this.recordBuffer.toByteArray();
+            this.recordBuffer.reset();
+        }
+
+        try{
+            ByteBuffer buffer = ByteBuffer.wrap(records);
+            while(buffer.hasRemaining()){
+                this.journalChannel.write(buffer);
+            }
+            this.journalChannel.force(false);
+        }catch(IOException ex){
+            System.out.println("Failed to write download journal: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Syncs the content written to the partial file since the
+     * last flush and adds it to the checksum of the entry
+     *
+     * @param entry
+     * The journal entry of the download
+     *
+     * @param item
+     * The download
+     *
+     * @return
+     * True when the journaled length changed
+     */
+    private boolean updateChecksum(JournalEntry entry, DownloadItem item){
+        boolean result = false;
+
+        /* a restarted download writes the file from the beginning */
+        int generation = item.getGeneration();
+        if(generation != entry.generation){
+            entry.generation = generation;
+            entry.crc.reset();
+            if(entry.length > 0){
+                entry.length = 0;
+                result = true;
+            }
+        }
+
+        File file = new File(entry.targetFile);
+        long fileLength = file.length();
+        if(fileLength < entry.length){
+            /* the file was truncated in the meantime */
+            entry.crc.reset();
+            entry.length = 0;
+            result = true;
+        }
+
+        if(fileLength > entry.length){
+            try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+                channel.force(false);
+
+                ByteBuffer buffer = ByteBuffer.allocate(65536);
+                long position = entry.length;
+                while(position < fileLength){
+                    buffer.clear();
+                    buffer.limit((int)Math.min(buffer.capacity(), fileLength - position));
+                    int read = channel.read(buffer, position);
+                    if(read <= 0){ break; }
+                    entry.crc.update(buffer.array(), 0, read);
+                    position += read;
+                }
+
+                entry.length = position;
+                result = true;
+            }catch(IOException ex){
+                System.out.println("Failed to sync download (" + entry.targetFile + "): " + ex.getMessage());
+            }
+        }
+
+        entry.checksum = entry.crc.getValue();
+        return result;
+    }
+
+    /**
+     * Reads the journal and keeps the downloads that
+     * were not completed or removed
+     */
+    private void load(){
+        try(DataInputStream input = new DataInputStream(new ByteArrayInputStream(
+                                        Files.readAllBytes(this.journalFile.toPath())))){
+            while(true){
+                /* stop at the end or a record torn by a crash */
+                byte[] record;
+                try{
+                    int length = input.readInt();
+                    if(length < 9 || length + 4 > input.available()){ break; }
+                    record = new byte[length];
+                    input.readFully(record);
+                    CRC32 crc = new CRC32();
+                    crc.update(record);
+                    if(input.readInt() != (int)crc.getValue()){ break; }
+                }catch(EOFException ex){
+                    break;
+                }
+
+                DataInputStream recordInput = new DataInputStream(new ByteArrayInputStream(record));
+                byte type = recordInput.readByte();
+                long id = recordInput.readLong();
+                this.nextId = Math.max(this.nextId, id + 1);
+
+                if(type == RECORD_ADD){
+                    JournalEntry entry = new JournalEntry();
+                    entry.id = id;
+                    entry.url = recordInput.readUTF();
+                    entry.typeCode = recordInput.readUTF();
+                    entry.targetFile = recordInput.readUTF();
+                    entry.openFile = recordInput.readBoolean();
+                    this.pendingMap.put(id, entry);
+                }else if(type == RECORD_STATE){
+                    JournalEntry entry = this.pendingMap.get(id);
+                    if(entry != null){
+                        entry.status = DownloadStatus.values()[recordInput.readByte()];
+                        entry.length = recordInput.readLong();
+                        entry.checksum = recordInput.readLong();
+                        if(entry.status == DownloadStatus.COMPLETED){
+                            this.pendingMap.remove(id);
+                        }
+                    }
+                }else if(type == RECORD_REMOVE){
+                    this.pendingMap.remove(id);
+                }
+            }
+        }catch(IOException ex){
+            System.out.println("Failed to read download journal: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the journal with the pending downloads only
+     *
+     * @throws IOException
+     * When the journal cannot be written
+     */
+    private void compact() throws IOException {
+        for(JournalEntry entry: this.pendingMap.values()){
+            this.writeAdd(entry);
+        }
+
+        File tempFile = new File(this.journalFile.getPath() + ".tmp");
+        try(FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, 
+                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer buffer = ByteBuffer.wrap(this.recordBuffer.toByteArray());
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        this.recordBuffer.reset();
+
+        Files.move(tempFile.toPath(), this.journalFile.toPath(), 
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Buffers the record adding a download with its state
+     *
+     * @param entry
+     * The entry of the download
+     */
+    private void writeAdd(JournalEntry entry){
+        try{
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(payload);
+            output.writeUTF(entry.url);
+            output.writeUTF(entry.typeCode);
+            output.writeUTF(entry.targetFile);
+            output.writeBoolean(entry.openFile);
+            this.writeRecord(RECORD_ADD, entry.id, payload.toByteArray());
+        }catch(IOException ex){
+            System.out.println("Failed to journal download: " + ex.getMessage());
+        }
+
+        if(entry.status != DownloadStatus.IDLE || entry.length > 0){
+            this.writeState(entry);
+        }
+    }
+
+    /**
+     * Buffers the record with the state of a download
+     *
+     * @param entry
+     * The entry of the download
+     */
+    private void writeState(JournalEntry entry){
+        ByteBuffer payload = ByteBuffer.allocate(17);
+        payload.put((byte)entry.status.ordinal());
+        payload.putLong(entry.length);
+        payload.putLong(entry.checksum);
+        this.writeRecord(RECORD_STATE, entry.id, payload.array());
+    }
+
+    /**
+     * Buffers a record with its length and checksum
+     *
+     * @param type
+     * The type of the record
+     *
+     * @param id
+     * The id of the download
+     *
+     * @param payload
+     * The content of the record or null for none
+     */
+    private void writeRecord(byte type, long id, byte[] payload){
+        int payloadLength = (payload == null) ? 0 : payload.length;
+        ByteBuffer record = ByteBuffer.allocate(4 + 9 + payloadLength + 4);
+        record.putInt(9 + payloadLength);
+        record.put(type);
+        record.putLong(id);
+        if(payload != null){ record.put(payload); }
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, 9 + payloadLength);
+        record.putInt((int)crc.getValue());
+
+        this.recordBuffer.write(record.array(), 0, record.capacity());
+    }
+
+    /**
+     * Verifies that a partial file still starts
+     * with the content journaled for it
+     *
+     * @param fileName
+     * The partial file
+     *
+     * @param length
+     * The number of bytes journaled
+     *
+     * @param checksum
+     * The checksum of these bytes
+     *
+     * @return
+     * True when the file holds the journaled content
+     */
+    private static boolean verify(String fileName, long length, long checksum){
+        boolean result = false;
+
+        File file = new File(fileName);
+        if(file.length() >= length){
+            try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+                CRC32 crc = new CRC32();
+                ByteBuffer buffer = ByteBuffer.allocate(65536);
+                long position = 0;
+                while(position < length){
+                    buffer.clear();
+                    buffer.limit((int)Math.min(buffer.capacity(), length - position));
+                    int read = channel.read(buffer, position);
+                    if(read <= 0){ break; }
+                    crc.update(buffer.array(), 0, read);
+                    position += read;
+                }
+                result = (position == length && crc.getValue() == checksum);
+            }catch(IOException ex){
+                System.out.println("Failed to verify download (" + fileName + "): " + ex.getMessage());
+            }
+        }
+
+        return result;
+    }
+}
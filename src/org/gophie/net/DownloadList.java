@@ -19,6 +19,7 @@
 package org.gophie.net;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.gophie.net.DownloadItem.DownloadStatus;
 import org.gophie.net.event.DownloadItemEventListener;
@@ -30,6 +31,30 @@ public class DownloadList extends ArrayList<DownloadItem> implements DownloadIte
     /* event listeners for list updated */
     private ArrayList<DownloadListEventListener> eventListener = new ArrayList<DownloadListEventListener>();
 
+    /* journal keeping the list across sessions */
+    private DownloadJournal journal;
+
+    /* set when items reported progress not yet published */
+    private AtomicBoolean progressPending = new AtomicBoolean(false);
+
+    /**
+     * Sets the journal of this list and adds the
+     * downloads restored from the journal
+     * 
+     * @param downloadJournal
+     * The journal to keep the downloads in
+     */
+    public void setJournal(DownloadJournal downloadJournal){
+        this.journal = downloadJournal;
+
+        for(DownloadItem item: downloadJournal.restore()){
+            super.add(item);
+            item.addEventListener(this);
+        }
+
+        this.notifyUpdate();
+    }
+
     /**
      * Returns all items as an array
      * 
@@ -51,7 +76,8 @@ public class DownloadList extends ArrayList<DownloadItem> implements DownloadIte
         Boolean result = false;
 
         for(DownloadItem item: this){
-            if(item.getStatus() != DownloadStatus.ACTIVE){
+            if(item.getStatus() != DownloadStatus.ACTIVE
+                && item.getStatus() != DownloadStatus.QUEUED){
                 result = true;
             }
         }
@@ -60,12 +86,15 @@ public class DownloadList extends ArrayList<DownloadItem> implements DownloadIte
     }
 
     public void clearNonActiveItems(){
-        ArrayList<DownloadItem> currentList = this;
-        this.clear();
+        ArrayList<DownloadItem> currentList = new ArrayList<DownloadItem>(this);
+        super.clear();
 
         for(DownloadItem item: currentList){
-            if(item.getStatus() == DownloadStatus.ACTIVE){
-                this.add(item);
+            if(item.getStatus() == DownloadStatus.ACTIVE
+                || item.getStatus() == DownloadStatus.QUEUED){
+                super.add(item);
+            }else if(this.journal != null){
+                this.journal.remove(item);
             }
         }
 
@@ -86,20 +115,50 @@ public class DownloadList extends ArrayList<DownloadItem> implements DownloadIte
     public boolean add(DownloadItem e){
         boolean result = super.add(e);
         e.addEventListener(this);
+        if(this.journal != null){
+            this.journal.add(e);
+        }
         this.notifyUpdate();        
         return result;
     }
 
+    @Override
+    public boolean remove(Object o){
+        boolean result = super.remove(o);
+        if(result && this.journal != null){
+            this.journal.remove((DownloadItem)o);
+        }
+        return result;
+    }
+
     @Override
     public void clear(){
+        if(this.journal != null){
+            for(DownloadItem item: this){
+                this.journal.remove(item);
+            }
+        }
         super.clear();
         this.notifyUpdate();   
     }
 
+    /**
+     * Notifies the listeners once about all progress reported
+     * by the items since the last call, the user interface
+     * calls this periodically on its own thread
+     */
+    public void publishProgress(){
+        if(this.progressPending.getAndSet(false)){
+            for(DownloadListEventListener listener: this.eventListener){
+                listener.downloadProgressReported();
+            }
+        }
+    }
+
     @Override
     public void downloadProgressReported() {
-        for(DownloadListEventListener listener: this.eventListener){
-            listener.downloadProgressReported();
-        }       
+        /* only mark the progress as the items report it from 
+            the download threads, it is published in batches */
+        this.progressPending.set(true);
     }
 }
\ No newline at end of file
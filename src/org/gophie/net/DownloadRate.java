@@ -0,0 +1,149 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.net;
+
+/**
+ * Estimates the transfer rate of a download from the byte
+ * counts it reports, keeping both the current rate as an
+ * exponentially weighted moving average and the average
+ * rate since the transfer started
+ *
+ * The weight of every report depends on the time since the
+ * previous one, so reports at irregular intervals are handled,
+ * and the current rate decays when reports stop as the
+ * connection stalls.
+ */
+class DownloadRate {
+    /* time constant of the moving average in milliseconds */
+    private static final double RATE_TIME_CONSTANT = 2000;
+
+    /* time without reports after which the transfer is stalled
+        and the time constant of the decay of the rate from then on */
+    private static final long STALL_TIME = 1000;
+    private static final double STALL_TIME_CONSTANT = 500;
+
+    /* start of the transfer and the bytes counted then */
+    private long startTimeMillis = 0;
+    private long startByteCount = 0;
+
+    /* the last report and the rates calculated from it */
+    private long lastTimeMillis = 0;
+    private long lastByteCount = 0;
+    private double currentRate = 0;
+    private boolean measured = false;
+
+    /**
+     * Starts the measurement of a new transfer
+     *
+     * @param byteCount
+     * The number of bytes already counted at the start
+     *
+     * @param timeMillis
+     * The time of the start in milliseconds
+     */
+    synchronized void start(long byteCount, long timeMillis){
+        this.startTimeMillis = timeMillis;
+        this.startByteCount = byteCount;
+        this.lastTimeMillis = timeMillis;
+        this.lastByteCount = byteCount;
+        this.currentRate = 0;
+        this.measured = false;
+    }
+
+    /**
+     * Adds a report of the total number of bytes counted
+     *
+     * @param byteCount
+     * The total number of bytes counted so far
+     *
+     * @param timeMillis
+     * The time of the report in milliseconds
+     */
+    synchronized void update(long byteCount, long timeMillis){
+        long duration = timeMillis - this.lastTimeMillis;
+        if(duration <= 0){ return; }
+
+        /* weigh the rate of this interval by its length */
+        double intervalRate = (byteCount - this.lastByteCount) * 1000.0 / duration;
+        if(this.measured){
+            double weight = 1 - Math.exp(-duration / RATE_TIME_CONSTANT);
+            this.currentRate += weight * (intervalRate - this.currentRate);
+        }else{
+            /* the first interval sets the rate without bias to zero */
+            this.currentRate = intervalRate;
+            this.measured = true;
+        }
+
+        this.lastTimeMillis = timeMillis;
+        this.lastByteCount = byteCount;
+    }
+
+    /**
+     * Returns the current rate, which quickly decays
+     * towards zero once the transfer stalled
+     *
+     * @param timeMillis
+     * The current time in milliseconds
+     *
+     * @return
+     * The current rate in bytes per second
+     */
+    synchronized long getCurrentRate(long timeMillis){
+        double result = this.currentRate;
+
+        long stallDuration = timeMillis - this.lastTimeMillis - STALL_TIME;
+        if(stallDuration > 0){
+            result = result * Math.exp(-stallDuration / STALL_TIME_CONSTANT);
+        }
+
+        return Math.max(0, Math.round(result));
+    }
+
+    /**
+     * Returns the average rate since the start
+     *
+     * @param timeMillis
+     * The current time in milliseconds
+     *
+     * @return
+     * The average rate in bytes per second
+     */
+    synchronized long getAverageRate(long timeMillis){
+        long result = 0;
+
+        long duration = timeMillis - this.startTimeMillis;
+        if(duration > 0){
+            result = Math.round((this.lastByteCount - this.startByteCount) * 1000.0 / duration);
+        }
+
+        return Math.max(0, result);
+    }
+
+    /**
+     * Returns the average rate between the start
+     * and the last report, which does not change
+     * once the transfer ended
+     *
+     * @return
+     * The average rate in bytes per second
+     */
+    synchronized long getFinalRate(){
+        return this.getAverageRate(this.lastTimeMillis);
+    }
+}
@@ -0,0 +1,449 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.gophie.config.ConfigurationManager;
+
+/**
+ * Limits the number of downloads running at the same time
+ * overall and per host, queued downloads are started by
+ * priority and in turns across the hosts waiting so that a
+ * long queue for one server does not block all others
+ *
+ * The scheduler also measures the throughput and failures of
+ * each host to pick the best of the servers offering a file.
+ */
+public class DownloadScheduler {
+    /* default number of concurrent downloads */
+    private static final String DEFAULT_CONNECTIONS = "4";
+
+    /* default number of concurrent downloads per host */
+    private static final String DEFAULT_HOST_CONNECTIONS = "2";
+
+    /* default number of retries of a failed download */
+    private static final String DEFAULT_RETRIES = "4";
+
+    /* the shared scheduler instance */
+    private static DownloadScheduler defaultScheduler;
+
+    /* queued downloads by host, hosts in their turn order */
+    private LinkedHashMap<String, PriorityQueue<QueueEntry>> hostQueueMap = new LinkedHashMap<String, PriorityQueue<QueueEntry>>();
+
+    /* downloads running with their host and their number per host */
+    private HashMap<DownloadItem, String> activeMap = new HashMap<DownloadItem, String>();
+    private HashMap<String, Integer> hostCountMap = new HashMap<String, Integer>();
+
+    /* measured throughput and failures by host */
+    private HashMap<String, HostStatistics> statisticsMap = new HashMap<String, HostStatistics>();
+
+    /* timer starting the retries of failed downloads */
+    private ScheduledExecutorService retryExecutor;
+
+    /* the limits of concurrent downloads and retries */
+    private int connectionLimit;
+    private int hostConnectionLimit;
+    private int retryLimit;
+
+    /* order of submission to keep equal priorities first in first out */
+    private long sequence = 0;
+
+    /**
+     * A queued download with its order in the queue
+     */
+    private class QueueEntry implements Comparable<QueueEntry> {
+        private DownloadItem item;
+        private long order;
+
+        private QueueEntry(DownloadItem queuedItem, long queuedOrder){
+            this.item = queuedItem;
+            this.order = queuedOrder;
+        }
+
+        @Override
+        public int compareTo(QueueEntry other){
+            if(this.item.getPriority() != other.item.getPriority()){
+                return (this.item.getPriority() > other.item.getPriority()) ? -1 : 1;
+            }
+            return Long.compare(this.order, other.order);
+        }
+    }
+
+    /**
+     * Throughput and failures measured for a host
+     */
+    private class HostStatistics {
+        /* smoothed throughput in bytes per second, 0 when unknown */
+        private long bytePerSecond = 0;
+
+        /* failures since the last completed download */
+        private int failureCount = 0;
+    }
+
+    /**
+     * Returns the shared scheduler instance
+     * used by all downloads
+     * 
+     * @return
+     * The shared DownloadScheduler instance
+     */
+    public static synchronized DownloadScheduler getDefault(){
+        if(DownloadScheduler.defaultScheduler == null){
+            DownloadScheduler.defaultScheduler = new DownloadScheduler();
+        }
+
+        return DownloadScheduler.defaultScheduler;
+    }
+
+    /**
+     * Constructs the scheduler with the limits
+     * defined in the configuration
+     */
+    public DownloadScheduler(){
+        this.connectionLimit = 4;
+        this.hostConnectionLimit = 2;
+        this.retryLimit = 4;
+        try{
+            this.connectionLimit = Integer.parseInt(ConfigurationManager.getConfigFile()
+                    .getSetting("DOWNLOAD_CONNECTIONS", "Network", DEFAULT_CONNECTIONS).trim());
+            this.hostConnectionLimit = Integer.parseInt(ConfigurationManager.getConfigFile()
+                    .getSetting("DOWNLOAD_HOST_CONNECTIONS", "Network", DEFAULT_HOST_CONNECTIONS).trim());
+            this.retryLimit = Integer.parseInt(ConfigurationManager.getConfigFile()
+                    .getSetting("DOWNLOAD_RETRIES", "Network", DEFAULT_RETRIES).trim());
+        }catch(NumberFormatException ex){
+            System.out.println("Invalid download limits configured: " + ex.getMessage());
+        }
+
+        /* at least one download has to be able to run */
+        if(this.connectionLimit < 1){ this.connectionLimit = 1; }
+        if(this.hostConnectionLimit < 1){ this.hostConnectionLimit = 1; }
+
+        this.retryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread result = new Thread(runnable, "gophie-download-retry");
+                result.setDaemon(true);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Queues a download and starts it as soon
+     * as the limits allow
+     * 
+     * @param item
+     * The download to queue
+     */
+    public void submit(DownloadItem item){
+        synchronized(this){
+            String host = DownloadScheduler.getHost(item.getSourceItem());
+            PriorityQueue<QueueEntry> queue = this.hostQueueMap.get(host);
+            if(queue == null){
+                queue = new PriorityQueue<QueueEntry>();
+                this.hostQueueMap.put(host, queue);
+            }
+            queue.add(new QueueEntry(item, this.sequence++));
+        }
+
+        this.schedule();
+    }
+
+    /**
+     * Starts a download right away, used for transfers that
+     * already hold their connection, it still counts against
+     * the limits for the downloads queued
+     * 
+     * @param item
+     * The download to start
+     */
+    public void startNow(DownloadItem item){
+        synchronized(this){
+            this.setActive(item);
+        }
+
+        item.begin();
+    }
+
+    /**
+     * Removes a download from the queue or releases its
+     * slot when it was running and starts the next ones
+     * 
+     * @param item
+     * The download that finished, failed or was cancelled
+     */
+    public void finished(DownloadItem item){
+        synchronized(this){
+            String host = this.activeMap.remove(item);
+            if(host != null){
+                int hostCount = this.hostCountMap.get(host) - 1;
+                if(hostCount > 0){
+                    this.hostCountMap.put(host, hostCount);
+                }else{
+                    this.hostCountMap.remove(host);
+                }
+            }else{
+                /* the source of the download may have changed since it was queued */
+                Iterator<PriorityQueue<QueueEntry>> queueIterator = this.hostQueueMap.values().iterator();
+                while(queueIterator.hasNext()){
+                    PriorityQueue<QueueEntry> queue = queueIterator.next();
+                    Iterator<QueueEntry> iterator = queue.iterator();
+                    while(iterator.hasNext()){
+                        if(iterator.next().item == item){ iterator.remove(); }
+                    }
+                    if(queue.isEmpty()){ queueIterator.remove(); }
+                }
+            }
+        }
+
+        this.schedule();
+    }
+
+    /**
+     * Queues a failed download again after a delay
+     * 
+     * @param item
+     * The download to retry
+     * 
+     * @param delay
+     * The delay in milliseconds
+     * 
+     * @return
+     * The pending retry to cancel it
+     */
+    public ScheduledFuture<?> retryLater(DownloadItem item, long delay){
+        return this.retryExecutor.schedule(new Runnable(){
+            @Override
+            public void run() {
+                item.retry();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the number of times a failed
+     * download is retried automatically
+     * 
+     * @return
+     * The number of retries
+     */
+    public int getRetryLimit(){
+        return this.retryLimit;
+    }
+
+    /**
+     * Records the throughput of a download from a server
+     * 
+     * @param source
+     * The item the content was downloaded from
+     * 
+     * @param byteCount
+     * The number of bytes received
+     * 
+     * @param duration
+     * The duration of the download in milliseconds
+     */
+    public synchronized void reportThroughput(GopherItem source, long byteCount, long duration){
+        HostStatistics statistics = this.getStatistics(source);
+        long bytePerSecond = byteCount * 1000 / Math.max(duration, 1);
+
+        /* weigh the latest download like all previous ones together */
+        statistics.bytePerSecond = (statistics.bytePerSecond == 0) 
+                    ? bytePerSecond : (statistics.bytePerSecond + bytePerSecond) / 2;
+        statistics.failureCount = 0;
+    }
+
+    /**
+     * Records a failed download from a server
+     * 
+     * @param source
+     * The item the download failed on
+     */
+    public synchronized void reportFailure(GopherItem source){
+        this.getStatistics(source).failureCount++;
+    }
+
+    /**
+     * Picks the server to download from, servers with fewer
+     * recent failures go first and among these the server
+     * with the highest measured throughput, servers not
+     * measured yet are tried before measured ones
+     * 
+     * @param sourceList
+     * The item and its mirrors, the item first
+     * 
+     * @return
+     * The item to download from
+     */
+    public synchronized GopherItem selectSource(List<GopherItem> sourceList){
+        GopherItem result = null;
+        HostStatistics best = null;
+
+        for(GopherItem source: sourceList){
+            HostStatistics statistics = this.getStatistics(source);
+            if(best == null || statistics.failureCount < best.failureCount
+                || (statistics.failureCount == best.failureCount 
+                    && DownloadScheduler.getRank(statistics) > DownloadScheduler.getRank(best))){
+                result = source;
+                best = statistics;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the throughput to rank a host by
+     * 
+     * @param statistics
+     * The statistics of the host
+     * 
+     * @return
+     * The throughput or the maximum when not measured
+     */
+    private static long getRank(HostStatistics statistics){
+        return (statistics.bytePerSecond == 0) ? Long.MAX_VALUE : statistics.bytePerSecond;
+    }
+
+    /**
+     * Returns the statistics of the host of an item
+     * 
+     * @param source
+     * The item to get the host statistics of
+     * 
+     * @return
+     * The statistics, created when unknown
+     */
+    private HostStatistics getStatistics(GopherItem source){
+        String host = DownloadScheduler.getHost(source);
+        HostStatistics result = this.statisticsMap.get(host);
+        if(result == null){
+            result = new HostStatistics();
+            this.statisticsMap.put(host, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of downloads running
+     * 
+     * @return
+     * The number of active downloads
+     */
+    public synchronized int getActiveCount(){
+        return this.activeMap.size();
+    }
+
+    /**
+     * Returns the number of downloads waiting
+     * 
+     * @return
+     * The number of queued downloads
+     */
+    public synchronized int getQueuedCount(){
+        int result = 0;
+        for(PriorityQueue<QueueEntry> queue: this.hostQueueMap.values()){
+            result += queue.size();
+        }
+        return result;
+    }
+
+    /**
+     * Starts queued downloads while there are free slots,
+     * the host with the most urgent download goes first and
+     * hosts with equal priority take turns
+     */
+    private void schedule(){
+        ArrayList<DownloadItem> startList = new ArrayList<DownloadItem>();
+
+        synchronized(this){
+            while(this.activeMap.size() < this.connectionLimit){
+                /* find the most urgent download of a host with a free slot,
+                    the first host in turn order wins among equals */
+                String selectedHost = null;
+                QueueEntry selected = null;
+                for(String host: this.hostQueueMap.keySet()){
+                    Integer hostCount = this.hostCountMap.get(host);
+                    if(hostCount != null && hostCount >= this.hostConnectionLimit){ continue; }
+
+                    QueueEntry head = this.hostQueueMap.get(host).peek();
+                    if(selected == null || head.item.getPriority() > selected.item.getPriority()){
+                        selected = head;
+                        selectedHost = host;
+                    }
+                }
+                if(selected == null){ break; }
+
+                /* the host moves to the end of the turn order */
+                PriorityQueue<QueueEntry> queue = this.hostQueueMap.remove(selectedHost);
+                queue.poll();
+                if(!queue.isEmpty()){
+                    this.hostQueueMap.put(selectedHost, queue);
+                }
+
+                this.setActive(selected.item);
+                startList.add(selected.item);
+            }
+        }
+
+        /* start the downloads outside the lock as they may
+            report back synchronously */
+        for(DownloadItem item: startList){
+            item.begin();
+        }
+    }
+
+    /**
+     * Marks a download as running on its host
+     * 
+     * @param item
+     * The download that is started
+     */
+    private void setActive(DownloadItem item){
+        String host = DownloadScheduler.getHost(item.getSourceItem());
+        if(this.activeMap.put(item, host) == null){
+            Integer hostCount = this.hostCountMap.get(host);
+            this.hostCountMap.put(host, (hostCount == null) ? 1 : hostCount + 1);
+        }
+    }
+
+    /**
+     * Returns the host an item connects to
+     * 
+     * @param item
+     * The gopher item
+     * 
+     * @return
+     * The host name with its port in lower case
+     */
+    private static String getHost(GopherItem item){
+        return item.getHostName().toLowerCase() + ":" + item.getPortNumber();
+    }
+}
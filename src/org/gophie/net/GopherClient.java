@@ -20,40 +20,347 @@ package org.gophie.net;
 
 import java.io.*;
 import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
 
+import org.gophie.config.ConfigurationManager;
+import org.gophie.io.ContentSniffSession;
+import org.gophie.io.ContentSnifferRegistry;
 import org.gophie.io.FileSignature;
 import org.gophie.io.FileSignature.FileSignatureType;
 import org.gophie.net.GopherItem.GopherItemType;
 import org.gophie.net.event.*;
 
 public class GopherClient {
-    /* thread with the active fetch process */
-    private Thread thread;
-    private Boolean cancelled = false;
+    /* size of the direct buffer used for downloads */
+    private static final int TRANSFER_BUFFER_SIZE = 262144;
+
+    /* minimum milliseconds between download progress reports */
+    static final long PROGRESS_REPORT_INTERVAL = 250;
+
+    /* default memory budget of the page cache in megabytes */
+    private static final String DEFAULT_MEMORY_LIMIT_MB = "32";
+
+    /* default budget of the text files the page cache keeps in megabytes */
+    private static final String DEFAULT_TEXT_FILE_LIMIT_MB = "256";
+
+    /* default size limit of the disk cache in megabytes */
+    private static final String DEFAULT_DISK_LIMIT_MB = "64";
+
+    /* default budget of the prefetched pages in megabytes */
+    private static final String DEFAULT_PREFETCH_LIMIT_MB = "4";
+
+    /* default concurrent prefetches per host and overall */
+    private static final String DEFAULT_PREFETCH_HOST_CONNECTIONS = "2";
+    private static final int PREFETCH_CONNECTIONS = 4;
+
+    /* the shared client instance */
+    private static GopherClient defaultClient;
+
+    /* pool of threads executing the blocking requests */
+    private ExecutorService executor;
+
+    /* cache with the pages fetched recently */
+    private GopherPageCache pageCache;
+
+    /* persistent cache of menus and text files */
+    private GopherDiskCache diskCache;
+
+    /* set until the first page was shown, only the start page 
+        is shown from disk right away, later copies on disk 
+        are only shown when the network fails */
+    private volatile boolean startingUp = true;
+
+    /* speculative fetches of hovered links */
+    private GopherPrefetcher prefetcher;
+
+    /**
+     * Returns the shared client instance which
+     * is used by all components of the application
+     * 
+     * @return
+     * The shared GopherClient instance
+     */
+    public static synchronized GopherClient getDefault(){
+        if(GopherClient.defaultClient == null){
+            GopherClient.defaultClient = new GopherClient();
+        }
+
+        return GopherClient.defaultClient;
+    }
 
     /**
-     * Cancels a current fetch operation
+     * Constructs the client with its thread pool
      */
-    public void cancelFetch(){
-        if(this.thread != null){
-            this.thread.interrupt();
-            this.cancelled = true;
+    public GopherClient(){
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory(){
+            private int counter = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread result = new Thread(runnable, "gopher-client-" + (counter++));
+                result.setDaemon(true);
+                return result;
+            }
+        });
+
+        /* create the page cache with the configured budgets */
+        long memoryLimit = 0;
+        long textFileLimit = 0;
+        try{
+            memoryLimit = Long.parseLong(ConfigurationManager.getConfigFile()
+                    .getSetting("MEMORY_LIMIT_MB", "Cache", DEFAULT_MEMORY_LIMIT_MB).trim());
+            textFileLimit = Long.parseLong(ConfigurationManager.getConfigFile()
+                    .getSetting("TEXT_FILE_LIMIT_MB", "Cache", DEFAULT_TEXT_FILE_LIMIT_MB).trim());
+        }catch(NumberFormatException ex){
+            System.out.println("Invalid cache memory limit configured: " + ex.getMessage());
+        }
+        this.pageCache = new GopherPageCache(memoryLimit * 1024 * 1024, textFileLimit * 1024 * 1024);
+
+        /* open the disk cache in the configuration directory */
+        try{
+            long diskLimit = Long.parseLong(ConfigurationManager.getConfigFile()
+                    .getSetting("DISK_LIMIT_MB", "Cache", DEFAULT_DISK_LIMIT_MB).trim());
+            if(diskLimit > 0){
+                this.diskCache = new GopherDiskCache(ConfigurationManager.getConfigPath() 
+                                    + "cache/", diskLimit * 1024 * 1024);
+            }
+        }catch(NumberFormatException | IOException ex){
+            System.out.println("Unable to open disk cache: " + ex.getMessage());
+        }
+
+        /* prefetching is optional as it costs traffic */
+        String prefetchEnabled = ConfigurationManager.getConfigFile()
+                    .getSetting("PREFETCH_ENABLED", "Network", "no");
+        if(prefetchEnabled.equals("yes")){
+            try{
+                long prefetchLimit = Long.parseLong(ConfigurationManager.getConfigFile()
+                        .getSetting("PREFETCH_LIMIT_MB", "Network", DEFAULT_PREFETCH_LIMIT_MB).trim());
+                int hostConnections = Integer.parseInt(ConfigurationManager.getConfigFile()
+                        .getSetting("PREFETCH_HOST_CONNECTIONS", "Network", DEFAULT_PREFETCH_HOST_CONNECTIONS).trim());
+                this.prefetcher = new GopherPrefetcher(this, prefetchLimit * 1024 * 1024, 
+                                        hostConnections, PREFETCH_CONNECTIONS);
+            }catch(NumberFormatException ex){
+                System.out.println("Invalid prefetch limits configured: " + ex.getMessage());
+            }
         }
     }
 
     /**
-     * Returns whether the current 
-     * operation was cancelled or not
+     * Listener that reports the copy of a page from the
+     * disk cache when it cannot be fetched from the network
+     */
+    private class OfflineListener implements GopherClientEventListener {
+        private GopherClientEventListener eventListener;
+        private String url;
+        private GopherItemType contentType;
+
+        private OfflineListener(GopherClientEventListener listener, String pageUrl, GopherItemType pageType){
+            this.eventListener = listener;
+            this.url = pageUrl;
+            this.contentType = pageType;
+        }
+
+        @Override
+        public void progress(GopherUrl progressUrl, long byteCount) {
+            this.eventListener.progress(progressUrl, byteCount);
+        }
+
+        @Override
+        public void pageLoaded(GopherPage result) {
+            this.eventListener.pageLoaded(result);
+        }
+
+        @Override
+        public void pageLoadFailed(GopherError error, GopherUrl failedUrl) {
+            GopherPage cachedPage = null;
+
+            /* only network failures fall back to the cached copy */
+            if(error == GopherError.EXCEPTION || error == GopherError.HOST_UNKNOWN 
+                || error == GopherError.CONNECTION_TIMEOUT || error == GopherError.CONNECT_FAILED){
+                cachedPage = getDiskPage(this.url, this.contentType);
+            }
+
+            if(cachedPage != null){
+                System.out.println("Showing cached copy of " + this.url + " (" + error.toString() + ")");
+                this.eventListener.pageLoaded(cachedPage);
+            }else{
+                this.eventListener.pageLoadFailed(error, failedUrl);
+            }
+        }
+
+        @Override
+        public void pageLoadItemMismatch(GopherItemType requested, GopherItemType detected, GopherUrl mismatchUrl, GopherTransfer transfer) {
+            this.eventListener.pageLoadItemMismatch(requested, detected, mismatchUrl, transfer);
+        }
+    }
+
+    /**
+     * Returns the cache with the pages recently
+     * fetched asynchronously through this client
      * 
      * @return
-     * true when cancelled, false otherwise
+     * The page cache of this client
      */
-    public Boolean isCancelled(){
-        return this.cancelled;
+    public GopherPageCache getPageCache(){
+        return this.pageCache;
+    }
+
+    /**
+     * Returns a page from the disk cache and
+     * keeps it in the page cache for later use
+     * 
+     * @param url
+     * the url of the page
+     * 
+     * @param contentType
+     * the content type the page was requested as
+     * 
+     * @return
+     * The cached page or null if not cached
+     */
+    private GopherPage getDiskPage(String url, GopherItemType contentType){
+        GopherPage result = null;
+
+        if(this.diskCache != null){
+            byte[] content = this.diskCache.get(GopherPageCache.getKey(url, contentType));
+            if(content != null){
+                result = new GopherPage(content, contentType, new GopherUrl(url));
+                this.pageCache.put(url, contentType, result);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns whether a page is served from the disk cache
+     * without asking the server, which is only the case for
+     * the first page shown after startup
+     * 
+     * @param url
+     * the url of the page
+     * 
+     * @param contentType
+     * the content type the page was requested as
+     * 
+     * @return
+     * true when the copy on disk is served
+     */
+    private boolean isServedFromDisk(String url, GopherItemType contentType){
+        return this.startingUp && this.diskCache != null 
+            && this.diskCache.contains(GopherPageCache.getKey(url, contentType));
+    }
+
+    /**
+     * Returns the selector engine when it is enabled
+     * in the configuration, the non-blocking engine
+     * drives all connections from a single thread
+     * 
+     * @return
+     * the selector engine or null when disabled
+     */
+    private GopherSelectorEngine getSelectorEngine(){
+        GopherSelectorEngine result = null;
+
+        String engineEnabled = ConfigurationManager.getConfigFile()
+                    .getSetting("SELECTOR_ENGINE_ENABLED", "Network", "no");
+        if(engineEnabled.equals("yes")){
+            try{
+                result = GopherSelectorEngine.getInstance();
+            }catch(IOException ex){
+                /* fall back to the thread based client */
+                System.out.println("Unable to start selector engine: " + ex.getMessage());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Opens the socket for a request and sends the selector,
+     * the socket is closed when the request is cancelled
+     * 
+     * @param request
+     * The request to open the socket for
+     * 
+     * @param gopherUrl
+     * The url to connect to
+     * 
+     * @return
+     * The connected socket
+     */
+    private Socket openSocket(GopherRequest request, GopherUrl gopherUrl) throws IOException {
+        Socket gopherSocket = new Socket(gopherUrl.getHost(), gopherUrl.getPort());
+        request.setCancelHandler(new Runnable(){
+            @Override
+            public void run() {
+                try{
+                    /* closing the socket aborts any blocking read */
+                    gopherSocket.close();
+                }catch(IOException ex){
+                    System.out.println("Failed to close cancelled request: " + ex.getMessage());
+                }
+            }
+        });
+
+        byte[] gopherRequest = (gopherUrl.getSelector() + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        (new DataOutputStream(gopherSocket.getOutputStream())).write(gopherRequest);
+
+        return gopherSocket;
+    }
+
+    /**
+     * Opens the socket channel for a request and sends the 
+     * selector, the channel is closed when the request is cancelled
+     * 
+     * @param request
+     * The request to open the channel for
+     * 
+     * @param gopherUrl
+     * The url to connect to
+     * 
+     * @return
+     * The connected blocking socket channel
+     */
+    private SocketChannel openChannel(GopherRequest request, GopherUrl gopherUrl) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(gopherUrl.getHost(), gopherUrl.getPort());
+        if(address.isUnresolved()){
+            throw new UnknownHostException(gopherUrl.getHost());
+        }
+
+        SocketChannel channel = SocketChannel.open(address);
+        request.setCancelHandler(new Runnable(){
+            @Override
+            public void run() {
+                try{
+                    /* closing the channel aborts any blocking transfer */
+                    channel.close();
+                }catch(IOException ex){
+                    System.out.println("Failed to close cancelled request: " + ex.getMessage());
+                }
+            }
+        });
+
+        ByteBuffer gopherRequest = ByteBuffer.wrap((gopherUrl.getSelector() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        while(gopherRequest.hasRemaining()){
+            channel.write(gopherRequest);
+        }
+
+        return channel;
     }
 
     /**
@@ -68,50 +375,69 @@ public class GopherClient {
      * 
      * @param eventListener
      * Listener to report the status to
+     * 
+     * @return
+     * The request handle of this download
      */
-    public void downloadAsync(String url, String targetFile, GopherClientEventListener eventListener){
-        /* instanciate the new thread */
-        GopherClient clientObject = this;
-        this.thread = new Thread(new Runnable() { 
+    public GopherRequest downloadAsync(String url, String targetFile, GopherClientEventListener eventListener){
+        return this.downloadAsync(url, targetFile, eventListener, 0, 0);
+    }
+
+    /**
+     * Downloads content through gopher and continues a partial
+     * file. Gopher cannot request a range of the content, so the
+     * content is received from the start, the part already on disk
+     * is only verified against its checksum instead of being written
+     * again and the download starts over if the content changed.
+     * 
+     * @param url
+     * Url to download the content from
+     * 
+     * @param targetFile
+     * The file to write the content to
+     * 
+     * @param eventListener
+     * Listener to report the status to
+     * 
+     * @param resumeOffset
+     * Number of bytes of the partial file, 0 to start over
+     * 
+     * @param resumeChecksum
+     * CRC32 checksum of the bytes of the partial file
+     * 
+     * @return
+     * The request handle of this download
+     */
+    public GopherRequest downloadAsync(String url, String targetFile, GopherClientEventListener eventListener, long resumeOffset, long resumeChecksum){
+        GopherRequest request = new GopherRequest(url, GopherItemType.BINARY_FILE);
+
+        /* hand the download to the selector engine if enabled */
+        GopherSelectorEngine engine = this.getSelectorEngine();
+        if(engine != null && resumeOffset == 0){
+            engine.download(request, targetFile, eventListener);
+            return request;
+        }
+
+        this.executor.execute(new Runnable() { 
             public void run() { 
                 try{
-                    /* create the output file stream to write to */
-                    OutputStream fileStream = new FileOutputStream(new File(targetFile));
-
                     /* parse the url and instanciate the client */
                     GopherUrl gopherUrl = new GopherUrl(url);
-                    Socket gopherSocket = new Socket(gopherUrl.getHost(), gopherUrl.getPort());
-                    byte[] gopherRequest = (gopherUrl.getSelector() + "\r\n").getBytes(StandardCharsets.US_ASCII);
-                    (new DataOutputStream(gopherSocket.getOutputStream())).write(gopherRequest);
 
-                    /* read byte in chunks and report progress */
-                    int read;
-                    InputStream socketStream = gopherSocket.getInputStream();
-                    byte[] data = new byte[16384];
-                    long totalByteCount = 0;
-
-                    /* read byte by byte to be able to report progress */
-                    while ((read = socketStream.read(data, 0, data.length)) != -1) {
-                        fileStream.write(data, 0, read);
-
-                        /* calculate total bytes read */
-                        totalByteCount = totalByteCount + data.length;
-
-                        /* report byte count to listener */
-                        if(!clientObject.isCancelled()){
-                            if(eventListener != null){
-                                eventListener.progress(gopherUrl, totalByteCount);
-                            }
-                        }
+                    long totalByteCount = downloadTo(request, gopherUrl, targetFile, eventListener, resumeOffset, resumeChecksum);
+                    if(totalByteCount < 0 && !request.isCancelled()){
+                        /* the partial file does not match the content */
+                        System.out.println("Content changed, restarting download (" + url + ")");
+                        totalByteCount = downloadTo(request, gopherUrl, targetFile, eventListener, 0, 0);
                     }
 
-                    /* close the socket to the server */
-                    gopherSocket.close();
-
-                    /* close the file stream */
-                    fileStream.close();
+                    if(!request.isCancelled()){
+                        /* report the exact final byte count */
+                        if(eventListener != null){
+                            eventListener.progress(gopherUrl, totalByteCount);
+                        }
 
-                    if(!clientObject.isCancelled()){
+                        request.complete(null);
                         if (eventListener != null) { 
                             eventListener.pageLoaded(null); 
                         } 
@@ -125,7 +451,8 @@ public class GopherClient {
                     if(createdFile.exists()){ createdFile.delete(); }
 
                     /* notify the handlers */
-                    if(!clientObject.isCancelled()){
+                    if(!request.isCancelled()){
+                        request.fail(new GopherNetworkException(GopherError.EXCEPTION, ex.getMessage()));
                         if (eventListener != null) { 
                             eventListener.pageLoadFailed(GopherError.EXCEPTION,new GopherUrl(url));
                         } 
@@ -134,8 +461,102 @@ public class GopherClient {
             } 
         });
 
-        /* start the new thread */
-        this.thread.start();        
+        return request;
+    }
+
+    /**
+     * Receives the content of a download into the target file
+     * on the current thread, the first bytes up to the offset
+     * are verified against the partial file instead of written
+     * 
+     * @param request
+     * The request of the download
+     * 
+     * @param gopherUrl
+     * The url to download the content from
+     * 
+     * @param targetFile
+     * The file to write the content to
+     * 
+     * @param eventListener
+     * Listener to report the progress to
+     * 
+     * @param resumeOffset
+     * Number of bytes of the partial file to verify
+     * 
+     * @param resumeChecksum
+     * CRC32 checksum of the bytes of the partial file
+     * 
+     * @return
+     * The number of bytes received or -1 when the
+     * content does not match the partial file
+     */
+    private long downloadTo(GopherRequest request, GopherUrl gopherUrl, String targetFile, GopherClientEventListener eventListener, long resumeOffset, long resumeChecksum) throws IOException {
+        long totalByteCount = 0;
+
+        /* create the output file channel to write to and the
+            socket channel, both are closed when leaving the block */
+        try(FileChannel fileChannel = FileChannel.open(new File(targetFile).toPath(), 
+                                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            SocketChannel socketChannel = openChannel(request, gopherUrl)){
+            /* keep the partial content only */
+            fileChannel.truncate(resumeOffset);
+            long filePosition = resumeOffset;
+
+            /* the checksum of the received part still to verify */
+            CRC32 checksum = (resumeOffset > 0) ? new CRC32() : null;
+
+            /* move the data from the socket channel to the file channel 
+                through a direct buffer without copying it into the heap */
+            ByteBuffer buffer = ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+            long lastReportTime = 0;
+            int read;
+            while ((read = socketChannel.read(buffer)) != -1) {
+                /* calculate total bytes received */
+                totalByteCount = totalByteCount + read;
+                request.setByteCount(totalByteCount);
+
+                if(checksum != null){
+                    /* add the bytes of the partial file to the checksum */
+                    buffer.flip();
+                    long verifiedCount = totalByteCount - buffer.remaining();
+                    int length = (int)Math.min(buffer.remaining(), resumeOffset - verifiedCount);
+                    ByteBuffer verifyBuffer = buffer.duplicate();
+                    verifyBuffer.limit(verifyBuffer.position() + length);
+                    checksum.update(verifyBuffer);
+                    buffer.position(buffer.position() + length);
+                    buffer.compact();
+
+                    if(verifiedCount + length == resumeOffset){
+                        if(checksum.getValue() != resumeChecksum){ return -1; }
+                        checksum = null;
+                    }
+                }else if(!buffer.hasRemaining()){
+                    /* write the buffer once it is full */
+                    buffer.flip();
+                    while(buffer.hasRemaining()){ filePosition += fileChannel.write(buffer, filePosition); }
+                    buffer.clear();
+                }
+
+                /* report byte count to listener in intervals */
+                long timeNow = System.currentTimeMillis();
+                if(timeNow - lastReportTime >= PROGRESS_REPORT_INTERVAL){
+                    lastReportTime = timeNow;
+                    if(!request.isCancelled() && eventListener != null){
+                        eventListener.progress(gopherUrl, totalByteCount);
+                    }
+                }
+            }
+
+            /* the content ended before the partial file */
+            if(checksum != null){ return -1; }
+
+            /* write the remaining data */
+            buffer.flip();
+            while(buffer.hasRemaining()){ filePosition += fileChannel.write(buffer, filePosition); }
+        }
+
+        return totalByteCount;
     }
 
     /**
@@ -149,38 +570,337 @@ public class GopherClient {
      * 
      * @param eventListener
      * the listener to report the result to
+     * 
+     * @return
+     * The request handle of this fetch
+     */
+    public GopherRequest fetchAsync(String url, GopherItemType contentType, GopherClientEventListener eventListener){
+        return this.fetchAsync(url, contentType, eventListener, null);
+    }
+
+    /**
+     * Fetches a gopher page asynchronously and reports the
+     * items of gopher menus while they are being received
+     * 
+     * @param url
+     * the url of the gopher page to fetch
+     * 
+     * @param contentType
+     * the expected content type of the url
+     * 
+     * @param eventListener
+     * the listener to report the result to
+     * 
+     * @param itemListener
+     * the listener to report each parsed menu item to
+     * 
+     * @return
+     * The request handle of this fetch
+     */
+    public GopherRequest fetchAsync(String url, GopherItemType contentType, GopherClientEventListener eventListener, GopherMenuParserListener itemListener){
+        return this.fetchAsync(url, contentType, eventListener, itemListener, false);
+    }
+
+    /**
+     * Fetches a gopher page asynchronously or serves it
+     * from the page cache when it was fetched recently
+     * 
+     * @param url
+     * the url of the gopher page to fetch
+     * 
+     * @param contentType
+     * the expected content type of the url
+     * 
+     * @param eventListener
+     * the listener to report the result to
+     * 
+     * @param itemListener
+     * the listener to report each parsed menu item to
+     * 
+     * @param useCache
+     * when true a page in the page cache is reported immediately
+     * on the calling thread instead of fetching it, on startup
+     * a copy from the disk cache is reported from a client thread
+     * 
+     * @return
+     * The request handle of this fetch
+     */
+    public GopherRequest fetchAsync(String url, GopherItemType contentType, GopherClientEventListener eventListener, GopherMenuParserListener itemListener, boolean useCache){
+        GopherRequest request = new GopherRequest(url, contentType);
+
+        if(useCache){
+            GopherPage cachedPage = this.pageCache.get(url, contentType);
+            if(cachedPage != null){
+                reportPage(request, eventListener, cachedPage);
+                return request;
+            }
+
+            /* read the copy on disk outside of the calling thread */
+            if(this.isServedFromDisk(url, contentType)){
+                this.startingUp = false;
+                this.loadDiskPage(request, eventListener, itemListener);
+                return request;
+            }
+
+            /* the page might have been prefetched already */
+            if(this.prefetcher != null){
+                GopherPage prefetchedPage = this.prefetcher.take(url, contentType);
+                if(prefetchedPage != null){
+                    this.storePage(url, contentType, prefetchedPage);
+                    reportPage(request, eventListener, prefetchedPage);
+                    return request;
+                }
+
+                GopherRequest prefetchRequest = this.prefetcher.claim(url, contentType);
+                if(prefetchRequest != null){
+                    this.joinPrefetch(request, prefetchRequest, eventListener, itemListener);
+                    return request;
+                }
+            }
+        }
+
+        this.startFetch(request, eventListener, itemListener);
+        return request;
+    }
+
+    /**
+     * Completes a request with a page and reports it to the listener,
+     * the text file of the page is held meanwhile so that it is not
+     * deleted before the listener holds it itself, a file nobody
+     * holds afterwards is deleted
+     * 
+     * @param request
+     * the request to complete
+     * 
+     * @param eventListener
+     * the listener to report the page to
+     * 
+     * @param page
+     * the page received
+     */
+    static void reportPage(GopherRequest request, GopherClientEventListener eventListener, GopherPage page){
+        GopherTextFile textFile = (page != null ? page.getTextFile() : null);
+        if(textFile != null){ textFile.retain(); }
+
+        try{
+            request.complete(page);
+            if (eventListener != null) { 
+                eventListener.pageLoaded(page); 
+            }
+        }finally{
+            if(textFile != null){ textFile.release(); }
+        }
+    }
+
+    /**
+     * Completes a request with the copy of the page from the
+     * disk cache on a client thread and refreshes the copy from 
+     * the network, or fetches it when the copy cannot be read
+     * 
+     * @param request
+     * the request with url and expected content type
+     * 
+     * @param eventListener
+     * the listener to report the result to
+     * 
+     * @param itemListener
+     * the listener to report each parsed menu item to
+     */
+    private void loadDiskPage(GopherRequest request, GopherClientEventListener eventListener, GopherMenuParserListener itemListener){
+        this.executor.execute(new Runnable() { 
+            public void run() { 
+                GopherPage diskPage = getDiskPage(request.getUrl(), request.getContentType());
+                if(request.isCancelled()){ return; }
+
+                if(diskPage != null){
+                    reportPage(request, eventListener, diskPage);
+
+                    /* replace the stored copy for the next visit */
+                    startFetch(new GopherRequest(request.getUrl(), request.getContentType()), null, null);
+                }else{
+                    startFetch(request, eventListener, itemListener);
+                }
+            }
+        });
+    }
+
+    /**
+     * Lets a request wait for the running prefetch of the
+     * same page and fetches it again when the prefetch failed
+     * 
+     * @param request
+     * The request of the user
+     * 
+     * @param prefetchRequest
+     * The running prefetch of the page
+     * 
+     * @param eventListener
+     * the listener to report the result to
+     * 
+     * @param itemListener
+     * the listener to report each parsed menu item to
      */
-    public void fetchAsync(String url, GopherItemType contentType, GopherClientEventListener eventListener){
-        /* instanciate the new thread */
-        GopherClient clientObject = this;
-        this.thread = new Thread(new Runnable() { 
+    private void joinPrefetch(GopherRequest request, GopherRequest prefetchRequest, GopherClientEventListener eventListener, GopherMenuParserListener itemListener){
+        String url = request.getUrl();
+        GopherItemType contentType = request.getContentType();
+
+        prefetchRequest.getFuture().whenComplete(new BiConsumer<GopherPage, Throwable>(){
+            @Override
+            public void accept(GopherPage page, Throwable error) {
+                if(page != null){
+                    if(!request.isCancelled()){
+                        storePage(url, contentType, page);
+                        reportPage(request, eventListener, page);
+                    }else if(page.getTextFile() != null){
+                        page.getTextFile().delete();
+                    }
+                }else if(error instanceof GopherItemTypeException){
+                    GopherItemTypeException ex = (GopherItemTypeException)error;
+                    if(!request.isCancelled()){
+                        request.fail(ex);
+                        if (eventListener != null) { 
+                            eventListener.pageLoadItemMismatch(ex.getRequestedType(),ex.getDetectedType(),new GopherUrl(url),ex.getTransfer());
+                        }
+                    }else if(ex.getTransfer() != null){
+                        ex.getTransfer().discard();
+                    }
+                }else if(!request.isCancelled()){
+                    /* the prefetch failed, try once more for the user */
+                    startFetch(request, eventListener, itemListener);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stores a received page in the page cache and persists
+     * menus and text files in the disk cache
+     * 
+     * @param url
+     * the url the page was requested with
+     * 
+     * @param contentType
+     * the content type the page was requested as
+     * 
+     * @param page
+     * the page received
+     */
+    private void storePage(String url, GopherItemType contentType, GopherPage page){
+        this.startingUp = false;
+        this.pageCache.put(url, contentType, page);
+
+        /* persist menus and text files in the background */
+        if(this.diskCache != null && page.getTextFile() == null
+            && (page.getContentType() == GopherItemType.GOPHERMENU 
+            || page.getContentType() == GopherItemType.TEXTFILE)){
+            this.executor.execute(new Runnable(){
+                @Override
+                public void run() {
+                    diskCache.put(GopherPageCache.getKey(url, contentType), page.getByteArray());
+                }
+            });
+        }
+    }
+
+    /**
+     * Starts fetching a request from the network on the
+     * selector engine or a thread of the client
+     * 
+     * @param request
+     * the request with url and expected content type
+     * 
+     * @param eventListener
+     * the listener to report the result to
+     * 
+     * @param itemListener
+     * the listener to report each parsed menu item to
+     */
+    private void startFetch(GopherRequest request, GopherClientEventListener eventListener, GopherMenuParserListener itemListener){
+        String url = request.getUrl();
+        GopherItemType contentType = request.getContentType();
+
+        /* store the page in the cache once it was received */
+        request.getFuture().thenAccept(new Consumer<GopherPage>(){
+            @Override
+            public void accept(GopherPage page) {
+                storePage(url, contentType, page);
+            }
+        });
+
+        /* show the cached copy when the network fails */
+        GopherClientEventListener resultListener = eventListener;
+        if(this.diskCache != null && eventListener != null){
+            resultListener = new OfflineListener(eventListener, url, contentType);
+        }
+
+        /* hand the fetch to the selector engine if enabled */
+        GopherSelectorEngine engine = this.getSelectorEngine();
+        if(engine != null){
+            engine.fetch(request, resultListener, itemListener);
+            return;
+        }
+
+        final GopherClientEventListener pageListener = resultListener;
+        this.executor.execute(new Runnable() { 
             public void run() { 
                 try{
-                    GopherPage resultPage = fetch(url, contentType, eventListener);
+                    GopherPage resultPage = fetch(request, pageListener, itemListener);
 
-                    if(!clientObject.isCancelled()){
-                        if (eventListener != null) { 
-                            eventListener.pageLoaded(resultPage); 
-                        } 
+                    if(!request.isCancelled()){
+                        reportPage(request, pageListener, resultPage);
+                    }else if(resultPage.getTextFile() != null){
+                        /* nobody is waiting for the text anymore */
+                        resultPage.getTextFile().delete();
                     }
                 }catch(GopherNetworkException ex){
-                    if(!clientObject.isCancelled()){
-                        if (eventListener != null) { 
-                            eventListener.pageLoadFailed(ex.getGopherErrorType(),new GopherUrl(url));
+                    if(!request.isCancelled()){
+                        request.fail(ex);
+                        if (pageListener != null) { 
+                            pageListener.pageLoadFailed(ex.getGopherErrorType(),new GopherUrl(url));
                         } 
                     }
                 }catch(GopherItemTypeException ex){
-                    if(!clientObject.isCancelled()){
-                        if (eventListener != null) { 
-                            eventListener.pageLoadItemMismatch(ex.getRequestedType(),ex.getDetectedType(),new GopherUrl(url));
+                    if(!request.isCancelled()){
+                        request.fail(ex);
+                        if (pageListener != null) { 
+                            pageListener.pageLoadItemMismatch(ex.getRequestedType(),ex.getDetectedType(),new GopherUrl(url),ex.getTransfer());
                         } 
+                    }else if(ex.getTransfer() != null){
+                        /* nobody is waiting for the content anymore */
+                        ex.getTransfer().discard();
                     }
                 }
             } 
         });
+    }
+
+    /**
+     * Prefetches a menu or text file in the background when
+     * prefetching is enabled and the page is not cached yet
+     * 
+     * @param url
+     * the url of the gopher page to prefetch
+     * 
+     * @param contentType
+     * the expected content type of the url
+     */
+    public void prefetch(String url, GopherItemType contentType){
+        if(this.prefetcher == null){ return; }
+        if(contentType != GopherItemType.GOPHERMENU && contentType != GopherItemType.TEXTFILE){ return; }
+
+        if(!this.pageCache.contains(url, contentType) && !this.isServedFromDisk(url, contentType)){
+            this.prefetcher.prefetch(url, contentType);
+        }
+    }
 
-        /* start the new thread */
-        this.thread.start();
+    /**
+     * Returns the prefetcher of this client
+     * 
+     * @return
+     * the prefetcher or null when prefetching is disabled
+     */
+    public GopherPrefetcher getPrefetcher(){
+        return this.prefetcher;
     }
 
     /**
@@ -205,20 +925,51 @@ public class GopherClient {
      * Exception with network information
      */
     public GopherPage fetch(String url, GopherItemType contentType, GopherClientEventListener eventListener) throws GopherNetworkException, GopherItemTypeException {
+        return this.fetch(new GopherRequest(url, contentType), eventListener, null);
+    }
+
+    /**
+     * Executes the fetch of a request on the current thread
+     * 
+     * @param request
+     * the request with url and expected content type
+     * 
+     * @param eventListener
+     * event listener to report progress to
+     * 
+     * @param itemListener
+     * listener to report parsed menu items to
+     * 
+     * @return
+     * the fetched gopher page object
+     * 
+     * @throws GopherNetworkException
+     * Exception with network information
+     */
+    GopherPage fetch(GopherRequest request, GopherClientEventListener eventListener, GopherMenuParserListener itemListener) throws GopherNetworkException, GopherItemTypeException {
         GopherPage result = null;
+        String url = request.getUrl();
+        GopherItemType contentType = request.getContentType();
 
-        try{
-            /* reset the cancellation indicator */
-            this.cancelled = false;
+        /* file for text too large to be kept in memory */
+        GopherTextFile textFile = null;
 
+        try{
             /* string result with content */
             ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 
+            /* parser for menus to emit items while receiving */
+            GopherMenuParser parser = GopherClient.createParser(request, itemListener);
+
+            /* decoder for text files to decode while receiving */
+            GopherTextDecoder decoder = GopherClient.createDecoder(request);
+
+            /* sniffers to verify the content type while receiving */
+            ContentSniffSession sniffSession = ContentSnifferRegistry.getDefault().createSession();
+
             /* parse the url and instanciate the client */
             GopherUrl gopherUrl = new GopherUrl(url);
-            Socket gopherSocket = new Socket(gopherUrl.getHost(), gopherUrl.getPort());
-            byte[] gopherRequest = (gopherUrl.getSelector() + "\r\n").getBytes(StandardCharsets.US_ASCII);
-            (new DataOutputStream(gopherSocket.getOutputStream())).write(gopherRequest);
+            Socket gopherSocket = this.openSocket(request, gopherUrl);
 
             /* read byte in chunks and report progress */
             int read;
@@ -228,60 +979,39 @@ public class GopherClient {
 
             /* read byte by byte to be able to report progress */
             while ((read = socketStream.read(data, 0, data.length)) != -1) {
-                /* check the file signature from the first bytes received */
-                if(totalByteCount == 0){
-                    FileSignature fileSignature = new FileSignature(data);
-                    FileSignatureType fileType = fileSignature.getSignatureItemType();
-
-                    /* check if the actual file type is an image */
-                    if(fileType == FileSignatureType.IMAGE && 
-                        (contentType != GopherItemType.IMAGE_FILE 
-                        || contentType != GopherItemType.GIF_FILE)){
-                        /* when the detected file signature is an image, but
-                            the original gopher item type defined is neither
-                            a generic image nor a gif file, simply fix the
-                            item type by setting it to an image */
-                        contentType = GopherItemType.IMAGE_FILE;
-                    }
-
-                    /* check if the actual file is a media file */
-                    if(fileType == FileSignatureType.MEDIA){
-                        /* fetching media files needs to be done
-                            through the download method. this method
-                            is for fetching gopher pages, text and images */
-                        throw new GopherItemTypeException(url, contentType, GopherItemType.SOUND_FILE);
-                    }if(fileType == FileSignatureType.BINARY){
-                        /* same goes for binary files */
-                        throw new GopherItemTypeException(url, contentType, GopherItemType.BINARY_FILE);
-                    }
+                /* verify the content type with the data received and hand
+                    the connection over to a transfer when it is a download */
+                try{
+                    contentType = GopherClient.verifyContentType(url, contentType, sniffSession, data, read, totalByteCount);
+                }catch(GopherItemTypeException ex){
+                    throw this.handOver(ex, textFile, buffer, data, read, totalByteCount, gopherSocket);
                 }
+                parser = GopherClient.verifyParser(parser, contentType);
+                decoder = GopherClient.verifyDecoder(decoder, contentType);
 
-                /* verify that the provided file is actually a text file
-                    as it seems to be getting very big and might be a 
-                    binary or media file */
-                if((contentType == GopherItemType.GOPHERMENU 
-                    || contentType == GopherItemType.TEXTFILE
-                    || contentType == GopherItemType.UNKNOWN)
-                    && totalByteCount > 200000){
-                    /* check if the data is text content or not */
-                    FileSignature largeSignature = new FileSignature(data);
-                    FileSignatureType largeType = largeSignature.getSignatureItemType();
-
-                    /* throw an exception when this file does not match */
-                    if(largeType != FileSignatureType.TEXT){
-                        /* throw the item type exception and define this as a generic binary */
-                        throw new GopherItemTypeException(url, contentType, GopherItemType.BINARY_FILE);
-                    }
+                /* move large text files out of memory into a file */
+                if(textFile == null && GopherClient.isTextFileThreshold(contentType, totalByteCount, read)){
+                    textFile = GopherClient.createTextFile(buffer);
+                    if(textFile != null){ decoder = null; }
                 }
 
-                /* write the data to the buffer */
-                buffer.write(data, 0, read);
+                /* write the data to the buffer or file */
+                if(textFile != null){
+                    textFile.write(data, 0, read);
+                }else{
+                    buffer.write(data, 0, read);
+                }
 
                 /* calculate total bytes read */
-                totalByteCount = totalByteCount + data.length;
+                totalByteCount = totalByteCount + read;
+                request.setByteCount(totalByteCount);
+
+                /* emit the menu items completed by this chunk */
+                if(parser != null){ parser.feed(data, 0, read); }
+                if(decoder != null){ decoder.feed(data, 0, read); }
 
                 /* report byte count to listener */
-                if(!this.isCancelled()){
+                if(!request.isCancelled()){
                     if(eventListener != null){
                         eventListener.progress(gopherUrl, totalByteCount);
                     }
@@ -291,8 +1021,21 @@ public class GopherClient {
             /* close the socket to the server */
             gopherSocket.close();
 
+            /* verify the type of content shorter than the sniffers need */
+            try{
+                contentType = GopherClient.finishContentType(url, contentType, sniffSession);
+            }catch(GopherItemTypeException ex){
+                throw this.handOver(ex, textFile, buffer, data, 0, totalByteCount, null);
+            }
+            parser = GopherClient.verifyParser(parser, contentType);
+
             /* set the result page */
-            result = new GopherPage(buffer.toByteArray(), contentType, gopherUrl);
+            if(textFile != null){
+                textFile.finish();
+                result = new GopherPage(textFile, gopherUrl);
+            }else{
+                result = GopherClient.createPage(buffer.toByteArray(), contentType, gopherUrl, parser, decoder);
+            }
         }catch(ConnectException ex){
             /* handle host connection errors */
             throw new GopherNetworkException(GopherError.CONNECT_FAILED, ex.getMessage());
@@ -309,8 +1052,490 @@ public class GopherClient {
             /* handle the error properly and raise and event */
             System.out.println("GOPHER NETWORK EXCEPTION: " + ex.getMessage());
             throw new GopherNetworkException(GopherError.EXCEPTION, ex.getMessage());
+        }finally{
+            /* drop the file of a text that was not received */
+            if(result == null && textFile != null){
+                textFile.delete();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Hands the content of a fetch that turned out to be a download
+     * over to a transfer which spools the bytes already received and
+     * continues to receive the rest from the same connection
+     * 
+     * @param mismatch
+     * the item type exception raised by the content verification
+     * 
+     * @param textFile
+     * the file with the start of the content or null
+     * 
+     * @param buffer
+     * the content received before the current chunk
+     * 
+     * @param data
+     * the current chunk of data
+     * 
+     * @param length
+     * the number of bytes in the current chunk
+     * 
+     * @param totalByteCount
+     * the number of bytes received before the current chunk
+     * 
+     * @param socket
+     * the socket to continue reading from or null when all 
+     * content was received already
+     * 
+     * @return
+     * the item type exception with the transfer or the original
+     * exception when the content could not be spooled
+     */
+    private GopherItemTypeException handOver(GopherItemTypeException mismatch, GopherTextFile textFile,
+                        ByteArrayOutputStream buffer, byte[] data, int length, long totalByteCount, Socket socket){
+        String url = mismatch.getRequestedUrl();
+        GopherUrl gopherUrl = new GopherUrl(url);
+
+        GopherTransfer transfer = null;
+        try{
+            transfer = new GopherTransfer(url, mismatch.getDetectedType());
+            if(textFile != null){ textFile.writeTo(transfer.getSpoolStream()); }
+            buffer.writeTo(transfer.getSpoolStream());
+            transfer.getSpoolStream().write(data, 0, length);
+        }catch(IOException ex){
+            /* without a spool the content needs to be fetched again */
+            System.out.println("Failed to spool transfer (" + url + "): " + ex.getMessage());
+            if(transfer != null){ transfer.discard(); }
+            if(socket != null){
+                try{
+                    socket.close();
+                }catch(IOException closeEx){
+                    System.out.println("Failed to close transfer: " + closeEx.getMessage());
+                }
+            }
+            return mismatch;
+        }
+
+        long byteCount = totalByteCount + length;
+        transfer.getRequest().setByteCount(byteCount);
+        transfer.progress(gopherUrl, byteCount);
+
+        if(socket == null){
+            /* the content ended with the chunk just received */
+            transfer.pageLoaded(null);
+        }else{
+            this.spool(transfer, socket, byteCount);
+        }
+
+        return new GopherItemTypeException(url, mismatch.getRequestedType(), mismatch.getDetectedType(), transfer);
+    }
+
+    /**
+     * Receives the rest of the content of a transfer from the
+     * socket into its spool file in the background
+     * 
+     * @param transfer
+     * the transfer to receive the content of
+     * 
+     * @param socket
+     * the socket to read the content from
+     * 
+     * @param byteCount
+     * the number of bytes received already
+     */
+    private void spool(GopherTransfer transfer, Socket socket, long byteCount){
+        GopherRequest request = transfer.getRequest();
+        GopherUrl gopherUrl = new GopherUrl(transfer.getUrl());
+
+        /* the socket of the page request now belongs to the transfer */
+        request.setCancelHandler(new Runnable(){
+            @Override
+            public void run() {
+                try{
+                    /* closing the socket aborts the blocking read */
+                    socket.close();
+                }catch(IOException ex){
+                    System.out.println("Failed to close cancelled transfer: " + ex.getMessage());
+                }
+            }
+        });
+
+        this.executor.execute(new Runnable() { 
+            public void run() { 
+                long totalByteCount = byteCount;
+                try(Socket transferSocket = socket;
+                    InputStream socketStream = transferSocket.getInputStream()){
+                    byte[] data = new byte[TRANSFER_BUFFER_SIZE];
+                    long lastReportTime = 0;
+                    int read;
+                    while ((read = socketStream.read(data, 0, data.length)) != -1) {
+                        transfer.getSpoolStream().write(data, 0, read);
+
+                        /* calculate total bytes received */
+                        totalByteCount = totalByteCount + read;
+                        request.setByteCount(totalByteCount);
+
+                        /* report byte count in intervals */
+                        long timeNow = System.currentTimeMillis();
+                        if(timeNow - lastReportTime >= PROGRESS_REPORT_INTERVAL){
+                            lastReportTime = timeNow;
+                            transfer.progress(gopherUrl, totalByteCount);
+                        }
+                    }
+
+                    if(!request.isCancelled()){
+                        /* report the exact final byte count */
+                        transfer.progress(gopherUrl, totalByteCount);
+                        transfer.pageLoaded(null);
+                    }
+                }catch(Exception ex){
+                    if(!request.isCancelled()){
+                        System.out.println("Transfer failed (" + transfer.getUrl() + "):" + ex.getMessage());
+                        transfer.pageLoadFailed(GopherError.EXCEPTION, gopherUrl);
+                    }
+                }
+            } 
+        });
+    }
+
+    /**
+     * Creates the streaming parser for requests of gopher menus
+     * which reports each parsed item unless the request was cancelled
+     * 
+     * @param request
+     * the request to create the parser for
+     * 
+     * @param itemListener
+     * the listener to report parsed items to
+     * 
+     * @return
+     * the parser or null when the request is not for a menu
+     */
+    static GopherMenuParser createParser(GopherRequest request, GopherMenuParserListener itemListener){
+        GopherMenuParser result = null;
+
+        if(request.getContentType() == GopherItemType.GOPHERMENU
+            || request.getContentType() == GopherItemType.UNKNOWN){
+            result = new GopherMenuParser(new GopherMenuParserListener(){
+                @Override
+                public void itemParsed(GopherItem item) {
+                    request.setFirstItemParsed();
+                    if(itemListener != null && !request.isCancelled()){
+                        itemListener.itemParsed(item);
+                    }
+                }
+            });
+        }
+
+        return result;
+    }
+
+    /**
+     * Drops the streaming parser once the content
+     * turned out not to be a gopher menu
+     * 
+     * @param parser
+     * the streaming parser of the request or null
+     * 
+     * @param contentType
+     * the verified content type
+     * 
+     * @return
+     * the parser or null when the content is no menu
+     */
+    static GopherMenuParser verifyParser(GopherMenuParser parser, GopherItemType contentType){
+        GopherMenuParser result = parser;
+
+        if(contentType != GopherItemType.GOPHERMENU
+            && contentType != GopherItemType.UNKNOWN){
+            result = null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates the streaming decoder for requests of text files
+     * or content of unknown type which might turn out to be text
+     * 
+     * @param request
+     * the request to create the decoder for
+     * 
+     * @return
+     * the decoder or null when the request is not for text
+     */
+    static GopherTextDecoder createDecoder(GopherRequest request){
+        GopherTextDecoder result = null;
+
+        if(request.getContentType() == GopherItemType.TEXTFILE
+            || request.getContentType() == GopherItemType.UNKNOWN){
+            result = new GopherTextDecoder();
+        }
+
+        return result;
+    }
+
+    /**
+     * Drops the streaming decoder once the content
+     * turned out not to be a text file
+     * 
+     * @param decoder
+     * the streaming decoder of the request or null
+     * 
+     * @param contentType
+     * the verified content type
+     * 
+     * @return
+     * the decoder or null when the content is no text
+     */
+    static GopherTextDecoder verifyDecoder(GopherTextDecoder decoder, GopherItemType contentType){
+        GopherTextDecoder result = decoder;
+
+        if(contentType != GopherItemType.TEXTFILE
+            && contentType != GopherItemType.UNKNOWN){
+            result = null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns whether the chunk just received makes a text
+     * file exceed the size that is kept in memory
+     * 
+     * @param contentType
+     * the verified content type
+     * 
+     * @param totalByteCount
+     * the number of bytes received before the chunk
+     * 
+     * @param length
+     * the number of bytes of the chunk
+     * 
+     * @return
+     * true when the text has to be moved to a file
+     */
+    static boolean isTextFileThreshold(GopherItemType contentType, long totalByteCount, int length){
+        long threshold = GopherTextFile.getThreshold();
+        return contentType == GopherItemType.TEXTFILE
+            && totalByteCount < threshold && totalByteCount + length >= threshold;
+    }
+
+    /**
+     * Creates the file for a text too large to be kept in
+     * memory and moves the content received so far into it
+     * 
+     * @param buffer
+     * the content received so far which is emptied
+     * 
+     * @return
+     * the text file or null when it cannot be created
+     */
+    static GopherTextFile createTextFile(ByteArrayOutputStream buffer){
+        GopherTextFile result = null;
+
+        try{
+            result = new GopherTextFile();
+            result.write(buffer.toByteArray(), 0, buffer.size());
+            buffer.reset();
+        }catch(IOException ex){
+            /* keep the text in memory when there is no file */
+            System.out.println("Failed to create text file: " + ex.getMessage());
+            if(result != null){ result.delete(); }
+            result = null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates the page for the content received and uses
+     * the items of the streaming parser for gopher menus
+     * and the text of the streaming decoder for text files
+     * 
+     * @param data
+     * the content received
+     * 
+     * @param contentType
+     * the detected content type
+     * 
+     * @param url
+     * the url of the page
+     * 
+     * @param parser
+     * the streaming parser of the request or null
+     * 
+     * @param decoder
+     * the streaming decoder of the request or null
+     * 
+     * @return
+     * the gopher page for the content
+     */
+    static GopherPage createPage(byte[] data, GopherItemType contentType, GopherUrl url, 
+                                    GopherMenuParser parser, GopherTextDecoder decoder){
+        GopherPage result;
+
+        if(parser != null && (contentType == GopherItemType.GOPHERMENU
+                            || contentType == GopherItemType.UNKNOWN)){
+            /* the menu was parsed while it was received */
+            parser.finish();
+            result = new GopherPage(data, url, parser.getItemList());
+        }else{
+            result = new GopherPage(data, contentType, url);
+
+            /* the text was decoded while it was received */
+            if(decoder != null && result.getContentType() == GopherItemType.TEXTFILE){
+                result.setText(decoder.finish());
+            }
         }
 
         return result;
     }
+
+    /**
+     * Verifies the content type of a fetch against the content
+     * sniffers while the first bytes are received and throws an
+     * item type exception when the content is media or binary data
+     * 
+     * @param url
+     * the url of the page being fetched
+     * 
+     * @param contentType
+     * the currently expected content type
+     * 
+     * @param session
+     * the sniffing session of the fetch
+     * 
+     * @param data
+     * the chunk of data just received
+     * 
+     * @param length
+     * the number of bytes in the chunk
+     * 
+     * @param totalByteCount
+     * the number of bytes received before this chunk
+     * 
+     * @return
+     * the corrected content type for the page
+     * 
+     * @throws GopherItemTypeException
+     * Exception when the content cannot be fetched as a page
+     */
+    static GopherItemType verifyContentType(String url, GopherItemType contentType, ContentSniffSession session, 
+                        byte[] data, int length, long totalByteCount) throws GopherItemTypeException {
+        /* sniff the first bytes until the sniffers decided */
+        if(!session.isDecided()){
+            FileSignatureType fileType = session.sniff(data, 0, length);
+            if(fileType != null){
+                contentType = GopherClient.applyContentVerdict(url, contentType, fileType);
+            }
+        }
+
+        /* verify that the provided file is actually a text file
+            as it seems to be getting very big and might be a 
+            binary or media file */
+        if((contentType == GopherItemType.GOPHERMENU 
+            || contentType == GopherItemType.TEXTFILE
+            || contentType == GopherItemType.UNKNOWN)
+            && totalByteCount > 200000){
+            /* check if the data is text content or not */
+            FileSignature largeSignature = new FileSignature(data, length);
+            FileSignatureType largeType = largeSignature.getSignatureItemType();
+
+            /* throw an exception when this file does not match */
+            if(largeType != FileSignatureType.TEXT){
+                /* throw the item type exception and define this as a generic binary */
+                throw new GopherItemTypeException(url, contentType, GopherItemType.BINARY_FILE);
+            }
+        }
+
+        return contentType;
+    }
+
+    /**
+     * Verifies the content type of a fetch that ended before
+     * the content sniffers could reach their verdict
+     * 
+     * @param url
+     * the url of the page being fetched
+     * 
+     * @param contentType
+     * the currently expected content type
+     * 
+     * @param session
+     * the sniffing session of the fetch
+     * 
+     * @return
+     * the corrected content type for the page
+     * 
+     * @throws GopherItemTypeException
+     * Exception when the content cannot be fetched as a page
+     */
+    static GopherItemType finishContentType(String url, GopherItemType contentType, ContentSniffSession session) throws GopherItemTypeException {
+        if(!session.isDecided()){
+            contentType = GopherClient.applyContentVerdict(url, contentType, session.finish());
+        }
+
+        return contentType;
+    }
+
+    /**
+     * Corrects the expected content type by the
+     * verdict of the content sniffers
+     * 
+     * @param url
+     * the url of the page being fetched
+     * 
+     * @param contentType
+     * the currently expected content type
+     * 
+     * @param fileType
+     * the type of content detected
+     * 
+     * @return
+     * the corrected content type for the page
+     * 
+     * @throws GopherItemTypeException
+     * Exception when the content cannot be fetched as a page
+     */
+    private static GopherItemType applyContentVerdict(String url, GopherItemType contentType, FileSignatureType fileType) throws GopherItemTypeException {
+        /* check if the actual file type is an image */
+        if(fileType == FileSignatureType.IMAGE && 
+            contentType != GopherItemType.IMAGE_FILE 
+            && contentType != GopherItemType.GIF_FILE){
+            /* when the detected file signature is an image, but
+                the original gopher item type defined is neither
+                a generic image nor a gif file, simply fix the
+                item type by setting it to an image */
+            contentType = GopherItemType.IMAGE_FILE;
+        }
+
+        /* check if the actual file is a media file */
+        if(fileType == FileSignatureType.MEDIA){
+            /* fetching media files needs to be done
+                through the download method. this method
+                is for fetching gopher pages, text and images */
+            throw new GopherItemTypeException(url, contentType, GopherItemType.SOUND_FILE);
+        }if(fileType == FileSignatureType.BINARY){
+            /* same goes for binary files */
+            throw new GopherItemTypeException(url, contentType, GopherItemType.BINARY_FILE);
+        }
+
+        /* html is shown as source rather than a broken menu */
+        if(fileType == FileSignatureType.HTML 
+            && (contentType == GopherItemType.GOPHERMENU 
+            || contentType == GopherItemType.UNKNOWN)){
+            contentType = GopherItemType.TEXTFILE;
+        }
+
+        /* settle the type of content requested without a type */
+        if(contentType == GopherItemType.UNKNOWN){
+            if(fileType == FileSignatureType.MENU){ contentType = GopherItemType.GOPHERMENU; }
+            if(fileType == FileSignatureType.TEXT){ contentType = GopherItemType.TEXTFILE; }
+        }
+
+        return contentType;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,592 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache for the content of gopher pages which
+ * appends all pages to a data file and finds them through
+ * a memory-mapped hash index of the cache keys
+ *
+ * Each record in the data file carries its key and a CRC
+ * and is verified when read, so an index slot that is stale
+ * or was torn by a crash results in a miss and never in
+ * wrong content. The index is rebuilt from the data file
+ * when it is missing or was left dirty by a compaction.
+ */
+public class GopherDiskCache {
+    /* names of the files inside the cache directory */
+    private static final String DATA_FILENAME = "pages.dat";
+    private static final String INDEX_FILENAME = "pages.idx";
+
+    /* identifiers of the index and the data records */
+    private static final int INDEX_MAGIC = 0x47504958;
+    private static final int INDEX_VERSION = 1;
+    private static final int RECORD_MAGIC = 0x47505243;
+
+    /* layout of the index header, slots and records */
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 24;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int RECORD_TRAILER_SIZE = 4;
+
+    /* initial number of slots and maximum fill ratio */
+    private static final int INITIAL_SLOT_COUNT = 1024;
+    private static final float MAX_LOAD_FACTOR = 0.7f;
+
+    /* the data and index files of this cache */
+    private File dataFile;
+    private File indexFile;
+    private FileChannel dataChannel;
+    private FileChannel indexChannel;
+    private FileLock indexLock;
+    private MappedByteBuffer index;
+
+    /* state of the index and the data file */
+    private int slotCount = 0;
+    private int usedCount = 0;
+    private long dataSize = 0;
+
+    /* maximum size of the data file in bytes */
+    private long sizeLimit;
+
+    /**
+     * Opens the cache in the directory and creates
+     * or repairs the index when necessary
+     *
+     * @param directory
+     * The directory to store the cache files in
+     *
+     * @param limit
+     * The maximum size of the data file in bytes
+     *
+     * @throws IOException
+     * When the files cannot be opened or are
+     * in use by another instance of the application
+     */
+    public GopherDiskCache(String directory, long limit) throws IOException {
+        this.sizeLimit = limit;
+
+        File cacheDirectory = new File(directory);
+        cacheDirectory.mkdirs();
+        this.dataFile = new File(cacheDirectory, DATA_FILENAME);
+        this.indexFile = new File(cacheDirectory, INDEX_FILENAME);
+
+        this.indexChannel = FileChannel.open(this.indexFile.toPath(), StandardOpenOption.CREATE,
+                                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try{
+            this.indexLock = this.indexChannel.tryLock();
+        }catch(OverlappingFileLockException ex){
+            /* already opened by this instance */
+            this.indexLock = null;
+        }
+        if(this.indexLock == null){
+            this.indexChannel.close();
+            throw new IOException("Disk cache is in use by another instance");
+        }
+
+        this.dataChannel = FileChannel.open(this.dataFile.toPath(), StandardOpenOption.CREATE,
+                                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if(this.loadIndex()){
+            /* index records appended after the last index update */
+            this.scanRecords(this.dataSize);
+        }else{
+            /* rebuild the index from all records */
+            System.out.println("Rebuilding disk cache index");
+            this.createIndex(INITIAL_SLOT_COUNT);
+            this.scanRecords(0);
+        }
+    }
+
+    /**
+     * Returns the content stored for a key
+     *
+     * @param key
+     * The cache key of the page
+     *
+     * @return
+     * The content as byte array or null if not cached
+     */
+    public synchronized byte[] get(String key){
+        byte[] result = null;
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+        int slot = this.findSlot(GopherDiskCache.getHash(keyBytes));
+        if(this.getSlotHash(slot) != 0){
+            try{
+                result = this.readRecord(this.getSlotOffset(slot), this.getSlotLength(slot), keyBytes);
+            }catch(IOException ex){
+                System.out.println("Failed to read from disk cache: " + ex.getMessage());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns whether content is stored for a key without
+     * reading it, colliding hashes may report false positives
+     *
+     * @param key
+     * The cache key of the page
+     *
+     * @return
+     * True when the key is likely cached
+     */
+    public synchronized boolean contains(String key){
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        return this.getSlotHash(this.findSlot(GopherDiskCache.getHash(keyBytes))) != 0;
+    }
+
+    /**
+     * Appends the content for a key to the cache and
+     * compacts the cache when it exceeds its size limit
+     *
+     * @param key
+     * The cache key of the page
+     *
+     * @param content
+     * The content of the page
+     */
+    public synchronized void put(String key, byte[] content){
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_HEADER_SIZE + keyBytes.length + content.length + RECORD_TRAILER_SIZE;
+
+        /* content bigger than the whole cache is not stored */
+        if(length > this.sizeLimit){ return; }
+
+        try{
+            /* build the record with its checksum */
+            ByteBuffer record = ByteBuffer.allocate(length);
+            record.putInt(RECORD_MAGIC);
+            record.putInt(keyBytes.length);
+            record.putInt(content.length);
+            record.put(keyBytes);
+            record.put(content);
+            CRC32 checksum = new CRC32();
+            checksum.update(record.array(), 0, record.position());
+            int crc = (int)checksum.getValue();
+            record.putInt(crc);
+            record.flip();
+
+            /* the record must be on disk before the index points to it */
+            long offset = this.dataSize;
+            while(record.hasRemaining()){
+                this.dataChannel.write(record, offset + record.position());
+            }
+            this.dataChannel.force(false);
+
+            this.putSlot(GopherDiskCache.getHash(keyBytes), offset, length, crc);
+            this.dataSize = offset + length;
+            this.writeHeader(INDEX_MAGIC);
+
+            if(this.dataSize > this.sizeLimit){
+                this.compact();
+            }
+        }catch(IOException ex){
+            System.out.println("Failed to write to disk cache: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of pages in the cache
+     *
+     * @return
+     * The number of pages as integer
+     */
+    public synchronized int getPageCount(){
+        return this.usedCount;
+    }
+
+    /**
+     * Returns the size of the data file
+     *
+     * @return
+     * The size of the data file in bytes
+     */
+    public synchronized long getByteSize(){
+        return this.dataSize;
+    }
+
+    /**
+     * Rewrites the data file with the most recently
+     * stored pages that fit into half of the size limit
+     */
+    private void compact() throws IOException {
+        /* collect the live records, newest first */
+        ArrayList<long[]> recordList = new ArrayList<long[]>();
+        for(int slot=0; slot<this.slotCount; slot++){
+            if(this.getSlotHash(slot) != 0){
+                recordList.add(new long[]{ this.getSlotOffset(slot), this.getSlotLength(slot),
+                                            this.getSlotHash(slot), this.getSlotCrc(slot) });
+            }
+        }
+        long[][] records = recordList.toArray(new long[recordList.size()][]);
+        Arrays.sort(records, new Comparator<long[]>(){
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Long.compare(b[0], a[0]);
+            }
+        });
+
+        long budget = this.sizeLimit / 2;
+        int keepCount = 0;
+        for(long[] record: records){
+            if(budget < record[1]){ break; }
+            budget -= record[1];
+            keepCount++;
+        }
+
+        /* copy the kept records in their original order */
+        File compactFile = new File(this.dataFile.getPath() + ".tmp");
+        FileChannel compactChannel = FileChannel.open(compactFile.toPath(), StandardOpenOption.CREATE,
+                                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        long position = 0;
+        try{
+            for(int i=keepCount-1; i>=0; i--){
+                long transferred = 0;
+                while(transferred < records[i][1]){
+                    transferred += this.dataChannel.transferTo(records[i][0] + transferred,
+                                        records[i][1] - transferred, compactChannel);
+                }
+                records[i][0] = position;
+                position += records[i][1];
+            }
+            compactChannel.force(false);
+        }finally{
+            compactChannel.close();
+        }
+
+        /* the index is dirty until it matches the new data file */
+        this.writeHeader(0);
+        this.index.force();
+
+        this.dataChannel.close();
+        Files.move(compactFile.toPath(), this.dataFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.dataChannel = FileChannel.open(this.dataFile.toPath(),
+                                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        this.clearSlots();
+        for(int i=0; i<keepCount; i++){
+            this.putSlot(records[i][2], records[i][0], (int)records[i][1], (int)records[i][3]);
+        }
+        this.dataSize = position;
+        this.writeHeader(INDEX_MAGIC);
+        this.index.force();
+    }
+
+    /**
+     * Maps the existing index file and validates it
+     *
+     * @return
+     * true when the index is valid, otherwise false
+     */
+    private boolean loadIndex() throws IOException {
+        if(this.indexChannel.size() < HEADER_SIZE){ return false; }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while(header.hasRemaining()){
+            if(this.indexChannel.read(header, header.position()) < 0){ return false; }
+        }
+        header.flip();
+
+        if(header.getInt(0) != INDEX_MAGIC || header.getInt(4) != INDEX_VERSION){ return false; }
+
+        int slots = header.getInt(8);
+        long size = header.getLong(16);
+        if(slots < INITIAL_SLOT_COUNT || Integer.bitCount(slots) != 1
+            || this.indexChannel.size() < HEADER_SIZE + (long)slots * SLOT_SIZE
+            || size > this.dataChannel.size()){
+            return false;
+        }
+
+        this.index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)slots * SLOT_SIZE);
+        this.slotCount = slots;
+        this.usedCount = header.getInt(12);
+        this.dataSize = size;
+
+        return true;
+    }
+
+    /**
+     * Creates an empty index with the number of slots
+     *
+     * @param slots
+     * The number of slots as power of two
+     */
+    private void createIndex(int slots) throws IOException {
+        this.indexChannel.truncate(0);
+        this.index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)slots * SLOT_SIZE);
+        this.slotCount = slots;
+        this.clearSlots();
+        this.dataSize = 0;
+        this.writeHeader(INDEX_MAGIC);
+    }
+
+    /**
+     * Indexes all valid records starting at the offset
+     * and truncates the data file after the last one
+     *
+     * @param offset
+     * The offset in the data file to start at
+     */
+    private void scanRecords(long offset) throws IOException {
+        long position = offset;
+        long fileSize = this.dataChannel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+        while(position + RECORD_HEADER_SIZE <= fileSize){
+            header.clear();
+            while(header.hasRemaining()){
+                this.dataChannel.read(header, position + header.position());
+            }
+
+            long length = (long)RECORD_HEADER_SIZE + header.getInt(4) + header.getInt(8) + RECORD_TRAILER_SIZE;
+            if(header.getInt(0) != RECORD_MAGIC || header.getInt(4) < 0 || header.getInt(8) < 0
+                || position + length > fileSize){
+                break;
+            }
+
+            /* verify the record before indexing it */
+            ByteBuffer record = ByteBuffer.allocate((int)length);
+            while(record.hasRemaining()){
+                this.dataChannel.read(record, position + record.position());
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(record.array(), 0, (int)length - RECORD_TRAILER_SIZE);
+            int crc = record.getInt((int)length - RECORD_TRAILER_SIZE);
+            if((int)checksum.getValue() != crc){ break; }
+
+            byte[] keyBytes = Arrays.copyOfRange(record.array(), RECORD_HEADER_SIZE, RECORD_HEADER_SIZE + header.getInt(4));
+            this.putSlot(GopherDiskCache.getHash(keyBytes), position, (int)length, crc);
+            position += length;
+        }
+
+        /* drop any partially written record */
+        if(position < fileSize){
+            this.dataChannel.truncate(position);
+        }
+
+        this.dataSize = position;
+        this.writeHeader(INDEX_MAGIC);
+    }
+
+    /**
+     * Reads and verifies a record from the data file
+     *
+     * @param offset
+     * The offset of the record in the data file
+     *
+     * @param length
+     * The length of the record
+     *
+     * @param keyBytes
+     * The expected key of the record
+     *
+     * @return
+     * The content of the record or null if invalid
+     */
+    private byte[] readRecord(long offset, int length, byte[] keyBytes) throws IOException {
+        if(offset + length > this.dataSize || length < RECORD_HEADER_SIZE + RECORD_TRAILER_SIZE){ return null; }
+
+        ByteBuffer record = ByteBuffer.allocate(length);
+        while(record.hasRemaining()){
+            if(this.dataChannel.read(record, offset + record.position()) < 0){ return null; }
+        }
+
+        int keyLength = record.getInt(4);
+        int contentLength = record.getInt(8);
+        if(record.getInt(0) != RECORD_MAGIC || keyLength != keyBytes.length
+            || RECORD_HEADER_SIZE + (long)keyLength + contentLength + RECORD_TRAILER_SIZE != length){
+            return null;
+        }
+
+        /* make sure the record matches the key and is intact */
+        byte[] data = record.array();
+        for(int i=0; i<keyLength; i++){
+            if(data[RECORD_HEADER_SIZE + i] != keyBytes[i]){ return null; }
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(data, 0, length - RECORD_TRAILER_SIZE);
+        if((int)checksum.getValue() != record.getInt(length - RECORD_TRAILER_SIZE)){ return null; }
+
+        int contentOffset = RECORD_HEADER_SIZE + keyLength;
+        return Arrays.copyOfRange(data, contentOffset, contentOffset + contentLength);
+    }
+
+    /**
+     * Writes the header of the index
+     *
+     * @param magic
+     * The magic number to write, zero marks the index dirty
+     */
+    private void writeHeader(int magic){
+        this.index.putInt(0, magic);
+        this.index.putInt(4, INDEX_VERSION);
+        this.index.putInt(8, this.slotCount);
+        this.index.putInt(12, this.usedCount);
+        this.index.putLong(16, this.dataSize);
+    }
+
+    /**
+     * Removes all entries from the index
+     */
+    private void clearSlots(){
+        for(int slot=0; slot<this.slotCount; slot++){
+            this.index.putLong(HEADER_SIZE + slot * SLOT_SIZE, 0);
+        }
+        this.usedCount = 0;
+    }
+
+    /**
+     * Stores the location of a record in the index and
+     * doubles the index when it gets too crowded
+     *
+     * @param hash
+     * The hash of the record key
+     *
+     * @param offset
+     * The offset of the record in the data file
+     *
+     * @param length
+     * The length of the record
+     *
+     * @param crc
+     * The checksum of the record
+     */
+    private void putSlot(long hash, long offset, int length, int crc) throws IOException {
+        if(this.usedCount + 1 > this.slotCount * MAX_LOAD_FACTOR){
+            this.growIndex();
+        }
+
+        int slot = this.findSlot(hash);
+        int position = HEADER_SIZE + slot * SLOT_SIZE;
+        if(this.index.getLong(position) == 0){ this.usedCount++; }
+
+        /* the hash is written last so a torn slot stays empty */
+        this.index.putLong(position + 8, offset);
+        this.index.putInt(position + 16, length);
+        this.index.putInt(position + 20, crc);
+        this.index.putLong(position, hash);
+    }
+
+    /**
+     * Doubles the number of slots of the index
+     */
+    private void growIndex() throws IOException {
+        int oldCount = this.slotCount;
+        long[][] slots = new long[this.usedCount][];
+        int count = 0;
+        for(int slot=0; slot<oldCount; slot++){
+            if(this.getSlotHash(slot) != 0){
+                slots[count++] = new long[]{ this.getSlotHash(slot), this.getSlotOffset(slot),
+                                                this.getSlotLength(slot), this.getSlotCrc(slot) };
+            }
+        }
+
+        this.writeHeader(0);
+        this.index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)oldCount * 2 * SLOT_SIZE);
+        this.slotCount = oldCount * 2;
+        this.clearSlots();
+        for(int i=0; i<count; i++){
+            this.putSlot(slots[i][0], slots[i][1], (int)slots[i][2], (int)slots[i][3]);
+        }
+        this.writeHeader(INDEX_MAGIC);
+    }
+
+    /**
+     * Finds the slot of a hash or the empty
+     * slot where it would be inserted
+     *
+     * @param hash
+     * The hash of the key to look for
+     *
+     * @return
+     * The number of the slot
+     */
+    private int findSlot(long hash){
+        int mask = this.slotCount - 1;
+        int slot = (int)(hash ^ (hash >>> 32)) & mask;
+
+        /* linear probing, the load factor guarantees an empty slot */
+        long slotHash = this.getSlotHash(slot);
+        while(slotHash != 0 && slotHash != hash){
+            slot = (slot + 1) & mask;
+            slotHash = this.getSlotHash(slot);
+        }
+
+        return slot;
+    }
+
+    private long getSlotHash(int slot){
+        return this.index.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private long getSlotOffset(int slot){
+        return this.index.getLong(HEADER_SIZE + slot * SLOT_SIZE + 8);
+    }
+
+    private int getSlotLength(int slot){
+        return this.index.getInt(HEADER_SIZE + slot * SLOT_SIZE + 16);
+    }
+
+    private int getSlotCrc(int slot){
+        return this.index.getInt(HEADER_SIZE + slot * SLOT_SIZE + 20);
+    }
+
+    /**
+     * Returns the 64-bit FNV-1a hash of a key,
+     * zero is reserved for empty slots
+     *
+     * @param keyBytes
+     * The key to hash
+     *
+     * @return
+     * The hash of the key
+     */
+    private static long getHash(byte[] keyBytes){
+        long result = 0xcbf29ce484222325L;
+
+        for(byte value: keyBytes){
+            result ^= (value & 0xff);
+            result *= 0x100000001b3L;
+        }
+
+        if(result == 0){ result = 1; }
+
+        return result;
+    }
+}
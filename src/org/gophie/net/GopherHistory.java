@@ -0,0 +1,384 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.gophie.config.ConfigurationManager;
+import org.gophie.net.GopherItem.GopherItemType;
+
+/**
+ * Browsing history that keeps the url, type and scroll
+ * position of every visited page, but only holds the
+ * content of the most recently used pages in memory
+ *
+ * Pages pushed out of memory are compressed into temporary
+ * files as long as the spill budget allows, any other page
+ * is dropped and has to be fetched again through the cache.
+ * Large texts are on disk already, their files are held
+ * and counted against the same budget instead.
+ */
+public class GopherHistory {
+    /* default number of pages kept in memory */
+    private static final String DEFAULT_MEMORY_PAGES = "10";
+
+    /* default budget of the spilled pages in megabytes */
+    private static final String DEFAULT_SPILL_LIMIT_MB = "64";
+
+    /* all entries of the history in browsing order */
+    private ArrayList<HistoryEntry> entryList = new ArrayList<HistoryEntry>();
+
+    /* entries holding their page, least recently used first */
+    private LinkedHashSet<HistoryEntry> memoryList = new LinkedHashSet<HistoryEntry>();
+
+    /* limits and usage of memory and disk */
+    private int memoryLimit = 10;
+    private long spillLimit = 0;
+    private long spillSize = 0;
+
+    /**
+     * A single page of the history
+     */
+    private class HistoryEntry {
+        private String url;
+        private GopherItemType contentType;
+        private int scrollPosition = 0;
+
+        /* the page when in memory */
+        private GopherPage page;
+
+        /* the compressed content when spilled */
+        private File spillFile;
+        private long spillFileSize = 0;
+
+        /* the length of the text file counted as spilled */
+        private long textFileSize = 0;
+
+        private HistoryEntry(GopherPage entryPage){
+            this.url = entryPage.getUrl().getUrlString();
+            this.contentType = entryPage.getContentType();
+            this.page = entryPage;
+        }
+    }
+
+    /**
+     * Constructs the history with the limits
+     * defined in the configuration
+     */
+    public GopherHistory(){
+        try{
+            this.memoryLimit = Integer.parseInt(ConfigurationManager.getConfigFile()
+                    .getSetting("HISTORY_MEMORY_PAGES", "Cache", DEFAULT_MEMORY_PAGES).trim());
+            this.spillLimit = Long.parseLong(ConfigurationManager.getConfigFile()
+                    .getSetting("HISTORY_SPILL_LIMIT_MB", "Cache", DEFAULT_SPILL_LIMIT_MB).trim()) * 1024 * 1024;
+        }catch(NumberFormatException ex){
+            System.out.println("Invalid history limits configured: " + ex.getMessage());
+        }
+
+        /* the current page is always kept in memory */
+        if(this.memoryLimit < 1){ this.memoryLimit = 1; }
+    }
+
+    /**
+     * Returns the number of entries in the history
+     *
+     * @return
+     * The number of entries as integer
+     */
+    public int size(){
+        return this.entryList.size();
+    }
+
+    /**
+     * Adds a page to the end of the history
+     *
+     * @param page
+     * The page to add
+     */
+    public void add(GopherPage page){
+        if(page.getTextFile() != null){ page.getTextFile().retain(); }
+
+        HistoryEntry entry = new HistoryEntry(page);
+        this.entryList.add(entry);
+        this.touch(entry);
+    }
+
+    /**
+     * Removes all entries from the index onwards
+     *
+     * @param count
+     * The number of entries to keep
+     */
+    public void truncate(int count){
+        while(this.entryList.size() > count){
+            HistoryEntry entry = this.entryList.remove(this.entryList.size()-1);
+            this.memoryList.remove(entry);
+            this.dropPage(entry);
+        }
+    }
+
+    /**
+     * Returns the url of an entry
+     *
+     * @param index
+     * The index of the entry
+     *
+     * @return
+     * The url of the entry as string
+     */
+    public String getUrl(int index){
+        return this.entryList.get(index).url;
+    }
+
+    /**
+     * Returns the content type of an entry
+     *
+     * @param index
+     * The index of the entry
+     *
+     * @return
+     * The content type of the page
+     */
+    public GopherItemType getContentType(int index){
+        return this.entryList.get(index).contentType;
+    }
+
+    /**
+     * Returns the scroll position of an entry
+     *
+     * @param index
+     * The index of the entry
+     *
+     * @return
+     * The vertical scroll position in pixels
+     */
+    public int getScrollPosition(int index){
+        return this.entryList.get(index).scrollPosition;
+    }
+
+    /**
+     * Sets the scroll position of an entry
+     *
+     * @param index
+     * The index of the entry
+     *
+     * @param value
+     * The vertical scroll position in pixels
+     */
+    public void setScrollPosition(int index, int value){
+        this.entryList.get(index).scrollPosition = value;
+    }
+
+    /**
+     * Returns the page of an entry from memory
+     * or restores it from its spill file
+     *
+     * @param index
+     * The index of the entry
+     *
+     * @return
+     * The page or null when it needs to be fetched again
+     */
+    public GopherPage getPage(int index){
+        HistoryEntry entry = this.entryList.get(index);
+
+        if(entry.page == null && entry.spillFile != null){
+            entry.page = this.restore(entry);
+        }
+
+        if(entry.page != null){
+            this.touch(entry);
+        }
+
+        return entry.page;
+    }
+
+    /**
+     * Sets the page of an entry after it was fetched again
+     *
+     * @param index
+     * The index of the entry
+     *
+     * @param page
+     * The page that was fetched
+     */
+    public void setPage(int index, GopherPage page){
+        HistoryEntry entry = this.entryList.get(index);
+
+        /* refreshed content replaces the spilled copy */
+        if(entry.page != page){
+            if(page.getTextFile() != null){ page.getTextFile().retain(); }
+            this.dropPage(entry);
+        }
+
+        entry.page = page;
+        entry.contentType = page.getContentType();
+        this.touch(entry);
+    }
+
+    /**
+     * Marks the entry as most recently used and pushes
+     * the least recently used pages out of memory
+     *
+     * @param entry
+     * The entry that was used
+     */
+    private void touch(HistoryEntry entry){
+        this.memoryList.remove(entry);
+        this.memoryList.add(entry);
+
+        while(this.memoryList.size() > this.memoryLimit){
+            HistoryEntry eldest = this.memoryList.iterator().next();
+            this.memoryList.remove(eldest);
+
+            /* text files only keep their row index in memory */
+            if(eldest.page.getTextFile() == null){
+                this.spill(eldest);
+                eldest.page = null;
+            }else{
+                this.keepTextFile(eldest);
+            }
+        }
+    }
+
+    /**
+     * Keeps the text file of an entry pushed out of memory
+     * when it fits into the spill budget or releases it
+     *
+     * @param entry
+     * The entry with a text file page
+     */
+    private void keepTextFile(HistoryEntry entry){
+        /* the file is counted already */
+        if(entry.textFileSize > 0){ return; }
+
+        long length = entry.page.getTextFile().getLength();
+        if(this.spillSize + length <= this.spillLimit){
+            entry.textFileSize = length;
+            this.spillSize += length;
+        }else{
+            this.dropPage(entry);
+        }
+    }
+
+    /**
+     * Drops the page of an entry with its spill file
+     * and releases the text file of the page
+     *
+     * @param entry
+     * The entry to drop the page of
+     */
+    private void dropPage(HistoryEntry entry){
+        if(entry.page != null && entry.page.getTextFile() != null){
+            entry.page.getTextFile().release();
+        }
+
+        this.spillSize -= entry.textFileSize;
+        entry.textFileSize = 0;
+        this.deleteSpillFile(entry);
+        entry.page = null;
+    }
+
+    /**
+     * Writes the compressed content of the entry to a
+     * temporary file when it fits into the spill budget
+     *
+     * @param entry
+     * The entry to spill
+     */
+    private void spill(HistoryEntry entry){
+        /* the content is already spilled or there is no budget left */
+        if(entry.spillFile != null || entry.page == null){ return; }
+        if(this.spillSize + entry.page.getByteArray().length > this.spillLimit){ return; }
+
+        File spillFile = null;
+        try{
+            spillFile = File.createTempFile("gophiehistory", ".z");
+            spillFile.deleteOnExit();
+
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try(DeflaterOutputStream outputStream = new DeflaterOutputStream(new FileOutputStream(spillFile), deflater)){
+                outputStream.write(entry.page.getByteArray());
+            }finally{
+                deflater.end();
+            }
+
+            entry.spillFile = spillFile;
+            entry.spillFileSize = spillFile.length();
+            this.spillSize += entry.spillFileSize;
+        }catch(IOException ex){
+            System.out.println("Failed to spill history page: " + ex.getMessage());
+            if(spillFile != null){ spillFile.delete(); }
+        }
+    }
+
+    /**
+     * Restores the page of an entry from its spill file
+     *
+     * @param entry
+     * The entry to restore
+     *
+     * @return
+     * The restored page or null on failure
+     */
+    private GopherPage restore(HistoryEntry entry){
+        GopherPage result = null;
+
+        try(InputStream inputStream = new InflaterInputStream(new FileInputStream(entry.spillFile))){
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[65536];
+            int length;
+            while((length = inputStream.read(buffer)) != -1){
+                content.write(buffer, 0, length);
+            }
+
+            result = new GopherPage(content.toByteArray(), entry.contentType, new GopherUrl(entry.url));
+        }catch(IOException ex){
+            System.out.println("Failed to restore history page: " + ex.getMessage());
+            this.deleteSpillFile(entry);
+        }
+
+        return result;
+    }
+
+    /**
+     * Deletes the spill file of an entry
+     *
+     * @param entry
+     * The entry to delete the spill file of
+     */
+    private void deleteSpillFile(HistoryEntry entry){
+        if(entry.spillFile != null){
+            entry.spillFile.delete();
+            this.spillSize -= entry.spillFileSize;
+            entry.spillFile = null;
+            entry.spillFileSize = 0;
+        }
+    }
+}
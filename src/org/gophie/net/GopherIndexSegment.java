@@ -0,0 +1,414 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+
+package org.gophie.net;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Immutable segment of the local page index which maps the
+ * terms of a range of documents to their postings
+ *
+ * The postings of every term are stored as pairs of the gap
+ * to the previous document and the term frequency, both as
+ * variable length integers. They are followed by the UTF-8
+ * bytes of all terms in sorted order, a dictionary with one
+ * fixed size entry per term and a trailer. The whole file is
+ * mapped and terms are found by binary search.
+ */
+class GopherIndexSegment {
+    /* identifiers of the segment file */
+    private static final int SEGMENT_MAGIC = 0x47534547;
+    private static final int SEGMENT_VERSION = 1;
+
+    /* layout of the dictionary entries and the trailer */
+    private static final int ENTRY_SIZE = 20;
+    private static final int TRAILER_SIZE = 40;
+
+    /* the file and its mapped content */
+    private File file;
+    private MappedByteBuffer data;
+
+    /* layout and document range of this segment */
+    private int termCount;
+    private int firstDoc;
+    private int termsOffset;
+    private int dictOffset;
+
+    /**
+     * Opens and maps an existing segment file
+     *
+     * @param segmentFile
+     * The file of the segment
+     *
+     * @throws IOException
+     * When the file cannot be read or is no valid segment
+     */
+    GopherIndexSegment(File segmentFile) throws IOException {
+        this.file = segmentFile;
+
+        try(FileChannel channel = FileChannel.open(segmentFile.toPath(), StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size < TRAILER_SIZE || size > Integer.MAX_VALUE){
+                throw new IOException("Invalid index segment " + segmentFile.getName());
+            }
+            this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        int trailer = this.data.capacity() - TRAILER_SIZE;
+        if(this.data.getInt(trailer) != SEGMENT_MAGIC || this.data.getInt(trailer + 4) != SEGMENT_VERSION){
+            throw new IOException("Invalid index segment " + segmentFile.getName());
+        }
+        this.termCount = this.data.getInt(trailer + 8);
+        this.firstDoc = this.data.getInt(trailer + 12);
+        this.termsOffset = this.data.getInt(trailer + 20);
+        this.dictOffset = this.data.getInt(trailer + 24);
+        if(this.dictOffset + (long)this.termCount * ENTRY_SIZE != trailer){
+            throw new IOException("Invalid index segment " + segmentFile.getName());
+        }
+    }
+
+    /**
+     * Returns the file of this segment
+     *
+     * @return
+     * The segment file
+     */
+    File getFile(){
+        return this.file;
+    }
+
+    /**
+     * Returns the size of the segment file
+     *
+     * @return
+     * The size in bytes
+     */
+    int getSize(){
+        return this.data.capacity();
+    }
+
+    /**
+     * Returns the first document of this segment
+     *
+     * @return
+     * The lowest document number in the segment
+     */
+    int getFirstDoc(){
+        return this.firstDoc;
+    }
+
+    /**
+     * Returns the number of terms in this segment
+     *
+     * @return
+     * The number of terms
+     */
+    int getTermCount(){
+        return this.termCount;
+    }
+
+    /**
+     * Finds the dictionary entry of a term
+     *
+     * @param term
+     * The UTF-8 bytes of the term
+     *
+     * @return
+     * The number of the entry or -1 if not present
+     */
+    int find(byte[] term){
+        int low = 0;
+        int high = this.termCount - 1;
+
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            int compare = this.compareTerm(middle, term);
+            if(compare < 0){
+                low = middle + 1;
+            }else if(compare > 0){
+                high = middle - 1;
+            }else{
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Compares the term of an entry with another term
+     * by the unsigned values of their bytes
+     *
+     * @param entry
+     * The number of the entry
+     *
+     * @param term
+     * The term to compare with
+     *
+     * @return
+     * Less than, equal to or greater than zero
+     */
+    private int compareTerm(int entry, byte[] term){
+        int position = this.dictOffset + entry * ENTRY_SIZE;
+        int offset = this.termsOffset + this.data.getInt(position);
+        int length = this.data.getInt(position + 4);
+
+        int count = Math.min(length, term.length);
+        for(int i=0; i<count; i++){
+            int compare = (this.data.get(offset + i) & 0xff) - (term[i] & 0xff);
+            if(compare != 0){ return compare; }
+        }
+
+        return length - term.length;
+    }
+
+    /**
+     * Returns the term of an entry
+     *
+     * @param entry
+     * The number of the entry
+     *
+     * @return
+     * The UTF-8 bytes of the term
+     */
+    byte[] getTerm(int entry){
+        int position = this.dictOffset + entry * ENTRY_SIZE;
+        byte[] result = new byte[this.data.getInt(position + 4)];
+        int offset = this.termsOffset + this.data.getInt(position);
+        for(int i=0; i<result.length; i++){
+            result[i] = this.data.get(offset + i);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of documents containing the term of an entry
+     *
+     * @param entry
+     * The number of the entry
+     *
+     * @return
+     * The document frequency of the term
+     */
+    int getDocFrequency(int entry){
+        return this.data.getInt(this.dictOffset + entry * ENTRY_SIZE + 16);
+    }
+
+    /**
+     * Decodes the postings of an entry into the arrays
+     * which need to hold at least the document frequency
+     *
+     * @param entry
+     * The number of the entry
+     *
+     * @param docs
+     * Receives the document numbers in ascending order
+     *
+     * @param frequencies
+     * Receives the frequency of the term in each document
+     */
+    void readPostings(int entry, int[] docs, int[] frequencies){
+        int position = this.dictOffset + entry * ENTRY_SIZE;
+        int offset = (int)this.data.getLong(position + 8);
+        int count = this.data.getInt(position + 16);
+
+        int doc = this.firstDoc;
+        for(int i=0; i<count; i++){
+            /* inlined variable length integers for speed */
+            int value = 0;
+            int shift = 0;
+            byte current;
+            do{
+                current = this.data.get(offset++);
+                value |= (current & 0x7f) << shift;
+                shift += 7;
+            }while(current < 0);
+            doc += value;
+
+            value = 0;
+            shift = 0;
+            do{
+                current = this.data.get(offset++);
+                value |= (current & 0x7f) << shift;
+                shift += 7;
+            }while(current < 0);
+
+            docs[i] = doc;
+            frequencies[i] = value;
+        }
+    }
+
+    /**
+     * Writes a new segment file from terms added in
+     * ascending order of their UTF-8 bytes
+     */
+    static class Writer {
+        private File file;
+        private DataOutputStream output;
+        private ByteArrayOutputStream terms = new ByteArrayOutputStream();
+        private int[] entries = new int[4096 * 3];
+        private long[] offsets = new long[4096];
+        private int termCount = 0;
+        private int firstDoc;
+        private int lastDoc;
+
+        /**
+         * Creates the segment file
+         *
+         * @param segmentFile
+         * The file to write the segment to
+         *
+         * @param first
+         * The lowest document number in the segment
+         *
+         * @param last
+         * The document number after the highest in the segment
+         *
+         * @throws IOException
+         * When the file cannot be created
+         */
+        Writer(File segmentFile, int first, int last) throws IOException {
+            this.file = segmentFile;
+            this.firstDoc = first;
+            this.lastDoc = last;
+            this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segmentFile), 65536));
+        }
+
+        /**
+         * Adds a term with its postings to the segment
+         *
+         * @param term
+         * The UTF-8 bytes of the term
+         *
+         * @param docs
+         * The document numbers in ascending order
+         *
+         * @param frequencies
+         * The frequency of the term in each document
+         *
+         * @param count
+         * The number of postings
+         */
+        void addTerm(byte[] term, int[] docs, int[] frequencies, int count) throws IOException {
+            if(count == 0){ return; }
+            if(this.termCount == this.offsets.length){
+                this.offsets = Arrays.copyOf(this.offsets, this.termCount * 2);
+                this.entries = Arrays.copyOf(this.entries, this.termCount * 6);
+            }
+
+            this.offsets[this.termCount] = this.output.size();
+            this.entries[this.termCount * 3] = this.terms.size();
+            this.entries[this.termCount * 3 + 1] = term.length;
+            this.entries[this.termCount * 3 + 2] = count;
+            this.terms.write(term);
+            this.termCount++;
+
+            int previous = this.firstDoc;
+            for(int i=0; i<count; i++){
+                this.writeVarInt(docs[i] - previous);
+                this.writeVarInt(frequencies[i]);
+                previous = docs[i];
+            }
+        }
+
+        /**
+         * Writes the terms, dictionary and trailer, forces
+         * the file to disk and opens it as segment
+         *
+         * @return
+         * The segment that was written
+         *
+         * @throws IOException
+         * When the segment could not be written
+         */
+        GopherIndexSegment finish() throws IOException {
+            try{
+                int termsOffset = this.output.size();
+                this.terms.writeTo(this.output);
+                int dictOffset = this.output.size();
+                for(int i=0; i<this.termCount; i++){
+                    this.output.writeInt(this.entries[i * 3]);
+                    this.output.writeInt(this.entries[i * 3 + 1]);
+                    this.output.writeLong(this.offsets[i]);
+                    this.output.writeInt(this.entries[i * 3 + 2]);
+                }
+
+                this.output.writeInt(SEGMENT_MAGIC);
+                this.output.writeInt(SEGMENT_VERSION);
+                this.output.writeInt(this.termCount);
+                this.output.writeInt(this.firstDoc);
+                this.output.writeInt(this.lastDoc);
+                this.output.writeInt(termsOffset);
+                this.output.writeInt(dictOffset);
+                this.output.write(new byte[TRAILER_SIZE - 28]);
+
+                /* DataOutputStream counts with an int only */
+                if(this.output.size() < 0){
+                    throw new IOException("Index segment exceeds 2 GB");
+                }
+                this.output.flush();
+            }finally{
+                this.output.close();
+            }
+
+            try(FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.WRITE)){
+                channel.force(true);
+            }
+
+            return new GopherIndexSegment(this.file);
+        }
+
+        /**
+         * Discards the unfinished segment file
+         */
+        void abort(){
+            try{
+                this.output.close();
+            }catch(IOException ex){
+                /* the file is deleted anyway */
+            }
+            this.file.delete();
+        }
+
+        /**
+         * Writes an integer with seven bits per byte
+         *
+         * @param value
+         * The positive integer to write
+         */
+        private void writeVarInt(int value) throws IOException {
+            while((value & ~0x7f) != 0){
+                this.output.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            this.output.write(value);
+        }
+    }
+}
@@ -18,7 +18,18 @@
 
 package org.gophie.net;
 
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public class GopherItem{
+    /* file sizes menus commonly add to the display string, e.g. 
+        "(1.2 MB)", "[512K]" or "3,400 bytes", a bare unit letter 
+        is only accepted directly before a closing bracket */
+    private static final Pattern SIZE_HINT_PATTERN = Pattern.compile(
+        "(?<![\\w.,])((?:\\d{1,3}(?:,\\d{3})+|\\d+)(?:\\.\\d+)?)\\s*(bytes?|b|[kmg]i?b|[kmg](?=\\s*[)\\]]))(?![\\w])",
+        Pattern.CASE_INSENSITIVE);
+
     /* defines the official types of gopher items */
     public enum GopherItemType {
         /* Canonical types */
@@ -64,6 +75,9 @@ public class GopherItem{
     /* defines the port number of this gopher item */
     private int portNumber = 70;
 
+    /* the url of this item, built once when first requested */
+    private String urlString = null;
+
     /* constructs the gopher item taking the single line
         and parsing its content into the structure of this
         object
@@ -137,6 +151,33 @@ public class GopherItem{
         this.userDisplayString = this.getFileName();        
     }
 
+    /**
+     * Constructs a gopher item from the fields
+     * of a menu line that was parsed already
+     * 
+     * @param itemTypeCode
+     * the type code of the gopher item as string
+     * 
+     * @param displayString
+     * the user display string of the item
+     * 
+     * @param itemSelector
+     * the selector of the item
+     * 
+     * @param itemHostName
+     * the host name of the item
+     * 
+     * @param itemPortNumber
+     * the port number of the item
+     */
+    GopherItem(String itemTypeCode, String displayString, String itemSelector, String itemHostName, int itemPortNumber){
+        this.setItemTypeByCode(itemTypeCode);
+        this.userDisplayString = displayString;
+        this.selector = itemSelector;
+        this.hostName = itemHostName;
+        this.portNumber = itemPortNumber;
+    }
+
     /**
      * Constructs an empty gopher item
      * 
@@ -197,6 +238,11 @@ public class GopherItem{
      * URL for this item as string
      */
     public String getUrlString(){
+        /* the item does not change, so the url is built only once */
+        if(this.urlString != null){
+            return this.urlString;
+        }
+
         String result = "";
 
         /* unknown or information links do not have
@@ -229,6 +275,7 @@ public class GopherItem{
             }
         }
 
+        this.urlString = result;
         return result;
     }
 
@@ -308,6 +355,31 @@ public class GopherItem{
         return result;
     }
 
+    /**
+     * Returns the size of the file as stated in the
+     * display string, using the last size mentioned
+     * 
+     * @return
+     * The size in bytes or -1 when no size is stated
+     */
+    public long getSizeHint(){
+        long result = -1;
+
+        Matcher matcher = SIZE_HINT_PATTERN.matcher(this.userDisplayString);
+        while(matcher.find()){
+            /* units are counted in powers of two as most 
+                servers do, which is close enough for a hint */
+            double size = Double.parseDouble(matcher.group(1).replace(",", ""));
+            char unit = matcher.group(2).toLowerCase(Locale.ROOT).charAt(0);
+            if(unit == 'k'){ size = size * 1024; }
+            if(unit == 'm'){ size = size * 1024 * 1024; }
+            if(unit == 'g'){ size = size * 1024 * 1024 * 1024; }
+            result = Math.round(size);
+        }
+
+        return result;
+    }
+
     /**
      * Returns the default file extension for 
      * the provided gopher item type
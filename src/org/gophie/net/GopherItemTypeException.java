@@ -31,6 +31,7 @@ public class GopherItemTypeException extends Exception {
     private String url;
     private GopherItemType requested;
     private GopherItemType detected;
+    private GopherTransfer transfer;
 
     /**
      * Constructs this exception
@@ -50,6 +51,27 @@ public class GopherItemTypeException extends Exception {
         this.detected = detectedType;
     }
 
+    /**
+     * Constructs this exception for content that
+     * continues to be received by a transfer
+     * 
+     * @param requestedUrl
+     * the requested gopher url for this item
+     * 
+     * @param requestedType
+     * the requested gopher type for this item
+     * 
+     * @param detectedType
+     * the detected gopher type for this item
+     * 
+     * @param detectedTransfer
+     * the transfer spooling the content received
+     */
+    public GopherItemTypeException(String requestedUrl, GopherItemType requestedType, GopherItemType detectedType, GopherTransfer detectedTransfer){
+        this(requestedUrl, requestedType, detectedType);
+        this.transfer = detectedTransfer;
+    }
+
     /**
      * Returns the requested url
      * 
@@ -79,4 +101,15 @@ public class GopherItemTypeException extends Exception {
     public GopherItemType getDetectedType(){
         return this.detected;
     }
+
+    /**
+     * Returns the transfer that continues to receive
+     * the content when it was handed over
+     * 
+     * @return
+     * the transfer or null when the content needs to be fetched again
+     */
+    public GopherTransfer getTransfer(){
+        return this.transfer;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,377 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.net;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.RandomAccess;
+
+/**
+ * Compact list of the items of a gopher menu which only stores
+ * the position of each line in the source code of the menu along
+ * with its type code and an index into a table of the distinct
+ * hosts and ports. The gopher items are created when accessed.
+ */
+public class GopherMenu extends AbstractList<GopherItem> implements RandomAccess {
+    /* number of recently accessed items kept */
+    private static final int CACHE_SIZE = 256;
+
+    /* the default port of gopher items */
+    private static final int DEFAULT_PORT = 70;
+
+    /* the charset to decode the lines with */
+    private Charset charset;
+
+    /* the source code of the menu once received */
+    private byte[] sourceCode = null;
+
+    /* position, type code and host of each line */
+    private int[] lineStart = new int[64];
+    private int[] lineEnd = new int[64];
+    private byte[] typeCode = new byte[64];
+    private int[] hostIndex = new int[64];
+    private int size = 0;
+
+    /* the distinct hosts and ports of all lines */
+    private HashMap<String, Integer> hostMap = new HashMap<String, Integer>();
+    private String[] hostList = new String[8];
+    private int[] portList = new int[8];
+    private int hostCount = 0;
+
+    /* items recently accessed by their index */
+    private GopherItem[] cacheItem = new GopherItem[CACHE_SIZE];
+    private int[] cacheIndex = new int[CACHE_SIZE];
+
+    /**
+     * Constructs an empty menu
+     * 
+     * @param menuCharset
+     * The charset to decode the lines with
+     */
+    GopherMenu(Charset menuCharset){
+        this.charset = menuCharset;
+        Arrays.fill(this.cacheIndex, -1);
+    }
+
+    /**
+     * Adds a line of the menu while it is being received
+     * 
+     * @param line
+     * The buffer with the bytes of the line
+     * 
+     * @param length
+     * The length of the line without line break
+     * 
+     * @param sourceOffset
+     * The offset of the line in the source code
+     * 
+     * @return
+     * The index of the line in this menu
+     */
+    int add(byte[] line, int length, int sourceOffset){
+        if(this.size == this.lineStart.length){
+            int capacity = this.size * 2;
+            this.lineStart = Arrays.copyOf(this.lineStart, capacity);
+            this.lineEnd = Arrays.copyOf(this.lineEnd, capacity);
+            this.typeCode = Arrays.copyOf(this.typeCode, capacity);
+            this.hostIndex = Arrays.copyOf(this.hostIndex, capacity);
+        }
+
+        this.lineStart[this.size] = sourceOffset;
+        this.lineEnd[this.size] = sourceOffset + length;
+        this.typeCode[this.size] = line[0];
+        this.hostIndex[this.size] = this.getHostIndex(line, 0, length);
+
+        return this.size++;
+    }
+
+    /**
+     * Sets the source code of the menu once it was received
+     * completely and releases the unused capacity
+     * 
+     * @param value
+     * The source code the lines were parsed from
+     */
+    void setSourceCode(byte[] value){
+        this.sourceCode = value;
+        this.lineStart = Arrays.copyOf(this.lineStart, this.size);
+        this.lineEnd = Arrays.copyOf(this.lineEnd, this.size);
+        this.typeCode = Arrays.copyOf(this.typeCode, this.size);
+        this.hostIndex = Arrays.copyOf(this.hostIndex, this.size);
+        this.hostMap = null;
+    }
+
+    @Override
+    public int size(){
+        return this.size;
+    }
+
+    @Override
+    public synchronized GopherItem get(int index){
+        if(index < 0 || index >= this.size){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+        if(this.sourceCode == null){
+            throw new IllegalStateException("Menu is still being received");
+        }
+
+        int slot = index % CACHE_SIZE;
+        if(this.cacheIndex[slot] != index){
+            this.cacheItem[slot] = this.createItem(this.sourceCode, this.lineStart[index], 
+                                        this.lineEnd[index], index);
+            this.cacheIndex[slot] = index;
+        }
+
+        return this.cacheItem[slot];
+    }
+
+    /**
+     * Returns the type code of an item without creating it
+     * 
+     * @param index
+     * The index of the item
+     * 
+     * @return
+     * The type code as character
+     */
+    public char getItemTypeCode(int index){
+        return (char)(this.typeCode[index] & 0xFF);
+    }
+
+    /**
+     * Returns the host name of an item without creating it
+     * 
+     * @param index
+     * The index of the item
+     * 
+     * @return
+     * The host name as string
+     */
+    public String getHostName(int index){
+        return this.hostList[this.hostIndex[index]];
+    }
+
+    /**
+     * Returns the port of an item without creating it
+     * 
+     * @param index
+     * The index of the item
+     * 
+     * @return
+     * The port number as integer
+     */
+    public int getPortNumber(int index){
+        return this.portList[this.hostIndex[index]];
+    }
+
+    /**
+     * Returns the redundant servers of an item, which are
+     * the mirror items listed directly after it in the menu
+     * 
+     * @param item
+     * The item to find the mirrors of
+     * 
+     * @return
+     * The mirror items in menu order, empty if there are none
+     */
+    public ArrayList<GopherItem> getMirrorList(GopherItem item){
+        ArrayList<GopherItem> result = new ArrayList<GopherItem>();
+        String url = item.getUrlString();
+
+        /* only items followed by mirrors need to be compared */
+        for(int i=1; i<this.size && result.isEmpty(); i++){
+            if(this.typeCode[i] == '+' && this.typeCode[i-1] != '+'
+                && this.get(i-1).getUrlString().equals(url)){
+                for(int j=i; j<this.size && this.typeCode[j] == '+'; j++){
+                    result.add(this.get(j));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the estimated number of bytes
+     * this menu occupies besides its source code
+     * 
+     * @return
+     * The estimated memory size in bytes
+     */
+    public long getMemorySize(){
+        long result = 128 + this.lineStart.length * 13L;
+
+        for(int i=0; i<this.hostCount; i++){
+            result += 48 + 2 * this.hostList[i].length();
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates the gopher item of a line
+     * 
+     * @param data
+     * The buffer with the line
+     * 
+     * @param start
+     * The offset of the line in the buffer
+     * 
+     * @param end
+     * The end of the line in the buffer
+     * 
+     * @param index
+     * The index of the line in this menu
+     * 
+     * @return
+     * The gopher item of the line
+     */
+    GopherItem createItem(byte[] data, int start, int end, int index){
+        int firstTab = GopherMenu.indexOfTab(data, start, end);
+        int secondTab = GopherMenu.indexOfTab(data, firstTab + 1, end);
+
+        /* the type code is the first character of the line */
+        String title = new String(data, start, firstTab - start, this.charset);
+        String itemTypeCode = (title.length() > 0) ? title.substring(0, 1) : "\t";
+
+        /* display string is the first field without type code */
+        title = GopherMenu.removeCarriageReturn(title);
+        String displayString = (title.length() > 1) ? title.substring(1) : "";
+
+        /* second field is the selector */
+        String selector = "";
+        if(firstTab < end){
+            selector = this.decodeField(data, firstTab + 1, secondTab);
+        }
+
+        return new GopherItem(itemTypeCode, displayString, selector, 
+                    this.getHostName(index), this.getPortNumber(index));
+    }
+
+    /**
+     * Returns the index of the host and port of a line
+     * in the host table and adds them when they are new
+     * 
+     * @param data
+     * The buffer with the line
+     * 
+     * @param start
+     * The offset of the line in the buffer
+     * 
+     * @param end
+     * The end of the line in the buffer
+     * 
+     * @return
+     * The index in the host table
+     */
+    private int getHostIndex(byte[] data, int start, int end){
+        int firstTab = GopherMenu.indexOfTab(data, start, end);
+        int secondTab = GopherMenu.indexOfTab(data, firstTab + 1, end);
+        int thirdTab = GopherMenu.indexOfTab(data, secondTab + 1, end);
+        int fourthTab = GopherMenu.indexOfTab(data, thirdTab + 1, end);
+
+        /* third field is the host and fourth field the port */
+        String hostName = (secondTab < end) ? this.decodeField(data, secondTab + 1, thirdTab) : "";
+        String port = (thirdTab < end) ? this.decodeField(data, thirdTab + 1, fourthTab) : "";
+
+        String key = hostName + "\t" + port;
+        Integer result = this.hostMap.get(key);
+        if(result == null){
+            int portNumber = DEFAULT_PORT;
+            if(port.length() > 0){
+                try{
+                    /* try to parse the port number */
+                    portNumber = Integer.parseInt(port);
+                }catch(Exception ex){
+                    /* report the failure */
+                    System.out.println("Found what was supposed to be a port number "
+                        + "and it did not parse into an integer: " + ex.getMessage());
+                }
+            }
+
+            if(this.hostCount == this.hostList.length){
+                this.hostList = Arrays.copyOf(this.hostList, this.hostCount * 2);
+                this.portList = Arrays.copyOf(this.portList, this.hostCount * 2);
+            }
+            this.hostList[this.hostCount] = hostName;
+            this.portList[this.hostCount] = portNumber;
+            result = this.hostCount++;
+            this.hostMap.put(key, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes a field of a line without
+     * surrounding whitespace
+     * 
+     * @param data
+     * The buffer with the line
+     * 
+     * @param start
+     * The offset of the field in the buffer
+     * 
+     * @param end
+     * The end of the field in the buffer
+     * 
+     * @return
+     * The field as string
+     */
+    private String decodeField(byte[] data, int start, int end){
+        return GopherMenu.removeCarriageReturn(new String(data, start, end - start, this.charset)).trim();
+    }
+
+    /**
+     * Returns the position of the next tab
+     * 
+     * @param data
+     * The buffer with the line
+     * 
+     * @param start
+     * The position to start searching at
+     * 
+     * @param end
+     * The end of the line in the buffer
+     * 
+     * @return
+     * The position of the tab or the end of the line
+     */
+    private static int indexOfTab(byte[] data, int start, int end){
+        int result = start;
+        while(result < end && data[result] != '\t'){ result++; }
+        return Math.min(result, end);
+    }
+
+    /**
+     * Removes carriage returns within a line
+     * 
+     * @param value
+     * The text to remove them from
+     * 
+     * @return
+     * The text without carriage returns
+     */
+    private static String removeCarriageReturn(String value){
+        return (value.indexOf('\r') >= 0) ? value.replace("\r", "") : value;
+    }
+}
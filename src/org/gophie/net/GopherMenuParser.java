@@ -0,0 +1,131 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.net;
+
+import java.util.Arrays;
+
+import org.gophie.net.event.GopherMenuParserListener;
+
+/**
+ * Push parser for gophermaps that turns the chunks of a
+ * menu into gopher items line by line while they arrive
+ * instead of waiting for the whole menu to be received
+ */
+public class GopherMenuParser {
+    /* bytes of the line currently being received */
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+
+    /* offsets of the current line and the next chunk in the menu */
+    private int lineOffset = 0;
+    private int sourceOffset = 0;
+
+    /* true once the menu terminator was received */
+    private boolean terminated = false;
+
+    /* all items parsed so far */
+    private GopherMenu menu;
+
+    /* listener to report new items to */
+    private GopherMenuParserListener eventListener;
+
+    /**
+     * Constructs the parser for a single menu
+     *
+     * @param listener
+     * The listener to report parsed items to or null
+     */
+    public GopherMenuParser(GopherMenuParserListener listener){
+        this.eventListener = listener;
+        this.menu = new GopherMenu(GopherPage.getDefaultCharset());
+    }
+
+    /**
+     * Parses the chunk of the menu and emits all
+     * lines completed by this chunk as items
+     *
+     * @param data
+     * The buffer with the chunk received
+     *
+     * @param offset
+     * The offset of the chunk in the buffer
+     *
+     * @param length
+     * The number of bytes of the chunk
+     */
+    public void feed(byte[] data, int offset, int length){
+        for(int i=offset; i<offset+length && !this.terminated; i++){
+            if(data[i] == '\n'){
+                this.parseLine();
+                this.lineOffset = this.sourceOffset + (i - offset) + 1;
+            }else{
+                /* grow the line buffer for overlong lines */
+                if(this.lineLength == this.line.length){
+                    this.line = Arrays.copyOf(this.line, this.line.length * 2);
+                }
+
+                this.line[this.lineLength++] = data[i];
+            }
+        }
+
+        this.sourceOffset += length;
+    }
+
+    /**
+     * Parses the last line when the connection closed
+     * without line break after it
+     */
+    public void finish(){
+        if(this.lineLength > 0 && !this.terminated){
+            this.parseLine();
+        }
+    }
+
+    /**
+     * Returns all items parsed so far which
+     * can be accessed once the source code is set
+     *
+     * @return
+     * GopherMenu with the parsed gopher items
+     */
+    public GopherMenu getItemList(){
+        return this.menu;
+    }
+
+    /**
+     * Creates the item for the completed line
+     */
+    private void parseLine(){
+        /* strip the carriage return of the line break */
+        int length = this.lineLength;
+        if(length > 0 && this.line[length-1] == '\r'){ length--; }
+        this.lineLength = 0;
+
+        if(length == 1 && this.line[0] == '.'){
+            /* the single dot terminates the menu */
+            this.terminated = true;
+        }else if(length > 0){
+            int index = this.menu.add(this.line, length, this.lineOffset);
+
+            if(this.eventListener != null){
+                this.eventListener.itemParsed(this.menu.createItem(this.line, 0, length, index));
+            }
+        }
+    }
+}
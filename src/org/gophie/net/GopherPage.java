@@ -19,8 +19,10 @@
 package org.gophie.net;
 
 import java.io.FileOutputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 
 import org.gophie.config.ConfigurationManager;
 import org.gophie.net.GopherItem.GopherItemType;
@@ -33,10 +35,15 @@ public class GopherPage {
     /* defines the default charset */
     private static final String GOPHERPAGE_DEFAULT_CHARSET = "UTF-8";
 
+    /* the charset resolved from the configuration */
+    private static Charset defaultCharset;
+
     /* local variables */
     private byte[] sourceCode;
+    private String text;
+    private GopherTextFile textFile;
     private GopherUrl url;
-    private ArrayList<GopherItem> itemList;
+    private List<GopherItem> itemList;
     private GopherItemType contentType = GopherItemType.UNKNOWN;
 
     /**
@@ -83,6 +90,67 @@ public class GopherPage {
         }
     }
 
+    /**
+     * Constructs the GopherPage object for a gopher menu
+     * that was already parsed while it was received
+     * 
+     * @param gopherPageSourceCode
+     * Source code or content of the gopher page
+     * 
+     * @param gopherPageUrl
+     * The URL of the gopher page
+     * 
+     * @param gopherMenu
+     * The items parsed from the source code
+     */
+    public GopherPage(byte[] gopherPageSourceCode, GopherUrl gopherPageUrl, GopherMenu gopherMenu){
+        this.sourceCode = gopherPageSourceCode;
+        this.url = gopherPageUrl;
+        this.itemList = gopherMenu;
+        gopherMenu.setSourceCode(gopherPageSourceCode);
+        this.contentType = GopherItemType.GOPHERMENU;
+    }
+
+    /**
+     * Constructs the GopherPage object for a text file
+     * that was spooled to a file while it was received
+     * 
+     * @param gopherTextFile
+     * The file with the content of the text file
+     * 
+     * @param gopherPageUrl
+     * The URL of the gopher page
+     */
+    public GopherPage(GopherTextFile gopherTextFile, GopherUrl gopherPageUrl){
+        this.textFile = gopherTextFile;
+        this.url = gopherPageUrl;
+        this.itemList = new ArrayList<GopherItem>();
+        this.contentType = GopherItemType.TEXTFILE;
+    }
+
+    /**
+     * Returns the charset configured for decoding the 
+     * content of gopher pages which is resolved only once
+     * 
+     * @return
+     * The configured charset or UTF-8 if invalid
+     */
+    public static synchronized Charset getDefaultCharset(){
+        if(GopherPage.defaultCharset == null){
+            GopherPage.defaultCharset = Charset.forName(GOPHERPAGE_DEFAULT_CHARSET);
+
+            try{
+                GopherPage.defaultCharset = Charset.forName(ConfigurationManager.getConfigFile()
+                    .getSetting("DEFAULT_CHARSET", "Network", GOPHERPAGE_DEFAULT_CHARSET));
+            }catch(Exception ex){
+                /* drop a quick info on the console when the charset is unknown */
+                System.out.println("Invalid charset configured: " + ex.getMessage());
+            }
+        }
+
+        return GopherPage.defaultCharset;
+    }
+
     /**
      * Returns the content type of this page
      * 
@@ -105,23 +173,139 @@ public class GopherPage {
     }
 
     /**
-     * Returns the raw bytes of the data received
+     * Returns the raw bytes of the data received, which
+     * reads text files spooled to a file into memory
      * 
      * @return
      * Byte array with the raw gopher page data
      */
     public byte[] getByteArray(){
+        if(this.sourceCode == null && this.textFile != null){
+            return this.textFile.getByteArray();
+        }
+
         return this.sourceCode;
     }
 
+    /**
+     * Returns the number of bytes of the data received
+     * 
+     * @return
+     * The size of the gopher page data in bytes
+     */
+    public long getSize(){
+        if(this.sourceCode == null && this.textFile != null){
+            return this.textFile.getLength();
+        }
+
+        return this.sourceCode.length;
+    }
+
+    /**
+     * Returns the file of a text file that was too 
+     * large to be kept in memory when it was received
+     * 
+     * @return
+     * The text file or null when the page is in memory
+     */
+    public GopherTextFile getTextFile(){
+        return this.textFile;
+    }
+
+    /**
+     * Returns the estimated number of bytes this page
+     * occupies in memory including its parsed items
+     *
+     * @return
+     * The estimated memory size in bytes
+     */
+    public long getMemorySize(){
+        long result = 64;
+
+        if(this.sourceCode != null){
+            result += 16 + this.sourceCode.length;
+        }
+
+        /* only the row index of text files is in memory */
+        if(this.textFile != null){
+            result += this.textFile.getMemorySize();
+        }
+
+        /* the decoded text once it was displayed */
+        if(this.text != null){
+            result += 40 + 2L * this.text.length();
+        }
+
+        /* menus only hold the positions of their items */
+        if(this.itemList instanceof GopherMenu){
+            result += ((GopherMenu)this.itemList).getMemorySize();
+        }
+
+        return result;
+    }
+
     /**
      * Sets the source code (gophermap) of this gopher page
      * 
      * @param value
      * The text value as supplied by the server
      */
-    public void setSourceCode(byte[] value){
+    public synchronized void setSourceCode(byte[] value){
         this.sourceCode = value;
+        this.text = null;
+    }
+
+    /**
+     * Sets the text of this page decoded while it was received
+     * 
+     * @param value
+     * The decoded text without the terminating line
+     */
+    synchronized void setText(String value){
+        this.text = value;
+    }
+
+    /**
+     * Returns the text of this page which is decoded only 
+     * once and without the terminating line of the server
+     * 
+     * @return
+     * The decoded text of this page
+     */
+    public synchronized CharSequence getText(){
+        /* text files are too large to keep their text */
+        if(this.sourceCode == null && this.textFile != null){
+            return this.textFile.getText();
+        }
+
+        if(this.text != null){ return this.text; }
+
+        GopherTextDecoder decoder = new GopherTextDecoder();
+        decoder.feed(this.sourceCode, 0, this.sourceCode.length);
+        String result = decoder.finish();
+
+        /* other pages rarely need their text and do not keep it,
+            so that their size does not change in the page cache */
+        if(this.isShownAsText()){
+            this.text = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns whether the page is displayed as text and
+     * keeps its decoded text, which is true for all pages
+     * in memory except for menus and images
+     * 
+     * @return
+     * true when the page keeps its decoded text
+     */
+    boolean isShownAsText(){
+        return this.sourceCode != null
+            && this.contentType != GopherItemType.GOPHERMENU
+            && this.contentType != GopherItemType.IMAGE_FILE
+            && this.contentType != GopherItemType.GIF_FILE;
     }
 
     /**
@@ -131,14 +315,7 @@ public class GopherPage {
      * The gophermap content as a String
      */
     public String getSourceCode(){
-        try{
-            return new String(this.sourceCode, ConfigurationManager.getConfigFile()
-                .getSetting("DEFAULT_CHARSET", "Network", GOPHERPAGE_DEFAULT_CHARSET));
-        }catch(Exception ex){
-            /* drop a quick info on the console when decoding fails */
-            System.out.println("Failed to decode bytes of Gopher Page: " + ex.getMessage());
-            return "";
-        }
+        return this.getText().toString();
     }
 
     /**
@@ -152,12 +329,12 @@ public class GopherPage {
     }
 
     /**
-     * Returns an array list with all gopher items of this page
+     * Returns a list with all gopher items of this page
      * 
      * @return
-     * ArrayList with all GopherItem objects
+     * List with all GopherItem objects
      */
-    public ArrayList<GopherItem> getItemList(){
+    public List<GopherItem> getItemList(){
         return this.itemList;
     }
 
@@ -168,20 +345,20 @@ public class GopherPage {
      * All text content of this page as string
      */
     public String getTextContent(){
-        String result = "";
+        StringBuilder result = new StringBuilder();
 
         if(this.itemList.size() > 0){
             /* get the actual text from all gopher items */
             for(GopherItem item: this.itemList){
-                result += item.getUserDisplayString() + "\n";
+                result.append(item.getUserDisplayString()).append("\n");
             }
         }else{
-            /* just return the source code and remove the
-                line termination from the gopher server */
-            return this.getSourceCode().replace("\r\n.\r\n", "");
+            /* the text is decoded without the line 
+                termination from the gopher server */
+            return this.getSourceCode();
         }
 
-        return result;
+        return result.toString();
     }
 
     /**
@@ -198,6 +375,12 @@ public class GopherPage {
         Boolean result = false;
 
         try{
+            /* copy the file of large text files */
+            if(this.sourceCode == null && this.textFile != null){
+                this.textFile.saveAs(fileName);
+                return true;
+            }
+
             /* store this page content to file */
             FileOutputStream fileOutput = new FileOutputStream(fileName);
             fileOutput.write(this.getByteArray());
@@ -242,13 +425,10 @@ public class GopherPage {
      * parses the local source code into components
      */
     private void parse(){
-        String[] itemSourceList = this.getSourceCode().split("\n");
-        for(int i=0; i<itemSourceList.length; i++){
-            String itemSource = itemSourceList[i];
-
-            if(itemSource.length() > 0 && itemSource.equals(".") == false){
-                this.itemList.add(new GopherItem(itemSource));
-            }
-        }
+        GopherMenuParser parser = new GopherMenuParser(null);
+        parser.feed(this.sourceCode, 0, this.sourceCode.length);
+        parser.finish();
+        parser.getItemList().setSourceCode(this.sourceCode);
+        this.itemList = parser.getItemList();
     }
 }
\ No newline at end of file
@@ -0,0 +1,339 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.net;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import org.gophie.net.GopherItem.GopherItemType;
+
+/**
+ * In-memory cache for gopher pages which is bounded by
+ * the estimated memory size of the pages it holds and
+ * evicts the least recently used pages first
+ *
+ * Large text files are kept on disk, their length is 
+ * counted against a separate budget for the files and
+ * the cache holds each file until the page is evicted.
+ */
+public class GopherPageCache {
+    /* pages by canonical key in access order */
+    private LinkedHashMap<String, CacheEntry> pageMap;
+
+    /* the byte budget and the bytes currently used */
+    private long byteLimit;
+    private long byteSize = 0;
+
+    /* the budget for text files on disk and the bytes used */
+    private long fileLimit = 0;
+    private long fileSize = 0;
+
+    /* statistics of this cache */
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * A page stored in the cache with its size
+     */
+    private class CacheEntry {
+        private GopherPage page;
+        private long size;
+        private long fileSize;
+
+        private CacheEntry(GopherPage cachedPage, long cachedSize, long cachedFileSize){
+            this.page = cachedPage;
+            this.size = cachedSize;
+            this.fileSize = cachedFileSize;
+        }
+    }
+
+    /**
+     * Constructs the cache with its byte budget
+     * which does not keep any text files
+     *
+     * @param limit
+     * Maximum number of bytes the pages may use,
+     * a limit of zero disables the cache
+     */
+    public GopherPageCache(long limit){
+        this(limit, 0);
+    }
+
+    /**
+     * Constructs the cache with its byte budget
+     * and the budget for text files on disk
+     *
+     * @param limit
+     * Maximum number of bytes the pages may use,
+     * a limit of zero disables the cache
+     *
+     * @param textFileLimit
+     * Maximum number of bytes of the text files
+     */
+    public GopherPageCache(long limit, long textFileLimit){
+        this.byteLimit = limit;
+        this.fileLimit = textFileLimit;
+        this.pageMap = new LinkedHashMap<String, CacheEntry>(64, 0.75f, true);
+    }
+
+    /**
+     * Returns the canonical key for a url and content type
+     *
+     * @param url
+     * The url of the page as string
+     *
+     * @param contentType
+     * The content type the page was requested as
+     *
+     * @return
+     * The canonical cache key as string
+     */
+    public static String getKey(String url, GopherItemType contentType){
+        GopherUrl gopherUrl = new GopherUrl(url);
+
+        /* strip the type prefix and default port, host names are case-insensitive */
+        String result = gopherUrl.getHost().toLowerCase() + ":" + gopherUrl.getPort();
+        String selector = gopherUrl.getUrlString(false);
+        if(selector.indexOf("/") > 0){
+            result += selector.substring(selector.indexOf("/"));
+        }
+
+        return GopherItem.getTypeCode(contentType) + result;
+    }
+
+    /**
+     * Returns a page from the cache
+     *
+     * @param url
+     * The url of the page as string
+     *
+     * @param contentType
+     * The content type the page was requested as
+     *
+     * @return
+     * The cached page or null if not cached
+     */
+    public synchronized GopherPage get(String url, GopherItemType contentType){
+        GopherPage result = null;
+
+        CacheEntry entry = this.pageMap.get(GopherPageCache.getKey(url, contentType));
+        if(entry != null){
+            result = entry.page;
+            this.hitCount++;
+        }else{
+            this.missCount++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns whether a page is in the cache without
+     * counting the lookup in the statistics
+     *
+     * @param url
+     * The url of the page as string
+     *
+     * @param contentType
+     * The content type the page was requested as
+     *
+     * @return
+     * True when the page is cached
+     */
+    public synchronized boolean contains(String url, GopherItemType contentType){
+        return this.pageMap.containsKey(GopherPageCache.getKey(url, contentType));
+    }
+
+    /**
+     * Removes a page from the cache, the text file 
+     * of the page is released by the cache
+     *
+     * @param url
+     * The url of the page as string
+     *
+     * @param contentType
+     * The content type the page was requested as
+     *
+     * @return
+     * The removed page or null if not cached
+     */
+    public synchronized GopherPage remove(String url, GopherItemType contentType){
+        GopherPage result = null;
+
+        CacheEntry entry = this.pageMap.remove(GopherPageCache.getKey(url, contentType));
+        if(entry != null){
+            result = entry.page;
+            this.drop(entry);
+        }
+
+        return result;
+    }
+
+    /**
+     * Stores a page in the cache and evicts the least
+     * recently used pages when exceeding the budget
+     *
+     * @param url
+     * The url the page was requested with
+     *
+     * @param contentType
+     * The content type the page was requested as
+     *
+     * @param page
+     * The page to store in the cache
+     */
+    public void put(String url, GopherItemType contentType, GopherPage page){
+        /* the size of a page is fixed while it is cached, so the
+            text it is displayed with is decoded before weighing it */
+        if(page.isShownAsText()){
+            page.getText();
+        }
+
+        synchronized(this){
+            this.store(url, contentType, page);
+        }
+    }
+
+    /**
+     * Stores a page that is weighed with all its content
+     *
+     * @param url
+     * The url the page was requested with
+     *
+     * @param contentType
+     * The content type the page was requested as
+     *
+     * @param page
+     * The page to store in the cache
+     */
+    private void store(String url, GopherItemType contentType, GopherPage page){
+        long size = page.getMemorySize();
+        GopherTextFile textFile = page.getTextFile();
+        long textFileSize = (textFile != null ? textFile.getLength() : 0);
+
+        /* pages bigger than the whole budget are not cached,
+            nor is the previous content of their url kept */
+        String key = GopherPageCache.getKey(url, contentType);
+        if(size > this.byteLimit || (textFile != null && textFileSize > this.fileLimit)){
+            CacheEntry outdated = this.pageMap.remove(key);
+            if(outdated != null){ this.drop(outdated); }
+            return;
+        }
+
+        /* hold the file before the previous entry may release it */
+        if(textFile != null){ textFile.retain(); }
+
+        CacheEntry previous = this.pageMap.put(key, new CacheEntry(page, size, textFileSize));
+        if(previous != null){
+            this.drop(previous);
+        }
+        this.byteSize += size;
+        this.fileSize += textFileSize;
+
+        /* evict the least recently used pages */
+        Iterator<Entry<String, CacheEntry>> iterator = this.pageMap.entrySet().iterator();
+        while((this.byteSize > this.byteLimit || this.fileSize > this.fileLimit) && iterator.hasNext()){
+            CacheEntry eldest = iterator.next().getValue();
+            iterator.remove();
+            this.drop(eldest);
+            this.evictionCount++;
+        }
+    }
+
+    /**
+     * Removes the size of an entry that left the
+     * cache and releases the text file of its page
+     *
+     * @param entry
+     * The entry that was removed
+     */
+    private void drop(CacheEntry entry){
+        this.byteSize -= entry.size;
+        this.fileSize -= entry.fileSize;
+        if(entry.page.getTextFile() != null){
+            entry.page.getTextFile().release();
+        }
+    }
+
+    /**
+     * Removes all pages from the cache
+     */
+    public synchronized void clear(){
+        for(CacheEntry entry: this.pageMap.values()){
+            if(entry.page.getTextFile() != null){
+                entry.page.getTextFile().release();
+            }
+        }
+        this.pageMap.clear();
+        this.byteSize = 0;
+        this.fileSize = 0;
+    }
+
+    /**
+     * Returns the number of pages in the cache
+     *
+     * @return
+     * The number of pages as integer
+     */
+    public synchronized int getPageCount(){
+        return this.pageMap.size();
+    }
+
+    /**
+     * Returns the estimated bytes used by the cached pages
+     *
+     * @return
+     * The number of bytes as long
+     */
+    public synchronized long getByteSize(){
+        return this.byteSize;
+    }
+
+    /**
+     * Returns the number of requests served from the cache
+     *
+     * @return
+     * The number of cache hits
+     */
+    public synchronized long getHitCount(){
+        return this.hitCount;
+    }
+
+    /**
+     * Returns the number of requests not found in the cache
+     *
+     * @return
+     * The number of cache misses
+     */
+    public synchronized long getMissCount(){
+        return this.missCount;
+    }
+
+    /**
+     * Returns the number of pages evicted from the cache
+     *
+     * @return
+     * The number of evictions
+     */
+    public synchronized long getEvictionCount(){
+        return this.evictionCount;
+    }
+}
@@ -0,0 +1,1204 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+
+package org.gophie.net;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.gophie.net.GopherItem.GopherItemType;
+
+/**
+ * Full-text index of the menus and text files visited which
+ * is kept on disk and ranks the pages with BM25
+ *
+ * Pages are handed to a background thread that tokenizes them
+ * and buffers their postings in memory. The buffer is flushed
+ * into an immutable segment when it is full or the browser is
+ * idle, and similar sized segments are merged in the background
+ * so that a search only has to look into a few of them.
+ *
+ * The documents are appended to a document file and a manifest
+ * records the segments and the length of the document file that
+ * belong to the index. The manifest is replaced atomically, so
+ * anything written after the last flush is dropped on a crash.
+ * A page visited again with changed content replaces its older
+ * document, which is dropped from the postings on the next merge.
+ */
+public class GopherPageIndex {
+    /* names of the files inside the index directory */
+    private static final String MANIFEST_FILENAME = "index.dat";
+    private static final String DOCUMENTS_FILENAME = "documents.dat";
+    private static final String LOCK_FILENAME = "index.lock";
+    private static final String SEGMENT_PREFIX = "segment";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /* identifiers of the manifest */
+    private static final int MANIFEST_MAGIC = 0x47504D46;
+    private static final int MANIFEST_VERSION = 1;
+
+    /* host and selector of the urls of local search results */
+    public static final String SEARCH_HOST = "localsearch";
+    private static final String SEARCH_SELECTOR = "/search/";
+
+    /* parameters of the BM25 ranking */
+    private static final float BM25_K1 = 1.2f;
+    private static final float BM25_B = 0.75f;
+
+    /* limits of the terms and documents indexed */
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 32;
+    private static final int MAX_DOCUMENT_LENGTH = 1048576;
+    private static final int MAX_TITLE_LENGTH = 100;
+
+    /* postings buffered in memory and idle time before a flush */
+    private static final int MAX_BUFFERED_POSTINGS = 1048576;
+    private static final long FLUSH_DELAY_MS = 5000;
+
+    /* number of segments merged at once and largest merge */
+    private static final int MERGE_FACTOR = 8;
+    private static final long MAX_MERGE_SIZE = 512L * 1024 * 1024;
+
+    /* number of pages waiting for the indexer */
+    private static final int QUEUE_CAPACITY = 64;
+
+    /**
+     * A page found by a search
+     */
+    public static class Hit {
+        private String url;
+        private String title;
+        private String typeCode;
+        private float score;
+
+        private Hit(String hitUrl, String hitTitle, String hitTypeCode, float hitScore){
+            this.url = hitUrl;
+            this.title = hitTitle;
+            this.typeCode = hitTypeCode;
+            this.score = hitScore;
+        }
+
+        /**
+         * Returns the url of the page
+         *
+         * @return
+         * The url as string
+         */
+        public String getUrl(){
+            return this.url;
+        }
+
+        /**
+         * Returns the first line of the page
+         *
+         * @return
+         * The title of the page
+         */
+        public String getTitle(){
+            return this.title;
+        }
+
+        /**
+         * Returns the item type code of the page
+         *
+         * @return
+         * The type code as string
+         */
+        public String getTypeCode(){
+            return this.typeCode;
+        }
+
+        /**
+         * Returns the BM25 score of the page
+         *
+         * @return
+         * The score, higher is better
+         */
+        public float getScore(){
+            return this.score;
+        }
+    }
+
+    /**
+     * Postings of a term that are not flushed yet
+     */
+    private static class PostingBuffer {
+        private int[] docs = new int[4];
+        private int[] frequencies = new int[4];
+        private int count = 0;
+
+        private void add(int doc, int frequency){
+            if(this.count == this.docs.length){
+                this.docs = Arrays.copyOf(this.docs, this.count * 2);
+                this.frequencies = Arrays.copyOf(this.frequencies, this.count * 2);
+            }
+            this.docs[this.count] = doc;
+            this.frequencies[this.count] = frequency;
+            this.count++;
+        }
+    }
+
+    /* files and locks of the index */
+    private File indexDirectory;
+    private FileChannel lockChannel;
+    private FileLock indexLock;
+    private FileChannel documentChannel;
+
+    /* the segments and the state recorded in the manifest */
+    private ArrayList<GopherIndexSegment> segmentList = new ArrayList<GopherIndexSegment>();
+    private int nextSegment = 0;
+    private int committedDocs = 0;
+    private long committedSize = 0;
+    private boolean closed = false;
+
+    /* location, length and content hash of the documents */
+    private int docCount = 0;
+    private long documentSize = 0;
+    private long[] docOffset = new long[1024];
+    private int[] docLength = new int[1024];
+    private int[] docHash = new int[1024];
+    private BitSet deletedDocs = new BitSet();
+    private int liveCount = 0;
+    private long liveLength = 0;
+
+    /* open addressing table of the latest document of a url */
+    private long[] urlHashes = new long[2048];
+    private int[] urlDocs = new int[2048];
+    private int urlCount = 0;
+
+    /* postings of the documents that are not flushed yet */
+    private HashMap<String, PostingBuffer> bufferMap = new HashMap<String, PostingBuffer>();
+    private int bufferedPostings = 0;
+    private int bufferFirstDoc = 0;
+
+    /* pages waiting for the indexer thread */
+    private LinkedBlockingQueue<GopherPage> pageQueue = new LinkedBlockingQueue<GopherPage>(QUEUE_CAPACITY);
+
+    /**
+     * Opens the index in the directory, drops anything not
+     * recorded in its manifest and starts the indexer thread
+     *
+     * @param directory
+     * The directory to store the index files in
+     *
+     * @throws IOException
+     * When the files cannot be opened or are
+     * in use by another instance of the application
+     */
+    public GopherPageIndex(String directory) throws IOException {
+        this.indexDirectory = new File(directory);
+        this.indexDirectory.mkdirs();
+
+        this.lockChannel = FileChannel.open(new File(this.indexDirectory, LOCK_FILENAME).toPath(),
+                                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try{
+            this.indexLock = this.lockChannel.tryLock();
+        }catch(OverlappingFileLockException ex){
+            /* already opened by this instance */
+            this.indexLock = null;
+        }
+        if(this.indexLock == null){
+            this.lockChannel.close();
+            throw new IOException("Page index is in use by another instance");
+        }
+
+        if(!this.loadManifest()){
+            System.out.println("Creating new local page index");
+            for(GopherIndexSegment segment: this.segmentList){
+                segment.getFile().delete();
+            }
+            this.segmentList.clear();
+            this.nextSegment = 0;
+            this.committedDocs = 0;
+            this.committedSize = 0;
+        }
+        this.deleteUnusedSegments();
+
+        /* documents after the last flush are not in any segment */
+        this.documentChannel = FileChannel.open(new File(this.indexDirectory, DOCUMENTS_FILENAME).toPath(),
+                                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if(this.documentChannel.size() > this.committedSize){
+            this.documentChannel.truncate(this.committedSize);
+        }
+        this.loadDocuments();
+        this.bufferFirstDoc = this.docCount;
+
+        Thread indexThread = new Thread(new Runnable(){
+            @Override
+            public void run() {
+                runIndexer();
+            }
+        }, "Gophie Page Indexer");
+        indexThread.setDaemon(true);
+        indexThread.setPriority(Thread.MIN_PRIORITY);
+        indexThread.start();
+
+        /* keep the pages indexed since the last flush */
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+            @Override
+            public void run() {
+                close();
+            }
+        }));
+    }
+
+    /**
+     * Queues a visited page for indexing, pages are
+     * dropped while the indexer is too far behind
+     *
+     * @param page
+     * The page that was visited
+     */
+    public void add(GopherPage page){
+        if(page.getContentType() != GopherItemType.GOPHERMENU
+            && page.getContentType() != GopherItemType.TEXTFILE){
+            return;
+        }
+        if(GopherPageIndex.isSearchUrl(page.getUrl())){ return; }
+
+        /* hold the text file until the page was indexed */
+        GopherTextFile textFile = page.getTextFile();
+        if(textFile != null){ textFile.retain(); }
+        if(!this.pageQueue.offer(page) && textFile != null){
+            textFile.release();
+        }
+    }
+
+    /**
+     * Finds the pages matching any of the words of
+     * the query and ranks them by their BM25 score
+     *
+     * @param query
+     * The words to search for
+     *
+     * @param limit
+     * The maximum number of pages returned
+     *
+     * @return
+     * The pages found with the best match first
+     */
+    public synchronized List<Hit> search(String query, int limit){
+        ArrayList<Hit> result = new ArrayList<Hit>();
+        HashMap<String, int[]> queryTerms = new HashMap<String, int[]>();
+        GopherPageIndex.tokenize(query, queryTerms);
+        if(queryTerms.isEmpty() || this.liveCount == 0){ return result; }
+
+        float[] scores = new float[this.docCount];
+        int[] touched = new int[256];
+        int touchedCount = 0;
+        int[] docs = new int[256];
+        int[] frequencies = new int[256];
+        float averageLength = Math.max(1f, (float)this.liveLength / this.liveCount);
+
+        for(String term: queryTerms.keySet()){
+            /* the document frequency is summed over all segments */
+            byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+            int[] entries = new int[this.segmentList.size()];
+            int frequency = 0;
+            for(int i=0; i<entries.length; i++){
+                entries[i] = this.segmentList.get(i).find(termBytes);
+                if(entries[i] >= 0){
+                    frequency += this.segmentList.get(i).getDocFrequency(entries[i]);
+                }
+            }
+            PostingBuffer buffer = this.bufferMap.get(term);
+            if(buffer != null){ frequency += buffer.count; }
+            if(frequency == 0){ continue; }
+
+            float idf = (float)Math.log(1 + (Math.max(this.liveCount - frequency, 0) + 0.5) / (frequency + 0.5));
+
+            /* the buffered postings are scored after the segments */
+            for(int i=0; i<=entries.length; i++){
+                int count;
+                int[] postingDocs = docs;
+                int[] postingFrequencies = frequencies;
+                if(i < entries.length){
+                    if(entries[i] < 0){ continue; }
+                    count = this.segmentList.get(i).getDocFrequency(entries[i]);
+                    if(docs.length < count){
+                        docs = new int[count];
+                        frequencies = new int[count];
+                        postingDocs = docs;
+                        postingFrequencies = frequencies;
+                    }
+                    this.segmentList.get(i).readPostings(entries[i], postingDocs, postingFrequencies);
+                }else{
+                    if(buffer == null){ continue; }
+                    count = buffer.count;
+                    postingDocs = buffer.docs;
+                    postingFrequencies = buffer.frequencies;
+                }
+
+                for(int j=0; j<count; j++){
+                    int doc = postingDocs[j];
+                    if(this.deletedDocs.get(doc)){ continue; }
+
+                    if(scores[doc] == 0){
+                        if(touchedCount == touched.length){ touched = Arrays.copyOf(touched, touchedCount * 2); }
+                        touched[touchedCount++] = doc;
+                    }
+
+                    float tf = postingFrequencies[j];
+                    float norm = BM25_K1 * (1 - BM25_B + BM25_B * this.docLength[doc] / averageLength);
+                    scores[doc] += idf * tf * (BM25_K1 + 1) / (tf + norm);
+                }
+            }
+        }
+
+        /* keep the best documents in a min-heap */
+        int[] heap = new int[Math.min(limit, touchedCount)];
+        int heapSize = 0;
+        for(int i=0; i<touchedCount && heap.length > 0; i++){
+            int doc = touched[i];
+            if(heapSize < heap.length){
+                heap[heapSize++] = doc;
+                GopherPageIndex.siftUp(heap, heapSize - 1, scores);
+            }else if(scores[doc] > scores[heap[0]]){
+                heap[0] = doc;
+                GopherPageIndex.siftDown(heap, heapSize, scores);
+            }
+        }
+
+        for(int i=0; i<heapSize; i++){
+            int doc = heap[i];
+            try{
+                result.add(this.readHit(doc, scores[doc]));
+            }catch(IOException ex){
+                System.out.println("Failed to read indexed page: " + ex.getMessage());
+            }
+        }
+        Collections.sort(result, new Comparator<Hit>(){
+            @Override
+            public int compare(Hit a, Hit b) {
+                return Float.compare(b.score, a.score);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Returns the number of pages in the index
+     *
+     * @return
+     * The number of pages as integer
+     */
+    public synchronized int getPageCount(){
+        return this.liveCount;
+    }
+
+    /**
+     * Flushes the pages indexed so far and stops
+     * accepting new pages
+     */
+    public synchronized void close(){
+        if(this.closed){ return; }
+
+        try{
+            this.flush();
+        }catch(IOException ex){
+            System.out.println("Failed to flush the page index: " + ex.getMessage());
+        }
+        this.closed = true;
+    }
+
+    /**
+     * Returns the url of the local search results of a query
+     *
+     * @param query
+     * The words to search for
+     *
+     * @return
+     * The url of the search results
+     */
+    public static String getSearchUrl(String query){
+        return SEARCH_HOST + ":0" + SEARCH_SELECTOR + query;
+    }
+
+    /**
+     * Returns whether the url is that of local search results
+     *
+     * @param url
+     * The url to check
+     *
+     * @return
+     * true when the url points to local search results
+     */
+    public static boolean isSearchUrl(GopherUrl url){
+        return url.getHost().equals(SEARCH_HOST) && url.getPort() == 0;
+    }
+
+    /**
+     * Returns the query of a local search url
+     *
+     * @param url
+     * The url of the search results
+     *
+     * @return
+     * The words searched for
+     */
+    public static String getSearchQuery(GopherUrl url){
+        String selector = url.getSelector();
+        if(url.hasTypePrefix()){ selector = selector.substring(2); }
+
+        String result = "";
+        if(selector.startsWith(SEARCH_SELECTOR)){
+            result = selector.substring(SEARCH_SELECTOR.length());
+        }
+
+        return result;
+    }
+
+    /**
+     * Indexes the queued pages, flushes when the buffer is
+     * full or no page arrived for a while and merges segments
+     */
+    private void runIndexer(){
+        while(true){
+            try{
+                GopherPage page = this.pageQueue.poll(FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+                if(page != null){
+                    try{
+                        this.index(page);
+                    }finally{
+                        if(page.getTextFile() != null){ page.getTextFile().release(); }
+                    }
+                }
+
+                if(page == null || this.bufferedPostings > MAX_BUFFERED_POSTINGS){
+                    synchronized(this){
+                        if(this.closed){ return; }
+                        this.flush();
+                    }
+                    while(this.merge()){
+                        /* merge until the segments are balanced */
+                    }
+                }
+            }catch(InterruptedException ex){
+                return;
+            }catch(IOException ex){
+                System.out.println("Failed to update the page index: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Adds a page to the documents and buffers its postings
+     * unless the same content is in the index already
+     *
+     * @param page
+     * The page to index
+     */
+    private void index(GopherPage page) throws IOException {
+        String url = page.getUrl().getUrlString();
+        long urlHash = GopherPageIndex.getHash(url);
+        String text = GopherPageIndex.getDocumentText(page);
+        int hash = text.hashCode();
+
+        /* pages shown again from the history are mostly unchanged */
+        synchronized(this){
+            int slot = this.findUrlSlot(urlHash);
+            if(this.urlHashes[slot] != 0 && this.docHash[this.urlDocs[slot]] == hash){ return; }
+        }
+
+        /* tokenizing happens outside of the lock */
+        HashMap<String, int[]> terms = new HashMap<String, int[]>();
+        int length = GopherPageIndex.tokenize(text, terms);
+        length += GopherPageIndex.tokenize(url, terms);
+        String title = GopherPageIndex.getTitle(text, url);
+
+        synchronized(this){
+            if(this.closed){ return; }
+
+            int slot = this.findUrlSlot(urlHash);
+            int previous = (this.urlHashes[slot] != 0) ? this.urlDocs[slot] : -1;
+            if(previous >= 0 && this.docHash[previous] == hash){ return; }
+
+            int doc = this.appendDocument(url, title, GopherItem.getTypeCode(page.getContentType()), hash, length);
+            if(previous >= 0){ this.deleteDocument(previous); }
+            this.putUrl(urlHash, doc);
+
+            for(Entry<String, int[]> term: terms.entrySet()){
+                PostingBuffer buffer = this.bufferMap.get(term.getKey());
+                if(buffer == null){
+                    buffer = new PostingBuffer();
+                    this.bufferMap.put(term.getKey(), buffer);
+                }
+                buffer.add(doc, term.getValue()[0]);
+            }
+            this.bufferedPostings += terms.size();
+        }
+    }
+
+    /**
+     * Returns the text of a page to index, text files
+     * are read from their file up to the maximum length
+     *
+     * @param page
+     * The page to get the text of
+     *
+     * @return
+     * The text of the page
+     */
+    private static String getDocumentText(GopherPage page){
+        GopherTextFile textFile = page.getTextFile();
+        if(textFile == null){
+            String result = page.getTextContent();
+            if(result.length() > MAX_DOCUMENT_LENGTH){
+                result = result.substring(0, MAX_DOCUMENT_LENGTH);
+            }
+            return result;
+        }
+
+        StringBuilder result = new StringBuilder();
+        for(int row=0; row<textFile.getRowCount() && result.length() < MAX_DOCUMENT_LENGTH; row+=1024){
+            for(String line: textFile.getRows(row, 1024)){
+                result.append(line).append('\n');
+            }
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Returns the first line with text as title
+     *
+     * @param text
+     * The text of the page
+     *
+     * @param url
+     * The url used when the page has no text
+     *
+     * @return
+     * The title of the page
+     */
+    private static String getTitle(String text, String url){
+        int start = 0;
+        while(start < text.length()){
+            int end = text.indexOf('\n', start);
+            if(end < 0){ end = text.length(); }
+
+            String line = text.substring(start, end).trim();
+            if(line.length() > 0){
+                return (line.length() > MAX_TITLE_LENGTH) ? line.substring(0, MAX_TITLE_LENGTH) : line;
+            }
+            start = end + 1;
+        }
+
+        return url;
+    }
+
+    /**
+     * Splits the text into lower case words of letters and
+     * digits and counts how often every word occurs
+     *
+     * @param text
+     * The text to split
+     *
+     * @param terms
+     * Receives the frequency of every term
+     *
+     * @return
+     * The number of terms in the text
+     */
+    private static int tokenize(String text, HashMap<String, int[]> terms){
+        int result = 0;
+        char[] term = new char[MAX_TERM_LENGTH];
+        int length = 0;
+        boolean tooLong = false;
+
+        for(int i=0; i<=text.length(); i++){
+            char value = (i < text.length()) ? text.charAt(i) : ' ';
+            if(Character.isLetterOrDigit(value)){
+                if(length < MAX_TERM_LENGTH){
+                    term[length++] = Character.toLowerCase(value);
+                }else{
+                    tooLong = true;
+                }
+            }else if(length > 0){
+                /* overlong words are mostly encoded data */
+                if(length >= MIN_TERM_LENGTH && !tooLong){
+                    String key = new String(term, 0, length);
+                    int[] frequency = terms.get(key);
+                    if(frequency == null){
+                        terms.put(key, new int[]{ 1 });
+                    }else{
+                        frequency[0]++;
+                    }
+                    result++;
+                }
+                length = 0;
+                tooLong = false;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Appends a document to the document file
+     *
+     * @return
+     * The number of the new document
+     */
+    private int appendDocument(String url, String title, String typeCode, int hash, int length) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(content);
+        output.writeInt(0);
+        output.writeInt(hash);
+        output.writeInt(length);
+        output.writeUTF(typeCode);
+        output.writeUTF(GopherPageIndex.truncate(url));
+        output.writeUTF(title);
+
+        ByteBuffer record = ByteBuffer.wrap(content.toByteArray());
+        record.putInt(0, record.capacity() - 4);
+        while(record.hasRemaining()){
+            this.documentChannel.write(record, this.documentSize + record.position());
+        }
+
+        int doc = this.addDocument(this.documentSize, hash, length);
+        this.documentSize += record.capacity();
+
+        return doc;
+    }
+
+    /**
+     * Adds a document to the tables in memory
+     *
+     * @return
+     * The number of the document
+     */
+    private int addDocument(long offset, int hash, int length){
+        if(this.docCount == this.docOffset.length){
+            this.docOffset = Arrays.copyOf(this.docOffset, this.docCount * 2);
+            this.docLength = Arrays.copyOf(this.docLength, this.docCount * 2);
+            this.docHash = Arrays.copyOf(this.docHash, this.docCount * 2);
+        }
+
+        this.docOffset[this.docCount] = offset;
+        this.docLength[this.docCount] = length;
+        this.docHash[this.docCount] = hash;
+        this.liveCount++;
+        this.liveLength += length;
+
+        return this.docCount++;
+    }
+
+    /**
+     * Marks a document as replaced by a newer one
+     *
+     * @param doc
+     * The number of the document
+     */
+    private void deleteDocument(int doc){
+        if(!this.deletedDocs.get(doc)){
+            this.deletedDocs.set(doc);
+            this.liveCount--;
+            this.liveLength -= this.docLength[doc];
+        }
+    }
+
+    /**
+     * Reads a document found by a search
+     *
+     * @param doc
+     * The number of the document
+     *
+     * @param score
+     * The score of the document
+     *
+     * @return
+     * The hit with the url and title of the document
+     */
+    private Hit readHit(int doc, float score) throws IOException {
+        long end = (doc + 1 < this.docCount) ? this.docOffset[doc + 1] : this.documentSize;
+        ByteBuffer record = ByteBuffer.allocate((int)(end - this.docOffset[doc]));
+        while(record.hasRemaining()){
+            if(this.documentChannel.read(record, this.docOffset[doc] + record.position()) < 0){
+                throw new IOException("Unexpected end of the document file");
+            }
+        }
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record.array(), 12, record.capacity() - 12));
+        String typeCode = input.readUTF();
+        String url = input.readUTF();
+        String title = input.readUTF();
+
+        return new Hit(url, title, typeCode, score);
+    }
+
+    /**
+     * Reads all documents of the document file and
+     * rebuilds the latest document of every url
+     */
+    private void loadDocuments() throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(
+                                    Channels.newInputStream(this.documentChannel.position(0)), 65536));
+        byte[] content = new byte[1024];
+        long offset = 0;
+
+        while(offset + 4 <= this.committedSize){
+            int length = input.readInt();
+            if(content.length < length){ content = new byte[length]; }
+            input.readFully(content, 0, length);
+
+            /* skip the type code before the url */
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(content, 8, length - 8));
+            record.readUTF();
+            String url = record.readUTF();
+
+            int doc = this.addDocument(offset, GopherPageIndex.getInt(content, 0), GopherPageIndex.getInt(content, 4));
+            long urlHash = GopherPageIndex.getHash(url);
+            int slot = this.findUrlSlot(urlHash);
+            if(this.urlHashes[slot] != 0){ this.deleteDocument(this.urlDocs[slot]); }
+            this.putUrl(urlHash, doc);
+
+            offset += 4 + length;
+        }
+
+        this.documentSize = offset;
+    }
+
+    private static int getInt(byte[] data, int offset){
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    /**
+     * Writes the postings buffered in memory into a new segment
+     * and commits it with the documents in the manifest
+     */
+    private synchronized void flush() throws IOException {
+        if(this.docCount == this.committedDocs){ return; }
+
+        if(!this.bufferMap.isEmpty()){
+            String[] terms = this.bufferMap.keySet().toArray(new String[this.bufferMap.size()]);
+            Arrays.sort(terms);
+
+            GopherIndexSegment.Writer writer = new GopherIndexSegment.Writer(
+                    this.getSegmentFile(this.nextSegment), this.bufferFirstDoc, this.docCount);
+            try{
+                int[] docs = new int[256];
+                int[] frequencies = new int[256];
+                for(String term: terms){
+                    PostingBuffer buffer = this.bufferMap.get(term);
+                    if(docs.length < buffer.count){
+                        docs = new int[buffer.count];
+                        frequencies = new int[buffer.count];
+                    }
+
+                    /* replaced documents are left out right away */
+                    int count = 0;
+                    for(int i=0; i<buffer.count; i++){
+                        if(!this.deletedDocs.get(buffer.docs[i])){
+                            docs[count] = buffer.docs[i];
+                            frequencies[count++] = buffer.frequencies[i];
+                        }
+                    }
+                    writer.addTerm(term.getBytes(StandardCharsets.UTF_8), docs, frequencies, count);
+                }
+                this.segmentList.add(writer.finish());
+                this.nextSegment++;
+            }catch(IOException ex){
+                writer.abort();
+                throw ex;
+            }
+        }
+
+        this.documentChannel.force(false);
+        this.committedDocs = this.docCount;
+        this.committedSize = this.documentSize;
+        this.writeManifest();
+
+        this.bufferMap.clear();
+        this.bufferedPostings = 0;
+        this.bufferFirstDoc = this.docCount;
+    }
+
+    /**
+     * Merges the smallest segments into one when there are
+     * too many, while searches continue on the old segments
+     *
+     * @return
+     * true when segments were merged
+     */
+    private boolean merge() throws IOException {
+        ArrayList<GopherIndexSegment> mergeList = new ArrayList<GopherIndexSegment>();
+        BitSet deleted;
+        File mergeFile;
+        int lastDoc;
+
+        synchronized(this){
+            if(this.closed || this.segmentList.size() < MERGE_FACTOR){ return false; }
+
+            ArrayList<GopherIndexSegment> sizeList = new ArrayList<GopherIndexSegment>(this.segmentList);
+            Collections.sort(sizeList, new Comparator<GopherIndexSegment>(){
+                @Override
+                public int compare(GopherIndexSegment a, GopherIndexSegment b) {
+                    return Integer.compare(a.getSize(), b.getSize());
+                }
+            });
+
+            long mergeSize = 0;
+            for(GopherIndexSegment segment: sizeList){
+                if(mergeList.size() == MERGE_FACTOR || mergeSize + segment.getSize() > MAX_MERGE_SIZE){ break; }
+                mergeList.add(segment);
+                mergeSize += segment.getSize();
+            }
+            if(mergeList.size() < 2){ return false; }
+
+            deleted = (BitSet)this.deletedDocs.clone();
+            mergeFile = this.getSegmentFile(this.nextSegment++);
+            lastDoc = this.committedDocs;
+        }
+
+        /* postings are concatenated in the order of the documents */
+        Collections.sort(mergeList, new Comparator<GopherIndexSegment>(){
+            @Override
+            public int compare(GopherIndexSegment a, GopherIndexSegment b) {
+                return Integer.compare(a.getFirstDoc(), b.getFirstDoc());
+            }
+        });
+
+        int segmentCount = mergeList.size();
+        int[] positions = new int[segmentCount];
+        byte[][] currentTerms = new byte[segmentCount][];
+        for(int i=0; i<segmentCount; i++){
+            if(mergeList.get(i).getTermCount() > 0){ currentTerms[i] = mergeList.get(i).getTerm(0); }
+        }
+
+        GopherIndexSegment.Writer writer = new GopherIndexSegment.Writer(mergeFile, mergeList.get(0).getFirstDoc(), lastDoc);
+        GopherIndexSegment merged;
+        try{
+            int[] docs = new int[256];
+            int[] frequencies = new int[256];
+            int[] segmentDocs = new int[256];
+            int[] segmentFrequencies = new int[256];
+
+            while(true){
+                /* find the smallest of the current terms */
+                byte[] term = null;
+                for(int i=0; i<segmentCount; i++){
+                    if(currentTerms[i] != null && (term == null || GopherPageIndex.compare(currentTerms[i], term) < 0)){
+                        term = currentTerms[i];
+                    }
+                }
+                if(term == null){ break; }
+
+                int count = 0;
+                for(int i=0; i<segmentCount; i++){
+                    if(currentTerms[i] == null || GopherPageIndex.compare(currentTerms[i], term) != 0){ continue; }
+
+                    GopherIndexSegment segment = mergeList.get(i);
+                    int frequency = segment.getDocFrequency(positions[i]);
+                    if(segmentDocs.length < frequency){
+                        segmentDocs = new int[frequency];
+                        segmentFrequencies = new int[frequency];
+                    }
+                    segment.readPostings(positions[i], segmentDocs, segmentFrequencies);
+
+                    if(docs.length < count + frequency){
+                        docs = Arrays.copyOf(docs, Math.max(docs.length * 2, count + frequency));
+                        frequencies = Arrays.copyOf(frequencies, docs.length);
+                    }
+                    for(int j=0; j<frequency; j++){
+                        if(!deleted.get(segmentDocs[j])){
+                            docs[count] = segmentDocs[j];
+                            frequencies[count++] = segmentFrequencies[j];
+                        }
+                    }
+
+                    positions[i]++;
+                    currentTerms[i] = (positions[i] < segment.getTermCount()) ? segment.getTerm(positions[i]) : null;
+                }
+
+                writer.addTerm(term, docs, frequencies, count);
+            }
+
+            merged = writer.finish();
+        }catch(IOException ex){
+            writer.abort();
+            throw ex;
+        }
+
+        synchronized(this){
+            if(this.closed){
+                mergeFile.delete();
+                return false;
+            }
+
+            this.segmentList.removeAll(mergeList);
+            this.segmentList.add(merged);
+            this.writeManifest();
+        }
+
+        /* segments still mapped elsewhere are removed on the next start */
+        for(GopherIndexSegment segment: mergeList){
+            segment.getFile().delete();
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the manifest and opens its segments
+     *
+     * @return
+     * true when the manifest and all segments are valid
+     */
+    private boolean loadManifest(){
+        File manifestFile = new File(this.indexDirectory, MANIFEST_FILENAME);
+        if(!manifestFile.exists()){ return false; }
+
+        try(DataInputStream input = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(manifestFile.toPath())))){
+            if(input.readInt() != MANIFEST_MAGIC || input.readInt() != MANIFEST_VERSION){ return false; }
+
+            this.nextSegment = input.readInt();
+            this.committedDocs = input.readInt();
+            this.committedSize = input.readLong();
+            int count = input.readInt();
+            for(int i=0; i<count; i++){
+                this.segmentList.add(new GopherIndexSegment(this.getSegmentFile(input.readInt())));
+            }
+        }catch(IOException ex){
+            System.out.println("Failed to read the page index: " + ex.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Replaces the manifest with the current segments
+     * and the committed length of the document file
+     */
+    private void writeManifest() throws IOException {
+        File manifestFile = new File(this.indexDirectory, MANIFEST_FILENAME);
+        File tempFile = new File(this.indexDirectory, MANIFEST_FILENAME + ".tmp");
+
+        try(FileOutputStream fileOutput = new FileOutputStream(tempFile)){
+            DataOutputStream output = new DataOutputStream(fileOutput);
+            output.writeInt(MANIFEST_MAGIC);
+            output.writeInt(MANIFEST_VERSION);
+            output.writeInt(this.nextSegment);
+            output.writeInt(this.committedDocs);
+            output.writeLong(this.committedSize);
+            output.writeInt(this.segmentList.size());
+            for(GopherIndexSegment segment: this.segmentList){
+                output.writeInt(this.getSegmentNumber(segment.getFile()));
+            }
+            output.flush();
+            fileOutput.getFD().sync();
+        }
+
+        Files.move(tempFile.toPath(), manifestFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes segment files which are not in the manifest
+     */
+    private void deleteUnusedSegments(){
+        LinkedHashSet<String> usedList = new LinkedHashSet<String>();
+        for(GopherIndexSegment segment: this.segmentList){
+            usedList.add(segment.getFile().getName());
+        }
+
+        File[] fileList = this.indexDirectory.listFiles();
+        if(fileList == null){ return; }
+        for(File file: fileList){
+            String name = file.getName();
+            if(name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX) && !usedList.contains(name)){
+                file.delete();
+            }
+        }
+    }
+
+    private File getSegmentFile(int number){
+        return new File(this.indexDirectory, SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    private int getSegmentNumber(File file){
+        String name = file.getName();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Finds the slot of a url hash or the empty
+     * slot where it would be inserted
+     *
+     * @param hash
+     * The hash of the url
+     *
+     * @return
+     * The number of the slot
+     */
+    private int findUrlSlot(long hash){
+        int mask = this.urlHashes.length - 1;
+        int slot = (int)(hash ^ (hash >>> 32)) & mask;
+
+        /* linear probing, the load factor guarantees an empty slot */
+        while(this.urlHashes[slot] != 0 && this.urlHashes[slot] != hash){
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Stores the latest document of a url and doubles
+     * the table when it is half full
+     *
+     * @param hash
+     * The hash of the url
+     *
+     * @param doc
+     * The number of the document
+     */
+    private void putUrl(long hash, int doc){
+        int slot = this.findUrlSlot(hash);
+        if(this.urlHashes[slot] == 0){
+            if((this.urlCount + 1) * 2 > this.urlHashes.length){
+                long[] hashes = this.urlHashes;
+                int[] docs = this.urlDocs;
+                this.urlHashes = new long[hashes.length * 2];
+                this.urlDocs = new int[hashes.length * 2];
+                for(int i=0; i<hashes.length; i++){
+                    if(hashes[i] != 0){
+                        int target = this.findUrlSlot(hashes[i]);
+                        this.urlHashes[target] = hashes[i];
+                        this.urlDocs[target] = docs[i];
+                    }
+                }
+                slot = this.findUrlSlot(hash);
+            }
+            this.urlCount++;
+        }
+
+        this.urlHashes[slot] = hash;
+        this.urlDocs[slot] = doc;
+    }
+
+    /**
+     * Returns the 64-bit FNV-1a hash of a url,
+     * zero is reserved for empty slots
+     *
+     * @param url
+     * The url to hash
+     *
+     * @return
+     * The hash of the url
+     */
+    private static long getHash(String url){
+        long result = 0xcbf29ce484222325L;
+
+        for(int i=0; i<url.length(); i++){
+            result ^= url.charAt(i);
+            result *= 0x100000001b3L;
+        }
+
+        if(result == 0){ result = 1; }
+
+        return result;
+    }
+
+    /**
+     * Cuts a value down to what fits into a modified UTF-8 string
+     *
+     * @param value
+     * The value to cut
+     *
+     * @return
+     * The value with at most 16384 characters
+     */
+    private static String truncate(String value){
+        return (value.length() > 16384) ? value.substring(0, 16384) : value;
+    }
+
+    /**
+     * Compares two terms by the unsigned values of their bytes
+     */
+    private static int compare(byte[] a, byte[] b){
+        int count = Math.min(a.length, b.length);
+        for(int i=0; i<count; i++){
+            int result = (a[i] & 0xff) - (b[i] & 0xff);
+            if(result != 0){ return result; }
+        }
+
+        return a.length - b.length;
+    }
+
+    /**
+     * Moves a document up the min-heap of the best scores
+     */
+    private static void siftUp(int[] heap, int index, float[] scores){
+        int doc = heap[index];
+        while(index > 0){
+            int parent = (index - 1) >>> 1;
+            if(scores[heap[parent]] <= scores[doc]){ break; }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = doc;
+    }
+
+    /**
+     * Moves the top document down the min-heap of the best scores
+     */
+    private static void siftDown(int[] heap, int size, float[] scores){
+        int index = 0;
+        int doc = heap[0];
+        while(true){
+            int child = index * 2 + 1;
+            if(child >= size){ break; }
+            if(child + 1 < size && scores[heap[child + 1]] < scores[heap[child]]){ child++; }
+            if(scores[heap[child]] >= scores[doc]){ break; }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = doc;
+    }
+}
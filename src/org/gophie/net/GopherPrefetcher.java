@@ -0,0 +1,400 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.net;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.gophie.net.GopherItem.GopherItemType;
+import org.gophie.net.event.*;
+
+/**
+ * Fetches menus and text files the user is likely to open
+ * next in the background and keeps them in a small store
+ * separate from the page cache, so that speculative pages
+ * never push out the pages that were actually visited
+ *
+ * Waiting prefetches are started newest first and only
+ * while the host of the page has a free connection slot.
+ * A prefetch is aborted once it receives more bytes than
+ * the store keeps, so hovering over a large file does not
+ * download it in the background.
+ */
+public class GopherPrefetcher {
+    /* maximum number of prefetches waiting for a slot */
+    private static final int WAITING_LIMIT = 16;
+
+    /* the client fetching the pages */
+    private GopherClient client;
+
+    /* the fetched pages waiting to be opened and their budget */
+    private GopherPageCache pageStore;
+    private long byteLimit;
+
+    /* prefetches by cache key, waiting and running */
+    private HashMap<String, PrefetchEntry> entryMap = new HashMap<String, PrefetchEntry>();
+
+    /* prefetches not started yet, newest first */
+    private ArrayDeque<PrefetchEntry> waitingList = new ArrayDeque<PrefetchEntry>();
+
+    /* number of running prefetches by host */
+    private HashMap<String, Integer> hostMap = new HashMap<String, Integer>();
+
+    /* connection limits */
+    private int hostConnectionLimit;
+    private int connectionLimit;
+    private int connectionCount = 0;
+
+    /* low priority threads running the prefetches */
+    private ExecutorService executor;
+
+    /* statistics of the prefetcher */
+    private long startCount = 0;
+    private long hitCount = 0;
+    private long joinCount = 0;
+    private long failCount = 0;
+    private long dropCount = 0;
+
+    /**
+     * A single page to prefetch
+     */
+    private class PrefetchEntry {
+        private String key;
+        private String host;
+        private GopherRequest request;
+        private boolean running = false;
+        private boolean claimed = false;
+        private boolean aborted = false;
+
+        private PrefetchEntry(String entryKey, String entryHost, GopherRequest entryRequest){
+            this.key = entryKey;
+            this.host = entryHost;
+            this.request = entryRequest;
+        }
+    }
+
+    /**
+     * Constructs the prefetcher with its limits
+     *
+     * @param gopherClient
+     * The client to fetch the pages with
+     *
+     * @param byteLimit
+     * Maximum number of bytes of prefetched pages kept
+     *
+     * @param hostLimit
+     * Maximum number of concurrent prefetches per host
+     *
+     * @param totalLimit
+     * Maximum number of concurrent prefetches overall
+     */
+    public GopherPrefetcher(GopherClient gopherClient, long byteLimit, int hostLimit, int totalLimit){
+        this.client = gopherClient;
+        this.pageStore = new GopherPageCache(byteLimit);
+        this.byteLimit = byteLimit;
+        this.hostConnectionLimit = Math.max(hostLimit, 1);
+        this.connectionLimit = Math.max(totalLimit, 1);
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory(){
+            private int counter = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread result = new Thread(runnable, "gopher-prefetch-" + (counter++));
+                result.setDaemon(true);
+                result.setPriority(Thread.MIN_PRIORITY);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Queues a page for prefetching unless it is
+     * already stored or being prefetched
+     *
+     * @param url
+     * The url of the page as string
+     *
+     * @param contentType
+     * The content type of the page
+     */
+    public void prefetch(String url, GopherItemType contentType){
+        String key = GopherPageCache.getKey(url, contentType);
+
+        synchronized(this){
+            if(this.entryMap.containsKey(key) || this.pageStore.contains(url, contentType)){ return; }
+
+            PrefetchEntry entry = new PrefetchEntry(key, new GopherUrl(url).getHost().toLowerCase(), 
+                                        new GopherRequest(url, contentType));
+            this.entryMap.put(key, entry);
+            this.waitingList.addFirst(entry);
+
+            /* the oldest hover is the least likely to be opened */
+            if(this.waitingList.size() > WAITING_LIMIT){
+                this.entryMap.remove(this.waitingList.removeLast().key);
+                this.dropCount++;
+            }
+
+            this.schedule();
+        }
+    }
+
+    /**
+     * Removes a prefetched page from the store
+     *
+     * @param url
+     * The url of the page as string
+     *
+     * @param contentType
+     * The content type the page was requested as
+     *
+     * @return
+     * The prefetched page or null when not prefetched
+     */
+    public synchronized GopherPage take(String url, GopherItemType contentType){
+        GopherPage result = this.pageStore.remove(url, contentType);
+        if(result != null){ this.hitCount++; }
+        return result;
+    }
+
+    /**
+     * Claims a running prefetch for a page the user opened,
+     * the result of the claimed request is no longer stored
+     * and a prefetch that did not start yet is abandoned
+     *
+     * @param url
+     * The url of the page as string
+     *
+     * @param contentType
+     * The content type the page was requested as
+     *
+     * @return
+     * The running request or null when there is none
+     */
+    public synchronized GopherRequest claim(String url, GopherItemType contentType){
+        GopherRequest result = null;
+
+        PrefetchEntry entry = this.entryMap.get(GopherPageCache.getKey(url, contentType));
+        if(entry != null && !entry.aborted){
+            if(entry.running){
+                entry.claimed = true;
+                result = entry.request;
+                this.joinCount++;
+            }else{
+                /* the fetch of the user replaces it */
+                this.entryMap.remove(entry.key);
+                this.waitingList.remove(entry);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Starts the newest waiting prefetches whose
+     * host has a free connection slot
+     */
+    private synchronized void schedule(){
+        Iterator<PrefetchEntry> iterator = this.waitingList.iterator();
+        while(this.connectionCount < this.connectionLimit && iterator.hasNext()){
+            PrefetchEntry entry = iterator.next();
+            Integer hostCount = this.hostMap.get(entry.host);
+            if(hostCount != null && hostCount >= this.hostConnectionLimit){ continue; }
+
+            iterator.remove();
+            entry.running = true;
+            this.hostMap.put(entry.host, (hostCount == null) ? 1 : hostCount + 1);
+            this.connectionCount++;
+            this.startCount++;
+
+            this.executor.execute(new Runnable(){
+                @Override
+                public void run() {
+                    execute(entry);
+                }
+            });
+        }
+    }
+
+    /**
+     * Fetches the page of a prefetch and stores it
+     * unless the user claimed it in the meantime
+     *
+     * @param entry
+     * The prefetch to execute
+     */
+    private void execute(PrefetchEntry entry){
+        GopherRequest request = entry.request;
+        GopherPage page = null;
+        Exception error = null;
+
+        try{
+            page = this.client.fetch(request, new GopherClientEventListener(){
+                @Override
+                public void progress(GopherUrl url, long byteCount) {
+                    if(byteCount > byteLimit){ abort(entry); }
+                }
+
+                @Override
+                public void pageLoaded(GopherPage result) {}
+
+                @Override
+                public void pageLoadFailed(GopherError error, GopherUrl url) {}
+
+                @Override
+                public void pageLoadItemMismatch(GopherItemType requested, GopherItemType detected,
+                                                    GopherUrl url, GopherTransfer transfer) {}
+            }, null);
+        }catch(GopherNetworkException | GopherItemTypeException ex){
+            error = ex;
+        }
+
+        boolean claimed;
+        synchronized(this){
+            this.entryMap.remove(entry.key);
+            int hostCount = this.hostMap.get(entry.host) - 1;
+            if(hostCount > 0){
+                this.hostMap.put(entry.host, hostCount);
+            }else{
+                this.hostMap.remove(entry.host);
+            }
+            this.connectionCount--;
+
+            claimed = entry.claimed;
+            if(entry.aborted){
+                this.dropCount++;
+            }else if(error != null){
+                this.failCount++;
+            }else if(!claimed && page.getTextFile() == null){
+                this.pageStore.put(request.getUrl(), request.getContentType(), page);
+            }
+
+            this.schedule();
+        }
+
+        if(!claimed){
+            /* nobody is waiting for content that was not stored */
+            if(error instanceof GopherItemTypeException && ((GopherItemTypeException)error).getTransfer() != null){
+                ((GopherItemTypeException)error).getTransfer().discard();
+            }else if(page != null && page.getTextFile() != null){
+                page.getTextFile().delete();
+            }
+        }
+
+        if(error != null){
+            request.fail(error);
+        }else{
+            request.complete(page);
+        }
+    }
+
+    /**
+     * Aborts a running prefetch that exceeds the budget
+     * of the store unless the user is waiting for it
+     *
+     * @param entry
+     * The prefetch to abort
+     */
+    private void abort(PrefetchEntry entry){
+        synchronized(this){
+            if(entry.claimed || entry.aborted){ return; }
+            entry.aborted = true;
+        }
+
+        entry.request.cancel();
+    }
+
+    /**
+     * Returns the number of prefetches started
+     *
+     * @return
+     * The number of prefetches
+     */
+    public synchronized long getStartCount(){
+        return this.startCount;
+    }
+
+    /**
+     * Returns the number of pages opened from the store
+     *
+     * @return
+     * The number of store hits
+     */
+    public synchronized long getHitCount(){
+        return this.hitCount;
+    }
+
+    /**
+     * Returns the number of pages opened while
+     * their prefetch was still running
+     *
+     * @return
+     * The number of claimed prefetches
+     */
+    public synchronized long getJoinCount(){
+        return this.joinCount;
+    }
+
+    /**
+     * Returns the number of prefetches that failed
+     *
+     * @return
+     * The number of failures
+     */
+    public synchronized long getFailCount(){
+        return this.failCount;
+    }
+
+    /**
+     * Returns the number of prefetches dropped
+     * before they were started or aborted as
+     * they exceeded the budget of the store
+     *
+     * @return
+     * The number of dropped prefetches
+     */
+    public synchronized long getDropCount(){
+        return this.dropCount;
+    }
+
+    /**
+     * Returns the number of prefetched pages evicted
+     * from the store without being opened
+     *
+     * @return
+     * The number of wasted prefetches
+     */
+    public synchronized long getWasteCount(){
+        return this.pageStore.getEvictionCount();
+    }
+
+    /**
+     * Returns the share of started prefetches
+     * that were opened by the user
+     *
+     * @return
+     * The hit rate between 0 and 1
+     */
+    public synchronized double getHitRate(){
+        return (this.startCount > 0) ? (double)(this.hitCount + this.joinCount) / this.startCount : 0;
+    }
+}
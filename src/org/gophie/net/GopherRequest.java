@@ -0,0 +1,246 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.net;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.gophie.net.GopherItem.GopherItemType;
+
+/**
+ * Handle for a single request executed by the GopherClient
+ * which provides the result as a future, the progress and
+ * timing of the transfer and allows to cancel just this
+ * request without affecting any other request of the client
+ */
+public class GopherRequest {
+    /* the requested url and content type */
+    private String url;
+    private GopherItemType contentType;
+
+    /* future with the result of this request */
+    private CompletableFuture<GopherPage> future = new CompletableFuture<GopherPage>();
+
+    /* progress and timing of this request */
+    private volatile long byteCount = 0;
+    private volatile long startTime = 0;
+    private volatile long firstByteTime = 0;
+    private volatile long firstItemTime = 0;
+    private volatile long finishTime = 0;
+
+    /* cancellation state and handler of the transfer */
+    private volatile boolean cancelled = false;
+    private volatile Runnable cancelHandler;
+
+    /**
+     * Constructs the request for the url
+     *
+     * @param requestUrl
+     * The url to request as string
+     *
+     * @param requestType
+     * The expected content type of the url
+     */
+    GopherRequest(String requestUrl, GopherItemType requestType){
+        this.url = requestUrl;
+        this.contentType = requestType;
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Returns the requested url
+     *
+     * @return
+     * The url as string
+     */
+    public String getUrl(){
+        return this.url;
+    }
+
+    /**
+     * Returns the requested content type
+     *
+     * @return
+     * The content type as gopher item type
+     */
+    public GopherItemType getContentType(){
+        return this.contentType;
+    }
+
+    /**
+     * Returns the future with the result of this request,
+     * downloads complete with null as there is no page
+     *
+     * @return
+     * CompletableFuture with the resulting page
+     */
+    public CompletableFuture<GopherPage> getFuture(){
+        return this.future;
+    }
+
+    /**
+     * Returns the number of bytes received so far
+     *
+     * @return
+     * The number of bytes as long
+     */
+    public long getByteCount(){
+        return this.byteCount;
+    }
+
+    /**
+     * Returns the milliseconds from the start of
+     * the request until the first byte was received
+     *
+     * @return
+     * Time to first byte in milliseconds or -1 if none
+     */
+    public long getTimeToFirstByte(){
+        long result = -1;
+
+        if(this.firstByteTime > 0){
+            result = (this.firstByteTime - this.startTime) / 1000000;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the milliseconds from the start of the
+     * request until the first menu item was parsed
+     *
+     * @return
+     * Time to first item in milliseconds or -1 if none
+     */
+    public long getTimeToFirstItem(){
+        long result = -1;
+
+        if(this.firstItemTime > 0){
+            result = (this.firstItemTime - this.startTime) / 1000000;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the milliseconds this request took or
+     * is running for if it has not finished yet
+     *
+     * @return
+     * The duration in milliseconds
+     */
+    public long getDuration(){
+        long endTime = this.finishTime;
+        if(endTime == 0){ endTime = System.nanoTime(); }
+        return (endTime - this.startTime) / 1000000;
+    }
+
+    /**
+     * Returns whether this request is finished
+     *
+     * @return
+     * true when finished, failed or cancelled
+     */
+    public boolean isDone(){
+        return this.future.isDone();
+    }
+
+    /**
+     * Returns whether this request was cancelled
+     *
+     * @return
+     * true when cancelled, otherwise false
+     */
+    public boolean isCancelled(){
+        return this.cancelled;
+    }
+
+    /**
+     * Cancels this request and aborts its transfer
+     */
+    public void cancel(){
+        if(!this.isDone()){
+            this.cancelled = true;
+            this.finishTime = System.nanoTime();
+
+            /* abort the actual transfer */
+            Runnable handler = this.cancelHandler;
+            if(handler != null){ handler.run(); }
+
+            this.future.cancel(false);
+        }
+    }
+
+    /**
+     * Sets the handler which aborts the transfer
+     *
+     * @param handler
+     * Runnable to execute when cancelled
+     */
+    void setCancelHandler(Runnable handler){
+        this.cancelHandler = handler;
+
+        /* abort immediately when already cancelled */
+        if(this.cancelled){ handler.run(); }
+    }
+
+    /**
+     * Updates the number of bytes received
+     *
+     * @param value
+     * The total number of bytes received
+     */
+    void setByteCount(long value){
+        if(this.firstByteTime == 0 && value > 0){
+            this.firstByteTime = System.nanoTime();
+        }
+
+        this.byteCount = value;
+    }
+
+    /**
+     * Records that the first menu item was parsed
+     */
+    void setFirstItemParsed(){
+        if(this.firstItemTime == 0){
+            this.firstItemTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Completes this request with its result
+     *
+     * @param result
+     * The resulting page or null for downloads
+     */
+    void complete(GopherPage result){
+        this.finishTime = System.nanoTime();
+        this.future.complete(result);
+    }
+
+    /**
+     * Completes this request with a failure
+     *
+     * @param ex
+     * The exception that caused the failure
+     */
+    void fail(Exception ex){
+        this.finishTime = System.nanoTime();
+        this.future.completeExceptionally(ex);
+    }
+}
@@ -0,0 +1,941 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gophie.config.ConfigurationManager;
+import org.gophie.io.ContentSniffSession;
+import org.gophie.io.ContentSnifferRegistry;
+import org.gophie.net.GopherItem.GopherItemType;
+import org.gophie.net.event.*;
+
+/**
+ * Non-blocking transfer engine which drives any number of
+ * gopher connections from a single selector thread instead
+ * of using one blocking thread per connection. Results are
+ * reported through the regular GopherClientEventListener.
+ *
+ * Downloads and large text files are written by a separate
+ * writer thread, so a slow disk never stalls the connections.
+ * Reading a transfer pauses while too much of its content is
+ * waiting to be written and connections are dropped when they
+ * do not connect or receive anything for the configured time.
+ */
+public class GopherSelectorEngine implements Runnable {
+    /* size of the chunks read from the channels */
+    private static final int CHUNK_SIZE = 16384;
+
+    /* threads used for host name resolution */
+    private static final int RESOLVER_THREAD_COUNT = 2;
+
+    /* bytes of a transfer waiting to be written after which
+        reading pauses until half of them were written */
+    private static final int WRITE_QUEUE_LIMIT = 1024 * 1024;
+
+    /* default timeouts for connecting and receiving in seconds */
+    private static final String DEFAULT_CONNECT_TIMEOUT_SEC = "30";
+    private static final String DEFAULT_IDLE_TIMEOUT_SEC = "60";
+
+    /* interval of the checks for stalled connections in milliseconds */
+    private static final long TIMEOUT_CHECK_INTERVAL = 1000;
+
+    /* the shared engine instance */
+    private static GopherSelectorEngine instance;
+
+    /* selector and the thread driving it */
+    private Selector selector;
+    private Thread thread;
+
+    /* transfers waiting to be registered or closed */
+    private ConcurrentLinkedQueue<SelectorTransfer> pendingList = new ConcurrentLinkedQueue<SelectorTransfer>();
+    private ConcurrentLinkedQueue<SelectorTransfer> cancelList = new ConcurrentLinkedQueue<SelectorTransfer>();
+
+    /* paused transfers whose content was written meanwhile */
+    private ConcurrentLinkedQueue<SelectorTransfer> resumeList = new ConcurrentLinkedQueue<SelectorTransfer>();
+
+    /* executors for blocking name lookups, file writes and result
+        delivery so that the selector thread never blocks on either */
+    private ExecutorService resolver;
+    private ExecutorService writer;
+    private ExecutorService completion;
+
+    /* timeouts for connecting and receiving in milliseconds */
+    private long connectTimeout = 0;
+    private long idleTimeout = 0;
+    private long lastTimeoutCheck = 0;
+
+    /* buffers reused by the selector thread for all reads */
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+    private byte[] chunk = new byte[CHUNK_SIZE];
+
+    /**
+     * A single transfer handled by the selector engine
+     */
+    private class SelectorTransfer {
+        private GopherRequest request;
+        private String url;
+        private GopherUrl gopherUrl;
+        private GopherItemType contentType;
+        private GopherClientEventListener eventListener;
+        private ByteBuffer selector;
+        private ByteArrayOutputStream buffer;
+        private GopherMenuParser parser;
+        private GopherTextDecoder decoder;
+        private GopherTextFile textFile;
+        private ContentSniffSession sniffSession;
+        private String targetFile;
+        private FileOutputStream fileStream;
+        private SocketChannel channel;
+        private SelectionKey key;
+        private InetSocketAddress address;
+        private long totalByteCount = 0;
+        private long lastReportTime = 0;
+        private long lastActivityTime = 0;
+
+        /* state shared with the writer thread */
+        private AtomicLong queuedByteCount = new AtomicLong(0);
+        private AtomicBoolean isFailed = new AtomicBoolean(false);
+        private volatile boolean isPaused = false;
+
+        private SelectorTransfer(GopherRequest transferRequest, String transferTarget,
+                                    GopherClientEventListener listener){
+            this.url = transferRequest.getUrl();
+            this.gopherUrl = new GopherUrl(this.url);
+            this.contentType = transferRequest.getContentType();
+            this.targetFile = transferTarget;
+            this.eventListener = listener;
+            this.selector = ByteBuffer.wrap((this.gopherUrl.getSelector() + "\r\n")
+                                .getBytes(StandardCharsets.US_ASCII));
+            this.setRequest(transferRequest);
+        }
+
+        /**
+         * Sets the request of this transfer and closes the
+         * channel when the request is cancelled
+         *
+         * @param transferRequest
+         * The request that owns the channel
+         */
+        private void setRequest(GopherRequest transferRequest){
+            this.request = transferRequest;
+
+            SelectorTransfer transfer = this;
+            this.request.setCancelHandler(new Runnable(){
+                @Override
+                public void run() {
+                    cancelList.add(transfer);
+                    wakeup();
+                }
+            });
+        }
+
+        /**
+         * Returns whether this transfer writes to a file
+         *
+         * @return
+         * true when this is a download, false for page fetches
+         */
+        public boolean isDownload(){
+            return (this.targetFile != null);
+        }
+
+        /**
+         * Returns whether this transfer was cancelled
+         *
+         * @return
+         * true when cancelled, otherwise false
+         */
+        public boolean isCancelled(){
+            return this.request.isCancelled();
+        }
+    }
+
+    /**
+     * A write of transfer content to a file which runs on the
+     * writer thread, in the order the content was received
+     */
+    private abstract class FileWrite implements Runnable {
+        private SelectorTransfer transfer;
+        private int length;
+
+        private FileWrite(SelectorTransfer writeTransfer, int writeLength){
+            this.transfer = writeTransfer;
+            this.length = writeLength;
+            this.transfer.queuedByteCount.addAndGet(writeLength);
+        }
+
+        /**
+         * Writes the content to the file
+         *
+         * @throws IOException
+         * Exception when the content cannot be written
+         */
+        protected abstract void write() throws IOException;
+
+        @Override
+        public void run() {
+            try{
+                if(!this.transfer.isFailed.get()){
+                    this.write();
+                }
+            }catch(IOException ex){
+                System.out.println("Failed to write transfer (" + this.transfer.url + "): " + ex.getMessage());
+                fail(this.transfer, GopherError.EXCEPTION);
+            }
+
+            written(this.transfer, this.length);
+        }
+    }
+
+    /**
+     * Returns the shared selector engine and
+     * starts its selector thread when required
+     *
+     * @return
+     * The shared engine instance
+     */
+    public static synchronized GopherSelectorEngine getInstance() throws IOException {
+        if(GopherSelectorEngine.instance == null){
+            GopherSelectorEngine.instance = new GopherSelectorEngine();
+        }
+
+        return GopherSelectorEngine.instance;
+    }
+
+    /**
+     * Constructs the engine and starts the selector thread
+     */
+    private GopherSelectorEngine() throws IOException {
+        this.selector = Selector.open();
+        this.resolver = Executors.newFixedThreadPool(RESOLVER_THREAD_COUNT, this.createThreadFactory("gopher-resolver"));
+        this.writer = Executors.newSingleThreadExecutor(this.createThreadFactory("gopher-writer"));
+        this.completion = Executors.newSingleThreadExecutor(this.createThreadFactory("gopher-completion"));
+
+        /* drop connections that stall, 0 disables the timeout */
+        try{
+            this.connectTimeout = Long.parseLong(ConfigurationManager.getConfigFile()
+                    .getSetting("CONNECT_TIMEOUT_SEC", "Network", DEFAULT_CONNECT_TIMEOUT_SEC).trim()) * 1000;
+            this.idleTimeout = Long.parseLong(ConfigurationManager.getConfigFile()
+                    .getSetting("IDLE_TIMEOUT_SEC", "Network", DEFAULT_IDLE_TIMEOUT_SEC).trim()) * 1000;
+        }catch(NumberFormatException ex){
+            System.out.println("Invalid connection timeouts configured: " + ex.getMessage());
+        }
+
+        this.thread = this.createThreadFactory("gopher-selector").newThread(this);
+        this.thread.start();
+    }
+
+    /**
+     * Creates a thread factory for daemon threads
+     *
+     * @param name
+     * The name prefix of the threads
+     *
+     * @return
+     * ThreadFactory creating daemon threads
+     */
+    private ThreadFactory createThreadFactory(String name){
+        return new ThreadFactory(){
+            private int counter = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread result = new Thread(runnable, name + "-" + (counter++));
+                result.setDaemon(true);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Wakes up the selector thread
+     */
+    private void wakeup(){
+        this.selector.wakeup();
+    }
+
+    /**
+     * Fetches a gopher page through the selector engine
+     *
+     * @param request
+     * the request with url and expected content type
+     *
+     * @param eventListener
+     * the listener to report the result to
+     *
+     * @param itemListener
+     * the listener to report parsed menu items to
+     */
+    public void fetch(GopherRequest request, GopherClientEventListener eventListener, GopherMenuParserListener itemListener){
+        SelectorTransfer transfer = new SelectorTransfer(request, null, eventListener);
+        transfer.buffer = new ByteArrayOutputStream();
+        transfer.parser = GopherClient.createParser(request, itemListener);
+        transfer.decoder = GopherClient.createDecoder(request);
+        transfer.sniffSession = ContentSnifferRegistry.getDefault().createSession();
+        this.submit(transfer);
+    }
+
+    /**
+     * Downloads content through the selector engine
+     *
+     * @param request
+     * the request with the url to download
+     *
+     * @param targetFile
+     * The file to write the content to
+     *
+     * @param eventListener
+     * Listener to report the status to
+     */
+    public void download(GopherRequest request, String targetFile, GopherClientEventListener eventListener){
+        SelectorTransfer transfer = new SelectorTransfer(request, targetFile, eventListener);
+        this.submit(transfer);
+    }
+
+    /**
+     * Resolves the host of the transfer and hands
+     * it over to the selector thread for connecting
+     *
+     * @param transfer
+     * The transfer to submit
+     */
+    private void submit(SelectorTransfer transfer){
+        this.resolver.execute(new Runnable(){
+            @Override
+            public void run() {
+                /* resolve the host name outside of the selector thread */
+                transfer.address = new InetSocketAddress(transfer.gopherUrl.getHost(), transfer.gopherUrl.getPort());
+                if(transfer.address.isUnresolved()){
+                    fail(transfer, GopherError.HOST_UNKNOWN);
+                }else{
+                    pendingList.add(transfer);
+                    selector.wakeup();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the selector loop
+     */
+    @Override
+    public void run() {
+        while(true){
+            try{
+                /* wake up regularly to check for stalled connections */
+                if(this.connectTimeout > 0 || this.idleTimeout > 0){
+                    this.selector.select(TIMEOUT_CHECK_INTERVAL);
+                }else{
+                    this.selector.select();
+                }
+
+                this.registerPending();
+                this.closeCancelled();
+                this.resumeWritten();
+
+                /* handle all channels with pending operations */
+                Iterator<SelectionKey> keyIterator = this.selector.selectedKeys().iterator();
+                while(keyIterator.hasNext()){
+                    SelectionKey key = keyIterator.next();
+                    keyIterator.remove();
+                    this.handleKey(key);
+                }
+
+                this.closeStalled();
+            }catch(Exception ex){
+                /* keep the engine running for the other transfers */
+                System.out.println("Selector engine failure: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Opens the channels for all newly submitted transfers
+     */
+    private void registerPending(){
+        SelectorTransfer transfer;
+        while((transfer = this.pendingList.poll()) != null){
+            if(transfer.isCancelled()){ continue; }
+
+            try{
+                /* open the output file for downloads */
+                if(transfer.isDownload()){
+                    SelectorTransfer download = transfer;
+                    this.writer.execute(new FileWrite(download, 0){
+                        @Override
+                        protected void write() throws IOException {
+                            download.fileStream = new FileOutputStream(new File(download.targetFile));
+                        }
+                    });
+                }
+
+                /* initiate the non-blocking connect */
+                transfer.lastActivityTime = System.currentTimeMillis();
+                transfer.channel = SocketChannel.open();
+                transfer.channel.configureBlocking(false);
+                if(transfer.channel.connect(transfer.address)){
+                    transfer.key = transfer.channel.register(this.selector, SelectionKey.OP_WRITE, transfer);
+                }else{
+                    transfer.key = transfer.channel.register(this.selector, SelectionKey.OP_CONNECT, transfer);
+                }
+            }catch(Exception ex){
+                this.fail(transfer, this.getErrorType(ex));
+            }
+        }
+    }
+
+    /**
+     * Closes the channels of all cancelled transfers
+     */
+    private void closeCancelled(){
+        SelectorTransfer transfer;
+        while((transfer = this.cancelList.poll()) != null){
+            this.close(transfer);
+            this.discard(transfer);
+        }
+    }
+
+    /**
+     * Continues reading the paused transfers whose
+     * content was written by the writer thread
+     */
+    private void resumeWritten(){
+        SelectorTransfer transfer;
+        while((transfer = this.resumeList.poll()) != null){
+            this.resume(transfer);
+        }
+    }
+
+    /**
+     * Continues reading a paused transfer when
+     * enough of its content was written
+     *
+     * @param transfer
+     * The transfer to continue reading
+     */
+    private void resume(SelectorTransfer transfer){
+        if(transfer.isPaused && transfer.key.isValid()
+                && transfer.queuedByteCount.get() <= WRITE_QUEUE_LIMIT / 2){
+            transfer.isPaused = false;
+            transfer.lastActivityTime = System.currentTimeMillis();
+            transfer.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Fails all transfers which did not connect or did not
+     * receive anything within the configured timeouts
+     */
+    private void closeStalled(){
+        long timeNow = System.currentTimeMillis();
+        if(timeNow - this.lastTimeoutCheck < TIMEOUT_CHECK_INTERVAL){ return; }
+        this.lastTimeoutCheck = timeNow;
+
+        List<SelectorTransfer> stalledList = new ArrayList<SelectorTransfer>();
+        for(SelectionKey key : this.selector.keys()){
+            SelectorTransfer transfer = (SelectorTransfer)key.attachment();
+            if(!key.isValid() || transfer.isPaused){ continue; }
+
+            /* paused transfers wait for the disk, not the network */
+            long timeout = this.idleTimeout;
+            if((key.interestOps() & SelectionKey.OP_CONNECT) != 0){
+                timeout = this.connectTimeout;
+            }
+
+            if(timeout > 0 && timeNow - transfer.lastActivityTime >= timeout){
+                stalledList.add(transfer);
+            }
+        }
+
+        for(SelectorTransfer transfer : stalledList){
+            this.fail(transfer, GopherError.CONNECTION_TIMEOUT);
+        }
+    }
+
+    /**
+     * Handles the ready operations of a single channel
+     *
+     * @param key
+     * The selection key of the channel
+     */
+    private void handleKey(SelectionKey key){
+        SelectorTransfer transfer = (SelectorTransfer)key.attachment();
+
+        try{
+            if(!key.isValid() || transfer.isCancelled()){
+                return;
+            }
+
+            transfer.lastActivityTime = System.currentTimeMillis();
+            if(key.isConnectable()){
+                /* connection established, send the request next */
+                transfer.channel.finishConnect();
+                key.interestOps(SelectionKey.OP_WRITE);
+            }else if(key.isWritable()){
+                /* write the selector and switch to reading
+                    once the whole request went out */
+                transfer.channel.write(transfer.selector);
+                if(!transfer.selector.hasRemaining()){
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }else if(key.isReadable()){
+                this.readChannel(transfer);
+            }
+        }catch(GopherItemTypeException ex){
+            this.close(transfer);
+            this.discard(transfer);
+            this.deliver(transfer, new Runnable(){
+                @Override
+                public void run() {
+                    transfer.request.fail(ex);
+                    if(transfer.eventListener != null){
+                        transfer.eventListener.pageLoadItemMismatch(ex.getRequestedType(),
+                                        ex.getDetectedType(), new GopherUrl(transfer.url), null);
+                    }
+                }
+            });
+        }catch(Exception ex){
+            this.fail(transfer, this.getErrorType(ex));
+        }
+    }
+
+    /**
+     * Reads the available data of a transfer channel
+     *
+     * @param transfer
+     * The transfer to read the channel of
+     */
+    private void readChannel(SelectorTransfer transfer) throws IOException, GopherItemTypeException {
+        this.readBuffer.clear();
+        int read = transfer.channel.read(this.readBuffer);
+        if(read == -1){
+            if(!transfer.isDownload()){
+                /* verify the type of content shorter than the sniffers need */
+                try{
+                    transfer.contentType = GopherClient.finishContentType(transfer.url,
+                                    transfer.contentType, transfer.sniffSession);
+                }catch(GopherItemTypeException ex){
+                    this.handOver(transfer, ex, 0);
+                    this.complete(transfer);
+                    return;
+                }
+                transfer.parser = GopherClient.verifyParser(transfer.parser, transfer.contentType);
+            }
+            this.complete(transfer);
+            return;
+        }
+
+        this.readBuffer.flip();
+        this.readBuffer.get(this.chunk, 0, read);
+        if(transfer.isDownload()){
+            /* hand the chunk to the writer thread */
+            byte[] data = Arrays.copyOf(this.chunk, read);
+            this.queueWrite(transfer, new FileWrite(transfer, read){
+                @Override
+                protected void write() throws IOException {
+                    transfer.fileStream.write(data);
+                }
+            });
+        }else{
+            /* verify the content type and buffer the chunk */
+            try{
+                transfer.contentType = GopherClient.verifyContentType(transfer.url, transfer.contentType,
+                                transfer.sniffSession, this.chunk, read, transfer.totalByteCount);
+                transfer.parser = GopherClient.verifyParser(transfer.parser, transfer.contentType);
+                transfer.decoder = GopherClient.verifyDecoder(transfer.decoder, transfer.contentType);
+
+                /* move large text files out of memory into a file */
+                if(transfer.textFile == null && GopherClient.isTextFileThreshold(transfer.contentType,
+                                                    transfer.totalByteCount, read)){
+                    this.createTextFile(transfer);
+                }
+
+                if(transfer.textFile != null){
+                    GopherTextFile textFile = transfer.textFile;
+                    byte[] data = Arrays.copyOf(this.chunk, read);
+                    this.queueWrite(transfer, new FileWrite(transfer, read){
+                        @Override
+                        protected void write() throws IOException {
+                            textFile.write(data, 0, data.length);
+                        }
+                    });
+                }else{
+                    transfer.buffer.write(this.chunk, 0, read);
+                }
+            }catch(GopherItemTypeException ex){
+                /* continue receiving the content as download */
+                this.handOver(transfer, ex, read);
+            }
+        }
+
+        /* count the exact bytes received */
+        transfer.totalByteCount += read;
+        transfer.request.setByteCount(transfer.totalByteCount);
+        if(transfer.parser != null){ transfer.parser.feed(this.chunk, 0, read); }
+        if(transfer.decoder != null){ transfer.decoder.feed(this.chunk, 0, read); }
+
+        /* report byte count to listener, downloads only in intervals */
+        long timeNow = System.currentTimeMillis();
+        if(!transfer.isDownload() || timeNow - transfer.lastReportTime >= GopherClient.PROGRESS_REPORT_INTERVAL){
+            transfer.lastReportTime = timeNow;
+            if(transfer.eventListener != null && !transfer.isCancelled()){
+                transfer.eventListener.progress(transfer.gopherUrl, transfer.totalByteCount);
+            }
+        }
+    }
+
+    /**
+     * Creates the file for a text too large to be kept in memory
+     * and lets the writer thread move the content received so far
+     * into it, the text stays in memory when there is no file
+     *
+     * @param transfer
+     * The transfer of the text
+     */
+    private void createTextFile(SelectorTransfer transfer){
+        try{
+            GopherTextFile textFile = new GopherTextFile();
+            byte[] data = transfer.buffer.toByteArray();
+            transfer.buffer.reset();
+            transfer.textFile = textFile;
+            transfer.decoder = null;
+            this.queueWrite(transfer, new FileWrite(transfer, data.length){
+                @Override
+                protected void write() throws IOException {
+                    textFile.write(data, 0, data.length);
+                }
+            });
+        }catch(IOException ex){
+            System.out.println("Failed to create text file: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Queues a write on the writer thread and pauses reading
+     * the transfer while too much content waits to be written
+     *
+     * @param transfer
+     * The transfer the content belongs to
+     *
+     * @param write
+     * The write of the content
+     */
+    private void queueWrite(SelectorTransfer transfer, FileWrite write){
+        this.writer.execute(write);
+
+        if(transfer.queuedByteCount.get() > WRITE_QUEUE_LIMIT){
+            transfer.isPaused = true;
+            transfer.key.interestOps(0);
+
+            /* the writer may have caught up in the meantime */
+            this.resume(transfer);
+        }
+    }
+
+    /**
+     * Called by the writer thread after a write to
+     * resume the transfer once it caught up
+     *
+     * @param transfer
+     * The transfer the content was written for
+     *
+     * @param length
+     * The number of bytes written
+     */
+    private void written(SelectorTransfer transfer, int length){
+        long queued = transfer.queuedByteCount.addAndGet(-length);
+        if(transfer.isPaused && queued <= WRITE_QUEUE_LIMIT / 2){
+            this.resumeList.add(transfer);
+            this.wakeup();
+        }
+    }
+
+    /**
+     * Turns a page fetch that turned out to be a download into
+     * a download to a spool file on the same connection and
+     * reports the mismatch with the transfer to the listener
+     *
+     * @param transfer
+     * The transfer of the page fetch
+     *
+     * @param mismatch
+     * The item type exception of the content verification
+     *
+     * @param length
+     * The number of bytes of the current chunk
+     */
+    private void handOver(SelectorTransfer transfer, GopherItemTypeException mismatch, int length) throws GopherItemTypeException {
+        GopherTransfer handover = null;
+        try{
+            handover = new GopherTransfer(transfer.url, mismatch.getDetectedType());
+        }catch(IOException ex){
+            /* without a spool the content needs to be fetched again */
+            System.out.println("Failed to spool transfer (" + transfer.url + "): " + ex.getMessage());
+            if(handover != null){ handover.discard(); }
+            throw mismatch;
+        }
+
+        /* the page fetch fails with the transfer attached */
+        GopherRequest pageRequest = transfer.request;
+        GopherClientEventListener pageListener = transfer.eventListener;
+        GopherItemTypeException result = new GopherItemTypeException(transfer.url, 
+                    mismatch.getRequestedType(), mismatch.getDetectedType(), handover);
+        GopherTransfer pageTransfer = handover;
+        this.deliver(transfer, new Runnable(){
+            @Override
+            public void run() {
+                pageRequest.fail(result);
+                if(pageListener != null){
+                    pageListener.pageLoadItemMismatch(result.getRequestedType(),
+                                    result.getDetectedType(), new GopherUrl(transfer.url), pageTransfer);
+                }else{
+                    pageTransfer.discard();
+                }
+            }
+        });
+
+        /* nobody waits for the content of a cancelled fetch */
+        if(pageRequest.isCancelled()){
+            handover.discard();
+        }
+
+        /* let the writer move the content so far into the spool file */
+        GopherTextFile textFile = transfer.textFile;
+        byte[] data = transfer.buffer.toByteArray();
+        byte[] chunkData = Arrays.copyOf(this.chunk, length);
+        FileOutputStream spoolStream = handover.getSpoolStream();
+        this.queueWrite(transfer, new FileWrite(transfer, data.length + length){
+            @Override
+            protected void write() throws IOException {
+                try{
+                    if(textFile != null){ textFile.writeTo(spoolStream); }
+                    spoolStream.write(data);
+                    spoolStream.write(chunkData);
+                }finally{
+                    if(textFile != null){ textFile.delete(); }
+                }
+            }
+        });
+
+        /* continue as download into the spool file */
+        transfer.buffer = null;
+        transfer.parser = null;
+        transfer.textFile = null;
+        transfer.decoder = null;
+        transfer.targetFile = handover.getSpoolFile().getPath();
+        transfer.fileStream = spoolStream;
+        transfer.eventListener = handover;
+        transfer.setRequest(handover.getRequest());
+        handover.progress(transfer.gopherUrl, transfer.totalByteCount + length);
+    }
+
+    /**
+     * Completes a transfer after the server closed the connection
+     *
+     * @param transfer
+     * The transfer that finished
+     */
+    private void complete(SelectorTransfer transfer){
+        this.close(transfer);
+
+        /* pages kept in memory do not wait for the writer */
+        if(!transfer.isDownload() && transfer.textFile == null){
+            this.deliverResult(transfer);
+            return;
+        }
+
+        /* finish the files once all content was written */
+        this.writer.execute(new Runnable(){
+            @Override
+            public void run() {
+                if(transfer.isFailed.get()){ return; }
+
+                try{
+                    if(transfer.fileStream != null){ transfer.fileStream.close(); }
+                    if(transfer.textFile != null){ transfer.textFile.finish(); }
+                }catch(IOException ex){
+                    System.out.println("Failed to finish transfer (" + transfer.url + "): " + ex.getMessage());
+                    fail(transfer, GopherError.EXCEPTION);
+                    return;
+                }
+
+                deliverResult(transfer);
+            }
+        });
+    }
+
+    /**
+     * Delivers the page or download of a completed transfer
+     *
+     * @param transfer
+     * The transfer that finished
+     */
+    private void deliverResult(SelectorTransfer transfer){
+        this.deliver(transfer, new Runnable(){
+            @Override
+            public void run() {
+                GopherPage result = null;
+                if(transfer.textFile != null){
+                    result = new GopherPage(transfer.textFile, transfer.gopherUrl);
+                }else if(!transfer.isDownload()){
+                    /* parse the page outside of the selector thread */
+                    result = GopherClient.createPage(transfer.buffer.toByteArray(),
+                                transfer.contentType, transfer.gopherUrl, transfer.parser, transfer.decoder);
+                }
+
+                if(!transfer.isDownload()){
+                    GopherClient.reportPage(transfer.request, transfer.eventListener, result);
+                    return;
+                }
+
+                transfer.request.complete(result);
+                if(transfer.eventListener != null){
+                    /* report the exact final byte count of downloads */
+                    transfer.eventListener.progress(transfer.gopherUrl, transfer.totalByteCount);
+                    transfer.eventListener.pageLoaded(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reports a failed transfer to its listener
+     *
+     * @param transfer
+     * The transfer that failed
+     *
+     * @param error
+     * The error that caused the failure
+     */
+    private void fail(SelectorTransfer transfer, GopherError error){
+        /* timeouts and write failures may both hit a transfer */
+        if(!transfer.isFailed.compareAndSet(false, true)){ return; }
+
+        System.out.println("Transfer failed (" + transfer.url + "): " + error.toString());
+        this.close(transfer);
+        this.discard(transfer);
+
+        this.deliver(transfer, new Runnable(){
+            @Override
+            public void run() {
+                transfer.request.fail(new GopherNetworkException(error, transfer.url));
+                if(transfer.eventListener != null){
+                    transfer.eventListener.pageLoadFailed(error, new GopherUrl(transfer.url));
+                }
+            }
+        });
+    }
+
+    /**
+     * Delivers a result to the request and listener of
+     * a transfer unless the transfer was cancelled before
+     *
+     * @param transfer
+     * The transfer to report the result of
+     *
+     * @param delivery
+     * The runnable calling the listener
+     */
+    private void deliver(SelectorTransfer transfer, Runnable delivery){
+        if(!transfer.isCancelled()){
+            this.completion.execute(delivery);
+        }
+    }
+
+    /**
+     * Closes the channel of a transfer
+     *
+     * @param transfer
+     * The transfer to close
+     */
+    private void close(SelectorTransfer transfer){
+        try{
+            if(transfer.channel != null){ transfer.channel.close(); }
+        }catch(IOException ex){
+            System.out.println("Failed to close transfer (" + transfer.url + "): " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Closes and removes the partial files of a failed or
+     * cancelled transfer after its pending writes
+     *
+     * @param transfer
+     * The transfer to remove the files of
+     */
+    private void discard(SelectorTransfer transfer){
+        this.writer.execute(new Runnable(){
+            @Override
+            public void run() {
+                try{
+                    if(transfer.fileStream != null){ transfer.fileStream.close(); }
+                }catch(IOException ex){
+                    System.out.println("Failed to close transfer (" + transfer.url + "): " + ex.getMessage());
+                }
+
+                /* remove the partial file of the download */
+                if(transfer.isDownload()){
+                    File createdFile = new File(transfer.targetFile);
+                    if(createdFile.exists()){ createdFile.delete(); }
+                }
+                if(transfer.textFile != null){ transfer.textFile.delete(); }
+            }
+        });
+    }
+
+    /**
+     * Maps an exception to the matching gopher error
+     *
+     * @param ex
+     * The exception raised by the transfer
+     *
+     * @return
+     * The gopher error for this exception
+     */
+    private GopherError getErrorType(Exception ex){
+        GopherError result = GopherError.EXCEPTION;
+
+        if(ex instanceof ConnectException){ result = GopherError.CONNECT_FAILED; }
+        if(ex instanceof SocketTimeoutException){ result = GopherError.CONNECTION_TIMEOUT; }
+
+        return result;
+    }
+}
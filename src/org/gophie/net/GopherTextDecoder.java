@@ -0,0 +1,164 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+
+package org.gophie.net;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes the text of a gopher page once while its chunks are
+ * received, carrying incomplete characters over to the next
+ * chunk, and strips the terminating period line of the server
+ */
+public class GopherTextDecoder {
+    /* the decoder of the configured charset */
+    private CharsetDecoder decoder;
+
+    /* bytes of a character split between two chunks */
+    private ByteBuffer remainder = ByteBuffer.allocate(16);
+
+    /* the text decoded so far */
+    private CharBuffer text = CharBuffer.allocate(16384);
+
+    /**
+     * Constructs the decoder with the configured charset
+     */
+    public GopherTextDecoder(){
+        this.decoder = GopherPage.getDefaultCharset().newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Decodes the next chunk of the content
+     * 
+     * @param data
+     * The buffer with the chunk received
+     * 
+     * @param offset
+     * The offset of the chunk in the buffer
+     * 
+     * @param length
+     * The number of bytes of the chunk
+     */
+    public void feed(byte[] data, int offset, int length){
+        ByteBuffer input = ByteBuffer.wrap(data, offset, length);
+
+        /* complete the character split by the previous chunk */
+        while(this.remainder.position() > 0 && input.hasRemaining()){
+            this.remainder.put(input.get());
+            this.remainder.flip();
+            this.decode(this.remainder, false);
+            this.remainder.compact();
+        }
+
+        if(this.remainder.position() == 0){
+            this.decode(input, false);
+
+            /* keep the start of a character that continues in the next chunk */
+            this.remainder.put(input);
+        }
+    }
+
+    /**
+     * Decodes the rest of the content and returns the text
+     * without the terminating period line
+     * 
+     * @return
+     * The decoded text of the content
+     */
+    public String finish(){
+        this.remainder.flip();
+        this.decode(this.remainder, true);
+        this.remainder.clear();
+
+        while(this.decoder.flush(this.text).isOverflow()){
+            this.grow();
+        }
+
+        this.text.flip();
+        String result = new String(this.text.array(), 0, GopherTextDecoder.getTextLength(this.text));
+        this.text = CharBuffer.allocate(16384);
+        this.decoder.reset();
+
+        return result;
+    }
+
+    /**
+     * Decodes the input into the text
+     * 
+     * @param input
+     * The bytes to decode
+     * 
+     * @param endOfInput
+     * true when no more bytes follow
+     */
+    private void decode(ByteBuffer input, boolean endOfInput){
+        while(this.decoder.decode(input, this.text, endOfInput).isOverflow()){
+            this.grow();
+        }
+    }
+
+    /**
+     * Doubles the capacity for the decoded text
+     */
+    private void grow(){
+        CharBuffer result = CharBuffer.allocate(this.text.capacity() * 2);
+        this.text.flip();
+        result.put(this.text);
+        this.text = result;
+    }
+
+    /**
+     * Returns the length of the text without the line with a single
+     * period which gopher servers send to terminate the content
+     * 
+     * @param text
+     * The text of the content
+     * 
+     * @return
+     * The length of the text up to the terminating line
+     */
+    public static int getTextLength(CharSequence text){
+        int result = text.length();
+
+        /* drop the line break after the period */
+        if(result > 0 && text.charAt(result-1) == '\n'){ result--; }
+        if(result > 0 && text.charAt(result-1) == '\r'){ result--; }
+
+        /* the period has to be on a line of its own */
+        if(result > 0 && text.charAt(result-1) == '.'
+            && (result == 1 || text.charAt(result-2) == '\n')){
+            result--;
+
+            /* drop the line break of the last line of text */
+            if(result > 0 && text.charAt(result-1) == '\n'){ result--; }
+            if(result > 0 && text.charAt(result-1) == '\r'){ result--; }
+        }else{
+            /* there is no terminating line */
+            result = text.length();
+        }
+
+        return result;
+    }
+}
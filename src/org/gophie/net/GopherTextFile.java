@@ -0,0 +1,495 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+
+package org.gophie.net;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.gophie.config.ConfigurationManager;
+
+/**
+ * Text content too large to be kept in memory which is spooled
+ * to a temporary file while it is received and read back through
+ * a memory mapped window. The start of every n-th row is indexed
+ * while the content arrives, so any row can be decoded on demand
+ * by scanning at most n rows from the closest indexed row.
+ *
+ * Rows end after a line feed or are broken into several rows when
+ * they exceed the maximum row length, which keeps the rows short
+ * enough to render even for content without any line breaks.
+ *
+ * The history, the page cache and the page index hold the file
+ * with retain and release, the file is deleted when the last
+ * holder releases it.
+ */
+public class GopherTextFile {
+    /* rows longer than this number of bytes are broken */
+    public static final int MAX_ROW_LENGTH = 1024;
+
+    /* default size from which text files are spooled in megabytes */
+    private static final String DEFAULT_THRESHOLD_MB = "4";
+
+    /* every n-th row start is kept in the index */
+    private static final int INDEX_INTERVAL = 64;
+
+    /* size of the mapped window of the file */
+    private static final int WINDOW_SIZE = 32 * 1024 * 1024;
+
+    /* the threshold resolved from the configuration */
+    private static long threshold = -1;
+
+    /* the temporary file and the stream writing it */
+    private File file;
+    private OutputStream outputStream;
+
+    /* the number of bytes received and of the text */
+    private long length = 0;
+    private long textLength = 0;
+
+    /* start of every n-th row and the number of rows */
+    private long[] rowIndex = new long[1024];
+    private int rowCount = 0;
+
+    /* state of the row currently received */
+    private long rowStart = 0;
+    private int rowLength = 0;
+    private boolean isRowOpen = false;
+    private int maxRowLength = 0;
+
+    /* the mapped window for reading the rows */
+    private FileChannel channel;
+    private ByteBuffer window;
+    private long windowStart = 0;
+    private byte[] rowBuffer = new byte[MAX_ROW_LENGTH + 8];
+    private Charset charset;
+
+    /* the number of holders of the file */
+    private int holderCount = 0;
+
+    /**
+     * Constructs the text file and creates its temporary file
+     * 
+     * @throws IOException
+     * Exception when the temporary file cannot be created
+     */
+    public GopherTextFile() throws IOException {
+        this.file = File.createTempFile("gophietext", ".txt");
+        this.file.deleteOnExit();
+        this.outputStream = new FileOutputStream(this.file);
+        this.charset = GopherPage.getDefaultCharset();
+    }
+
+    /**
+     * Returns the size from which text files are spooled to a
+     * file instead of being kept in memory, as configured once
+     * 
+     * @return
+     * The threshold in bytes
+     */
+    public static synchronized long getThreshold(){
+        if(GopherTextFile.threshold < 0){
+            GopherTextFile.threshold = Long.parseLong(DEFAULT_THRESHOLD_MB) * 1024 * 1024;
+
+            try{
+                GopherTextFile.threshold = Long.parseLong(ConfigurationManager.getConfigFile()
+                    .getSetting("TEXT_FILE_THRESHOLD_MB", "Cache", DEFAULT_THRESHOLD_MB).trim()) * 1024 * 1024;
+            }catch(NumberFormatException ex){
+                System.out.println("Invalid text file threshold configured: " + ex.getMessage());
+            }
+        }
+
+        return GopherTextFile.threshold;
+    }
+
+    /**
+     * Appends a chunk of the content to the file and
+     * indexes the rows started by this chunk
+     * 
+     * @param data
+     * The buffer with the chunk received
+     * 
+     * @param offset
+     * The offset of the chunk in the buffer
+     * 
+     * @param count
+     * The number of bytes of the chunk
+     * 
+     * @throws IOException
+     * Exception when the file cannot be written
+     */
+    public void write(byte[] data, int offset, int count) throws IOException {
+        this.outputStream.write(data, offset, count);
+
+        long position = this.length - offset;
+        for(int i=offset; i<offset+count; i++){
+            byte value = data[i];
+            if(!this.isRowOpen || GopherTextFile.isRowBreak(this.rowLength, value)){
+                this.startRow(position + i);
+            }
+
+            this.rowLength++;
+            if(value == '\n'){
+                this.isRowOpen = false;
+            }
+        }
+
+        this.length += count;
+    }
+
+    /**
+     * Returns whether a row is broken before a byte as it
+     * exceeds the maximum length, which avoids breaking rows
+     * before line feeds or inside of UTF-8 characters unless
+     * the row is still growing beyond the longest character
+     * 
+     * @param length
+     * The number of bytes of the row so far
+     * 
+     * @param value
+     * The next byte of the content
+     * 
+     * @return
+     * true when the byte starts a new row
+     */
+    private static boolean isRowBreak(int length, byte value){
+        return length >= MAX_ROW_LENGTH + 4
+            || (length >= MAX_ROW_LENGTH && value != '\n' && (value & 0xC0) != 0x80);
+    }
+
+    /**
+     * Starts a new row and adds every n-th row to the index
+     * 
+     * @param position
+     * The position of the first byte of the row
+     */
+    private void startRow(long position){
+        if(this.rowCount % INDEX_INTERVAL == 0){
+            int slot = this.rowCount / INDEX_INTERVAL;
+            if(slot == this.rowIndex.length){
+                long[] grown = new long[this.rowIndex.length * 2];
+                System.arraycopy(this.rowIndex, 0, grown, 0, this.rowIndex.length);
+                this.rowIndex = grown;
+            }
+            this.rowIndex[slot] = position;
+        }
+
+        this.maxRowLength = Math.max(this.maxRowLength, this.rowLength);
+        this.rowStart = position;
+        this.rowLength = 0;
+        this.isRowOpen = true;
+        this.rowCount++;
+    }
+
+    /**
+     * Completes the file after all content was received, drops
+     * the terminating period line and opens the file for reading
+     * 
+     * @throws IOException
+     * Exception when the file cannot be opened
+     */
+    public synchronized void finish() throws IOException {
+        this.outputStream.close();
+        this.maxRowLength = Math.max(this.maxRowLength, this.rowLength);
+        this.textLength = this.length;
+        this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ);
+
+        /* the last row is a single period when the server terminated the text */
+        long lastRowLength = this.length - this.rowStart;
+        if(this.rowCount > 0 && lastRowLength <= 3){
+            ByteBuffer lastRow = ByteBuffer.allocate((int)lastRowLength);
+            this.channel.read(lastRow, this.rowStart);
+            String value = new String(lastRow.array(), 0, lastRow.position(), this.charset);
+            if(value.equals(".") || value.equals(".\n") || value.equals(".\r\n")){
+                this.textLength = this.rowStart;
+                this.rowCount--;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of rows of the text
+     * 
+     * @return
+     * The number of rows
+     */
+    public synchronized int getRowCount(){
+        return this.rowCount;
+    }
+
+    /**
+     * Returns the number of bytes of the longest row
+     * 
+     * @return
+     * The maximum row length in bytes
+     */
+    public int getMaxRowLength(){
+        return this.maxRowLength;
+    }
+
+    /**
+     * Returns the number of bytes received
+     * 
+     * @return
+     * The size of the content in bytes
+     */
+    public long getLength(){
+        return this.length;
+    }
+
+    /**
+     * Returns the estimated number of bytes this 
+     * text file occupies in memory with its index
+     * 
+     * @return
+     * The estimated memory size in bytes
+     */
+    public long getMemorySize(){
+        return 128 + 8L * this.rowIndex.length + this.rowBuffer.length;
+    }
+
+    /**
+     * Returns a single row of the text
+     * 
+     * @param row
+     * The index of the row
+     * 
+     * @return
+     * The decoded text of the row without its line break
+     */
+    public String getRow(int row){
+        return this.getRows(row, 1)[0];
+    }
+
+    /**
+     * Decodes a range of rows of the text
+     * 
+     * @param firstRow
+     * The index of the first row
+     * 
+     * @param count
+     * The number of rows to decode
+     * 
+     * @return
+     * The decoded text of the rows without their line breaks
+     */
+    public synchronized String[] getRows(int firstRow, int count){
+        String[] result = new String[Math.max(0, Math.min(count, this.rowCount - firstRow))];
+        if(result.length == 0){ return result; }
+
+        try{
+            /* scan from the closest indexed row to the first row */
+            long position = this.rowIndex[firstRow / INDEX_INTERVAL];
+            int skip = firstRow % INDEX_INTERVAL;
+            this.map(position, (long)(skip + result.length) * (MAX_ROW_LENGTH + 8));
+
+            for(int row=-skip; row<result.length; row++){
+                int rowLength = 0;
+                int textEnd = -1;
+                while(position < this.textLength){
+                    byte value = this.window.get((int)(position - this.windowStart));
+                    if(rowLength > 0 && GopherTextFile.isRowBreak(rowLength, value)){ break; }
+
+                    if(row >= 0){ this.rowBuffer[rowLength] = value; }
+                    rowLength++;
+                    position++;
+
+                    if(value == '\n'){
+                        textEnd = rowLength - 1;
+                        break;
+                    }
+                }
+
+                if(row >= 0){
+                    /* drop the line break from the text of the row */
+                    if(textEnd < 0){ textEnd = rowLength; }
+                    if(textEnd > 0 && this.rowBuffer[textEnd-1] == '\r'){ textEnd--; }
+                    result[row] = new String(this.rowBuffer, 0, textEnd, this.charset);
+                }
+            }
+        }catch(IOException ex){
+            System.out.println("Failed to read text file: " + ex.getMessage());
+            for(int i=0; i<result.length; i++){
+                if(result[i] == null){ result[i] = ""; }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Maps the window of the file that covers a range
+     * 
+     * @param position
+     * The position of the range
+     * 
+     * @param size
+     * The maximum size of the range
+     * 
+     * @throws IOException
+     * Exception when the file cannot be mapped
+     */
+    private void map(long position, long size) throws IOException {
+        long end = Math.min(position + size, this.textLength);
+
+        if(this.window == null || position < this.windowStart
+            || end > this.windowStart + this.window.limit()){
+            this.windowStart = position;
+            this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, position, 
+                        Math.min(Math.max(WINDOW_SIZE, end - position), this.textLength - position));
+        }
+    }
+
+    /**
+     * Decodes all text of the file into a single string
+     * 
+     * @return
+     * The decoded text without the terminating line
+     */
+    public String getText(){
+        GopherTextDecoder decoder = new GopherTextDecoder();
+
+        try(InputStream inputStream = new FileInputStream(this.file)){
+            byte[] data = new byte[65536];
+            int read;
+            while((read = inputStream.read(data)) != -1){
+                decoder.feed(data, 0, read);
+            }
+        }catch(IOException ex){
+            System.out.println("Failed to read text file: " + ex.getMessage());
+        }
+
+        return decoder.finish();
+    }
+
+    /**
+     * Decodes the beginning of the text up to a 
+     * maximum length without reading the whole file
+     * 
+     * @param maxLength
+     * The maximum number of characters to return
+     * 
+     * @return
+     * The decoded text of the first rows
+     */
+    public String getText(int maxLength){
+        StringBuilder result = new StringBuilder();
+
+        for(int row=0; row<this.getRowCount() && result.length() < maxLength; row+=INDEX_INTERVAL){
+            for(String line: this.getRows(row, INDEX_INTERVAL)){
+                result.append(line).append('\n');
+            }
+        }
+
+        if(result.length() > maxLength){
+            result.setLength(maxLength);
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Reads the raw content of the file into memory
+     * 
+     * @return
+     * The bytes of the content received
+     */
+    public byte[] getByteArray(){
+        byte[] result = new byte[0];
+
+        try{
+            result = Files.readAllBytes(this.file.toPath());
+        }catch(IOException ex){
+            System.out.println("Failed to read text file: " + ex.getMessage());
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the raw content received so far to a stream
+     * 
+     * @param stream
+     * The stream to write the content to
+     * 
+     * @throws IOException
+     * Exception when the content cannot be copied
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        this.outputStream.flush();
+        Files.copy(this.file.toPath(), stream);
+    }
+
+    /**
+     * Copies the raw content to a file
+     * 
+     * @param target
+     * The file to copy the content to
+     * 
+     * @throws IOException
+     * Exception when the content cannot be copied
+     */
+    public void saveAs(String target) throws IOException {
+        Files.copy(this.file.toPath(), new File(target).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Adds a holder of the file which keeps it
+     * from being deleted until it releases it
+     */
+    public synchronized void retain(){
+        this.holderCount++;
+    }
+
+    /**
+     * Removes a holder of the file and deletes
+     * the file when it was the last holder
+     */
+    public synchronized void release(){
+        this.holderCount--;
+        if(this.holderCount == 0){
+            this.delete();
+        }
+    }
+
+    /**
+     * Closes and deletes the temporary file
+     */
+    public synchronized void delete(){
+        try{
+            this.outputStream.close();
+            if(this.channel != null){ this.channel.close(); }
+        }catch(IOException ex){
+            System.out.println("Failed to close text file: " + ex.getMessage());
+        }
+
+        this.window = null;
+        this.file.delete();
+    }
+}
@@ -0,0 +1,256 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.net;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.gophie.net.GopherItem.GopherItemType;
+import org.gophie.net.event.*;
+
+/**
+ * Transfer of content that turned out to be a download while
+ * it was fetched as a page. The connection is kept open and the
+ * content is spooled to a temporary file until the download
+ * manager continues the transfer into the target file or the
+ * user dismisses it, so that the content is only transferred once.
+ */
+public class GopherTransfer implements GopherClientEventListener {
+    /* the url and the detected type of the content */
+    private String url;
+    private GopherItemType contentType;
+
+    /* the request of the continued transfer */
+    private GopherRequest request;
+
+    /* the temporary file with the content received */
+    private File spoolFile;
+    private FileOutputStream spoolStream;
+
+    /* progress and state of the transfer */
+    private long byteCount = 0;
+    private boolean isCompleted = false;
+    private GopherError error = null;
+
+    /* the target file and listener once continued */
+    private String targetFile;
+    private GopherClientEventListener eventListener;
+
+    /**
+     * Constructs the transfer and creates its spool file
+     * 
+     * @param transferUrl
+     * the url of the content
+     * 
+     * @param detectedType
+     * the detected type of the content
+     * 
+     * @throws IOException
+     * Exception when the spool file cannot be created
+     */
+    GopherTransfer(String transferUrl, GopherItemType detectedType) throws IOException {
+        this.url = transferUrl;
+        this.contentType = detectedType;
+        this.request = new GopherRequest(transferUrl, detectedType);
+        this.spoolFile = File.createTempFile("gophietransfer", ".part");
+        this.spoolFile.deleteOnExit();
+        this.spoolStream = new FileOutputStream(this.spoolFile);
+    }
+
+    /**
+     * Returns the url of the content
+     * 
+     * @return
+     * the url as string
+     */
+    public String getUrl(){
+        return this.url;
+    }
+
+    /**
+     * Returns the detected type of the content
+     * 
+     * @return
+     * the gopher item type detected
+     */
+    public GopherItemType getContentType(){
+        return this.contentType;
+    }
+
+    /**
+     * Returns the request of the continued transfer
+     * which allows to cancel it
+     * 
+     * @return
+     * the request of this transfer
+     */
+    public GopherRequest getRequest(){
+        return this.request;
+    }
+
+    /**
+     * Returns the number of bytes received so far
+     * 
+     * @return
+     * the number of bytes as long
+     */
+    public synchronized long getByteCount(){
+        return this.byteCount;
+    }
+
+    /**
+     * Returns the file the content is spooled to
+     * 
+     * @return
+     * the temporary spool file
+     */
+    File getSpoolFile(){
+        return this.spoolFile;
+    }
+
+    /**
+     * Returns the stream the content is spooled to
+     * 
+     * @return
+     * the stream of the spool file
+     */
+    FileOutputStream getSpoolStream(){
+        return this.spoolStream;
+    }
+
+    /**
+     * Continues the transfer into the target file and reports
+     * its progress and result to the listener from now on
+     * 
+     * @param target
+     * the file to store the content in
+     * 
+     * @param listener
+     * the listener to report the progress to
+     */
+    public void continueTo(String target, GopherClientEventListener listener){
+        long count;
+        boolean completed;
+        GopherError failure;
+
+        synchronized(this){
+            this.targetFile = target;
+            this.eventListener = listener;
+            count = this.byteCount;
+            completed = this.isCompleted;
+            failure = this.error;
+        }
+
+        /* report the bytes received before */
+        listener.progress(new GopherUrl(this.url), count);
+
+        if(completed){
+            this.finish();
+        }else if(failure != null){
+            listener.pageLoadFailed(failure, new GopherUrl(this.url));
+        }
+    }
+
+    /**
+     * Aborts the transfer and removes the content
+     * received when the user does not want it
+     */
+    public void discard(){
+        this.request.cancel();
+
+        synchronized(this){
+            this.closeSpoolStream();
+            this.spoolFile.delete();
+        }
+    }
+
+    @Override
+    public void progress(GopherUrl url, long count) {
+        GopherClientEventListener listener;
+        synchronized(this){
+            this.byteCount = count;
+            listener = this.eventListener;
+        }
+
+        if(listener != null){ listener.progress(url, count); }
+    }
+
+    @Override
+    public void pageLoaded(GopherPage result) {
+        boolean continued;
+        synchronized(this){
+            this.closeSpoolStream();
+            this.isCompleted = true;
+            continued = (this.eventListener != null);
+        }
+
+        if(continued){ this.finish(); }
+    }
+
+    @Override
+    public void pageLoadFailed(GopherError error, GopherUrl url) {
+        GopherClientEventListener listener;
+        synchronized(this){
+            this.closeSpoolStream();
+            this.spoolFile.delete();
+            this.error = error;
+            listener = this.eventListener;
+        }
+
+        if(listener != null){ listener.pageLoadFailed(error, url); }
+    }
+
+    @Override
+    public void pageLoadItemMismatch(GopherItemType requested, GopherItemType detected, GopherUrl url, GopherTransfer transfer) {
+        /* the transfer is a download and never mismatches */
+    }
+
+    /**
+     * Moves the spooled content to the target file
+     * and reports the result to the listener
+     */
+    private void finish(){
+        GopherUrl gopherUrl = new GopherUrl(this.url);
+
+        try{
+            Files.move(this.spoolFile.toPath(), new File(this.targetFile).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            this.request.complete(null);
+            this.eventListener.pageLoaded(null);
+        }catch(IOException ex){
+            System.out.println("Failed to store transfer (" + this.targetFile + "): " + ex.getMessage());
+            this.spoolFile.delete();
+            this.request.fail(new GopherNetworkException(GopherError.EXCEPTION, ex.getMessage()));
+            this.eventListener.pageLoadFailed(GopherError.EXCEPTION, gopherUrl);
+        }
+    }
+
+    /**
+     * Closes the stream of the spool file
+     */
+    private void closeSpoolStream(){
+        try{
+            this.spoolStream.close();
+        }catch(IOException ex){
+            System.out.println("Failed to close transfer spool (" + this.url + "): " + ex.getMessage());
+        }
+    }
+}
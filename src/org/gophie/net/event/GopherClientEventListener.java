@@ -19,6 +19,7 @@
 package org.gophie.net.event;
 
 import org.gophie.net.GopherPage;
+import org.gophie.net.GopherTransfer;
 import org.gophie.net.GopherUrl;
 import org.gophie.net.GopherItem.GopherItemType;
 
@@ -26,5 +27,5 @@ public interface GopherClientEventListener {
     void progress(GopherUrl url, long byteCount);
     void pageLoaded(GopherPage result);
     void pageLoadFailed(GopherError error, GopherUrl url);
-    void pageLoadItemMismatch(GopherItemType requested, GopherItemType detected, GopherUrl url);
+    void pageLoadItemMismatch(GopherItemType requested, GopherItemType detected, GopherUrl url, GopherTransfer transfer);
 }
\ No newline at end of file
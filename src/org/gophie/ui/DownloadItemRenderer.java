@@ -68,12 +68,35 @@ public class DownloadItemRenderer extends JPanel implements ListCellRenderer<Dow
         /* show message for completed downloads */
         if(value.getStatus() == DownloadStatus.COMPLETED){
             statusText = "Completed (" + byteLoadedText + ")";
+            if(value.getAverageBytePerSecond() > 0){
+                String averageRate = SystemUtility.getFileSizeString(value.getAverageBytePerSecond());
+                statusText = "Completed (" + byteLoadedText + ", " + averageRate + "/sec)";
+            }
         }
         
+        /* show message for downloads waiting for a free slot */
+        if(value.getStatus() == DownloadStatus.QUEUED){
+            statusText = "Queued";
+            if(value.getRetryCount() > 0){
+                statusText = "Retrying (" + value.getRetryCount() + ". attempt)";
+            }
+        }
+
         /* show message for active downloads */
         if(value.getStatus() == DownloadStatus.ACTIVE){
             String transferRate = SystemUtility.getFileSizeString(value.getBytePerSecond());
-            statusText = byteLoadedText + " (" + transferRate + "/sec)";
+            String averageRate = SystemUtility.getFileSizeString(value.getAverageBytePerSecond());
+            statusText = byteLoadedText + " (" + transferRate + "/sec, avg. " + averageRate + "/sec)";
+
+            /* show the progress and the time left when the size is known */
+            if(value.getExpectedByteCount() > 0){
+                String expectedText = SystemUtility.getFileSizeString(value.getExpectedByteCount());
+                statusText = byteLoadedText + " of " + expectedText + " (" + transferRate + "/sec";
+                if(value.getRemainingMillis() >= 0){
+                    statusText += ", " + SystemUtility.getDurationString(value.getRemainingMillis()) + " left";
+                }
+                statusText += ")";
+            }
         }
         
         /* show message for failed downloads */
@@ -81,8 +104,8 @@ public class DownloadItemRenderer extends JPanel implements ListCellRenderer<Dow
             statusText = "Failed (" + byteLoadedText + ")";
         }
 
-        /* append the host name to the info text */
-        statusText += " — " + item.getHostName();
+        /* append the name of the host used, which may be a mirror */
+        statusText += " — " + value.getSourceItem().getHostName();
 
         /* set the text to the status text label */
         this.textLabel.setText(statusText);
@@ -1,6 +1,8 @@
 package org.gophie.ui;
 
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.ListSelectionEvent;
@@ -18,6 +20,9 @@ public class DownloadWindow implements ActionButtonEventListener {
     private static final String ACTIONBAR_INACTIVE_TEXTCOLOR = "#76bce3";
     private static final String FILELIST_BACKGROUND = "#1b1b1b";
 
+    /* default number of progress updates per second */
+    private static final String DEFAULT_REFRESH_RATE = "10";
+
     /* local objects */
     private DownloadList list;
     private DownloadItem[] data;
@@ -28,6 +33,7 @@ public class DownloadWindow implements ActionButtonEventListener {
     private JPanel actionBar = new JPanel();
     private ActionButton clearButton;
     private ActionButton actionButton;
+    private Timer progressTimer;
 
     public DownloadWindow(DownloadList downloadList) {
         /* get the config file */
@@ -99,6 +105,24 @@ public class DownloadWindow implements ActionButtonEventListener {
             }        
         });
 
+        /* publish the progress of all downloads in one batch
+            on the event thread at the configured rate */
+        int refreshRate = 10;
+        try{
+            refreshRate = Integer.parseInt(configFile.getSetting
+                ("DOWNLOAD_REFRESH_RATE", "Appearance", DEFAULT_REFRESH_RATE).trim());
+        }catch(NumberFormatException ex){
+            System.out.println("Invalid download refresh rate configured: " + ex.getMessage());
+        }
+        
+        this.progressTimer = new Timer(1000 / Math.max(1, Math.min(refreshRate, 60)), new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                list.publishProgress();
+            }
+        });
+        this.progressTimer.start();
+
         /* update the list for the first time */
         this.updateList();
     }
@@ -108,7 +132,8 @@ public class DownloadWindow implements ActionButtonEventListener {
         if(selected == null){
             this.actionButton.setVisible(false);
         }else{
-            if(selected.getStatus() == DownloadStatus.ACTIVE){
+            if(selected.getStatus() == DownloadStatus.ACTIVE
+                || selected.getStatus() == DownloadStatus.QUEUED){
                 this.actionButton.setContent("","Abort");
             }if(selected.getStatus() == DownloadStatus.FAILED){
                 this.actionButton.setContent("","Retry");
@@ -166,7 +191,12 @@ public class DownloadWindow implements ActionButtonEventListener {
         if(buttonId == 0){
             /* the action button */
             DownloadItem item = this.fileListView.getSelectedValue();
-            if(item.getStatus() == DownloadStatus.ACTIVE){
+            DownloadStatus status = item.getStatus();
+            if(status == DownloadStatus.QUEUED){
+                /* take the item out of the queue and the list */
+                item.cancel();
+                this.list.remove(item);
+            }if(status == DownloadStatus.ACTIVE){
                 /* cancel the currently active item */
                 item.cancel();
 
@@ -175,13 +205,13 @@ public class DownloadWindow implements ActionButtonEventListener {
 
                 /* delete the file form disk */
                 item.deleteFile();
-            }if(item.getStatus() == DownloadStatus.FAILED){
+            }if(status == DownloadStatus.FAILED){
                 /* retry failed item */
                 item.start();
-            }if(item.getStatus() == DownloadStatus.COMPLETED){
+            }if(status == DownloadStatus.COMPLETED){
                 /* open completed item file */
                 item.openFileOnDesktop();
-            }if(item.getStatus() == DownloadStatus.IDLE){
+            }if(status == DownloadStatus.IDLE){
                 /* start item in idle item */
                 item.start();
             }
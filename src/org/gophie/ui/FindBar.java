@@ -0,0 +1,302 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+
+package org.gophie.ui;
+
+import java.awt.*;
+import java.awt.event.*;
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import org.gophie.config.*;
+import org.gophie.ui.event.ActionButtonEventListener;
+import org.gophie.ui.util.FindIndex;
+
+/**
+ * The FindBar finds text in the page shown while the user
+ * types. The search runs against an index of the page on a
+ * background thread and is restarted with every keystroke,
+ * so the view stays responsive even for very large pages.
+ */
+public class FindBar extends JPanel implements ActionButtonEventListener {
+    /* constants */
+    private static final long serialVersionUID = 1L;
+
+    /* delay in milliseconds before searching while typing */
+    private static final int SEARCH_DELAY = 120;
+
+    /* the page view to search in */
+    private PageView pageView;
+
+    /* components of the bar */
+    private JLabel findIcon;
+    private JLabel findTitle;
+    private JTextField findText;
+    private JLabel statusLabel;
+    private ActionButton previousButton;
+    private ActionButton nextButton;
+    private Timer searchTimer;
+
+    /* index of the page shown and the running search */
+    private FindIndex findIndex;
+    private SwingWorker<long[], Void> searchWorker;
+
+    /* the matches of the last completed search */
+    private String query = "";
+    private long[] matches;
+    private int matchPosition = -1;
+
+    /**
+     * Constructs the find bar
+     *
+     * @param view
+     * The page view to find text in
+     */
+    public FindBar(PageView view){
+        this.pageView = view;
+
+        /* get the config file */
+        ConfigFile configFile = ConfigurationManager.getConfigFile();
+        Color background = Color.decode(configFile.getSetting
+                ("SEARCH_BACKGROUND", "Appearance", SearchInput.SEARCH_BACKGROUND));
+        Color titleColor = Color.decode(configFile.getSetting
+                ("SEARCH_TITLECOLOR", "Appearance", SearchInput.SEARCH_TITLECOLOR));
+        Color textColor = Color.decode(configFile.getSetting
+                ("SEARCH_TEXTCOLOR", "Appearance", SearchInput.SEARCH_TEXTCOLOR));
+
+        this.setLayout(new BoxLayout(this,BoxLayout.X_AXIS));
+        this.setBorder(new EmptyBorder(6,12,12,14));
+        this.setBackground(background);
+
+        this.findIcon = new JLabel("");
+        this.findIcon.setFont(ConfigurationManager.getIconFont(16f));
+        this.findIcon.setBorder(new EmptyBorder(0,0,0,8));
+        this.findIcon.setForeground(titleColor);
+        this.add(this.findIcon);
+
+        this.findTitle = new JLabel("Find");
+        this.findTitle.setFont(ConfigurationManager.getDefaultFont(14f));
+        this.findTitle.setForeground(titleColor);
+        this.findTitle.setBorder(new EmptyBorder(2,0,0,12));
+        this.add(this.findTitle);
+
+        this.findText = new JTextField();
+        this.findText.setBorder(new EmptyBorder(2,0,0,0));
+        this.findText.setBackground(background);
+        this.findText.setForeground(textColor);
+        this.findText.setCaretColor(textColor);
+        this.findText.setFont(ConfigurationManager.getDefaultFont(14f));
+        this.add(this.findText);
+
+        this.statusLabel = new JLabel("");
+        this.statusLabel.setFont(ConfigurationManager.getDefaultFont(12f));
+        this.statusLabel.setForeground(titleColor);
+        this.statusLabel.setBorder(new EmptyBorder(2,12,0,12));
+        this.add(this.statusLabel);
+
+        String buttonColor = configFile.getSetting("SEARCH_TEXTCOLOR", "Appearance", SearchInput.SEARCH_TEXTCOLOR);
+        String inactiveButtonColor = configFile.getSetting("SEARCH_TITLECOLOR", "Appearance", SearchInput.SEARCH_TITLECOLOR);
+        this.previousButton = new ActionButton("", "Previous", buttonColor, inactiveButtonColor);
+        this.previousButton.setButtonId(0);
+        this.previousButton.setButtonEnabled(true);
+        this.previousButton.addEventListener(this);
+        this.previousButton.setBorder(new EmptyBorder(2,0,0,12));
+        this.add(this.previousButton);
+
+        this.nextButton = new ActionButton("", "Next", buttonColor, inactiveButtonColor);
+        this.nextButton.setButtonId(1);
+        this.nextButton.setButtonEnabled(true);
+        this.nextButton.addEventListener(this);
+        this.nextButton.setBorder(new EmptyBorder(2,0,0,0));
+        this.add(this.nextButton);
+
+        /* search once the user paused typing */
+        this.searchTimer = new Timer(SEARCH_DELAY, new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                search();
+            }
+        });
+        this.searchTimer.setRepeats(false);
+        this.findText.getDocument().addDocumentListener(new DocumentListener(){
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+        });
+
+        this.findText.addKeyListener(new KeyAdapter() {
+            public void keyPressed(KeyEvent e) {
+                /* jump through the matches with ENTER */
+                if(e.getKeyCode() == KeyEvent.VK_ENTER){
+                    moveMatch(e.isShiftDown() ? -1 : 1);
+                }
+
+                /* close the bar when the user hit ESC */
+                if(e.getKeyCode() == KeyEvent.VK_ESCAPE){
+                    closeFind();
+                }
+            }
+        });
+
+        this.setVisible(false);
+    }
+
+    /**
+     * Shows the find bar and focuses its text
+     */
+    public void showFind(){
+        this.setVisible(true);
+        this.findText.requestFocusInWindow();
+        this.findText.selectAll();
+    }
+
+    /**
+     * Hides the find bar and stops any search
+     */
+    public void closeFind(){
+        this.cancelSearch();
+        this.setVisible(false);
+    }
+
+    /**
+     * Drops the index and matches of the previous page
+     * and searches the new page when the bar is shown,
+     * must be called on the event thread like the search
+     */
+    public void pageChanged(){
+        this.cancelSearch();
+        this.findIndex = null;
+        this.query = "";
+        this.matches = null;
+        this.matchPosition = -1;
+        this.statusLabel.setText("");
+
+        if(this.isVisible() && this.findText.getText().length() > 0){
+            this.search();
+        }
+    }
+
+    /**
+     * Starts the search for the text entered in the background
+     * and cancels the search that might still be running
+     */
+    private void search(){
+        this.cancelSearch();
+
+        String text = this.findText.getText();
+        if(text.length() == 0){
+            this.query = "";
+            this.matches = null;
+            this.statusLabel.setText("");
+            return;
+        }
+
+        /* the index is created for the view shown and built on the first search */
+        if(this.findIndex == null){
+            this.findIndex = this.pageView.createFindIndex();
+        }
+        if(this.findIndex == null){
+            this.statusLabel.setText("No text");
+            return;
+        }
+
+        FindIndex index = this.findIndex;
+        String previousQuery = this.query;
+        long[] previousMatches = this.matches;
+        this.statusLabel.setText("Searching...");
+        this.searchWorker = new SwingWorker<long[], Void>(){
+            @Override
+            protected long[] doInBackground() throws Exception {
+                return index.find(text, previousQuery, previousMatches);
+            }
+
+            @Override
+            protected void done() {
+                /* a newer search or page replaced this one */
+                if(this.isCancelled() || index != findIndex){ return; }
+
+                try{
+                    query = text;
+                    matches = this.get();
+                    matchPosition = -1;
+                    moveMatch(1);
+                }catch(Exception ex){
+                    System.out.println("Failed to find text: " + ex.getMessage());
+                    statusLabel.setText("");
+                }
+            }
+        };
+        this.searchWorker.execute();
+    }
+
+    /**
+     * Cancels the running search
+     */
+    private void cancelSearch(){
+        this.searchTimer.stop();
+        if(this.searchWorker != null){
+            this.searchWorker.cancel(true);
+            this.searchWorker = null;
+        }
+    }
+
+    /**
+     * Moves to the next or previous match and shows it
+     *
+     * @param direction
+     * 1 for the next and -1 for the previous match
+     */
+    private void moveMatch(int direction){
+        if(this.matches == null){ return; }
+
+        if(this.matches.length == 0){
+            this.statusLabel.setText("No matches");
+            return;
+        }
+
+        this.matchPosition = (this.matchPosition + direction + this.matches.length) % this.matches.length;
+        this.pageView.showMatch(this.findIndex, this.matches[this.matchPosition], this.query.length());
+
+        String count = String.valueOf(this.matches.length);
+        if(this.matches.length >= FindIndex.MAX_MATCHES){ count += "+"; }
+        this.statusLabel.setText((this.matchPosition + 1) + " of " + count);
+    }
+
+    /**
+     * Jumps through the matches with the buttons
+     */
+    @Override
+    public void buttonPressed(int buttonId) {
+        this.moveMatch((buttonId == 0) ? -1 : 1);
+        this.findText.requestFocusInWindow();
+    }
+}
@@ -0,0 +1,270 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.ui;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.*;
+
+import org.gophie.config.ConfigurationManager;
+import org.gophie.net.GopherPage;
+import org.gophie.ui.util.ImageCache;
+
+/**
+ * The ImageView decodes the image of a gopher page once
+ * from its bytes on a background thread, downsampled to
+ * the width of the view, and paints the decoded image
+ */
+public class ImageView extends JComponent implements Scrollable {
+    /* constants */
+    private static final long serialVersionUID = 1L;
+
+    /* space around the image */
+    private static final Insets MARGIN = new Insets(10, 16, 8, 16);
+
+    /* default budget of the decoded images in megapixels */
+    private static final String DEFAULT_CACHE_MEGAPIXELS = "16";
+
+    /* the page and image currently shown */
+    private GopherPage currentPage;
+    private Image image;
+    private String message = "";
+
+    /* decoded images of recently shown pages */
+    private ImageCache imageCache;
+
+    /**
+     * Constructs the image view
+     *
+     * @param textColor
+     * The color of status messages
+     *
+     * @param backgroundColor
+     * The background color of the view
+     */
+    public ImageView(Color textColor, Color backgroundColor){
+        this.setOpaque(true);
+        this.setForeground(textColor);
+        this.setBackground(backgroundColor);
+        this.setFont(ConfigurationManager.getConsoleFont(ConfigurationManager.getConsoleFontSize(17f)));
+
+        long megaPixels = 16;
+        try{
+            megaPixels = Long.parseLong(ConfigurationManager.getConfigFile()
+                        .getSetting("IMAGE_CACHE_MEGAPIXELS", "Cache", DEFAULT_CACHE_MEGAPIXELS).trim());
+        }catch(NumberFormatException ex){
+            System.out.println("Invalid image cache limit configured: " + ex.getMessage());
+        }
+        this.imageCache = new ImageCache(megaPixels * 1000000);
+    }
+
+    /**
+     * Shows the image of the page, decoding it in the
+     * background unless it is in the cache already
+     *
+     * @param page
+     * The page with the image content
+     *
+     * @param maxWidth
+     * The width available to show the image
+     */
+    public void showImage(GopherPage page, int maxWidth){
+        int targetWidth = Math.max(maxWidth - MARGIN.left - MARGIN.right, 1);
+        String cacheKey = page.getUrl().getUrlString() + "@" + targetWidth;
+
+        this.currentPage = page;
+        Image cachedImage = this.imageCache.get(cacheKey);
+        if(cachedImage != null){
+            this.setImage(cachedImage, "");
+            return;
+        }
+
+        this.setImage(null, "Loading image...");
+        new SwingWorker<Image, Void>(){
+            @Override
+            protected Image doInBackground() throws Exception {
+                return ImageView.decodeImage(page.getByteArray(), targetWidth);
+            }
+
+            @Override
+            protected void done() {
+                try{
+                    Image result = this.get();
+                    imageCache.put(cacheKey, result);
+
+                    /* the user might have moved on already */
+                    if(currentPage == page){
+                        setImage(result, "");
+                    }
+                }catch(Exception ex){
+                    if(currentPage == page){
+                        setImage(null, "Failed to display the image:\n" + ex.getMessage());
+                    }
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Sets the image and message displayed
+     *
+     * @param value
+     * The image or null for none
+     *
+     * @param text
+     * The message to show instead of the image
+     */
+    private void setImage(Image value, String text){
+        this.image = value;
+        this.message = text;
+        this.revalidate();
+        this.repaint();
+    }
+
+    /**
+     * Decodes an image from its bytes and downsamples it
+     * while decoding so that it does not exceed the width
+     *
+     * @param data
+     * The encoded image
+     *
+     * @param maxWidth
+     * The maximum width of the decoded image
+     *
+     * @return
+     * The decoded image
+     *
+     * @throws IOException
+     * When the image format is unknown or broken
+     */
+    public static Image decodeImage(byte[] data, int maxWidth) throws IOException {
+        ImageInputStream inputStream = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+        if(!readers.hasNext()){
+            throw new IOException("Unknown image format");
+        }
+
+        ImageReader reader = readers.next();
+        try{
+            reader.setInput(inputStream, false, false);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            int targetWidth = Math.min(width, maxWidth);
+            int targetHeight = (int)Math.max(1, (long)height * targetWidth / width);
+
+            /* animated images are left to the toolkit which animates them */
+            if(reader.getNumImages(true) > 1){
+                Image animation = Toolkit.getDefaultToolkit().createImage(data);
+                if(targetWidth < width){
+                    animation = animation.getScaledInstance(targetWidth, targetHeight, Image.SCALE_DEFAULT);
+                }
+                return new ImageIcon(animation).getImage();
+            }
+
+            /* skip pixels while decoding, keeping at least the target size */
+            ImageReadParam param = reader.getDefaultReadParam();
+            int subsampling = Math.max(1, width / targetWidth);
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            BufferedImage decoded = reader.read(0, param);
+
+            if(decoded.getWidth() <= targetWidth){
+                return decoded;
+            }
+
+            /* scale the remainder smoothly to the exact width */
+            BufferedImage result = new BufferedImage(targetWidth, targetHeight,
+                decoded.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = result.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(decoded, 0, 0, targetWidth, targetHeight, null);
+            graphics.dispose();
+
+            return result;
+        }finally{
+            reader.dispose();
+            inputStream.close();
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics){
+        graphics.setColor(this.getBackground());
+        graphics.fillRect(0, 0, this.getWidth(), this.getHeight());
+
+        if(this.image != null){
+            graphics.drawImage(this.image, MARGIN.left, MARGIN.top, this);
+        }else{
+            graphics.setColor(this.getForeground());
+            graphics.setFont(this.getFont());
+            FontMetrics metrics = graphics.getFontMetrics();
+            int y = MARGIN.top + metrics.getAscent();
+            for(String line: this.message.split("\n")){
+                graphics.drawString(line, MARGIN.left, y);
+                y += metrics.getHeight();
+            }
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize(){
+        Dimension result = new Dimension(MARGIN.left + MARGIN.right, MARGIN.top + MARGIN.bottom);
+
+        if(this.image != null){
+            result.width += Math.max(this.image.getWidth(this), 0);
+            result.height += Math.max(this.image.getHeight(this), 0);
+        }
+
+        return result;
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize(){
+        return this.getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction){
+        return 16;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction){
+        return (orientation == SwingConstants.VERTICAL) ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth(){
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight(){
+        /* fill the viewport when the image is small */
+        Container parent = this.getParent();
+        return (parent instanceof JViewport) && parent.getHeight() > this.getPreferredSize().height;
+    }
+}
@@ -19,8 +19,13 @@
 package org.gophie.ui;
 
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.*;
 
@@ -47,12 +52,23 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
     public static final String VIEW_TEXTCOLOR = "#e8e8e8";
     public static final String DEFAULT_GOPHERHOME = "gopher.floodgap.com";
 
+    /* number of menu items that make up the first screen */
+    private static final int PREVIEW_ITEM_COUNT = 80;
+
+    /* number of pages shown as local search results */
+    private static final int LOCAL_SEARCH_LIMIT = 100;
+
     /* local network objects */
     private GopherClient gopherClient;
+    private GopherRequest pageRequest;
     private DownloadList downloadList;
+    private GopherPageIndex pageIndex;
+
+    /* transfer of a mismatched page waiting for confirmation */
+    private GopherTransfer pendingTransfer;
 
     /* storage with history for browsing */
-    private ArrayList<GopherPage> history = new ArrayList<GopherPage>();
+    private GopherHistory history = new GopherHistory();
     private int historyPosition = -1;
 
     /* local ui elements */
@@ -62,8 +78,38 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
     private JPanel headerBar;
     private MessageView messageView;
     private SearchInput searchInput;
+    private FindBar findBar;
     private DownloadWindow downloadWindow;
 
+    /**
+     * Collects the items of a menu while it is being received
+     * and shows them once the first screen is filled
+     */
+    private class PagePreview implements GopherMenuParserListener {
+        private GopherRequest request;
+        private ArrayList<GopherItem> itemList = new ArrayList<GopherItem>();
+
+        @Override
+        public void itemParsed(GopherItem item) {
+            /* only the first screen is kept, the page holds all items */
+            if(this.itemList.size() >= PREVIEW_ITEM_COUNT){ return; }
+            this.itemList.add(item);
+
+            if(this.itemList.size() == PREVIEW_ITEM_COUNT){
+                ArrayList<GopherItem> previewList = new ArrayList<GopherItem>(this.itemList);
+                SwingUtilities.invokeLater(new Runnable(){
+                    @Override
+                    public void run() {
+                        /* only show the preview while still loading */
+                        if(request == pageRequest && !request.isDone()){
+                            pageView.showGopherPreview(previewList);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
     /**
      * Constructs this main window
      */
@@ -71,11 +117,26 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
         /* get the config file */
         ConfigFile configFile = ConfigurationManager.getConfigFile();
 
-        /* create the instance of the client */
-        this.gopherClient = new GopherClient();
+        /* use the shared instance of the client */
+        this.gopherClient = GopherClient.getDefault();
 
-        /* create the download list */
+        /* open the local index of the visited pages */
+        if(configFile.getSetting("LOCAL_INDEX_ENABLED", "Cache", "yes").equals("yes")){
+            try{
+                this.pageIndex = new GopherPageIndex(ConfigurationManager.getConfigPath() + "index/");
+            }catch(IOException ex){
+                System.out.println("Unable to open local page index: " + ex.getMessage());
+            }
+        }
+
+        /* create the download list and continue the
+            downloads left unfinished by the last session */
         this.downloadList = new DownloadList();
+        try{
+            this.downloadList.setJournal(new DownloadJournal(ConfigurationManager.getConfigPath() + "downloads.journal"));
+        }catch(IOException ex){
+            System.out.println("Unable to open download journal: " + ex.getMessage());
+        }
 
         /* create the download window */
         this.downloadWindow = new DownloadWindow(this.downloadList);
@@ -116,6 +177,33 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
         this.headerBar.add(this.messageView);
         this.searchInput = new SearchInput();
         this.headerBar.add(this.searchInput);
+        this.findBar = new FindBar(this.pageView);
+        this.headerBar.add(this.findBar);
+
+        /* open the find bar with the usual shortcut */
+        JRootPane rootPane = this.frame.getRootPane();
+        rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_F,
+                    Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()), "findInPage");
+        rootPane.getActionMap().put("findInPage", new AbstractAction(){
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e){
+                findBar.showFind();
+            }
+        });
+
+        /* open the local search with shift added */
+        rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_F,
+                    Toolkit.getDefaultToolkit().getMenuShortcutKeyMask() | InputEvent.SHIFT_DOWN_MASK), "localSearch");
+        rootPane.getActionMap().put("localSearch", new AbstractAction(){
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e){
+                localSearchRequested();
+            }
+        });
 
         /* set the content pane */
         Container contentPane = frame.getContentPane();
@@ -157,7 +245,7 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
             if(this.history.size() > 0){
                 /* make sure this was not just a reload and the last
                     page in the history is not already ours */
-                if(!this.history.get(this.history.size()-1).getUrl().getUrlString()
+                if(!this.history.getUrl(this.history.size()-1)
                                         .equals(page.getUrl().getUrlString())){
                     /* just drop it in */
                     addToHistory = true;
@@ -170,19 +258,13 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
             /* user navigation inside history, check if the current
                 page is at the position in history or if it is a 
                 new page the user went to */
-            if(!this.history.get(this.historyPosition).getUrl()
-                .getUrlString().equals(page.getUrl().getUrlString())){
+            if(!this.history.getUrl(this.historyPosition)
+                .equals(page.getUrl().getUrlString())){
                 /* it is a new page outside the history, keep the history
                     up until the current page and add this page as a new
                     branch to the history, eliminating the 
                     previous branch forward */
-                ArrayList<GopherPage> updatedHistory = new ArrayList<GopherPage>();
-                for(int h=0; h<=this.historyPosition; h++){
-                    updatedHistory.add(this.history.get(h));
-                }
-
-                /* update the history */
-                this.history = updatedHistory;
+                this.history.truncate(this.historyPosition+1);
 
                 /* allow adding to history */
                 addToHistory = true;
@@ -208,6 +290,11 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
                 this.navigationBar.setNavigateBack(true);
             }
         }else{
+            /* the page was reloaded or fetched again, 
+                keep it and restore where the user was */
+            this.history.setPage(this.historyPosition, page);
+            this.pageView.setScrollPosition(this.history.getScrollPosition(this.historyPosition));
+
             /* if position is 0, there is nowhere to go back to */
             if(this.historyPosition > 0){
                 /* allow navigation back in history */
@@ -233,6 +320,27 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
      * the item to download
      */
     public void confirmDownload(String addressText, GopherItem item){
+        this.confirmDownload(addressText, item, null);
+    }
+
+    /**
+     * Confirms the download of content that was already received
+     * in parts as a page and continues its transfer when confirmed
+     * 
+     * @param addressText
+     * the address (URL) to download
+     * 
+     * @param item
+     * the item to download
+     * 
+     * @param transfer
+     * the transfer spooling the content or null to download it again
+     */
+    public void confirmDownload(String addressText, GopherItem item, GopherTransfer transfer){
+        /* a previous unanswered confirmation is replaced */
+        this.discardPendingTransfer();
+        this.pendingTransfer = transfer;
+
         /* binary files are handled by the download manager */
         String confirmText = "Download \"" + item.getFileName() 
                     + "\" from \"" + item.getHostName() + "\"?";
@@ -243,16 +351,19 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
                 if(option == 0){
                     /* store file to download directory and open */
                     String targetFileName = ConfigurationManager.getDownloadPath() + item.getFileName();
-                    downloadList.add(new DownloadItem(item,targetFileName,true));
+                    downloadList.add(new DownloadItem(item,targetFileName,true,takePendingTransfer(transfer),getMirrorList(item)));
 
                     /* hide the message view */
                     messageView.setVisible(false);
                 }if(option == 1){
                     /* initiate the download */
-                    initiateDownload(item);
+                    initiateDownload(item,takePendingTransfer(transfer));
 
                     /* hide the message view */
                     messageView.setVisible(false);
+                }if(option == 2 && pendingTransfer == transfer){
+                    /* the content received so far is not needed */
+                    discardPendingTransfer();
                 }
 
                 /* hide the message view */
@@ -261,6 +372,60 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
         });
     }
 
+    /**
+     * Takes the transfer of a confirmation unless it was
+     * replaced by a later confirmation in the meantime
+     * 
+     * @param transfer
+     * the transfer of the confirmation
+     * 
+     * @return
+     * the transfer or null when it was discarded
+     */
+    private GopherTransfer takePendingTransfer(GopherTransfer transfer){
+        GopherTransfer result = null;
+
+        if(transfer != null && this.pendingTransfer == transfer){
+            result = transfer;
+            this.pendingTransfer = null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Discards the transfer waiting for confirmation
+     */
+    private void discardPendingTransfer(){
+        if(this.pendingTransfer != null){
+            this.pendingTransfer.discard();
+            this.pendingTransfer = null;
+        }
+    }
+
+    /**
+     * Returns the mirrors listed for an item in
+     * the menu currently shown
+     * 
+     * @param item
+     * the item to download
+     * 
+     * @return
+     * the mirror items, empty if there are none
+     */
+    private List<GopherItem> getMirrorList(GopherItem item){
+        List<GopherItem> result = new ArrayList<GopherItem>();
+
+        if(this.historyPosition >= 0 && this.historyPosition < this.history.size()){
+            GopherPage page = this.history.getPage(this.historyPosition);
+            if(page != null && page.getItemList() instanceof GopherMenu){
+                result = ((GopherMenu)page.getItemList()).getMirrorList(item);
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Prompts user to select the file destination
      * and immediately executes the download of the
@@ -270,6 +435,20 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
      * the item to download
      */
     public void initiateDownload(GopherItem fileItem){
+        this.initiateDownload(fileItem, null);
+    }
+
+    /**
+     * Prompts user to select the file destination and
+     * continues the transfer of the file into it
+     * 
+     * @param fileItem
+     * the item to download
+     * 
+     * @param transfer
+     * the transfer spooling the content or null to download it again
+     */
+    public void initiateDownload(GopherItem fileItem, GopherTransfer transfer){
         /* let user select where to store the file */
         FileDialog fileDialog = new FileDialog(frame, "Download and save file", FileDialog.SAVE);
         fileDialog.setFile(fileItem.getFileNameWithForcedExt());
@@ -278,8 +457,11 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
         if(targetFileName.equals(null) == false
             && targetFileName.equals("nullnull") == false){
             /* pass url and target file to download manager */
-            downloadList.add(new DownloadItem(fileItem,targetFileName,false));
-        }        
+            downloadList.add(new DownloadItem(fileItem,targetFileName,false,transfer,this.getMirrorList(fileItem)));
+        }else if(transfer != null){
+            /* the user cancelled the download */
+            transfer.discard();
+        }
     }
 
     /**
@@ -479,6 +661,53 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
      * The actual content type requested
      */
     private void fetchGopherContent(String addressText, GopherItemType contentType){
+        this.saveScrollPosition();
+        this.fetchGopherContent(addressText, contentType, true);
+    }
+
+    /**
+     * Stores the scroll position of the current
+     * page in the history before leaving it
+     */
+    private void saveScrollPosition(){
+        if(this.historyPosition >= 0 && this.historyPosition < this.history.size()){
+            this.history.setScrollPosition(this.historyPosition, this.pageView.getScrollPosition());
+        }
+    }
+
+    /**
+     * Shows the page at the current position in the
+     * history or fetches it again when it was dropped
+     */
+    private void showHistoryPage(){
+        GopherPage page = this.history.getPage(this.historyPosition);
+        if(page != null){
+            this.pageLoaded(page);
+        }else{
+            this.fetchGopherContent(this.history.getUrl(this.historyPosition), 
+                this.history.getContentType(this.historyPosition), true);
+        }
+    }
+
+    /**
+     * Fetches gopher menu or text content
+     * 
+     * @param addressText
+     * The address to fetch content from
+     * 
+     * @param contentType
+     * The actual content type requested
+     * 
+     * @param useCache
+     * When false the page is always fetched from the network
+     */
+    private void fetchGopherContent(String addressText, GopherItemType contentType, boolean useCache){
+        /* local search results are created from the page index */
+        if(GopherPageIndex.isSearchUrl(new GopherUrl(addressText))){
+            this.fetchLocalSearch(addressText);
+            return;
+        }
+
         /* this is default gopher content */
         /* activate the load indicator in the address bar */
         this.navigationBar.setIsLoading(true);
@@ -502,14 +731,100 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
         this.navigationBar.setAddressText(address);
 
         try{
-            /* try to execute the thread */
-            this.gopherClient.fetchAsync(addressText,contentType,this);
+            /* a new navigation supersedes the pending one */
+            if(this.pageRequest != null){
+                this.pageRequest.cancel();
+            }
+
+            /* try to execute the request and preview menus */
+            PagePreview preview = new PagePreview();
+            this.pageRequest = this.gopherClient.fetchAsync(addressText,contentType,this,preview,useCache);
+            preview.request = this.pageRequest;
         }catch(Exception ex){
             /* might throw an ex when thread is interrupted */
             System.out.println("Exception while fetching async: " + ex.getMessage());
         }        
     }
 
+    /**
+     * Searches the local index of visited pages in
+     * the background and shows the results as a menu
+     * 
+     * @param addressText
+     * The url of the local search results
+     */
+    private void fetchLocalSearch(String addressText){
+        if(this.pageIndex == null){
+            this.messageView.showInfo("The local search is disabled or used by another window");
+            return;
+        }
+
+        /* a new navigation supersedes the pending one */
+        if(this.pageRequest != null){
+            this.pageRequest.cancel();
+            this.pageRequest = null;
+        }
+
+        GopherUrl url = new GopherUrl(addressText);
+        String query = GopherPageIndex.getSearchQuery(url);
+        this.navigationBar.setIsLoading(true);
+        new SwingWorker<GopherPage, Void>(){
+            @Override
+            protected GopherPage doInBackground() throws Exception {
+                long start = System.nanoTime();
+                List<GopherPageIndex.Hit> hitList = pageIndex.search(query, LOCAL_SEARCH_LIMIT);
+                return createLocalSearchPage(url, query, hitList, (System.nanoTime() - start) / 1000000);
+            }
+
+            @Override
+            protected void done() {
+                try{
+                    pageLoaded(this.get());
+                }catch(Exception ex){
+                    System.out.println("Local search failed: " + ex.getMessage());
+                    navigationBar.setIsLoading(false);
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Creates a gopher menu listing the results of a local search
+     * 
+     * @param url
+     * The url of the search results
+     * 
+     * @param query
+     * The words searched for
+     * 
+     * @param hitList
+     * The pages found
+     * 
+     * @param millis
+     * The time the search took in milliseconds
+     * 
+     * @return
+     * The menu page with one link per page found
+     */
+    private static GopherPage createLocalSearchPage(GopherUrl url, String query, List<GopherPageIndex.Hit> hitList, long millis){
+        StringBuilder source = new StringBuilder();
+        source.append("i").append(hitList.size()).append(" visited pages found for \"")
+            .append(query.replace('\t', ' ')).append("\" in ").append(millis).append(" ms\t\tnull.host\t1\r\n");
+        source.append("i\t\tnull.host\t1\r\n");
+
+        for(GopherPageIndex.Hit hit: hitList){
+            GopherUrl hitUrl = new GopherUrl(hit.getUrl());
+            source.append(hit.getTypeCode()).append(hit.getTitle().replace('\t', ' '))
+                .append("\t").append(hitUrl.getSelector())
+                .append("\t").append(hitUrl.getHost())
+                .append("\t").append(hitUrl.getPort()).append("\r\n");
+            source.append("i   ").append(hit.getUrl().replace('\t', ' ')).append("\t\tnull.host\t1\r\n");
+        }
+        source.append(".\r\n");
+
+        return new GopherPage(source.toString().getBytes(GopherPage.getDefaultCharset()), GopherItemType.GOPHERMENU, url);
+    }
+
     /**
      * Navigates backwards in the history
      */
@@ -517,13 +832,11 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
     public void backwardRequested() {
         /* set the new history position */
         if(this.historyPosition > 0){
+            this.saveScrollPosition();
             this.historyPosition--;
 
-            /* get the new page from history */
-            this.pageLoaded(this.history.get(this.historyPosition));
-
-            /* update the history */
-            this.updateHistory(this.history.get(this.historyPosition));
+            /* show the new page from history */
+            this.showHistoryPage();
         }
     }
 
@@ -531,13 +844,11 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
     public void forwardRequested() {
         /* set the new history position */
         if(this.historyPosition < (this.history.size()-1)){
+            this.saveScrollPosition();
             this.historyPosition++;
 
-            /* get the new page from history */
-            this.pageLoaded(this.history.get(this.historyPosition));
-
-            /* update the history */
-            this.updateHistory(this.history.get(this.historyPosition));
+            /* show the new page from history */
+            this.showHistoryPage();
         }
     }
 
@@ -546,11 +857,13 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
      */
     @Override
     public void refreshRequested() {
-        /* get the current gopher page to reload it */
-        GopherPage currentPage = this.history.get(this.historyPosition);
+        /* nothing to reload without any page */
+        if(this.historyPosition < 0){ return; }
 
-        /* reload practically means just requesting this page again */
-        this.fetchGopherContent(currentPage.getUrl().getUrlString(), currentPage.getContentType());
+        /* reload means requesting this page again bypassing the cache */
+        this.saveScrollPosition();
+        this.fetchGopherContent(this.history.getUrl(this.historyPosition), 
+            this.history.getContentType(this.historyPosition), false);
     }
 
     /**
@@ -559,7 +872,9 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
     @Override
     public void stopRequested() {
         /* cancel any current operation */
-        this.gopherClient.cancelFetch();
+        if(this.pageRequest != null){
+            this.pageRequest.cancel();
+        }
 
         /* notify the local handler about cancellation by the user */
         this.pageLoadFailed(GopherError.USER_CANCELLED,null);
@@ -575,7 +890,7 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
     public void pageLoaded(GopherPage result) {
         /* set the window title to the url of this page */
         this.frame.setTitle(result.getUrl().getUrlString() 
-            + " (" + SystemUtility.getFileSizeString(result.getByteArray().length) + ")"
+            + " (" + SystemUtility.getFileSizeString(result.getSize()) + ")"
             + " - " + APPLICATION_TITLE);
 
         /* update the address text with the loaded page */
@@ -595,6 +910,7 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
 
         /* set the navigation bar to the new address */
         this.navigationBar.setAddressText(address);
+        this.navigationBar.addVisitedAddress(address);
 
 
         /* detect the content type and determine how the handle it */
@@ -613,6 +929,20 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
         /* update the history */
         this.updateHistory(result);
 
+        /* searches of the previous page are void, the find bar
+            is only touched on the event thread like its search */
+        SwingUtilities.invokeLater(new Runnable(){
+            @Override
+            public void run() {
+                findBar.pageChanged();
+            }
+        });
+
+        /* add the page to the local search */
+        if(this.pageIndex != null){
+            this.pageIndex.add(result);
+        }
+
         /* reset the loading indicators */
         this.navigationBar.setIsLoading(false);
     }
@@ -666,6 +996,20 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
             + " - " + APPLICATION_TITLE);
     }
 
+    /**
+     * Prefetches the menu or text file behind a link
+     * the user is likely to open next
+     * 
+     * @param item
+     * The item of the link the mouse rests on
+     */
+    @Override
+    public void prefetchRequested(GopherItem item) {
+        if(!item.isBinaryFile()){
+            this.gopherClient.prefetch((new GopherUrl(item.getUrlString())).getUrlString(), item.getItemType());
+        }
+    }
+
     /**
      * Toggles the download window
      */
@@ -723,6 +1067,27 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
         this.pageView.selectAllText();
     }
 
+    /**
+     * Opens the find bar for the current page
+     */
+    @Override
+    public void findInPageRequested() {
+        this.findBar.showFind();
+    }
+
+    /**
+     * Shows the search input for the visited pages
+     */
+    @Override
+    public void localSearchRequested() {
+        this.searchInput.performSearch("Search Visited Pages", new SearchInputListener(){
+            @Override
+            public void searchRequested(String text) {
+                fetchGopherContent(GopherPageIndex.getSearchUrl(text), GopherItemType.GOPHERMENU);
+            }
+        });
+    }
+
     /**
      * Sends the user to his gopher home
      */
@@ -740,11 +1105,12 @@ public class MainWindow implements NavigationInputListener, GopherClientEventLis
      * type than the one requested.
      */
     @Override
-    public void pageLoadItemMismatch(GopherItemType requested, GopherItemType detected, GopherUrl url) {
+    public void pageLoadItemMismatch(GopherItemType requested, GopherItemType detected, GopherUrl url, GopherTransfer transfer) {
         /* reset the navigation bar status */
         this.navigationBar.setIsLoading(false);
 
-        /* binary files are handled by the download manager */
-        this.confirmDownload(url.getUrlString(),(new GopherItem(detected,url)));
+        /* binary files are handled by the download manager which
+            continues the transfer of the content already received */
+        this.confirmDownload(url.getUrlString(),(new GopherItem(detected,url)),transfer);
     }
 }
\ No newline at end of file
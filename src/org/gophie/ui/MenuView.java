@@ -0,0 +1,557 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.ui;
+
+import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.*;
+
+import org.gophie.net.GopherItem;
+import org.gophie.ui.event.MenuViewListener;
+
+/**
+ * The MenuView renders the items of a gopher menu directly
+ * from the item list and only paints the rows that are
+ * visible, so the cost of showing a menu does not depend
+ * on the number of items it has
+ */
+public class MenuView extends JComponent implements Scrollable {
+    /* constants */
+    private static final long serialVersionUID = 1L;
+
+    /* spacing around the content, of rows and of the gutter */
+    private static final Insets MARGIN = new Insets(10, 12, 8, 16);
+    private static final int ROW_PADDING = 4;
+    private static final int GUTTER_SPACING = 9;
+
+    /* the items displayed */
+    private List<GopherItem> itemList = new ArrayList<GopherItem>();
+
+    /* fonts and colors of the view */
+    private Font textFont;
+    private Font iconFont;
+    private Color textColor;
+    private Color linkColor;
+    private Color lineNumberColor;
+    private Color selectionColor;
+
+    /* metrics of the rows and the gutter */
+    private int rowHeight;
+    private int rowAscent;
+    private int iconAscent;
+    private int lineNumberWidth = 0;
+    private int iconWidth;
+    private int textOffset = 0;
+
+    /* the link under the mouse pointer */
+    private int hoverRow = -1;
+
+    /* the selection as anchor and lead position */
+    private int anchorRow = -1;
+    private int anchorColumn = 0;
+    private int leadRow = -1;
+    private int leadColumn = 0;
+    private boolean dragged = false;
+
+    /* listeners for link events */
+    private ArrayList<MenuViewListener> listenerList = new ArrayList<MenuViewListener>();
+
+    /**
+     * Constructs the menu view
+     *
+     * @param font
+     * The font of the item text and line numbers
+     *
+     * @param icons
+     * The font with the item type icons
+     *
+     * @param text
+     * The color of the item text
+     *
+     * @param link
+     * The color of links
+     *
+     * @param lineNumber
+     * The color of the line numbers
+     *
+     * @param selection
+     * The background color of selected text
+     *
+     * @param background
+     * The background color of the view
+     */
+    public MenuView(Font font, Font icons, Color text, Color link, Color lineNumber, Color selection, Color background){
+        this.textFont = font;
+        this.iconFont = icons;
+        this.textColor = text;
+        this.linkColor = link;
+        this.lineNumberColor = lineNumber;
+        this.selectionColor = selection;
+
+        this.setOpaque(true);
+        this.setBackground(background);
+        this.setFocusable(true);
+        this.setCursor(Cursor.getPredefinedCursor(Cursor.TEXT_CURSOR));
+
+        /* determine the row metrics from the fonts */
+        FontMetrics textMetrics = this.getFontMetrics(this.textFont);
+        FontMetrics iconMetrics = this.getFontMetrics(this.iconFont);
+        this.rowAscent = textMetrics.getAscent() + ROW_PADDING / 2;
+        this.iconAscent = this.rowAscent - (textMetrics.getAscent() - iconMetrics.getAscent()) / 2;
+        this.rowHeight = Math.max(textMetrics.getHeight(), iconMetrics.getHeight()) + ROW_PADDING;
+        this.iconWidth = iconMetrics.charWidth('M');
+
+        /* select text and activate links with the mouse */
+        MouseAdapter mouseHandler = new MouseAdapter(){
+            @Override
+            public void mousePressed(MouseEvent evt){
+                if(SwingUtilities.isLeftMouseButton(evt)){
+                    requestFocusInWindow();
+                    dragged = false;
+                    anchorRow = getRowAt(evt.getY());
+                    anchorColumn = getColumnAt(anchorRow, evt.getX());
+                    leadRow = anchorRow;
+                    leadColumn = anchorColumn;
+                    repaint();
+                }
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent evt){
+                if(SwingUtilities.isLeftMouseButton(evt) && anchorRow >= 0){
+                    dragged = true;
+                    leadRow = getRowAt(evt.getY());
+                    leadColumn = getColumnAt(leadRow, evt.getX());
+                    scrollRectToVisible(new Rectangle(evt.getX(), evt.getY(), 1, 1));
+                    repaint();
+                }
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent evt){
+                /* a click without dragging activates the link */
+                if(SwingUtilities.isLeftMouseButton(evt) && !dragged){
+                    int row = getLinkAt(evt.getPoint());
+                    if(row >= 0){
+                        for(MenuViewListener listener: listenerList){
+                            listener.linkActivated(itemList.get(row));
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public void mouseMoved(MouseEvent evt){
+                setHoverRow(getLinkAt(evt.getPoint()));
+            }
+
+            @Override
+            public void mouseExited(MouseEvent evt){
+                setHoverRow(-1);
+            }
+        };
+        this.addMouseListener(mouseHandler);
+        this.addMouseMotionListener(mouseHandler);
+
+        /* keyboard shortcuts to copy and select all */
+        int shortcutMask = GraphicsEnvironment.isHeadless() 
+                ? InputEvent.CTRL_MASK : Toolkit.getDefaultToolkit().getMenuShortcutKeyMask();
+        this.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_C, shortcutMask), "copy");
+        this.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_A, shortcutMask), "select-all");
+        this.getActionMap().put("copy", new AbstractAction(){
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                copySelectedText();
+            }
+        });
+        this.getActionMap().put("select-all", new AbstractAction(){
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                selectAll();
+            }
+        });
+    }
+
+    /**
+     * Adds a listener for link events
+     *
+     * @param listener
+     * The listener to report link events to
+     */
+    public void addListener(MenuViewListener listener){
+        this.listenerList.add(listener);
+    }
+
+    /**
+     * Sets the items to display in this view
+     *
+     * @param list
+     * The gopher items to display
+     */
+    public void setItemList(List<GopherItem> list){
+        this.itemList = list;
+        this.hoverRow = -1;
+        this.anchorRow = -1;
+        this.leadRow = -1;
+
+        /* the gutter fits the highest line number */
+        this.lineNumberWidth = this.getFontMetrics(this.textFont).stringWidth(String.valueOf(list.size()));
+        this.textOffset = MARGIN.left + this.lineNumberWidth + GUTTER_SPACING + this.iconWidth + GUTTER_SPACING;
+
+        this.revalidate();
+        this.repaint();
+    }
+
+    /**
+     * Selects the text of all items
+     */
+    public void selectAll(){
+        if(this.itemList.size() > 0){
+            this.anchorRow = 0;
+            this.anchorColumn = 0;
+            this.leadRow = this.itemList.size()-1;
+            this.leadColumn = this.getText(this.leadRow).length();
+            this.repaint();
+        }
+    }
+
+    /**
+     * Selects a part of the text of an item and
+     * scrolls the item into the visible area
+     *
+     * @param row
+     * The row of the item
+     *
+     * @param startColumn
+     * The first column of the selection
+     *
+     * @param endColumn
+     * The column after the selection
+     */
+    public void select(int row, int startColumn, int endColumn){
+        this.anchorRow = row;
+        this.anchorColumn = startColumn;
+        this.leadRow = row;
+        this.leadColumn = endColumn;
+        this.scrollRectToVisible(new Rectangle(0, MARGIN.top + row * this.rowHeight, 1, this.rowHeight));
+        this.repaint();
+    }
+
+    /**
+     * Returns the items displayed in this view
+     *
+     * @return
+     * The list of gopher items
+     */
+    public List<GopherItem> getItemList(){
+        return this.itemList;
+    }
+
+    /**
+     * Returns the selected text with one line per item
+     *
+     * @return
+     * The selected text or an empty string
+     */
+    public String getSelectedText(){
+        StringBuilder result = new StringBuilder();
+
+        if(this.anchorRow >= 0 && this.leadRow >= 0){
+            int[] selection = this.getSelection();
+            for(int row=selection[0]; row<=selection[2]; row++){
+                String text = this.getText(row);
+                int start = (row == selection[0]) ? Math.min(selection[1], text.length()) : 0;
+                int end = (row == selection[2]) ? Math.min(selection[3], text.length()) : text.length();
+                if(row > selection[0]){ result.append('\n'); }
+                result.append(text, start, Math.max(start, end));
+            }
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Copies the selected text to the clipboard
+     */
+    public void copySelectedText(){
+        String text = this.getSelectedText();
+        if(text.length() > 0){
+            StringSelection selection = new StringSelection(text);
+            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(selection, selection);
+        }
+    }
+
+    /**
+     * Returns the link under the point
+     *
+     * @param point
+     * The point in the coordinates of this view
+     *
+     * @return
+     * The row of the link or -1 if there is none
+     */
+    public int getLinkAt(Point point){
+        int result = -1;
+
+        int row = this.getRowAt(point.y);
+        if(row >= 0 && row < this.itemList.size() && point.y >= MARGIN.top
+            && !this.itemList.get(row).getItemTypeCode().equals("i")){
+            /* only the text of the item is the link */
+            int textWidth = this.getFontMetrics(this.textFont).stringWidth(this.getText(row));
+            if(point.x >= this.textOffset && point.x <= this.textOffset + textWidth){
+                result = row;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Updates the link under the mouse pointer
+     *
+     * @param row
+     * The row of the link or -1 for none
+     */
+    private void setHoverRow(int row){
+        if(row != this.hoverRow){
+            this.hoverRow = row;
+            this.setCursor(Cursor.getPredefinedCursor((row >= 0) ? Cursor.HAND_CURSOR : Cursor.TEXT_CURSOR));
+
+            GopherItem item = (row >= 0) ? this.itemList.get(row) : null;
+            for(MenuViewListener listener: this.listenerList){
+                listener.linkHovered(item);
+            }
+        }
+    }
+
+    /**
+     * Returns the row at the vertical position
+     *
+     * @param y
+     * The vertical position in this view
+     *
+     * @return
+     * The row limited to the rows of the view
+     */
+    private int getRowAt(int y){
+        int row = (y - MARGIN.top) / this.rowHeight;
+        return Math.max(0, Math.min(row, this.itemList.size()-1));
+    }
+
+    /**
+     * Returns the column of the text at the
+     * horizontal position in the row
+     *
+     * @param row
+     * The row of the text
+     *
+     * @param x
+     * The horizontal position in this view
+     *
+     * @return
+     * The column in the text of the row
+     */
+    private int getColumnAt(int row, int x){
+        int result = 0;
+
+        if(row >= 0 && row < this.itemList.size()){
+            String text = this.getText(row);
+            FontMetrics metrics = this.getFontMetrics(this.textFont);
+
+            /* move to the character whose center is right of x */
+            int position = this.textOffset;
+            while(result < text.length()){
+                int width = metrics.charWidth(text.charAt(result));
+                if(position + width / 2 > x){ break; }
+                position += width;
+                result++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the display text of the row
+     *
+     * @param row
+     * The row of the text
+     *
+     * @return
+     * The text of the item in that row
+     */
+    private String getText(int row){
+        return this.itemList.get(row).getUserDisplayString();
+    }
+
+    /**
+     * Returns the normalised selection
+     *
+     * @return
+     * Array with start row, start column, end row and end column
+     */
+    private int[] getSelection(){
+        if(this.anchorRow < this.leadRow
+            || (this.anchorRow == this.leadRow && this.anchorColumn <= this.leadColumn)){
+            return new int[]{ this.anchorRow, this.anchorColumn, this.leadRow, this.leadColumn };
+        }
+
+        return new int[]{ this.leadRow, this.leadColumn, this.anchorRow, this.anchorColumn };
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics){
+        Graphics2D g = (Graphics2D)graphics.create();
+        Rectangle clip = g.getClipBounds();
+        if(clip == null){ clip = new Rectangle(0, 0, this.getWidth(), this.getHeight()); }
+
+        g.setColor(this.getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        /* render text like the other text components */
+        Map<?,?> desktopHints = (Map<?,?>)Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+        if(desktopHints != null){
+            g.addRenderingHints(desktopHints);
+        }else{
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        }
+
+        if(this.itemList.size() > 0){
+            /* only the rows inside the clip are painted */
+            int firstRow = this.getRowAt(clip.y);
+            int lastRow = this.getRowAt(clip.y + clip.height);
+            int[] selection = (this.anchorRow >= 0 && this.leadRow >= 0) ? this.getSelection() : null;
+            FontMetrics metrics = g.getFontMetrics(this.textFont);
+
+            for(int row=firstRow; row<=lastRow; row++){
+                GopherItem item = this.itemList.get(row);
+                String text = item.getUserDisplayString();
+                int top = MARGIN.top + row * this.rowHeight;
+
+                /* highlight the selected part of the text */
+                if(selection != null && row >= selection[0] && row <= selection[2]){
+                    int start = (row == selection[0]) ? Math.min(selection[1], text.length()) : 0;
+                    int end = (row == selection[2]) ? Math.min(selection[3], text.length()) : text.length();
+                    if(end > start){
+                        int startX = this.textOffset + metrics.stringWidth(text.substring(0, start));
+                        int endX = this.textOffset + metrics.stringWidth(text.substring(0, end));
+                        g.setColor(this.selectionColor);
+                        g.fillRect(startX, top, endX - startX, this.rowHeight);
+                    }
+                }
+
+                /* line number aligned to the right of the gutter */
+                String lineNumber = String.valueOf(row + 1);
+                g.setFont(this.textFont);
+                g.setColor(this.lineNumberColor);
+                g.drawString(lineNumber, MARGIN.left + this.lineNumberWidth - metrics.stringWidth(lineNumber), top + this.rowAscent);
+
+                /* icon of the item type */
+                g.setFont(this.iconFont);
+                g.setColor(this.textColor);
+                g.drawString(MenuView.getItemTypeIcon(item.getItemTypeCode()),
+                    MARGIN.left + this.lineNumberWidth + GUTTER_SPACING, top + this.iconAscent);
+
+                /* the text of the item or its link */
+                g.setFont(this.textFont);
+                g.setColor(item.getItemTypeCode().equals("i") ? this.textColor : this.linkColor);
+                g.drawString(text, this.textOffset, top + this.rowAscent);
+            }
+        }
+
+        g.dispose();
+    }
+
+    @Override
+    public Dimension getPreferredSize(){
+        return new Dimension(this.textOffset + MARGIN.right,
+            MARGIN.top + this.itemList.size() * this.rowHeight + MARGIN.bottom);
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize(){
+        return this.getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction){
+        return (orientation == SwingConstants.VERTICAL) ? this.rowHeight : 16;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction){
+        return (orientation == SwingConstants.VERTICAL)
+            ? Math.max(this.rowHeight, visibleRect.height - this.rowHeight) : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth(){
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight(){
+        /* fill the viewport when there are only few items */
+        Container parent = this.getParent();
+        return (parent instanceof JViewport) && parent.getHeight() > this.getPreferredSize().height;
+    }
+
+    /**
+     * Returns the icon for the gopher item type
+     *
+     * @param code
+     * Code for the gopher item type
+     *
+     * @return
+     * String with the icon for the item
+     */
+    public static String getItemTypeIcon(String code){
+        String result = "";
+
+        if(code.equals("0")){ result = ""; }
+        if(code.equals("1")){ result =  ""; } 
+        if(code.equals("2")){ result =  ""; } 
+        if(code.equals("3")){ result =  ""; } 
+        if(code.equals("4")){ result =  "";} 
+        if(code.equals("5")){ result =  ""; } 
+        if(code.equals("6")){ result =  ""; } 
+        if(code.equals("7")){ result =  ""; } 
+        if(code.equals("8")){ result =  ""; } 
+        if(code.equals("9")){ result =  ""; } 
+        if(code.equals("+")){ result =  ""; } 
+        if(code.equals("g")){ result =  ""; } 
+        if(code.equals("I")){ result =  ""; } 
+        if(code.equals("T")){ result =  ""; } 
+        if(code.equals("h")){ result =  ""; }         
+        if(code.equals("i")){ result =  ""; } 
+        if(code.equals("s")){ result =  ""; } 
+        if(code.equals("?")){ result =  ""; } 
+
+        return result;
+    }
+}
@@ -21,13 +21,18 @@ package org.gophie.ui;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.border.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.*;
+import java.io.File;
 import java.util.*;
+import java.util.List;
 
 import org.gophie.config.*;
 import org.gophie.net.GopherItem;
 import org.gophie.net.GopherUrl;
 import org.gophie.ui.event.NavigationInputListener;
+import org.gophie.ui.util.AddressTrie;
 
 public class NavigationBar extends JPanel {
     /* constants */
@@ -51,6 +56,13 @@ public class NavigationBar extends JPanel {
     private Boolean allowNavigateForward = false;
     private Boolean allowNavigateBack = false;
 
+    /* suggestions of visited addresses while typing */
+    private AddressTrie addressTrie;
+    private JPopupMenu suggestionPopup;
+    private JList<String> suggestionList;
+    private DefaultListModel<String> suggestionModel;
+    private boolean isSettingAddress = false;
+
     /* listeners for local events */
     private ArrayList<NavigationInputListener> inputListenerList;
 
@@ -190,7 +202,19 @@ public class NavigationBar extends JPanel {
             }
         });
 
+        /* load the visited addresses in the background */
+        this.addressTrie = new AddressTrie(new File(ConfigurationManager.getConfigPath() + "addresses.log"));
+        Thread loadThread = new Thread(new Runnable(){
+            @Override
+            public void run() {
+                addressTrie.load();
+            }
+        }, "gophie-address-load");
+        loadThread.setDaemon(true);
+        loadThread.start();
+
         /* create the address input */
+        this.createSuggestionPopup();
         this.addressInput = this.createAddressInput();
         this.addressInput.setSelectionColor(Color.decode(configFile.getSetting
             ("NAVIGATIONBAR_SELECTION_COLOR", "Appearance", this.selectionColor)));
@@ -279,7 +303,95 @@ public class NavigationBar extends JPanel {
         @addressText    text to insert into address input
     */
     public void setAddressText(String addressText){
+        this.isSettingAddress = true;
         this.addressInput.setText(addressText);
+        this.isSettingAddress = false;
+        this.suggestionPopup.setVisible(false);
+    }
+
+    /**
+     * Records the visit of an address for the suggestions
+     * 
+     * @param addressText
+     * The address of the page that was shown
+     */
+    public void addVisitedAddress(String addressText){
+        this.addressTrie.visit(addressText);
+    }
+
+    /**
+     * Creates the popup listing the suggestions, which never
+     * takes the focus so that typing continues in the input
+     */
+    private void createSuggestionPopup(){
+        this.suggestionModel = new DefaultListModel<String>();
+        this.suggestionList = new JList<String>(this.suggestionModel);
+        this.suggestionList.setFont(ConfigurationManager.getDefaultFont(14f));
+        this.suggestionList.setBackground(this.getBackground());
+        this.suggestionList.setForeground(Color.decode(NavigationBar.textHoverColorHex));
+        this.suggestionList.setSelectionBackground(Color.decode(NavigationBar.textColorHex));
+        this.suggestionList.setSelectionForeground(this.getBackground());
+        this.suggestionList.setBorder(new EmptyBorder(4,10,4,4));
+        this.suggestionList.setFocusable(false);
+
+        /* follow the pointer and take the suggestion clicked */
+        this.suggestionList.addMouseMotionListener(new MouseMotionAdapter(){
+            public void mouseMoved(MouseEvent evt){
+                suggestionList.setSelectedIndex(suggestionList.locationToIndex(evt.getPoint()));
+            }
+        });
+        this.suggestionList.addMouseListener(new MouseAdapter(){
+            public void mouseReleased(MouseEvent evt){
+                int index = suggestionList.locationToIndex(evt.getPoint());
+                if(index >= 0){
+                    setAddressText(suggestionModel.get(index));
+                    addressInput.postActionEvent();
+                }
+            }
+        });
+
+        this.suggestionPopup = new JPopupMenu();
+        this.suggestionPopup.setFocusable(false);
+        this.suggestionPopup.setBorder(new EmptyBorder(0,0,0,0));
+        this.suggestionPopup.add(this.suggestionList);
+    }
+
+    /**
+     * Shows the best ranked visited addresses
+     * starting with the text typed so far
+     */
+    private void showSuggestions(){
+        List<String> addressList = this.addressTrie.complete(this.addressInput.getText(), AddressTrie.MAX_SUGGESTIONS);
+        if(addressList.isEmpty() || !this.addressInput.isFocusOwner()){
+            this.suggestionPopup.setVisible(false);
+            return;
+        }
+
+        this.suggestionModel.clear();
+        for(String address: addressList){
+            this.suggestionModel.addElement(address);
+        }
+        this.suggestionList.clearSelection();
+
+        /* the navigation bar is at the bottom, so open upwards */
+        int height = this.suggestionList.getPreferredSize().height;
+        this.suggestionPopup.setPopupSize(this.addressInput.getWidth(), height);
+        this.suggestionPopup.show(this.addressInput, 0, -height);
+    }
+
+    /**
+     * Moves the selection through the suggestions
+     * 
+     * @param direction
+     * 1 for the next suggestion, -1 for the previous
+     */
+    private void moveSuggestion(int direction){
+        int index = this.suggestionList.getSelectedIndex() + direction;
+        if(index < 0 || index >= this.suggestionModel.size()){
+            this.suggestionList.clearSelection();
+        }else{
+            this.suggestionList.setSelectedIndex(index);
+        }
     }
 
     /*
@@ -295,8 +407,53 @@ public class NavigationBar extends JPanel {
         inputField.setOpaque(false);
         this.add(inputField);
 
+        /* suggest addresses while the user types */
+        inputField.getDocument().addDocumentListener(new DocumentListener(){
+            public void insertUpdate(DocumentEvent e){ this.textChanged(); }
+            public void removeUpdate(DocumentEvent e){ this.textChanged(); }
+            public void changedUpdate(DocumentEvent e){ }
+
+            private void textChanged(){
+                if(!isSettingAddress){
+                    SwingUtilities.invokeLater(new Runnable(){
+                        @Override
+                        public void run() {
+                            showSuggestions();
+                        }
+                    });
+                }
+            }
+        });
+        inputField.addKeyListener(new KeyAdapter(){
+            public void keyPressed(KeyEvent e){
+                if(!suggestionPopup.isVisible()){ return; }
+
+                if(e.getKeyCode() == KeyEvent.VK_DOWN){
+                    moveSuggestion(1);
+                    e.consume();
+                }else if(e.getKeyCode() == KeyEvent.VK_UP){
+                    moveSuggestion(-1);
+                    e.consume();
+                }else if(e.getKeyCode() == KeyEvent.VK_ESCAPE){
+                    suggestionPopup.setVisible(false);
+                    e.consume();
+                }
+            }
+        });
+        inputField.addFocusListener(new FocusAdapter(){
+            public void focusLost(FocusEvent e){
+                suggestionPopup.setVisible(false);
+            }
+        });
+
         inputField.addActionListener(new ActionListener(){
             public void actionPerformed(ActionEvent e){
+                /* take the suggestion selected with the arrow keys */
+                if(suggestionPopup.isVisible() && suggestionList.getSelectedIndex() >= 0){
+                    setAddressText(suggestionList.getSelectedValue());
+                }
+                suggestionPopup.setVisible(false);
+
                 String requestedAddress = inputField.getText().trim();
                 if(requestedAddress.length() > 0){
                     for (NavigationInputListener inputListener : inputListenerList){
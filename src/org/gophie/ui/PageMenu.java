@@ -41,6 +41,9 @@ import org.gophie.net.GopherItem;
 public class PageMenu extends PopupMenu {
     private static final long serialVersionUID = 1L;
 
+    /* number of characters copied of text files kept on disk */
+    private static final int TEXT_FILE_COPY_LIMIT = TextFileView.COPY_LIMIT;
+
     /* the menu items */
     private MenuItem saveItem;
     private MenuItem saveTargetItem;
@@ -53,6 +56,8 @@ public class PageMenu extends PopupMenu {
     private MenuItem copyTextItem;
     private MenuItem copySourceItem;
     private MenuItem selectAllItem;
+    private MenuItem findItem;
+    private MenuItem localSearchItem;
     private MenuItem setHomeGopherItem;
     private PopupMenu copyMenu;
 
@@ -195,6 +200,28 @@ public class PageMenu extends PopupMenu {
             }       
         });
 
+        /* requests event listeners to open the find bar */
+        this.findItem = new MenuItem("Find In Page ...");
+        this.findItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                for(PageMenuEventListener listener: eventListenerList){
+                    listener.findInPageRequested();
+                }
+            }       
+        });
+
+        /* requests event listeners to search the visited pages */
+        this.localSearchItem = new MenuItem("Search Visited Pages ...");
+        this.localSearchItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                for(PageMenuEventListener listener: eventListenerList){
+                    listener.localSearchRequested();
+                }
+            }       
+        });
+
         /* requests listeners to set current page as home page */
         this.setHomeGopherItem = new MenuItem("Set As Home Gopher");
         this.setHomeGopherItem.addActionListener(new ActionListener() {
@@ -228,7 +255,12 @@ public class PageMenu extends PopupMenu {
             @Override
             public void actionPerformed(ActionEvent e) {
                 if(currentPage != null){
-                    copyToClipboard(currentPage.getTextContent());
+                    if(currentPage.getTextFile() != null){
+                        /* large texts are only copied partially */
+                        copyToClipboard(currentPage.getTextFile().getText(TEXT_FILE_COPY_LIMIT));
+                    }else{
+                        copyToClipboard(currentPage.getTextContent());
+                    }
                 }
             }       
         });
@@ -244,10 +276,6 @@ public class PageMenu extends PopupMenu {
             }       
         });
 
-        /* add the items to the copy menu */
-        this.copyMenu.add(this.copyUrlItem);
-        this.copyMenu.add(this.copyTextItem);
-        this.copyMenu.add(this.copySourceItem);
     }
 
     /**
@@ -304,7 +332,10 @@ public class PageMenu extends PopupMenu {
             }
 
             if(!isImage){ 
+                this.updateCopyMenu();
                 this.add(this.selectAllItem);
+                this.add(this.findItem);
+                this.add(this.localSearchItem);
                 this.add(copyMenu);
                 this.addSeparator();
                 
@@ -336,6 +367,25 @@ public class PageMenu extends PopupMenu {
         super.show(origin,x,y);
     }
 
+    /**
+     * Adds the items to the copy menu that suit the current
+     * page, the text of large text files is not loaded into 
+     * memory as a whole, they can be saved as file instead
+     */
+    private void updateCopyMenu(){
+        this.copyMenu.removeAll();
+        this.copyMenu.add(this.copyUrlItem);
+
+        if(currentPage.getTextFile() != null){
+            this.copyTextItem.setLabel("Beginning Of Page Text");
+            this.copyMenu.add(this.copyTextItem);
+        }else{
+            this.copyTextItem.setLabel("Page Text");
+            this.copyMenu.add(this.copyTextItem);
+            this.copyMenu.add(this.copySourceItem);
+        }
+    }
+
     /**
      * Copies the current image in the page to the clipboard
      */
@@ -20,25 +20,23 @@ package org.gophie.ui;
 
 import java.awt.*;
 import java.awt.event.*;
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.util.ArrayList;
+import java.util.List;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
-import javax.swing.event.HyperlinkEvent;
-import javax.swing.event.HyperlinkListener;
-import javax.swing.text.html.HTMLEditorKit;
-import javax.swing.text.html.StyleSheet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
 
 import org.gophie.config.*;
 import org.gophie.net.GopherItem;
+import org.gophie.net.GopherMenu;
 import org.gophie.net.GopherPage;
 import org.gophie.net.GopherItem.GopherItemType;
+import org.gophie.ui.event.MenuViewListener;
 import org.gophie.ui.event.NavigationInputListener;
 import org.gophie.ui.event.PageMenuEventListener;
+import org.gophie.ui.util.FindIndex;
 
 /**
  * The PageView component renders GopherPage objects
@@ -47,14 +45,16 @@ public class PageView extends JScrollPane{
     /* constants */
     private static final long serialVersionUID = 1L;
 
+    /* milliseconds the mouse rests on a link before prefetching it */
+    private static final int PREFETCH_DWELL = 300;
+
     /* local variables and objects */
     private PageMenu pageMenu;
     private JEditorPane viewPane;
-    private JEditorPane headerPane;
-    private HTMLEditorKit editorKit;
-    private StyleSheet styleSheet;
+    private MenuView menuView;
+    private ImageView imageView;
+    private TextFileView textFileView;
     private Font textFont;
-    private String viewTextColor = "#ffffff";
     private String selectionColor = "#cf9a0c";
 
     /* the config file with all settings */
@@ -66,6 +66,10 @@ public class PageView extends JScrollPane{
     /* current page displayed */
     private GopherPage currentPage = null;
 
+    /* link under the mouse and the timer to prefetch it */
+    private GopherItem hoverItem = null;
+    private Timer prefetchTimer;
+
     /**
      * Adds a new navigation listener for any navigation events
      * @param listener
@@ -83,8 +87,8 @@ public class PageView extends JScrollPane{
      * GopherPage with respective content
      */
     public void showGopherContent(GopherPage content){
-        /* reset the header to just show nothing */
-        this.headerPane.setText("");
+        /* set the current local gopher page */
+        this.currentPage = content;
 
         /* set current page to the page menu */
         this.pageMenu.setCurrentPage(content);
@@ -92,73 +96,37 @@ public class PageView extends JScrollPane{
         /* check the type of content supplied */
         if(content.getContentType() == GopherItemType.IMAGE_FILE
             || content.getContentType() == GopherItemType.GIF_FILE){
-            /* try to display as an image */
-            try{
-                /* try to identify the file extension */
-                String imageFileExt = ".jpg";
-                if(content.getContentType() == GopherItemType.GIF_FILE){
-                    imageFileExt = ".gif";
-                }
-
-                /* try to determine the filetype from the url */
-                String imageUrl = content.getUrl().getUrlString();
-                if(imageUrl.substring(imageUrl.length()-4).equals(".")){
-                    imageFileExt = imageUrl.substring(imageUrl.length()-3);
-                }if(imageUrl.substring(imageUrl.length()-5).equals(".")){
-                    imageFileExt = imageUrl.substring(imageUrl.length()-4);
-                }
-
-                /* write the image content to file */
-                File tempImageFile = File.createTempFile("gopherimagefile", imageFileExt);
-                FileOutputStream outputStream = new FileOutputStream(tempImageFile);
-                outputStream.write(content.getByteArray()); 
-                outputStream.close();
-
-                /* determine image size and rescale */
-                String imageHtmlCode = "<img src=\"" + tempImageFile.toURI()
-                                        .toURL().toExternalForm() + "\" />";
-                
-                try{
-                    BufferedImage bufferedImage = ImageIO.read(tempImageFile);
-                    int width = bufferedImage.getWidth();
-                    int height = bufferedImage.getHeight();
-                    if(width > 800){
-                        double calcHeight = (((double)height) / (((double)width) / 800));
-                        imageHtmlCode = "<img src=\"" + tempImageFile.toURI().toURL().toExternalForm() + "\" "
-                                        + "width=800 height=" + (int)calcHeight + " />";
-                    }
-                }catch(Exception ex){
-                    /* failed to determine image size */
-                    System.out.println("Failed to determine image size: " + ex.getMessage());
-                }
-    
-                /* display content as an image */
-                this.viewPane.setContentType("text/html");
-                this.viewPane.setText(imageHtmlCode);
-            }catch(Exception ex){
-                /* display exception cause as text inside the view */
-                this.viewPane.setContentType("text/plain");
-                this.viewPane.setText("Failed to display the image:\n" + ex.getMessage());
-            }
+            /* decode and display the image in the image view */
+            this.imageView.showImage(content, this.getViewport().getWidth());
+            this.setView(this.imageView);
+        }else if(content.getTextFile() != null){
+            /* large text files are read from their file */
+            this.textFileView.setTextFile(content.getTextFile());
+            this.setView(this.textFileView);
         }else{
             /* display content as plain text */
-            this.viewPane.setContentType("text/plain");
-            this.viewPane.setText(content.getSourceCode().replace("\n.\r\n", ""));
+            this.viewPane.setText(content.getText().toString());
+            this.setView(this.viewPane);
         }
+
+        /* scroll the view to the top */
+        this.getVerticalScrollBar().setValue(0);
     }
 
     /**
-     * Formats the item's title for display in the view
+     * Shows the component in the viewport
      * 
-     * @param text
-     * the text with unencoded elements
-     * 
-     * @return
-     * the text with html-encoded entities
+     * @param view
+     * The component to show
      */
-    private String formatItemTitle(String text){
-        return text.replace("&","&amp;").replace(" ", "&nbsp;")
-                .replace("<", "&lt;").replace(">", "&gt;");
+    private void setView(Component view){
+        if(this.getViewport().getView() != view){
+            this.getViewport().setView(view);
+
+            /* rows of text files are not wrapped */
+            this.setHorizontalScrollBarPolicy((view == this.textFileView) 
+                ? JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED : JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+        }
     }
 
     /**
@@ -174,67 +142,102 @@ public class PageView extends JScrollPane{
         /* set current page to the page menu */
         this.pageMenu.setCurrentPage(page);
 
-        /* create the headers */
-        String renderedHeader = "<table cellspacing=\"0\" cellpadding=\"2\">";
-        String renderedContent = "<table cellspacing=\"0\" cellpadding=\"2\">";
+        /* render all items of the page */
+        this.showItemList(page.getItemList());
+    }
 
-        int lineNumber = 1;
-        for(GopherItem item : page.getItemList()){
-            /* set the content for the row header */
-            renderedHeader += "<tr><td class=\"lineNumber\">" + lineNumber + "</td>"
-                           + "<td><div class=\"itemIcon\">" 
-                           + this.getGopherItemTypeIcon(item.getItemTypeCode()) 
-                           + "</div></td></tr>";
+    /**
+     * Renders the first items of a gopher menu that is
+     * still being received to show the first screen
+     * before the whole menu has arrived
+     * 
+     * @param itemList
+     * The items received so far
+     */
+    public void showGopherPreview(List<GopherItem> itemList){
+        this.showItemList(itemList);
+    }
 
-            /* set the content for the text view */
-            String itemTitle = this.formatItemTitle(item.getUserDisplayString());
+    /**
+     * Renders the list of gopher items on this view
+     * 
+     * @param itemList
+     * The gopher items to display
+     */
+    private void showItemList(List<GopherItem> itemList){
+        /* menus are rendered by the menu view */
+        this.menuView.setItemList(itemList);
+        this.setView(this.menuView);
 
-            if(itemTitle.isEmpty()){ itemTitle = "&nbsp;"; }
-            String itemCode = "<span class=\"text\">" + itemTitle + "</span>";
+        /* scroll the view to the top */
+        this.getVerticalScrollBar().setValue(0);
+    }
 
-            /* build links for anything other than infromation items */
-            if(!item.getItemTypeCode().equals("i")){ 
-                /* create the link for this item */
-                itemCode = "<a href=\"" + item.getUrlString() + "\">" + itemTitle + "</a>";
+    /**
+     * Creates the index to find text in the view shown
+     * which is only built once a search is started
+     *
+     * @return
+     * The index or null when the view shows no text
+     */
+    public FindIndex createFindIndex(){
+        FindIndex result = null;
+        Component view = this.getViewport().getView();
+
+        if(view == this.menuView){
+            /* the preview of a menu might still grow */
+            List<GopherItem> itemList = this.menuView.getItemList();
+            if(!(itemList instanceof GopherMenu)){
+                itemList = new ArrayList<GopherItem>(itemList);
+            }
+            result = new FindIndex(itemList);
+        }else if(view == this.textFileView){
+            result = new FindIndex(this.currentPage.getTextFile());
+        }else if(view == this.viewPane){
+            /* search the document which holds the text with line feeds only */
+            try{
+                Document document = this.viewPane.getDocument();
+                result = new FindIndex(document.getText(0, document.getLength()));
+            }catch(BadLocationException ex){
+                System.out.println("Failed to read text to find: " + ex.getMessage());
             }
-
-            /* create the item table row */
-            renderedContent += "<tr><td class=\"item\">" + itemCode + "</td></tr>";
-
-            lineNumber++;
         }
 
-        /* set content type and add content to view */
-        this.viewPane.setContentType("text/html");
-        this.viewPane.setText(renderedContent+"</table>");
-
-        /* set content type and add content to header */
-        this.headerPane.setContentType("text/html");
-        this.headerPane.setText(renderedHeader+"</table>");
-
-        /* scroll the view pane to the top */
-        this.viewPane.setCaretPosition(0);
+        return result;
     }
 
     /**
-     * Configures the style of the view
+     * Selects a match of a search and scrolls it into view
+     *
+     * @param index
+     * The index the match was found in
+     *
+     * @param match
+     * The match of the search
+     *
+     * @param length
+     * The length of the text found
      */
-    private void configureStyle(){
-        /* get the color schemes from the config file */
-        String linkColor = this.configFile.getSetting("PAGE_LINK_COLOR", "Appearance", "#22c75c");
-        String lineNumberColor = this.configFile.getSetting("PAGE_LINENUMBER_COLOR", "Appearance", "#454545");
-
-        /* get the configured icon font size */
-        String iconFontSize = ConfigurationManager.getConfigFile().getSetting("PAGE_ICON_FONT_SIZE", "Appearance", "10");
-
-        /* build up the stylesheet for the rendering */
-        this.styleSheet = this.editorKit.getStyleSheet();
-        this.styleSheet.addRule("body { white-space:nowrap; margin:0; padding:0; vertical-align: top;}");
-        this.styleSheet.addRule(".text { cursor:text; }");
-        this.styleSheet.addRule(".lineNumber { color: " + lineNumberColor + "; }");
-        this.styleSheet.addRule(".itemIcon { font-family:Feather; font-size:" + iconFontSize + "px; margin-left:5px; }"); 
-        this.styleSheet.addRule("a { text-decoration: none; color: " + linkColor + "; }");  
-        this.styleSheet.addRule(".item { color: " + this.viewTextColor + "; }");  
+    public void showMatch(FindIndex index, long match, int length){
+        int row = FindIndex.getRow(match);
+        int column = FindIndex.getColumn(match);
+        Component view = this.getViewport().getView();
+
+        if(view == this.menuView){
+            this.menuView.select(row, column, column + length);
+        }else if(view == this.textFileView){
+            this.textFileView.select(row, column, column + length);
+        }else if(view == this.viewPane){
+            int offset = index.getOffset(match);
+            this.viewPane.select(offset, offset + length);
+            this.viewPane.getCaret().setSelectionVisible(true);
+            try{
+                Rectangle bounds = this.viewPane.modelToView(offset);
+                if(bounds != null){ this.viewPane.scrollRectToVisible(bounds); }
+            }catch(BadLocationException ex){
+                System.out.println("Failed to show text found: " + ex.getMessage());
+            }
+        }
     }
 
     /**
@@ -254,9 +257,6 @@ public class PageView extends JScrollPane{
         /* instanciate input listener list */
         this.inputListenerList = new ArrayList<NavigationInputListener>();
 
-        /* create the editor kit instance */
-        this.editorKit = new HTMLEditorKit();
-
         /* create the editor pane */
         this.viewPane = new JEditorPane(){
             private static final long serialVersionUID = 1L;
@@ -275,7 +275,7 @@ public class PageView extends JScrollPane{
         this.viewPane.setBackground(Color.decode(backgroundColor));
         this.viewPane.setForeground(Color.decode(textColor));
         this.viewPane.setBorder(new EmptyBorder(10,4,8,16));
-        this.viewPane.setEditorKit(this.editorKit);
+        this.viewPane.setContentType("text/plain");
         this.viewPane.setCursor(new Cursor(Cursor.TEXT_CURSOR));
         this.viewPane.setSelectionColor(Color.decode(this.configFile.getSetting
                     ("PAGE_SELECTION_COLOR", "Appearance", this.selectionColor)));
@@ -283,99 +283,125 @@ public class PageView extends JScrollPane{
         this.viewPane.setDragEnabled(false);
         this.getViewport().add(this.viewPane);
 
-        /* set the text color locally */
-        this.viewTextColor = textColor;
-
         /* adjust the scrollbars */
         this.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
         this.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
 
-        /* create the header pane with line numbers and icons */
-        this.headerPane = new JEditorPane();
-        this.headerPane.setEditable(false);
-        this.headerPane.setBackground(Color.decode(backgroundColor));
-        this.headerPane.setForeground(Color.decode(textColor));
-        this.headerPane.setBorder(new EmptyBorder(10,12,8,2));
-        this.headerPane.setEditorKit(this.editorKit);
-        this.headerPane.setDragEnabled(false);
-        this.setRowHeaderView(this.headerPane);
-
-        /* configure the style of the header and the view */
-        this.configureStyle();
-
         /* create the page menu and attach the popup trigger */
         this.pageMenu = new PageMenu();
         this.pageMenu.addPageMenuEventListener((PageMenuEventListener)parent);
-        this.viewPane.add(this.pageMenu);
+        this.add(this.pageMenu);
         this.viewPane.addMouseListener(new MouseAdapter(){
             /* handle the popup trigger for this document */
             public void mouseReleased(MouseEvent evt){
-                /* get the trigger button for the menu from config
-                    (right mouse button id is usually #3) */
-                int menuTriggerButtonId = Integer.parseInt(configFile.getSetting
-                                ("MENU_MOUSE_TRIGGERBUTTON", "Navigation", "3"));
-                if(evt.getButton() == menuTriggerButtonId){
-                    /* trigger hit, show the page menu and also
-                        make sure to pass the text selection before */
-                    pageMenu.setSelectedText(viewPane.getSelectedText());
-
-                    /* show the menu */
-                    pageMenu.show(viewPane, 
-                            (int)evt.getPoint().getX(), 
-                            (int)evt.getPoint().getY());
-                }
+                showPageMenu(evt, viewPane.getSelectedText());
             }
         });
 
-        /* report any links hits as address request to the listeners */
-        this.viewPane.addHyperlinkListener(new HyperlinkListener() {
-            public void hyperlinkUpdate(HyperlinkEvent e) {
-                /* get the url of that link */
-                String urlValue = e.getDescription();
-
-                /* determine the content type of the link target */
-                GopherItem itemObject = null;
-                if(currentPage != null){
-                    /* determine the content type of the gopher item
-                        by the definition of it in the gopher menu */
-                    for(GopherItem contentItem : currentPage.getItemList()){
-                        if(contentItem.getUrlString().equals(urlValue)){
-                            itemObject = contentItem;
-                        }
-                    }
-                }
+        /* try to open the font for icon display */
+        this.textFont = ConfigurationManager.getConsoleFont(ConfigurationManager.getConsoleFontSize(17f));
 
-                /* pass the active link item to the popup menu */
-                if(e.getEventType() == HyperlinkEvent.EventType.ENTERED){
-                    pageMenu.setLinkTarget(itemObject);
-                }
+        /* apply the font settings to the view pane */
+        this.viewPane.putClientProperty(JEditorPane.HONOR_DISPLAY_PROPERTIES, Boolean.TRUE);
+        this.viewPane.setFont(this.textFont);
 
-                /* reset the link target for the popup menu */
-                if(e.getEventType() == HyperlinkEvent.EventType.EXITED){
-                    pageMenu.setLinkTarget(null);
+        /* create the image view for image content */
+        this.imageView = new ImageView(Color.decode(textColor), Color.decode(backgroundColor));
+
+        /* create the view for text files too large for the editor */
+        this.textFileView = new TextFileView(this.textFont, Color.decode(textColor),
+                    Color.decode(this.configFile.getSetting("PAGE_SELECTION_COLOR", "Appearance", this.selectionColor)),
+                    Color.decode(backgroundColor));
+        this.textFileView.addMouseListener(new MouseAdapter(){
+            /* handle the popup trigger for this text, the selection
+                is only read when it is not a selection with the mouse
+                and only as far as it can be copied */
+            public void mouseReleased(MouseEvent evt){
+                if(!SwingUtilities.isLeftMouseButton(evt)){
+                    showPageMenu(evt, textFileView.getSelectedText(TextFileView.COPY_LIMIT));
                 }
+            }
+        });
 
-                /* handle link activation (aka left-click) */
-                if(e.getEventType() == HyperlinkEvent.EventType.ACTIVATED) {
-                    /* execute the handler */
+        /* create the menu view with the configured colors, the icon
+            size is given in css pixels which swing scales by 1.3 */
+        String iconFontSize = this.configFile.getSetting("PAGE_ICON_FONT_SIZE", "Appearance", "10");
+        this.menuView = new MenuView(this.textFont, 
+                    ConfigurationManager.getIconFont(Float.parseFloat(iconFontSize) * 1.3f),
+                    Color.decode(textColor),
+                    Color.decode(this.configFile.getSetting("PAGE_LINK_COLOR", "Appearance", "#22c75c")),
+                    Color.decode(this.configFile.getSetting("PAGE_LINENUMBER_COLOR", "Appearance", "#454545")),
+                    Color.decode(this.configFile.getSetting("PAGE_SELECTION_COLOR", "Appearance", this.selectionColor)),
+                    Color.decode(backgroundColor));
+        this.menuView.addMouseListener(new MouseAdapter(){
+            /* handle the popup trigger for this menu */
+            public void mouseReleased(MouseEvent evt){
+                showPageMenu(evt, menuView.getSelectedText());
+            }
+        });
+
+        /* request the prefetch of the link the mouse rests on */
+        this.prefetchTimer = new Timer(PREFETCH_DWELL, new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if(hoverItem != null){
                     for (NavigationInputListener inputListener : inputListenerList){
-                        inputListener.addressRequested(urlValue,itemObject);
+                        inputListener.prefetchRequested(hoverItem);
                     }
                 }
             }
         });
+        this.prefetchTimer.setRepeats(false);
 
-        /* try to open the font for icon display */
-        this.textFont = ConfigurationManager.getConsoleFont(ConfigurationManager.getConsoleFontSize(17f));
+        /* report any links hits as address request to the listeners */
+        this.menuView.addListener(new MenuViewListener(){
+            @Override
+            public void linkHovered(GopherItem item) {
+                /* pass the active link item to the popup menu */
+                pageMenu.setLinkTarget(item);
+
+                /* prefetch the link once the mouse rests on it */
+                hoverItem = item;
+                if(item != null){
+                    prefetchTimer.restart();
+                }else{
+                    prefetchTimer.stop();
+                }
+            }
 
-        /* apply the font settings to the view pane */
-        this.viewPane.putClientProperty(JEditorPane.HONOR_DISPLAY_PROPERTIES, Boolean.TRUE);
-        this.viewPane.setFont(this.textFont);
+            @Override
+            public void linkActivated(GopherItem item) {
+                for (NavigationInputListener inputListener : inputListenerList){
+                    inputListener.addressRequested(item.getUrlString(),item);
+                }
+            }
+        });
+    }
 
-        /* apply the font settings to the header pane */
-        this.headerPane.putClientProperty(JEditorPane.HONOR_DISPLAY_PROPERTIES, Boolean.TRUE);
-        this.headerPane.setFont(this.textFont);
-        this.headerPane.setHighlighter(null);
+    /**
+     * Shows the page menu when the popup trigger was hit
+     * 
+     * @param evt
+     * The mouse event on the view
+     * 
+     * @param selectedText
+     * The text currently selected in the view
+     */
+    private void showPageMenu(MouseEvent evt, String selectedText){
+        /* get the trigger button for the menu from config
+            (right mouse button id is usually #3) */
+        int menuTriggerButtonId = Integer.parseInt(configFile.getSetting
+                        ("MENU_MOUSE_TRIGGERBUTTON", "Navigation", "3"));
+        if(evt.getButton() == menuTriggerButtonId){
+            /* trigger hit, show the page menu and also
+                make sure to pass the text selection before */
+            pageMenu.setSelectedText(selectedText);
+
+            /* show the menu */
+            pageMenu.show(evt.getComponent(), 
+                    (int)evt.getPoint().getX(), 
+                    (int)evt.getPoint().getY());
+        }
     }
 
     /**
@@ -383,41 +409,43 @@ public class PageView extends JScrollPane{
      */
     public void selectAllText(){
         /* just pass it onto the view */
-        this.viewPane.selectAll();
-        this.viewPane.requestFocus();
+        if(this.getViewport().getView() == this.menuView){
+            this.menuView.selectAll();
+            this.menuView.requestFocus();
+        }else if(this.getViewport().getView() == this.textFileView){
+            this.textFileView.selectAll();
+            this.textFileView.requestFocus();
+        }else{
+            this.viewPane.selectAll();
+            this.viewPane.requestFocus();
+        }
     }
 
     /**
-     * Returns the header icon for the gopher item type
-     * 
-     * @param code
-     * Code for the gopher item type
-     * 
+     * Returns the vertical scroll position of the view
+     *
      * @return
-     * String with the icon for the item
+     * The scroll position in pixels
      */
-    public String getGopherItemTypeIcon(String code){
-        String result = "";
-
-        if(code.equals("0")){ result = ""; }
-        if(code.equals("1")){ result =  ""; } 
-        if(code.equals("2")){ result =  ""; } 
-        if(code.equals("3")){ result =  ""; } 
-        if(code.equals("4")){ result =  "";} 
-        if(code.equals("5")){ result =  ""; } 
-        if(code.equals("6")){ result =  ""; } 
-        if(code.equals("7")){ result =  ""; } 
-        if(code.equals("8")){ result =  ""; } 
-        if(code.equals("9")){ result =  ""; } 
-        if(code.equals("+")){ result =  ""; } 
-        if(code.equals("g")){ result =  ""; } 
-        if(code.equals("I")){ result =  ""; } 
-        if(code.equals("T")){ result =  ""; } 
-        if(code.equals("h")){ result =  ""; }         
-        if(code.equals("i")){ result =  ""; } 
-        if(code.equals("s")){ result =  ""; } 
-        if(code.equals("?")){ result =  ""; } 
+    public int getScrollPosition(){
+        return this.getVerticalScrollBar().getValue();
+    }
 
-        return result;
+    /**
+     * Scrolls the view to the vertical position once
+     * the content that was just set is laid out
+     *
+     * @param value
+     * The scroll position in pixels
+     */
+    public void setScrollPosition(int value){
+        JScrollBar scrollBar = this.getVerticalScrollBar();
+        SwingUtilities.invokeLater(new Runnable(){
+            @Override
+            public void run() {
+                validate();
+                scrollBar.setValue(value);
+            }
+        });
     }
 }
\ No newline at end of file
@@ -38,6 +38,9 @@ public class SearchInput extends JPanel {
     JLabel searchTitle;
     JTextField searchText;
 
+    /* the listener of the search currently shown */
+    private SearchInputListener searchListener;
+
     public SearchInput(){
         /* get the config file */
         ConfigFile configFile = ConfigurationManager.getConfigFile();
@@ -76,12 +79,7 @@ public class SearchInput extends JPanel {
         this.searchText.setFont(ConfigurationManager.getDefaultFont(14f));
         this.add(this.searchText);
 
-        this.setVisible(false);
-    }
-
-    public void performSearch(String title, SearchInputListener listener){
-        this.searchTitle.setText(title);
-        this.searchTitle.setFont(ConfigurationManager.getDefaultFont(14f));
+        /* a single key listener serves the gopher and the local search */
         this.searchText.addKeyListener(new KeyAdapter() {
             public void keyReleased(KeyEvent e) {
                 /* execute search when the ENTER key is pressed */
@@ -89,8 +87,8 @@ public class SearchInput extends JPanel {
                     JTextField textField = (JTextField) e.getSource();
 
                     /* only execute search when text is not empty */
-                    if(textField.getText().length() > 0){
-                        listener.searchRequested(textField.getText());
+                    if(textField.getText().length() > 0 && searchListener != null){
+                        searchListener.searchRequested(textField.getText());
                     }
 
                     setVisible(false);
@@ -102,6 +100,14 @@ public class SearchInput extends JPanel {
                 }
             }
         });
+
+        this.setVisible(false);
+    }
+
+    public void performSearch(String title, SearchInputListener listener){
+        this.searchTitle.setText(title);
+        this.searchTitle.setFont(ConfigurationManager.getDefaultFont(14f));
+        this.searchListener = listener;
         this.setVisible(true);
         this.searchText.grabFocus();
     }
@@ -0,0 +1,448 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+
+package org.gophie.ui;
+
+import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.*;
+import java.util.Map;
+
+import javax.swing.*;
+
+import org.gophie.net.GopherTextFile;
+
+/**
+ * The TextFileView renders text files that are too large to
+ * be kept in memory. Only the rows that are visible are read
+ * from the mapped file and decoded, so the memory and time
+ * needed to show a text file do not depend on its size.
+ */
+public class TextFileView extends JComponent implements Scrollable {
+    /* constants */
+    private static final long serialVersionUID = 1L;
+
+    /* space around the text */
+    private static final Insets MARGIN = new Insets(10, 4, 8, 16);
+
+    /* number of columns of a tab stop */
+    private static final int TAB_SIZE = 8;
+
+    /* maximum number of characters copied from a selection */
+    public static final int COPY_LIMIT = 1000000;
+
+    /* number of rows read from the file at once for copying */
+    private static final int COPY_ROW_COUNT = 64;
+
+    /* the text file to display */
+    private GopherTextFile textFile;
+    private int rowCount = 0;
+
+    /* font and colors */
+    private Font textFont;
+    private Color selectionColor;
+
+    /* metrics of the rows */
+    private int rowHeight;
+    private int rowAscent;
+    private int columnWidth;
+
+    /* the selection as anchor and lead position */
+    private int anchorRow = -1;
+    private int anchorColumn = 0;
+    private int leadRow = -1;
+    private int leadColumn = 0;
+
+    /**
+     * Constructs the text file view
+     *
+     * @param font
+     * The font of the text
+     *
+     * @param text
+     * The color of the text
+     *
+     * @param selection
+     * The background color of selected text
+     *
+     * @param background
+     * The background color of the view
+     */
+    public TextFileView(Font font, Color text, Color selection, Color background){
+        this.textFont = font;
+        this.selectionColor = selection;
+
+        this.setOpaque(true);
+        this.setForeground(text);
+        this.setBackground(background);
+        this.setFocusable(true);
+        this.setCursor(Cursor.getPredefinedCursor(Cursor.TEXT_CURSOR));
+
+        /* determine the row metrics from the font */
+        FontMetrics metrics = this.getFontMetrics(this.textFont);
+        this.rowAscent = metrics.getAscent();
+        this.rowHeight = metrics.getHeight();
+        this.columnWidth = metrics.charWidth('m');
+
+        /* select text with the mouse */
+        MouseAdapter mouseHandler = new MouseAdapter(){
+            @Override
+            public void mousePressed(MouseEvent evt){
+                if(SwingUtilities.isLeftMouseButton(evt) && rowCount > 0){
+                    requestFocusInWindow();
+                    anchorRow = getRowAt(evt.getY());
+                    anchorColumn = getColumnAt(anchorRow, evt.getX());
+                    leadRow = anchorRow;
+                    leadColumn = anchorColumn;
+                    repaint();
+                }
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent evt){
+                if(SwingUtilities.isLeftMouseButton(evt) && anchorRow >= 0){
+                    leadRow = getRowAt(evt.getY());
+                    leadColumn = getColumnAt(leadRow, evt.getX());
+                    scrollRectToVisible(new Rectangle(evt.getX(), evt.getY(), 1, 1));
+                    repaint();
+                }
+            }
+        };
+        this.addMouseListener(mouseHandler);
+        this.addMouseMotionListener(mouseHandler);
+
+        /* keyboard shortcuts to copy and select all */
+        int shortcutMask = GraphicsEnvironment.isHeadless() 
+                ? InputEvent.CTRL_MASK : Toolkit.getDefaultToolkit().getMenuShortcutKeyMask();
+        this.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_C, shortcutMask), "copy");
+        this.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_A, shortcutMask), "select-all");
+        this.getActionMap().put("copy", new AbstractAction(){
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                copySelectedText();
+            }
+        });
+        this.getActionMap().put("select-all", new AbstractAction(){
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                selectAll();
+            }
+        });
+    }
+
+    /**
+     * Sets the text file to display in this view
+     *
+     * @param file
+     * The text file to display
+     */
+    public void setTextFile(GopherTextFile file){
+        this.textFile = file;
+        this.rowCount = file.getRowCount();
+        this.anchorRow = -1;
+        this.leadRow = -1;
+
+        this.revalidate();
+        this.repaint();
+    }
+
+    /**
+     * Selects the text of all rows
+     */
+    public void selectAll(){
+        if(this.rowCount > 0){
+            this.anchorRow = 0;
+            this.anchorColumn = 0;
+            this.leadRow = this.rowCount-1;
+            this.leadColumn = this.getText(this.leadRow).length();
+            this.repaint();
+        }
+    }
+
+    /**
+     * Selects a part of a row and scrolls it into the
+     * visible area, the columns are those of the row
+     * before its tabs are expanded
+     *
+     * @param row
+     * The row to select in
+     *
+     * @param startColumn
+     * The first column of the selection
+     *
+     * @param endColumn
+     * The column after the selection
+     */
+    public void select(int row, int startColumn, int endColumn){
+        String text = this.textFile.getRow(row);
+        this.anchorRow = row;
+        this.anchorColumn = TextFileView.expandTabs(text.substring(0, Math.min(startColumn, text.length()))).length();
+        this.leadRow = row;
+        this.leadColumn = TextFileView.expandTabs(text.substring(0, Math.min(endColumn, text.length()))).length();
+
+        int x = MARGIN.left + this.anchorColumn * this.columnWidth;
+        this.scrollRectToVisible(new Rectangle(Math.max(0, x - MARGIN.left), MARGIN.top + row * this.rowHeight,
+                    (this.leadColumn - this.anchorColumn) * this.columnWidth + MARGIN.left, this.rowHeight));
+        this.repaint();
+    }
+
+    /**
+     * Returns the beginning of the selected text with one line
+     * per row, reading only the rows required for the limit as
+     * a selection may span the whole file
+     *
+     * @param maxLength
+     * The maximum number of characters to return
+     *
+     * @return
+     * The selected text or an empty string
+     */
+    public String getSelectedText(int maxLength){
+        StringBuilder result = new StringBuilder();
+
+        if(this.anchorRow >= 0 && this.leadRow >= 0){
+            int[] selection = this.getSelection();
+            for(int firstRow=selection[0]; firstRow<=selection[2] && result.length() < maxLength; firstRow+=COPY_ROW_COUNT){
+                String[] rows = this.textFile.getRows(firstRow, Math.min(COPY_ROW_COUNT, selection[2] - firstRow + 1));
+                for(int i=0; i<rows.length && result.length() < maxLength; i++){
+                    int row = firstRow + i;
+                    String text = TextFileView.expandTabs(rows[i]);
+                    int start = (row == selection[0]) ? Math.min(selection[1], text.length()) : 0;
+                    int end = (row == selection[2]) ? Math.min(selection[3], text.length()) : text.length();
+                    if(row > selection[0]){ result.append('\n'); }
+                    result.append(text, start, Math.max(start, end));
+                }
+            }
+        }
+
+        if(result.length() > maxLength){
+            result.setLength(maxLength);
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Copies the beginning of the selected text to the clipboard
+     */
+    public void copySelectedText(){
+        String text = this.getSelectedText(COPY_LIMIT);
+        if(text.length() > 0){
+            StringSelection selection = new StringSelection(text);
+            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(selection, selection);
+        }
+    }
+
+    /**
+     * Returns the row at the vertical position
+     *
+     * @param y
+     * The vertical position in this view
+     *
+     * @return
+     * The row limited to the rows of the view
+     */
+    private int getRowAt(int y){
+        int row = (y - MARGIN.top) / this.rowHeight;
+        return Math.max(0, Math.min(row, this.rowCount-1));
+    }
+
+    /**
+     * Returns the column of the text at the
+     * horizontal position in the row
+     *
+     * @param row
+     * The row of the text
+     *
+     * @param x
+     * The horizontal position in this view
+     *
+     * @return
+     * The column in the text of the row
+     */
+    private int getColumnAt(int row, int x){
+        int result = 0;
+
+        if(row >= 0 && row < this.rowCount){
+            String text = this.getText(row);
+            FontMetrics metrics = this.getFontMetrics(this.textFont);
+
+            /* move to the character whose center is right of x */
+            int position = MARGIN.left;
+            while(result < text.length()){
+                int width = metrics.charWidth(text.charAt(result));
+                if(position + width / 2 > x){ break; }
+                position += width;
+                result++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the display text of the row
+     *
+     * @param row
+     * The row of the text
+     *
+     * @return
+     * The text of the row with expanded tabs
+     */
+    private String getText(int row){
+        return TextFileView.expandTabs(this.textFile.getRow(row));
+    }
+
+    /**
+     * Replaces the tabs of a text with spaces
+     * up to the next tab stop
+     *
+     * @param text
+     * The text to expand
+     *
+     * @return
+     * The text without tabs
+     */
+    private static String expandTabs(String text){
+        if(text.indexOf('\t') < 0){ return text; }
+
+        StringBuilder result = new StringBuilder(text.length() + TAB_SIZE);
+        for(int i=0; i<text.length(); i++){
+            char value = text.charAt(i);
+            if(value == '\t'){
+                do{ result.append(' '); }while(result.length() % TAB_SIZE != 0);
+            }else{
+                result.append(value);
+            }
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Returns the normalised selection
+     *
+     * @return
+     * Array with start row, start column, end row and end column
+     */
+    private int[] getSelection(){
+        if(this.anchorRow < this.leadRow
+            || (this.anchorRow == this.leadRow && this.anchorColumn <= this.leadColumn)){
+            return new int[]{ this.anchorRow, this.anchorColumn, this.leadRow, this.leadColumn };
+        }
+
+        return new int[]{ this.leadRow, this.leadColumn, this.anchorRow, this.anchorColumn };
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics){
+        Graphics2D g = (Graphics2D)graphics.create();
+        Rectangle clip = g.getClipBounds();
+        if(clip == null){ clip = new Rectangle(0, 0, this.getWidth(), this.getHeight()); }
+
+        g.setColor(this.getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        /* render text like the other text components */
+        Map<?,?> desktopHints = (Map<?,?>)Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+        if(desktopHints != null){
+            g.addRenderingHints(desktopHints);
+        }else{
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        }
+
+        if(this.rowCount > 0){
+            /* only the rows inside the clip are read and painted */
+            int firstRow = this.getRowAt(clip.y);
+            int lastRow = this.getRowAt(clip.y + clip.height);
+            String[] rows = this.textFile.getRows(firstRow, lastRow - firstRow + 1);
+            int[] selection = (this.anchorRow >= 0 && this.leadRow >= 0) ? this.getSelection() : null;
+            FontMetrics metrics = g.getFontMetrics(this.textFont);
+            g.setFont(this.textFont);
+
+            for(int i=0; i<rows.length; i++){
+                int row = firstRow + i;
+                String text = TextFileView.expandTabs(rows[i]);
+                int top = MARGIN.top + row * this.rowHeight;
+
+                /* highlight the selected part of the text */
+                if(selection != null && row >= selection[0] && row <= selection[2]){
+                    int start = (row == selection[0]) ? Math.min(selection[1], text.length()) : 0;
+                    int end = (row == selection[2]) ? Math.min(selection[3], text.length()) : text.length();
+                    if(end > start){
+                        int startX = MARGIN.left + metrics.stringWidth(text.substring(0, start));
+                        int endX = MARGIN.left + metrics.stringWidth(text.substring(0, end));
+                        g.setColor(this.selectionColor);
+                        g.fillRect(startX, top, endX - startX, this.rowHeight);
+                    }
+                }
+
+                g.setColor(this.getForeground());
+                g.drawString(text, MARGIN.left, top + this.rowAscent);
+            }
+        }
+
+        g.dispose();
+    }
+
+    @Override
+    public Dimension getPreferredSize(){
+        int width = 0;
+        if(this.textFile != null){
+            width = this.textFile.getMaxRowLength() * this.columnWidth;
+        }
+
+        long height = MARGIN.top + (long)this.rowCount * this.rowHeight + MARGIN.bottom;
+        return new Dimension(MARGIN.left + width + MARGIN.right, (int)Math.min(height, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize(){
+        return this.getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction){
+        return (orientation == SwingConstants.VERTICAL) ? this.rowHeight : this.columnWidth;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction){
+        return (orientation == SwingConstants.VERTICAL)
+            ? Math.max(this.rowHeight, visibleRect.height - this.rowHeight) : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth(){
+        /* long rows are scrolled horizontally instead of wrapped */
+        Container parent = this.getParent();
+        return (parent instanceof JViewport) && parent.getWidth() > this.getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight(){
+        /* fill the viewport when there are only few rows */
+        Container parent = this.getParent();
+        return (parent instanceof JViewport) && parent.getHeight() > this.getPreferredSize().height;
+    }
+}
@@ -26,6 +26,7 @@ import org.gophie.net.GopherItem;
 */
 public interface NavigationInputListener {
     void addressRequested(String addressText, GopherItem item);
+    void prefetchRequested(GopherItem item);
     void homeGopherRequested();
     void backwardRequested();
     void forwardRequested();
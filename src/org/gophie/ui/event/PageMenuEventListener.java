@@ -26,4 +26,6 @@ public interface PageMenuEventListener {
     void itemDownloadRequested(GopherItem item);
     void pageSaveRequested(GopherPage page);
     void selectAllTextRequested();
+    void findInPageRequested();
+    void localSearchRequested();
 }
\ No newline at end of file
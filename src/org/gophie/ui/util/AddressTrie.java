@@ -0,0 +1,448 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+
+package org.gophie.ui.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Completion index of visited addresses which is a radix trie
+ * where every node keeps the best ranked addresses below it, so
+ * a lookup only walks the typed prefix and never the subtree
+ *
+ * Addresses are ranked by frecency, the sum of all visits with
+ * each visit decaying with a half-life of a month. The sum is
+ * kept as the logarithm of the undecayed visit weights, which
+ * ranks addresses the same way at any point in time. Scores thus
+ * only grow on a visit and the best addresses of the nodes on
+ * the path of the visited address are all that needs updating.
+ *
+ * Every visit appends the new score of the address to a log file
+ * which is compacted to one line per address when it is loaded.
+ */
+public class AddressTrie {
+    /* number of addresses kept per node */
+    public static final int MAX_SUGGESTIONS = 8;
+
+    /* half-life of a visit in days */
+    private static final double HALF_LIFE_DAYS = 30;
+
+    /* start of the time scale of the scores (2020-01-01) */
+    private static final long EPOCH_MILLIS = 1577836800000L;
+
+    /* shared by all nodes without children */
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /**
+     * A node of the trie with the label of the edge leading to
+     * it, the label is a range of the key that created the node
+     */
+    private static class Node {
+        private String text;
+        private int start;
+        private int end;
+        private Node[] children = NO_CHILDREN;
+        private int[] best;
+
+        private Node(String labelText, int labelStart, int labelEnd){
+            this.text = labelText;
+            this.start = labelStart;
+            this.end = labelEnd;
+        }
+
+        private int length(){
+            return this.end - this.start;
+        }
+
+        private char charAt(int index){
+            return this.text.charAt(this.start + index);
+        }
+    }
+
+    /* root of the trie */
+    private Node root = new Node("", 0, 0);
+
+    /* addresses and their log-frecency by number */
+    private ArrayList<String> addressList = new ArrayList<String>();
+    private double[] scores = new double[256];
+    private HashMap<String, Integer> addressMap = new HashMap<String, Integer>();
+
+    /* the log file and the thread appending to it */
+    private File logFile;
+    private ExecutorService logWriter;
+
+    /* suggestions are not shown until the log is loaded */
+    private volatile boolean loading = true;
+
+    /**
+     * Constructs the trie stored in the log file
+     *
+     * @param file
+     * The log file of the visits
+     */
+    public AddressTrie(File file){
+        this.logFile = file;
+        this.logWriter = Executors.newSingleThreadExecutor(new ThreadFactory(){
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread result = new Thread(runnable, "gophie-address-log");
+                result.setDaemon(true);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Reads the log file and rewrites it with a single line
+     * per address when it contains more than twice as many
+     */
+    public void load(){
+        ArrayList<String> lineList = new ArrayList<String>();
+        if(this.logFile.exists()){
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(this.logFile), StandardCharsets.UTF_8))){
+                String line;
+                while((line = reader.readLine()) != null){
+                    lineList.add(line);
+                }
+            }catch(IOException ex){
+                System.out.println("Failed to read address history: " + ex.getMessage());
+            }
+        }
+
+        synchronized(this){
+            for(String line: lineList){
+                int separator = line.indexOf('\t');
+                if(separator <= 0){ continue; }
+
+                try{
+                    this.update(line.substring(separator + 1), Double.parseDouble(line.substring(0, separator)));
+                }catch(NumberFormatException ex){
+                    /* skip lines torn by a crash */
+                }
+            }
+        }
+        this.loading = false;
+
+        if(lineList.size() > this.size() * 2){
+            this.logWriter.execute(new Runnable(){
+                @Override
+                public void run() {
+                    compact();
+                }
+            });
+        }
+    }
+
+    /**
+     * Records a visit of an address and appends
+     * its new score to the log file
+     *
+     * @param address
+     * The address that was visited
+     */
+    public void visit(String address){
+        double weight = Math.log(2) / HALF_LIFE_DAYS
+                        * (System.currentTimeMillis() - EPOCH_MILLIS) / 86400000.0;
+
+        double score;
+        synchronized(this){
+            Integer number = this.addressMap.get(address);
+            score = weight;
+            if(number != null){
+                /* add the weights in log space without overflow */
+                double previous = this.scores[number];
+                score = Math.max(previous, weight) + Math.log1p(Math.exp(-Math.abs(previous - weight)));
+            }
+            this.update(address, score);
+        }
+
+        String line = score + "\t" + address.replace('\n', ' ') + "\n";
+        this.logWriter.execute(new Runnable(){
+            @Override
+            public void run() {
+                try(Writer writer = new OutputStreamWriter(new FileOutputStream(logFile, true), StandardCharsets.UTF_8)){
+                    writer.write(line);
+                }catch(IOException ex){
+                    System.out.println("Failed to write address history: " + ex.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the best ranked addresses starting with the prefix
+     *
+     * @param prefix
+     * The text typed so far
+     *
+     * @param limit
+     * The maximum number of addresses
+     *
+     * @return
+     * The addresses with the best ranked first
+     */
+    public List<String> complete(String prefix, int limit){
+        ArrayList<String> result = new ArrayList<String>();
+        String key = AddressTrie.getKey(prefix);
+        if(key.length() == 0 || this.loading){ return result; }
+
+        synchronized(this){
+            this.find(key, limit, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Walks the prefix and adds the best addresses below it
+     *
+     * @param key
+     * The normalized prefix
+     *
+     * @param limit
+     * The maximum number of addresses
+     *
+     * @param result
+     * Receives the addresses with the best ranked first
+     */
+    private void find(String key, int limit, List<String> result){
+        Node node = this.root;
+        int position = 0;
+        while(position < key.length()){
+            Node child = AddressTrie.getChild(node, key.charAt(position));
+            if(child == null){ return; }
+
+            /* the prefix may end within the label */
+            int count = Math.min(child.length(), key.length() - position);
+            if(!child.text.regionMatches(child.start, key, position, count)){ return; }
+            position += count;
+            node = child;
+        }
+
+        for(int i=0; node.best != null && i<node.best.length && result.size() < limit; i++){
+            result.add(this.addressList.get(node.best[i]));
+        }
+    }
+
+    /**
+     * Returns the number of addresses
+     *
+     * @return
+     * The number of addresses as integer
+     */
+    public synchronized int size(){
+        return this.addressList.size();
+    }
+
+    /**
+     * Sets the score of an address and updates the
+     * best addresses on the paths of its keys
+     *
+     * @param address
+     * The address to update
+     *
+     * @param score
+     * The new score which is never lower than before
+     */
+    private synchronized void update(String address, double score){
+        Integer number = this.addressMap.get(address);
+        if(number == null){
+            number = this.addressList.size();
+            this.addressList.add(address);
+            this.addressMap.put(address, number);
+            if(number == this.scores.length){
+                this.scores = Arrays.copyOf(this.scores, number * 2);
+            }
+        }else if(this.scores[number] >= score){
+            return;
+        }
+        this.scores[number] = score;
+
+        /* addresses are also found by the host without its first labels */
+        String key = AddressTrie.getKey(address);
+        int hostEnd = key.indexOf('/');
+        if(hostEnd < 0){ hostEnd = key.length(); }
+        int start = 0;
+        while(start >= 0){
+            this.insert(key, start, number);
+
+            int next = key.indexOf('.', start) + 1;
+            start = (next > 0 && key.indexOf('.', next) >= 0 && key.indexOf('.', next) < hostEnd) ? next : -1;
+        }
+    }
+
+    /**
+     * Inserts a key and ranks the address in
+     * every node along the path of the key
+     *
+     * @param key
+     * The normalized key
+     *
+     * @param start
+     * The position in the key where the inserted part starts
+     *
+     * @param number
+     * The number of the address
+     */
+    private void insert(String key, int start, int number){
+        Node node = this.root;
+        int position = start;
+
+        while(position < key.length()){
+            Node child = AddressTrie.getChild(node, key.charAt(position));
+            if(child == null){
+                /* the rest of the key becomes a new leaf */
+                child = new Node(key, position, key.length());
+                AddressTrie.addChild(node, child);
+            }else{
+                int common = 0;
+                int count = Math.min(child.length(), key.length() - position);
+                while(common < count && child.charAt(common) == key.charAt(position + common)){ common++; }
+
+                /* split the edge where the key leaves it */
+                if(common < child.length()){
+                    Node split = new Node(child.text, child.start, child.start + common);
+                    split.best = child.best.clone();
+                    child.start += common;
+                    split.children = new Node[]{ child };
+                    AddressTrie.replaceChild(node, child, split);
+                    child = split;
+                }
+            }
+
+            this.rank(child, number);
+            position += child.length();
+            node = child;
+        }
+    }
+
+    /**
+     * Places the address among the best addresses of a node
+     *
+     * @param node
+     * The node to rank in
+     *
+     * @param number
+     * The number of the address
+     */
+    private void rank(Node node, int number){
+        int[] best = (node.best != null) ? node.best : new int[0];
+        int index = -1;
+        for(int i=0; i<best.length; i++){
+            if(best[i] == number){ index = i; }
+        }
+
+        if(index < 0){
+            if(best.length < MAX_SUGGESTIONS){
+                best = Arrays.copyOf(best, best.length + 1);
+            }else if(this.scores[best[best.length - 1]] >= this.scores[number]){
+                return;
+            }
+            index = best.length - 1;
+            best[index] = number;
+        }
+
+        /* scores only grow, so the address can only move up */
+        while(index > 0 && this.scores[best[index - 1]] < this.scores[number]){
+            best[index] = best[index - 1];
+            index--;
+        }
+        best[index] = number;
+        node.best = best;
+    }
+
+    /**
+     * Rewrites the log file with the current score of every address
+     */
+    private void compact(){
+        File tempFile = new File(this.logFile.getPath() + ".tmp");
+        try{
+            try(Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)){
+                synchronized(this){
+                    for(int i=0; i<this.addressList.size(); i++){
+                        writer.write(this.scores[i] + "\t" + this.addressList.get(i) + "\n");
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), this.logFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }catch(IOException ex){
+            System.out.println("Failed to compact address history: " + ex.getMessage());
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Returns the key of an address which is lower case
+     * and does not include the protocol
+     *
+     * @param address
+     * The address to get the key of
+     *
+     * @return
+     * The key of the address
+     */
+    private static String getKey(String address){
+        String result = address.trim().toLowerCase();
+        if(result.startsWith("gopher://")){
+            result = result.substring(9);
+        }
+
+        return result;
+    }
+
+    private static Node getChild(Node node, char first){
+        for(Node child: node.children){
+            if(child.charAt(0) == first){ return child; }
+        }
+
+        return null;
+    }
+
+    private static void addChild(Node node, Node child){
+        node.children = Arrays.copyOf(node.children, node.children.length + 1);
+        node.children[node.children.length - 1] = child;
+    }
+
+    private static void replaceChild(Node node, Node child, Node replacement){
+        for(int i=0; i<node.children.length; i++){
+            if(node.children[i] == child){
+                node.children[i] = replacement;
+            }
+        }
+    }
+}
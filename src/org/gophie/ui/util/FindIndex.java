@@ -0,0 +1,348 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+
+package org.gophie.ui.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.gophie.net.GopherItem;
+import org.gophie.net.GopherTextFile;
+
+/**
+ * Index for finding text in a page without regard to case. The
+ * rows of the page are kept as one lower case character array
+ * with the start of every row, which is built once on the first
+ * search and reused while the user types. A search that extends
+ * the previous one only checks the matches found before.
+ *
+ * Text files too large to be kept in memory are not indexed,
+ * their rows are read from the file on every search instead.
+ *
+ * Matches are reported as row and column packed into a long.
+ */
+public class FindIndex {
+    /* maximum number of matches reported */
+    public static final int MAX_MATCHES = 100000;
+
+    /* rows of text files read at once */
+    private static final int FILE_BATCH_SIZE = 4096;
+
+    /* the source of the rows until the index is built */
+    private List<GopherItem> itemList;
+    private String text;
+    private GopherTextFile textFile;
+
+    /* lower case rows separated by line feeds */
+    private char[] content;
+    private int[] rowStart;
+    private int rowCount = 0;
+
+    /**
+     * Constructs the index for the items of a menu
+     *
+     * @param items
+     * The items of the menu
+     */
+    public FindIndex(List<GopherItem> items){
+        this.itemList = items;
+    }
+
+    /**
+     * Constructs the index for a text with one row per line
+     *
+     * @param value
+     * The text with line feeds between the rows
+     */
+    public FindIndex(String value){
+        this.text = value;
+    }
+
+    /**
+     * Constructs the index for a text file which is
+     * searched row by row instead of being indexed
+     *
+     * @param file
+     * The text file to search
+     */
+    public FindIndex(GopherTextFile file){
+        this.textFile = file;
+    }
+
+    /**
+     * Builds the index unless it was built before
+     */
+    private synchronized void build(){
+        if(this.content != null || this.textFile != null){ return; }
+
+        StringBuilder result = new StringBuilder();
+        int[] starts = new int[1024];
+        int count = 0;
+
+        if(this.itemList != null){
+            for(GopherItem item: this.itemList){
+                if(count == starts.length){ starts = Arrays.copyOf(starts, count * 2); }
+                starts[count++] = result.length();
+                result.append(item.getUserDisplayString()).append('\n');
+            }
+        }else{
+            int position = 0;
+            while(position <= this.text.length()){
+                if(count == starts.length){ starts = Arrays.copyOf(starts, count * 2); }
+                starts[count++] = position;
+                int end = this.text.indexOf('\n', position);
+                if(end < 0){ end = this.text.length(); }
+                position = end + 1;
+            }
+            result.append(this.text);
+        }
+
+        this.content = new char[result.length()];
+        result.getChars(0, result.length(), this.content, 0);
+        FindIndex.toLowerCase(this.content, 0, this.content.length);
+        this.rowStart = starts;
+        this.rowCount = count;
+
+        /* the rows are only needed until the index is built */
+        this.itemList = null;
+        this.text = null;
+    }
+
+    /**
+     * Finds all occurrences of the query on a background
+     * thread and stops when the thread is interrupted
+     *
+     * @param query
+     * The text to find
+     *
+     * @param previousQuery
+     * The query of the previous search or null
+     *
+     * @param previousMatches
+     * The matches of the previous search or null
+     *
+     * @return
+     * The matches in the order of the text
+     *
+     * @throws InterruptedException
+     * When the search was cancelled
+     */
+    public long[] find(String query, String previousQuery, long[] previousMatches) throws InterruptedException {
+        char[] pattern = query.toCharArray();
+        FindIndex.toLowerCase(pattern, 0, pattern.length);
+        if(pattern.length == 0){ return new long[0]; }
+
+        if(this.textFile != null){
+            return this.findInFile(pattern);
+        }
+
+        this.build();
+
+        /* typing on only narrows down the matches found before */
+        if(previousMatches != null && previousQuery != null && previousQuery.length() > 0
+            && previousMatches.length < MAX_MATCHES && query.startsWith(previousQuery)){
+            return this.refine(pattern, previousMatches);
+        }
+
+        long[] result = new long[64];
+        int count = 0;
+        int row = 0;
+        int last = this.content.length - pattern.length;
+        char first = pattern[0];
+        for(int i=0; i<=last && count<MAX_MATCHES; i++){
+            if((i & 0xFFFFF) == 0 && Thread.interrupted()){ throw new InterruptedException(); }
+            if(this.content[i] != first || !this.matches(pattern, i)){ continue; }
+
+            /* advance the row to the one containing the match */
+            while(row+1 < this.rowCount && this.rowStart[row+1] <= i){ row++; }
+
+            if(count == result.length){ result = Arrays.copyOf(result, count * 2); }
+            result[count++] = FindIndex.pack(row, i - this.rowStart[row]);
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Keeps the previous matches that also match the longer query
+     *
+     * @param pattern
+     * The lower case query
+     *
+     * @param previousMatches
+     * The matches of the query it starts with
+     *
+     * @return
+     * The remaining matches
+     */
+    private long[] refine(char[] pattern, long[] previousMatches){
+        long[] result = new long[previousMatches.length];
+        int count = 0;
+
+        for(long match: previousMatches){
+            int offset = this.rowStart[FindIndex.getRow(match)] + FindIndex.getColumn(match);
+            if(offset + pattern.length <= this.content.length && this.matches(pattern, offset)){
+                result[count++] = match;
+            }
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Finds the query in the rows of a text file
+     *
+     * @param pattern
+     * The lower case query
+     *
+     * @return
+     * The matches in the order of the text
+     *
+     * @throws InterruptedException
+     * When the search was cancelled
+     */
+    private long[] findInFile(char[] pattern) throws InterruptedException {
+        long[] result = new long[64];
+        int count = 0;
+        String query = new String(pattern);
+
+        int rows = this.textFile.getRowCount();
+        for(int first=0; first<rows && count<MAX_MATCHES; first+=FILE_BATCH_SIZE){
+            if(Thread.interrupted()){ throw new InterruptedException(); }
+
+            String[] batch = this.textFile.getRows(first, FILE_BATCH_SIZE);
+            for(int i=0; i<batch.length && count<MAX_MATCHES; i++){
+                char[] row = batch[i].toCharArray();
+                FindIndex.toLowerCase(row, 0, row.length);
+                String lower = new String(row);
+
+                int column = lower.indexOf(query);
+                while(column >= 0 && count < MAX_MATCHES){
+                    if(count == result.length){ result = Arrays.copyOf(result, count * 2); }
+                    result[count++] = FindIndex.pack(first + i, column);
+                    column = lower.indexOf(query, column + 1);
+                }
+            }
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Returns whether the pattern matches at the offset
+     *
+     * @param pattern
+     * The lower case query
+     *
+     * @param offset
+     * The offset in the content
+     *
+     * @return
+     * true when all characters match
+     */
+    private boolean matches(char[] pattern, int offset){
+        for(int i=0; i<pattern.length; i++){
+            if(this.content[offset+i] != pattern[i]){ return false; }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the offset of a match in the text the index
+     * was built from, which for texts is its offset in the
+     * document showing the same text
+     *
+     * @param match
+     * The match to locate
+     *
+     * @return
+     * The offset of the match in the text
+     */
+    public int getOffset(long match){
+        this.build();
+        return this.rowStart[FindIndex.getRow(match)] + FindIndex.getColumn(match);
+    }
+
+    /**
+     * Converts characters to lower case in place, keeping the
+     * length of the text so that offsets remain the same
+     *
+     * @param value
+     * The characters to convert
+     *
+     * @param offset
+     * The first character to convert
+     *
+     * @param length
+     * The number of characters to convert
+     */
+    private static void toLowerCase(char[] value, int offset, int length){
+        for(int i=offset; i<offset+length; i++){
+            char c = value[i];
+            if(c < 128){
+                if(c >= 'A' && c <= 'Z'){ value[i] = (char)(c + 32); }
+            }else{
+                value[i] = Character.toLowerCase(c);
+            }
+        }
+    }
+
+    /**
+     * Packs the row and column of a match into a long
+     *
+     * @param row
+     * The row of the match
+     *
+     * @param column
+     * The column of the match in the row
+     *
+     * @return
+     * The packed match
+     */
+    private static long pack(int row, int column){
+        return ((long)row << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the row of a match
+     *
+     * @param match
+     * The packed match
+     *
+     * @return
+     * The row of the match
+     */
+    public static int getRow(long match){
+        return (int)(match >>> 32);
+    }
+
+    /**
+     * Returns the column of a match in its row
+     *
+     * @param match
+     * The packed match
+     *
+     * @return
+     * The column of the match
+     */
+    public static int getColumn(long match){
+        return (int)match;
+    }
+}
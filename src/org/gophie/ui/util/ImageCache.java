@@ -0,0 +1,100 @@
+/*
+    This file is part of Gophie.
+
+    Gophie is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gophie is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Gophie. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+package org.gophie.ui.util;
+
+import java.awt.Image;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * Cache for decoded images which is bounded by the number
+ * of pixels it holds and evicts the least recently used first
+ */
+public class ImageCache {
+    /* images by key in access order */
+    private LinkedHashMap<String, Image> imageMap = new LinkedHashMap<String, Image>(16, 0.75f, true);
+
+    /* the pixel budget and the pixels currently used */
+    private long pixelLimit;
+    private long pixelCount = 0;
+
+    /**
+     * Constructs the cache with its pixel budget
+     *
+     * @param limit
+     * Maximum number of pixels of all images
+     */
+    public ImageCache(long limit){
+        this.pixelLimit = limit;
+    }
+
+    /**
+     * Returns an image from the cache
+     *
+     * @param key
+     * The key of the image
+     *
+     * @return
+     * The image or null if not cached
+     */
+    public synchronized Image get(String key){
+        return this.imageMap.get(key);
+    }
+
+    /**
+     * Stores an image and evicts the least recently
+     * used images when exceeding the pixel budget
+     *
+     * @param key
+     * The key of the image
+     *
+     * @param image
+     * The decoded image with known dimensions
+     */
+    public synchronized void put(String key, Image image){
+        long pixels = ImageCache.getPixelCount(image);
+        if(pixels > this.pixelLimit){ return; }
+
+        Image previous = this.imageMap.put(key, image);
+        if(previous != null){
+            this.pixelCount -= ImageCache.getPixelCount(previous);
+        }
+        this.pixelCount += pixels;
+
+        Iterator<Entry<String, Image>> iterator = this.imageMap.entrySet().iterator();
+        while(this.pixelCount > this.pixelLimit && iterator.hasNext()){
+            this.pixelCount -= ImageCache.getPixelCount(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the number of pixels of an image
+     *
+     * @param image
+     * The image to measure
+     *
+     * @return
+     * The number of pixels
+     */
+    private static long getPixelCount(Image image){
+        return (long)Math.max(image.getWidth(null), 1) * Math.max(image.getHeight(null), 1);
+    }
+}